@@ -0,0 +1,94 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Decoding a downloaded tile with TileRetriever.loadImage(), for PNG (OpenStreetMap) and
+ * JPEG (Bing) tiles. The tile is a made-up 256x256 map-like image.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ImageDecodeBenchmark {
+
+	@Param({"png","jpeg"})
+	String format;
+
+	private TileRetriever tileRetriever;
+	private byte[] bytes;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException{
+		tileRetriever=new TileRetriever(null,1);
+		BufferedImage image=new BufferedImage(256,256,BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2=image.createGraphics();
+		g2.setColor(new Color(242,239,233));
+		g2.fillRect(0,0,256,256);
+		Random random=new Random(1);
+		for (int i=0;i<60;i++){
+			g2.setColor(new Color(random.nextInt(256),random.nextInt(256),random.nextInt(256)));
+			g2.drawLine(random.nextInt(256),random.nextInt(256),random.nextInt(256),random.nextInt(256));
+			g2.fillRect(random.nextInt(256),random.nextInt(256),random.nextInt(20),random.nextInt(20));
+		}
+		g2.dispose();
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		ImageIO.write(image,format,out);
+		bytes=out.toByteArray();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		tileRetriever.dispose();
+	}
+
+	@Benchmark
+	public PImage loadImage(){
+		return tileRetriever.loadImage(bytes);
+	}
+}
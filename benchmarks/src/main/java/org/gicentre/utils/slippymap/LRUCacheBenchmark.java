@@ -0,0 +1,91 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** The in-memory tile cache under contention, locked the way TileRetriever locks it: one
+ * thread putting tiles (like the tile retriever) while others get them (like the draw
+ * thread and overlay workers). Keys are tile cache file names, so hashing them is included.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class LRUCacheBenchmark {
+
+	static private final int NUM_KEYS=1024; //power of two
+
+	@Param({"50","500"})
+	int cacheSize;
+
+	private LRUCache<String, PImage> cache;
+	private String[] keys=new String[NUM_KEYS];
+	private PImage tile=new PImage(1,1);
+
+	@Setup
+	public void setUp(){
+		cache=new LRUCache<String, PImage>(cacheSize);
+		for (int i=0;i<NUM_KEYS;i++)
+			keys[i]="osm-mapnik-"+(i%32)+"-"+(i/32)+"-10.png";
+		for (int i=0;i<cacheSize;i++)
+			cache.put(keys[i%NUM_KEYS],tile);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public PImage get(){
+		String key=keys[ThreadLocalRandom.current().nextInt(NUM_KEYS)];
+		synchronized (cache) {
+			return cache.get(key);
+		}
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public PImage put(){
+		String key=keys[ThreadLocalRandom.current().nextInt(NUM_KEYS)];
+		synchronized (cache) {
+			return cache.put(key,tile);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processing.core.PVector;
+
+//****************************************************************************************
+/** Projecting longitude/latitude: Mercator, SlippyMap.getScreenFromLonLat() and the
+ * ViewTransform methods used when drawing. ZoomPanState needs a running sketch, so
+ * getScreenFromLonLat() is measured without zoom/pan.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ProjectionBenchmark {
+
+	static private final int NUM_POINTS=1024; //power of two
+
+	private float[] lons=new float[NUM_POINTS];
+	private float[] lats=new float[NUM_POINTS];
+	private float[] xs=new float[NUM_POINTS];
+	private float[] ys=new float[NUM_POINTS];
+	private SlippyMap slippyMap;
+	private ViewTransform viewTransform;
+	private int i=0;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		Random random=new Random(1);
+		for (int i=0;i<NUM_POINTS;i++){
+			lons[i]=random.nextFloat()*360-180;
+			lats[i]=random.nextFloat()*170-85;
+		}
+		Rectangle screenBounds=new Rectangle(0,0,1024,768);
+		slippyMap=new SlippyMap(null,null,screenBounds,256,50);
+		viewTransform=slippyMap.getViewTransform(null);
+	}
+
+	@Benchmark
+	public double mercatorLatToMercY(){
+		i=(i+1)&(NUM_POINTS-1);
+		return Mercator.latToMercY(lats[i]);
+	}
+
+	@Benchmark
+	public double mercatorLonToMercX(){
+		i=(i+1)&(NUM_POINTS-1);
+		return Mercator.lonToMercX(lons[i]);
+	}
+
+	@Benchmark
+	public double mercatorMercYToLat(){
+		i=(i+1)&(NUM_POINTS-1);
+		return Mercator.mercYToLat(lats[i]/60.0);
+	}
+
+	@Benchmark
+	public PVector getScreenFromLonLat(){
+		i=(i+1)&(NUM_POINTS-1);
+		return slippyMap.getScreenFromLonLat(lons[i],lats[i],null);
+	}
+
+	@Benchmark
+	public double viewTransformLonLatToScreen(){
+		i=(i+1)&(NUM_POINTS-1);
+		return viewTransform.lonToScreenX(lons[i])+viewTransform.latToScreenY(lats[i]);
+	}
+
+	/** All the points at once (per point time is this divided by NUM_POINTS) */
+	@Benchmark
+	public float[] viewTransformLonLatToXYBatch(){
+		viewTransform.lonLatToXY(lons,lats,xs,ys,0,NUM_POINTS,true);
+		return xs;
+	}
+}
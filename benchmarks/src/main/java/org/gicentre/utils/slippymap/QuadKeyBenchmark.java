@@ -0,0 +1,92 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//****************************************************************************************
+/** Converting between Bing tile coordinates and quadkeys, with both the String and the
+ * allocation-free versions in BingTileSystem.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class QuadKeyBenchmark {
+
+	static private final int NUM_TILES=1024; //power of two
+	static private final int ZOOM=17;
+
+	private int[] tileXs=new int[NUM_TILES];
+	private int[] tileYs=new int[NUM_TILES];
+	private String[] quadKeys=new String[NUM_TILES];
+	private char[] quadKeyChars=new char[23];
+	private int i=0;
+
+	@Setup
+	public void setUp(){
+		Random random=new Random(1);
+		for (int i=0;i<NUM_TILES;i++){
+			tileXs[i]=random.nextInt(1<<ZOOM);
+			tileYs[i]=random.nextInt(1<<ZOOM);
+			quadKeys[i]=BingTileSystem.tileXYToQuadKey(tileXs[i],tileYs[i],ZOOM);
+		}
+	}
+
+	@Benchmark
+	public String tileXYToQuadKey(){
+		i=(i+1)&(NUM_TILES-1);
+		return BingTileSystem.tileXYToQuadKey(tileXs[i],tileYs[i],ZOOM);
+	}
+
+	@Benchmark
+	public char[] tileXYToQuadKeyChars(){
+		i=(i+1)&(NUM_TILES-1);
+		BingTileSystem.tileXYToQuadKey(tileXs[i],tileYs[i],ZOOM,quadKeyChars);
+		return quadKeyChars;
+	}
+
+	@Benchmark
+	public Point quadKeyToTileXY(){
+		i=(i+1)&(NUM_TILES-1);
+		return BingTileSystem.quadKeyToTileXY(quadKeys[i]);
+	}
+
+	@Benchmark
+	public long quadKeyToTileXYPacked(){
+		i=(i+1)&(NUM_TILES-1);
+		return BingTileSystem.quadKeyToTileXYPacked(quadKeys[i]);
+	}
+}
@@ -0,0 +1,341 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//****************************************************************************************
+/** End-to-end load test of tile fetching. Replays a sequence of pans and zooms through
+ * SlippyMap (headless, at 60 frames a second) with tiles coming from a LocalTileServer, and
+ * reports:
+ *
+ *  - time to first tile: from the first frame until the first tile arrives
+ *  - time to complete viewport (p50/p99): from the end of each pan or zoom until a frame is
+ *    drawn with every tile it needs
+ *  - requests issued to the server
+ *  - wasted downloads: tiles that were downloaded again, or that were no longer needed when
+ *    they arrived (outside the viewport, or more detailed than the zoom level being drawn)
+ *
+ * Run with
+ *   java -cp benchmarks/target/benchmarks.jar org.gicentre.utils.slippymap.TileLoadBenchmark [name=value ...]
+ * where the options (and defaults) are map=osm (or bing), latency=50 (ms), jitter=20 (ms),
+ * errors=0 (fraction of requests that fail), bandwidth=0 (bytes/s per tile, 0 for no limit),
+ * workers=1 (tile retriever threads), virtual=false (a virtual thread per tile instead of
+ * workers, Java 21 and later), perhost=6 (downloads at a time from the server), defer=true
+ * (only request coarse tiles while moving) and timeout=10000 (ms to wait for a viewport).
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class TileLoadBenchmark {
+
+	static private final int WIDTH=1024;
+	static private final int HEIGHT=768;
+	static private final int TILE_SIZE=256;
+	static private final long FRAME_NANOS=1000000000L/60;
+	static private final Pattern OSM_TILE=Pattern.compile("/(\\d+)/(\\d+)/(\\d+)\\.png$");
+	static private final Pattern BING_TILE=Pattern.compile("/[rah]([0-3]+)\\.jpeg$");
+
+	/** A pan (in screen pixels) and/or zoom (in zoom levels) spread over a number of frames
+	 */
+	static class Gesture{
+		final double dx,dy;
+		final double zoomLevels;
+		final int frames;
+		Gesture(double dx,double dy,double zoomLevels,int frames){
+			this.dx=dx;
+			this.dy=dy;
+			this.zoomLevels=zoomLevels;
+			this.frames=frames;
+		}
+	}
+
+	/** The sequence replayed, starting over London at zoom level 12
+	 */
+	static final Gesture[] GESTURES={
+		new Gesture(0,0,0,1),      //initial view
+		new Gesture(600,0,0,30),   //pan
+		new Gesture(0,400,0,20),
+		new Gesture(0,0,1,15),     //zoom in
+		new Gesture(0,0,1,15),
+		new Gesture(-2500,0,0,25), //fling
+		new Gesture(0,0,-2,20),    //zoom out
+		new Gesture(300,-300,0,20),
+		new Gesture(0,0,3,30),
+		new Gesture(-800,0,0,40),
+		new Gesture(0,0,-4,20),
+	};
+
+	private final Rectangle screenBounds=new Rectangle(0,0,WIDTH,HEIGHT);
+	private final LocalTileServer server;
+	private final SlippyMap slippyMap;
+	private final boolean bing;
+	private final long timeoutNanos;
+	private final NullGraphics g=new NullGraphics(WIDTH,HEIGHT);
+
+	//view: centre in unzoomed map coordinates and zoom scale
+	private double centreX,centreY;
+	private double zoomScale;
+
+	private final AtomicLong firstTileTime=new AtomicLong();
+	private final List<Double> completeMillis=new ArrayList<Double>();
+	private int incompleteViewports=0;
+	private int tilesDownloaded=0;
+	private int wastedDownloads=0;
+	private List<String> sentTiles=new ArrayList<String>();
+
+	TileLoadBenchmark(LocalTileServer server,boolean bing,int workers,boolean virtualThreads,boolean deferTiles,long timeoutMillis){
+		this.server=server;
+		this.bing=bing;
+		this.timeoutNanos=timeoutMillis*1000000;
+		slippyMap=new SlippyMap(null,null,screenBounds,TILE_SIZE,200);
+		slippyMap.useInUnsignedApplet(server.getPassThroughURL());
+		if (bing){
+			slippyMap.setBingApiKey("local");
+			slippyMap.setMapType(SlippyMapType.BING_ROAD);
+		}
+		else{
+			slippyMap.setMapType(SlippyMapType.OSM_MAPNIK);
+		}
+		slippyMap.tileRetriever.setWorkerCount(workers);
+		slippyMap.setDeferTilesWhileMoving(deferTiles);
+		if (virtualThreads && !slippyMap.setUseVirtualThreads(true))
+			System.err.println("No virtual threads in this Java version - using workers");
+		slippyMap.setTileNotificationInterval(0); //so that the first tile is timed when it arrives
+		slippyMap.addSlippyMapListener(new SlippyMapListener(){
+			public void newTileAvailable(){
+				firstTileTime.compareAndSet(0,System.nanoTime());
+			}
+		});
+
+		//start over London at zoom level 12
+		ViewTransform unzoomed=new ViewTransform(screenBounds,1,0,0);
+		centreX=unzoomed.lonToScreenX(-0.1);
+		centreY=unzoomed.latToScreenY(51.5);
+		zoomScale=zoomScaleForLevel(12);
+	}
+
+	/** Replays the gestures
+	 *
+	 * @return time to first tile in ms (or -1 if none arrived)
+	 */
+	double run(){
+		long start=System.nanoTime();
+		long nextFrame=start;
+		for (Gesture gesture:GESTURES){
+			double startZoomScale=zoomScale;
+			for (int i=1;i<=gesture.frames;i++){
+				centreX-=gesture.dx/gesture.frames/zoomScale;
+				centreY-=gesture.dy/gesture.frames/zoomScale;
+				zoomScale=startZoomScale*Math.pow(2,gesture.zoomLevels*i/gesture.frames);
+				nextFrame=waitForFrame(nextFrame);
+				drawFrame();
+			}
+			//the view has stopped - wait until every tile it needs is there
+			long stopped=System.nanoTime();
+			boolean complete=false;
+			while (!complete && System.nanoTime()-stopped<timeoutNanos){
+				nextFrame=waitForFrame(nextFrame);
+				complete=drawFrame();
+			}
+			if (complete)
+				completeMillis.add((System.nanoTime()-stopped)/1e6);
+			else
+				incompleteViewports++;
+		}
+		long firstTile=firstTileTime.get();
+		return firstTile==0?-1:(firstTile-start)/1e6;
+	}
+
+	/** Draws a frame and checks the tiles downloaded since the last one
+	 *
+	 * @return whether every tile needed was there
+	 */
+	private boolean drawFrame(){
+		ViewTransform viewTransform=new ViewTransform(screenBounds,zoomScale,
+				screenBounds.getCenterX()-centreX*zoomScale,screenBounds.getCenterY()-centreY*zoomScale);
+		long missesBefore=slippyMap.getMetrics().getMemoryMisses();
+		slippyMap.draw(viewTransform,g);
+		boolean complete=slippyMap.getMetrics().getMemoryMisses()==missesBefore;
+
+		LonLatBounds lonLatViewPort=new LonLatBounds(
+				viewTransform.screenXToLon(screenBounds.getMinX()),viewTransform.screenYToLat(screenBounds.getMaxY()),
+				viewTransform.screenXToLon(screenBounds.getMaxX()),viewTransform.screenYToLat(screenBounds.getMinY()));
+		int zoom=BaseMapProvider.getZoom(lonLatViewPort,screenBounds,TILE_SIZE);
+		sentTiles.clear();
+		server.takeSentTiles(sentTiles);
+		for (String tileUrl:sentTiles){
+			tilesDownloaded++;
+			if (server.getNumDownloads(tileUrl)>1 || !isNeeded(tileUrl,viewTransform,zoom))
+				wastedDownloads++;
+		}
+		return complete;
+	}
+
+	/** Whether a downloaded tile is needed for the current frame
+	 *
+	 * @param tileUrl
+	 * @param viewTransform  Transformation for the frame
+	 * @param zoom  Zoom level being drawn
+	 * @return whether it is needed
+	 */
+	private boolean isNeeded(String tileUrl,ViewTransform viewTransform,int zoom){
+		int tileX,tileY,tileZoom;
+		Matcher matcher=(bing?BING_TILE:OSM_TILE).matcher(tileUrl.split("\\?")[0]);
+		if (!matcher.find())
+			return false;
+		if (bing){
+			Point tileXY=BingTileSystem.quadKeyToTileXY(matcher.group(1));
+			tileX=tileXY.x;
+			tileY=tileXY.y;
+			tileZoom=matcher.group(1).length();
+		}
+		else{
+			tileZoom=Integer.parseInt(matcher.group(1));
+			tileX=Integer.parseInt(matcher.group(2));
+			tileY=Integer.parseInt(matcher.group(3));
+		}
+		if (tileZoom>zoom)
+			return false;
+		double x1=viewTransform.tileXToScreenX(tileX,tileZoom);
+		double y1=viewTransform.tileYToScreenY(tileY,tileZoom);
+		double x2=viewTransform.tileXToScreenX(tileX+1,tileZoom);
+		double y2=viewTransform.tileYToScreenY(tileY+1,tileZoom);
+		return x2>screenBounds.getMinX() && x1<screenBounds.getMaxX() && y2>screenBounds.getMinY() && y1<screenBounds.getMaxY();
+	}
+
+	/** Prints what happened
+	 *
+	 * @param firstTileMillis
+	 */
+	void report(double firstTileMillis){
+		Collections.sort(completeMillis);
+		SlippyMapMetrics metrics=slippyMap.getMetrics();
+		System.out.println("map: "+(bing?"bing":"osm"));
+		System.out.println(String.format("time to first tile: %.1fms",firstTileMillis));
+		System.out.println(String.format("time to complete viewport: p50=%.1fms p99=%.1fms max=%.1fms (%d viewports, %d not completed)",
+				percentile(0.5),percentile(0.99),percentile(1),completeMillis.size(),incompleteViewports));
+		System.out.println("requests issued: "+server.getNumRequests()+" ("+server.getNumErrors()+" failed deliberately)");
+		System.out.println(String.format("tiles downloaded: %d, wasted: %d (%.1f%%), bytes: %d",tilesDownloaded,wastedDownloads,
+				tilesDownloaded==0?0:100.0*wastedDownloads/tilesDownloaded,server.getBytesSent()));
+		System.out.println("tile pipeline: "+metrics);
+	}
+
+	private double percentile(double fraction){
+		if (completeMillis.isEmpty())
+			return Double.NaN;
+		int rank=(int)Math.ceil(fraction*completeMillis.size());
+		return completeMillis.get(Math.max(0,rank-1));
+	}
+
+	void dispose(){
+		slippyMap.dispose();
+	}
+
+	private static double zoomScaleForLevel(int zoom){
+		return (double)TILE_SIZE*(1<<zoom)/WIDTH;
+	}
+
+	/** Waits until it is time for a frame
+	 *
+	 * @param frameTime  When the frame is due
+	 * @return when the next frame is due
+	 */
+	private static long waitForFrame(long frameTime){
+		long wait=frameTime-System.nanoTime();
+		if (wait>0){
+			try{
+				Thread.sleep(wait/1000000,(int)(wait%1000000));
+			}
+			catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		return Math.max(frameTime,System.nanoTime()-FRAME_NANOS)+FRAME_NANOS;
+	}
+
+	public static void main(String[] args) throws Exception{
+		String map="osm";
+		int latency=50;
+		int jitter=20;
+		double errorRate=0;
+		long bandwidth=0;
+		int workers=1;
+		boolean virtualThreads=false;
+		int perHost=6;
+		boolean deferTiles=true;
+		long timeout=10000;
+		for (String arg:args){
+			String[] nameValue=arg.split("=",2);
+			if (nameValue.length!=2){
+				System.err.println("Options are name=value: "+arg);
+				return;
+			}
+			String name=nameValue[0];
+			String value=nameValue[1];
+			if (name.equals("map"))
+				map=value;
+			else if (name.equals("latency"))
+				latency=Integer.parseInt(value);
+			else if (name.equals("jitter"))
+				jitter=Integer.parseInt(value);
+			else if (name.equals("errors"))
+				errorRate=Double.parseDouble(value);
+			else if (name.equals("bandwidth"))
+				bandwidth=Long.parseLong(value);
+			else if (name.equals("workers"))
+				workers=Integer.parseInt(value);
+			else if (name.equals("virtual"))
+				virtualThreads=Boolean.parseBoolean(value);
+			else if (name.equals("perhost"))
+				perHost=Integer.parseInt(value);
+			else if (name.equals("defer"))
+				deferTiles=Boolean.parseBoolean(value);
+			else if (name.equals("timeout"))
+				timeout=Long.parseLong(value);
+			else{
+				System.err.println("Unknown option: "+name);
+				return;
+			}
+		}
+		System.setProperty("java.awt.headless","true");
+		SlippyMap.setMaxConnectionsPerHost(perHost);
+
+		LocalTileServer server=new LocalTileServer();
+		server.setLatency(latency);
+		server.setJitter(jitter);
+		server.setErrorRate(errorRate);
+		server.setBandwidth(bandwidth);
+		server.start();
+		try{
+			TileLoadBenchmark benchmark=new TileLoadBenchmark(server,map.equals("bing"),workers,virtualThreads,deferTiles,timeout);
+			double firstTileMillis=benchmark.run();
+			benchmark.report(firstTileMillis);
+			benchmark.dispose();
+		}
+		finally{
+			server.stop();
+		}
+	}
+}
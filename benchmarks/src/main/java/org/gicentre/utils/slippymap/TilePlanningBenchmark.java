@@ -0,0 +1,127 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.TimeUnit;
+
+import org.gicentre.utils.slippymap.Bing.BingTileType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Time taken by OpenStreetMap and Bing to work out which tiles cover the viewport, look
+ * them up in the in-memory cache and position them on screen (what drawMap() does apart
+ * from drawing). All the tiles are in the cache, so nothing is fetched, and they are drawn
+ * on a canvas that does nothing.
+ *
+ * The viewport is a 1024x768 window onto a map that is 2^zoom tiles across.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class TilePlanningBenchmark {
+
+	static private final int TILE_SIZE=256;
+	static private final int VIEW_WIDTH=1024;
+	static private final int VIEW_HEIGHT=768;
+
+	@Param({"6","12","17"})
+	int zoom;
+
+	private TileRetriever tileRetriever;
+	private OpenStreetMap openStreetMap;
+	private Bing bing;
+	private ViewTransform viewTransform;
+	private Rectangle2D latLonBounds;
+	private NullGraphics g;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		int numTiles=1<<zoom;
+		tileRetriever=new TileRetriever(null,VIEW_WIDTH*VIEW_HEIGHT/(TILE_SIZE*TILE_SIZE)*4);
+		tileRetriever.setUseFileCache(false);
+		openStreetMap=new OpenStreetMap(null,TILE_SIZE,tileRetriever);
+		bing=new Bing(null,TILE_SIZE,tileRetriever,"");
+		bing.setDefaultBaseUrls(); //don't look up the tile servers
+
+		//the whole map at this zoom level, with the viewport in the middle of it (over London at high zooms)
+		long mapSize=(long)numTiles*TILE_SIZE;
+		viewTransform=new ViewTransform(new Rectangle(0,0,(int)Math.min(mapSize,Integer.MAX_VALUE),(int)Math.min(mapSize,Integer.MAX_VALUE)),null,false);
+		double centreX=viewTransform.lonToScreenX(-0.1);
+		double centreY=viewTransform.latToScreenY(51.5);
+		double left=centreX-VIEW_WIDTH/2.0;
+		double top=centreY-VIEW_HEIGHT/2.0;
+		latLonBounds=new LonLatBounds(viewTransform.screenXToLon(left),viewTransform.screenYToLat(top+VIEW_HEIGHT),
+				viewTransform.screenXToLon(left+VIEW_WIDTH),viewTransform.screenYToLat(top));
+		g=new NullGraphics(VIEW_WIDTH,VIEW_HEIGHT);
+
+		//put every tile in the viewport in the in-memory cache
+		PImage tile=new PImage(TILE_SIZE,TILE_SIZE);
+		int firstTileX=(int)Math.floor(left/TILE_SIZE);
+		int firstTileY=(int)Math.floor(top/TILE_SIZE);
+		int lastTileX=(int)Math.floor((left+VIEW_WIDTH)/TILE_SIZE);
+		int lastTileY=(int)Math.floor((top+VIEW_HEIGHT)/TILE_SIZE);
+		synchronized (tileRetriever.tileCache) {
+			for (int tileX=Math.max(0,firstTileX);tileX<=Math.min(numTiles-1,lastTileX);tileX++){
+				for (int tileY=Math.max(0,firstTileY);tileY<=Math.min(numTiles-1,lastTileY);tileY++){
+					tileRetriever.tileCache.put(openStreetMap.getTileCacheFileName(TileSourceRegistry.get("osm-mapnik"),tileX,tileY,zoom),tile);
+					tileRetriever.tileCache.put(bing.getTileCacheFileName(BingTileType.ROAD,BingTileSystem.tileXYToQuadKey(tileX,tileY,zoom)),tile);
+				}
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		tileRetriever.dispose();
+	}
+
+	@Benchmark
+	public int openStreetMapDrawMap(){
+		g.imagesDrawn=0;
+		openStreetMap.drawTiles(latLonBounds,viewTransform,g,TileSourceRegistry.get("osm-mapnik"),zoom);
+		return g.imagesDrawn;
+	}
+
+	@Benchmark
+	public int bingDrawMap(){
+		g.imagesDrawn=0;
+		bing.drawTiles(latLonBounds,viewTransform,g,BingTileType.ROAD,zoom);
+		return g.imagesDrawn;
+	}
+}
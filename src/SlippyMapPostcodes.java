@@ -1,10 +1,8 @@
 import java.awt.Rectangle;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.awt.geom.Rectangle2D;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.gicentre.utils.gui.BusyIcon;
 import org.gicentre.utils.gui.GraphicBuffer;
@@ -15,6 +13,7 @@ import org.gicentre.utils.move.ZoomPan;
 import org.gicentre.utils.move.ZoomPanListener;
 import org.gicentre.utils.move.ZoomPanState;
 import org.gicentre.utils.slippymap.LonLatBounds;
+import org.gicentre.utils.slippymap.PointLayer;
 import org.gicentre.utils.slippymap.SlippyMap;
 import org.gicentre.utils.slippymap.SlippyMapListener;
 import org.gicentre.utils.slippymap.SlippyMapType;
@@ -30,6 +29,7 @@ public class SlippyMapPostcodes extends PApplet implements SlippyMapListener,Zoo
 	org.gicentre.utils.slippymap.SlippyMap slippyMap;
 	ZoomPan zoomPan;
 	Map<String, PVector> postcodes;
+	PointLayer postcodeLayer; //spatially indexed postcodes, for fast drawing
 	ThreadedGraphicBuffer threadedGraphicBuffer;
 	BusyIcon busyIcon;
 	
@@ -54,6 +54,7 @@ public class SlippyMapPostcodes extends PApplet implements SlippyMapListener,Zoo
 			PVector lonLat=osgb.invTransformCoords(xy);
 			postcodes.put(toks[0],lonLat);
 		}
+		postcodeLayer=new PointLayer(postcodes.values());
 		
 		threadedGraphicBuffer=new ThreadedGraphicBuffer(this,zoomPan,this,new Rectangle(0,0,width,height));
 		threadedGraphicBuffer.addListener(this);
@@ -125,25 +126,10 @@ public class SlippyMapPostcodes extends PApplet implements SlippyMapListener,Zoo
 	}
 
 	public void threadedDraw(PGraphics canvas,ZoomPanState zoomPanState,Object drawData) {
-		int[][] pixelArray;
-		pixelArray=new int[width+1][height+1];
-		Rectangle2D viewport=slippyMap.getLonLatViewPort();
 		canvas.fill(100,100,0,100);
 		canvas.noStroke();
-		for(Entry<String, PVector> entry: postcodes.entrySet()){
-			if (viewport.contains(entry.getValue().x,entry.getValue().y)){
-				PVector screenXY=slippyMap.getScreenFromLonLat(entry.getValue(),zoomPanState);
-				try{
-					if (pixelArray[(int)screenXY.x][(int)screenXY.y]<1){
-						pixelArray[(int)screenXY.x][(int)screenXY.y]++;
-						canvas.ellipse(screenXY.x,screenXY.y,5,5);
-					}
-				}
-				catch (ArrayIndexOutOfBoundsException e){
-
-				}
-			}
-		}
+		//only visits the postcodes in the viewport and draws one per pixel
+		postcodeLayer.draw(slippyMap,zoomPanState,canvas,5);
 	}
 
 	public void newBufferedImageAvailable() {
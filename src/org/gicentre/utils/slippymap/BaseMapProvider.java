@@ -1,6 +1,11 @@
 package org.gicentre.utils.slippymap;
 
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PImage;
 
 //****************************************************************************************
@@ -30,9 +35,19 @@ import processing.core.PImage;
 
 abstract class BaseMapProvider {
 	
+	static final int NATIVE_TILE_SIZE=256; //width and height of tile images from all providers
+	static final int DEFERRED_FETCH_LEVELS=3; //how many zoom levels coarser the tiles requested while the map is moving are
+	static private final float SNAP_TOLERANCE=0.01f; //how close (in pixels) a tile must be to whole pixels and its own size to be drawn unscaled
+
 	PApplet applet;
 	TileRetriever tileRetriever;
 	int tilePixelWidth;  //The pixel (in pixels) of tiles (affects the map resolution)
+	ScaledTileCache scaledTileCache; //Tiles already scaled to the size they are drawn at (null if not used)
+	boolean deferFetches=false; //whether only cached tiles are drawn and only coarse ones requested (while the map is moving)
+	FrameBudget frameBudget; //limits the time spent drawing tiles (null if there is no limit)
+	TilePlan tilePlan=new TilePlan(); //the tiles to draw in this frame (reused from frame to frame)
+	TilePlan coarseTilesRequested=new TilePlan(); //the coarse tiles requested in this frame while moving
+	long[] centreOutOrder=new long[0]; //see orderCentreOut()
 
 	
 	/** Constructor
@@ -48,4 +63,135 @@ abstract class BaseMapProvider {
 		this.tileRetriever=tileRetriever;
 	}
 
+	/** Finds the zoom level to draw this provider's tiles at for the viewport
+	 * 
+	 * @param latLonBounds  Viewport
+	 * @param screenBounds  Screen area
+	 * @return zoom level
+	 */
+	int getZoom(Rectangle2D latLonBounds,Rectangle screenBounds){
+		return getZoom(latLonBounds,screenBounds,tilePixelWidth);
+	}
+
+	/** Finds the zoom level at which tiles are displayed at about tilePixelWidth pixels across
+	 * 
+	 * @param latLonBounds  Viewport
+	 * @param screenBounds  Screen area
+	 * @param tilePixelWidth  The width at which tiles are displayed
+	 * @return zoom level
+	 */
+	static int getZoom(Rectangle2D latLonBounds,Rectangle screenBounds,int tilePixelWidth){
+		int correctNumTilesAcross=screenBounds.width/tilePixelWidth;
+		//start at max resolution
+		int firstTileX=(int)Math.floor((latLonBounds.getMinX()+180.0)/360.0*(1<<20));
+		int lastTileX=(int)Math.floor((latLonBounds.getMaxX()+180.0)/360.0*(1<<20));
+		int numTilesAcross=lastTileX-firstTileX;
+		int zoom=20;
+		//try decreasing zoom level until an appropriate one is found
+		while (numTilesAcross>correctNumTilesAcross && zoom>1){
+			zoom--;
+			numTilesAcross/=2;
+		}
+		return zoom;
+	}
+
+	/** Orders the tiles in a range from the centre out, so that if drawing has to stop, the
+	 * middle of the map has been drawn
+	 * 
+	 * @param firstTileX  Left tile column
+	 * @param lastTileX  Right tile column
+	 * @param firstTileY  Top tile row
+	 * @param lastTileY  Bottom tile row
+	 * @return the tiles, with the column in the top 32 bits and the row in the bottom 32 bits
+	 */
+	static long[] getCentreOutOrder(int firstTileX,int lastTileX,int firstTileY,int lastTileY){
+		long[] tiles=new long[getNumTiles(firstTileX,lastTileX,firstTileY,lastTileY)];
+		getCentreOutOrder(firstTileX,lastTileX,firstTileY,lastTileY,tiles);
+		return tiles;
+	}
+
+	/** Orders the tiles in a range from the centre out into centreOutOrder, which is kept for
+	 * the next frame (see getCentreOutOrder())
+	 * 
+	 * @param firstTileX  Left tile column
+	 * @param lastTileX  Right tile column
+	 * @param firstTileY  Top tile row
+	 * @param lastTileY  Bottom tile row
+	 * @return the number of tiles (at the start of centreOutOrder)
+	 */
+	int orderCentreOut(int firstTileX,int lastTileX,int firstTileY,int lastTileY){
+		int numTiles=getNumTiles(firstTileX,lastTileX,firstTileY,lastTileY);
+		if (centreOutOrder.length<numTiles)
+			centreOutOrder=new long[numTiles];
+		getCentreOutOrder(firstTileX,lastTileX,firstTileY,lastTileY,centreOutOrder);
+		return numTiles;
+	}
+
+	private static int getNumTiles(int firstTileX,int lastTileX,int firstTileY,int lastTileY){
+		return Math.max(0,lastTileX-firstTileX+1)*Math.max(0,lastTileY-firstTileY+1);
+	}
+
+	/** Orders the tiles in a range from the centre out into the start of an array
+	 * 
+	 * @param firstTileX  Left tile column
+	 * @param lastTileX  Right tile column
+	 * @param firstTileY  Top tile row
+	 * @param lastTileY  Bottom tile row
+	 * @param tiles  Array for the tiles (big enough for them), with the column in the top 32
+	 * bits and the row in the bottom 32 bits
+	 */
+	private static void getCentreOutOrder(int firstTileX,int lastTileX,int firstTileY,int lastTileY,long[] tiles){
+		int height=Math.max(0,lastTileY-firstTileY+1);
+		int numTiles=getNumTiles(firstTileX,lastTileX,firstTileY,lastTileY);
+		//sort by the squared distance from the centre (in half tiles), with the index in the bottom bits
+		long centreX=(long)firstTileX+lastTileX;
+		long centreY=(long)firstTileY+lastTileY;
+		for (int i=0;i<numTiles;i++){
+			long dx=2L*(firstTileX+i/height)-centreX;
+			long dy=2L*(firstTileY+i%height)-centreY;
+			tiles[i]=(Math.min(dx*dx+dy*dy,Integer.MAX_VALUE)<<32)|i;
+		}
+		Arrays.sort(tiles,0,numTiles);
+		for (int i=0;i<numTiles;i++){
+			int index=(int)tiles[i];
+			tiles[i]=((long)(firstTileX+index/height)<<32)|(firstTileY+index%height);
+		}
+	}
+
+	/** Draws a tile image between two screen positions, using an already-scaled copy if there
+	 * is one
+	 * 
+	 * @param g  The canvas to draw on
+	 * @param image  The tile image
+	 * @param x1  Left
+	 * @param y1  Top
+	 * @param x2  Right
+	 * @param y2  Bottom
+	 */
+	void drawTile(PGraphics g,PImage image,float x1,float y1,float x2,float y2){
+		if (scaledTileCache==null || !scaledTileCache.draw(g,image,x1,y1,x2,y2))
+			drawTileImage(g,image,x1,y1,x2,y2);
+	}
+
+	/** Draws a tile image between two screen positions. If it would be drawn at its own size
+	 * on whole pixels (see SlippyMap.setSnapToNativeResolution()), it is drawn without
+	 * scaling, which is much faster.
+	 * 
+	 * @param g  The canvas to draw on
+	 * @param image  The tile image
+	 * @param x1  Left
+	 * @param y1  Top
+	 * @param x2  Right
+	 * @param y2  Bottom
+	 */
+	static void drawTileImage(PGraphics g,PImage image,float x1,float y1,float x2,float y2){
+		int x=Math.round(x1);
+		int y=Math.round(y1);
+		if (Math.abs(x1-x)<SNAP_TOLERANCE && Math.abs(y1-y)<SNAP_TOLERANCE
+				&& Math.abs(x2-x1-image.width)<SNAP_TOLERANCE && Math.abs(y2-y1-image.height)<SNAP_TOLERANCE)
+			g.image(image,x,y);
+		else
+			g.image(image,x1,y1,x2-x1,y2-y1);
+	}
+
 }
@@ -9,20 +9,17 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.gicentre.utils.move.ZoomPan;
-import org.gicentre.utils.move.ZoomPanState;
-import org.gicentre.utils.slippymap.OpenStreetMap.OsmTileType;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -32,7 +29,6 @@ import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.core.PImage;
-import processing.core.PVector;
 
 //****************************************************************************************
 /** Indentifies the required Bing map tiles
@@ -71,12 +67,13 @@ class Bing extends BaseMapProvider{
 		AERIAL_WITH_LABELS
 	}
 
-	private Comparator<String> quadKeyLengthComparator; //Comparator that ensures less detailed tiles are drawn first
 	private PImage providerLogo=null; //bing logo
 
 
 	private Map<BingTileType, String> baseUrls;	//urls of map tiles
 	private Map<BingTileType, List<String>> subdomains;	//list of all the subdomains that can be used
+	private volatile Map<BingTileType, UrlTemplate> urlTemplates; //compiled from the base URLs, subdomains and culture (made when needed)
+	private Map<BingTileType, UrlTemplate> cacheFileTemplates=new HashMap<BingTileType, UrlTemplate>();
 
 	
 
@@ -97,19 +94,6 @@ class Bing extends BaseMapProvider{
 		metadataURLs.put(BingTileType.AERIAL,"http://dev.virtualearth.net/REST/v1/Imagery/Metadata/Aerial?mapVersion=v1&o=xml&incl=ImageryProviders&key="+bingApiKey);	
 		metadataURLs.put(BingTileType.ROAD,"http://dev.virtualearth.net/REST/v1/Imagery/Metadata/Road?mapVersion=v1&o=xml&incl=ImageryProviders&key="+bingApiKey);	
 		metadataURLs.put(BingTileType.AERIAL_WITH_LABELS,"http://dev.virtualearth.net/REST/v1/Imagery/Metadata/AerialWithLabels?mapVersion=v1&o=xml&incl=ImageryProviders&key="+bingApiKey);	
-
-		
-		//Create an instance of a Comparator that sorted quadkeys by their length (which relates to map resolution) 
-		quadKeyLengthComparator=new Comparator<String>(){
-			public int compare(String o1,String o2){
-				if (o1.length()<o2.length())
-					return -1;
-				else if (o1.length()>o2.length())
-					return 1;
-				else
-					return 0;
-			}
-		};
 	}
 
 	/** Sets the culture/language of the map tile
@@ -120,20 +104,29 @@ class Bing extends BaseMapProvider{
 	 */
 	void setCulture(String culture){
 		this.culture=culture;
+		urlTemplates=null;
 	}
 
 
 	/** Draws the map
 	 * 
 	 * @param latLonBounds  Viewport
-	 * @param screenBounds Screen area
-	 * @param zoomPan ZoomPan (for zoom/pan information)
+	 * @param viewTransform Screen area and zoom/pan for this frame
 	 * @param g  The canvas to draw on (use PApplet.g for on-screen drawing)
 	 * @param bingTileType  The tile type
 	 */
-	void drawMap(Rectangle2D latLonBounds,Rectangle screenBounds, ZoomPanState zoomPanState, PGraphics g,BingTileType bingTileType){ 
+	void drawMap(Rectangle2D latLonBounds,ViewTransform viewTransform, PGraphics g,BingTileType bingTileType){ 
+		drawTiles(latLonBounds,viewTransform,g,bingTileType,getZoom(latLonBounds,viewTransform.screenBounds));
+		drawAttribution(viewTransform.screenBounds,g);
+	}
 
-		//find appropriate zoom
+	/** Finds the zoom level to draw tiles at for the viewport
+	 * 
+	 * @param latLonBounds  Viewport
+	 * @param screenBounds  Screen area
+	 * @return zoom level
+	 */
+	int getZoom(Rectangle2D latLonBounds,Rectangle screenBounds){
 		int correctNumTilesAcross=(int)(screenBounds.width/(float)tilePixelWidth);
 		Point pixelXY=BingTileSystem.lonLatToPixelXY(latLonBounds.getMinX(),latLonBounds.getMinY(),20);
 		Point tileXY=BingTileSystem.pixelXYToTileXY(pixelXY.x, pixelXY.y);
@@ -147,84 +140,125 @@ class Bing extends BaseMapProvider{
 			zoom--;
 			numTilesAcross/=2;
 		}
+		return zoom;
+	}
+
+	/** Draws the tiles that cover an area at a particular zoom level. Lower resolution tiles
+	 * (drawn where tiles are missing) are drawn first, then tiles from the centre out, so
+	 * that if the frame budget runs out, the map is covered and its middle is detailed.
+	 * 
+	 * @param latLonBounds  Area to draw (the viewport or part of it)
+	 * @param viewTransform Screen area and zoom/pan for this frame
+	 * @param g  The canvas to draw on
+	 * @param bingTileType  The tile type
+	 * @param zoom  Zoom level (see getZoom())
+	 * @return whether every tile was drawn at the zoom level (false if any were missing or
+	 * the frame budget ran out)
+	 */
+	boolean drawTiles(Rectangle2D latLonBounds,ViewTransform viewTransform, PGraphics g,BingTileType bingTileType,int zoom){ 
+		boolean complete=true;
 
 		//Make list to hold the tiles to draw
-		ArrayList<String> tilesToDraw=new ArrayList<String>();
+		TilePlan tilesToDraw=tilePlan; //TileKeys of the tiles to draw, and their images
+		tilesToDraw.clear();
+		coarseTilesRequested.clear(); //while moving
 
 		//Identify which tiles need to be drawn
-		pixelXY=BingTileSystem.lonLatToPixelXY(latLonBounds.getMinX(),latLonBounds.getMinY(),zoom);
-		tileXY=BingTileSystem.pixelXYToTileXY(pixelXY.x, pixelXY.y);
-		firstTileX = tileXY.x; 
-		int lastTileY = tileXY.y;
-		pixelXY=BingTileSystem.lonLatToPixelXY(latLonBounds.getMaxX(),latLonBounds.getMaxY(),zoom);
-		tileXY=BingTileSystem.pixelXYToTileXY(pixelXY.x, pixelXY.y);
-		lastTileX = tileXY.x; 
-		int firstTileY = tileXY.y;
-		for (int tileX=firstTileX;tileX<=lastTileX;tileX++){
-			for (int tileY=firstTileY;tileY<=lastTileY;tileY++){
-				
-				if (Thread.currentThread().isInterrupted())
-					return;
-
-				//find quadkey
-				String quadKey=BingTileSystem.tileXYToQuadKey(tileX,tileY,zoom);
-				PImage im = getTileImage(bingTileType, quadKey,false);
-				if (im!=null){
-					// the tile exists NOW, add to the list of tiles to draw 
-					tilesToDraw.add(quadKey);
+		long pixelXY=BingTileSystem.lonLatToPixelXYPacked(latLonBounds.getMinX(),latLonBounds.getMinY(),zoom);
+		long tileXY=BingTileSystem.pixelXYToTileXYPacked(BingTileSystem.unpackX(pixelXY),BingTileSystem.unpackY(pixelXY));
+		int firstTileX = BingTileSystem.unpackX(tileXY); 
+		int lastTileY = BingTileSystem.unpackY(tileXY);
+		pixelXY=BingTileSystem.lonLatToPixelXYPacked(latLonBounds.getMaxX(),latLonBounds.getMaxY(),zoom);
+		tileXY=BingTileSystem.pixelXYToTileXYPacked(BingTileSystem.unpackX(pixelXY),BingTileSystem.unpackY(pixelXY));
+		int lastTileX = BingTileSystem.unpackX(tileXY); 
+		int firstTileY = BingTileSystem.unpackY(tileXY);
+		int numTiles=orderCentreOut(firstTileX,lastTileX,firstTileY,lastTileY);
+		for (int t=0;t<numTiles;t++){
+			if (Thread.currentThread().isInterrupted())
+				return false;
+
+			int tileX=(int)(centreOutOrder[t]>>>32);
+			int tileY=(int)centreOutOrder[t];
+			PImage im = getTileImage(bingTileType,zoom,tileX,tileY,deferFetches);
+			if (im!=null){
+				// the tile exists NOW, add to the list of tiles to draw 
+				tilesToDraw.add(TileKey.key(zoom,tileX,tileY),im);
+			}
+			else{
+				complete=false;
+				//Look for lower resolution tiles that are in memory
+				//(the tile containing this one at each coarser zoom level, down to 1 as there
+				//is no level 0 Bing tile)
+				int lowerResZoom;
+				for (lowerResZoom=zoom-1;lowerResZoom>0;lowerResZoom--){
+					int lowerResTileX=tileX>>(zoom-lowerResZoom);
+					int lowerResTileY=tileY>>(zoom-lowerResZoom);
+					long lowerResKey=TileKey.key(lowerResZoom,lowerResTileX,lowerResTileY);
+					if (tilesToDraw.contains(lowerResKey))
+						break; //already found for a neighbouring tile
+					im = getCachedTileImage(bingTileType,lowerResZoom,lowerResTileX,lowerResTileY);
+					if (im != null){
+						tilesToDraw.add(lowerResKey,im);
+						break;
+					}
 				}
-				else{
-					//Look for lower resolution tiles that exist
-					for (int quadKeyLength=quadKey.length()-1;quadKeyLength>0;quadKeyLength--){
-						String lowerResQuadKey=quadKey.substring(0,quadKeyLength);
-						im = getTileImage(bingTileType,lowerResQuadKey,true);
-						if (im != null){
-							if (!tilesToDraw.contains(lowerResQuadKey))
-								//if we find one that's not already scheduled for drawing, add
-								tilesToDraw.add(lowerResQuadKey);
-							break;
-						}
+				if (deferFetches){
+					//while moving, request a coarse tile if there isn't one, rather than this one
+					int coarseZoom=Math.max(1,zoom-DEFERRED_FETCH_LEVELS);
+					if (lowerResZoom<coarseZoom){
+						int coarseTileX=tileX>>(zoom-coarseZoom);
+						int coarseTileY=tileY>>(zoom-coarseZoom);
+						if (coarseTilesRequested.add(TileKey.key(coarseZoom,coarseTileX,coarseTileY),null))
+							getTileImage(bingTileType,coarseZoom,coarseTileX,coarseTileY,false);
 					}
 				}
 			}
 		}
 
-		//Sort the tiles by length of key (i.e. resolution) so that the lowest res ones
-		//are drawn first
-		Collections.sort(tilesToDraw,quadKeyLengthComparator);
+		//Sort the tiles by zoom level (i.e. resolution) so that the lowest res ones are drawn
+		//first. The sort is stable, so tiles at each resolution stay in centre-out order
+		tilesToDraw.sortByZoom();
+
+		//Carry on from where the last frame stopped if its tiles are still there
+		int startIndex=0;
+		long signature=1;
+		if (frameBudget!=null){
+			signature=tilesToDraw.getSignature();
+			startIndex=frameBudget.getStartIndex(signature);
+		}
 
 		//Draw tiles
-		for (String quadKey:tilesToDraw){
-			PImage im = getTileImage(bingTileType,quadKey,false);
-			if (im!=null){
-				//identify where to draw the tile
-				zoom=quadKey.length();
-				Point tile = BingTileSystem.quadKeyToTileXY(quadKey);
-				int tileX=tile.x;
-				int tileY=tile.y;
-				PVector p1=new PVector(
-						(float)(SlippyMap.map((float)Mercator.lonToMercX(tileX2Lon(tileX, zoom)),Mercator.getMinMercX(),Mercator.getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width)),
-						//use width below because need assume tiles are square - we can always use width
-						(float)(SlippyMap.map((float)Mercator.latToMercY(tileY2Lat(tileY, zoom)),Mercator.getMinMercY(),Mercator.getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y))
-						);
-				PVector p2=new PVector(
-						(float)(SlippyMap.map((float)Mercator.lonToMercX(tileX2Lon(tileX+1, zoom)),Mercator.getMinMercX(),Mercator.getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width)),
-						//use width below because need assume tiles are square - we can always use width
-						(float)(SlippyMap.map((float)Mercator.latToMercY(tileY2Lat(tileY+1, zoom)),Mercator.getMinMercY(),Mercator.getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y))
-						);
-				//draw it
-				g.image(im,
-						zoomPanState.getCoordToDisp(p1).x,
-						zoomPanState.getCoordToDisp(p1).y,
-						zoomPanState.getCoordToDisp(p2).x-zoomPanState.getCoordToDisp(p1).x,
-						zoomPanState.getCoordToDisp(p2).y-zoomPanState.getCoordToDisp(p1).y
-						);
+		for (int i=startIndex;i<tilesToDraw.size();i++){
+			//at least one tile is drawn, so that carrying on in the next frame gets somewhere
+			if (frameBudget!=null && i>startIndex && frameBudget.isSpent()){
+				frameBudget.stop(signature,i);
+				return false;
 			}
+			//identify where to draw the tile
+			long key=tilesToDraw.getKey(i);
+			int tileZoom=TileKey.zoom(key);
+			int tileX=TileKey.tileX(key);
+			int tileY=TileKey.tileY(key);
+			float x1=(float)viewTransform.tileXToScreenX(tileX, tileZoom);
+			float y1=(float)viewTransform.tileYToScreenY(tileY, tileZoom);
+			float x2=(float)viewTransform.tileXToScreenX(tileX+1, tileZoom);
+			float y2=(float)viewTransform.tileYToScreenY(tileY+1, tileZoom);
+			//draw it (with the image found when it was planned, so it is not looked up again)
+			drawTile(g,tilesToDraw.getImage(i),x1,y1,x2,y2);
+			tileRetriever.metrics.tileDrawn(tileZoom!=zoom);
 			
 			if (Thread.currentThread().isInterrupted())
-				return;
+				return false;
 		}
-		//Draw the Bing image
+		return complete;
+	}
+
+	/** Draws the Bing logo and copyright statement
+	 * 
+	 * @param screenBounds  Screen area of the map
+	 * @param g  The canvas to draw on
+	 */
+	void drawAttribution(Rectangle screenBounds,PGraphics g){
 		if (providerLogo!=null){
 			g.image(providerLogo, (int)screenBounds.getMaxX()-providerLogo.width, (int)screenBounds.getMaxY()-providerLogo.height);
 			g.fill(0);
@@ -237,24 +271,61 @@ class Bing extends BaseMapProvider{
 
 	/** Get a map tile as an image
 	 * 
-	 * @param lat
-	 * @param lon
-	 * @param zoom 
+	 * @param bingTileType  The tile type
+	 * @param zoom  Zoom level
+	 * @param tileX
+	 * @param tileY
+	 * @param onlyGetFromCache  Whether to only read it from the disk cache (not download it)
 	 * @returns PImage
 	 */
-	PImage getTileImage(BingTileType bingTileType,String quadKey, boolean onlyGetFromCache) {
-		String tileUrl=getTileURL(bingTileType, quadKey);
-		String cacheFilename=getTileCacheFileName(bingTileType,quadKey);
-		if (tileUrl!=null && cacheFilename!=null){
-			PImage image=tileRetriever.getTileImage(tileUrl,cacheFilename,onlyGetFromCache);
-			return image;
-		}
-		else{
+	PImage getTileImage(BingTileType bingTileType,int zoom,int tileX,int tileY, boolean onlyGetFromCache) {
+		String cacheFilename=getTileCacheFileName(bingTileType,zoom,tileX,tileY);
+		if (cacheFilename==null)
 			return null;
+		PImage image=tileRetriever.lookUpTileImage(cacheFilename,onlyGetFromCache);
+		if (image==null){
+			//only make the URL if the tile has to be read or fetched
+			String tileUrl=getTileURL(bingTileType,zoom,tileX,tileY);
+			if (tileUrl!=null)
+				tileRetriever.requestTileImage(tileUrl,cacheFilename,TileKey.key(zoom,tileX,tileY),onlyGetFromCache);
 		}
+		return image;
 	}
 
 	
+	/** Get a map tile if it is in the in-memory cache, without reading or retrieving it
+	 * 
+	 * @param bingTileType  The tile type
+	 * @param zoom  Zoom level
+	 * @param tileX
+	 * @param tileY
+	 * @returns PImage
+	 */
+	PImage getCachedTileImage(BingTileType bingTileType,int zoom,int tileX,int tileY) {
+		String cacheFilename=getTileCacheFileName(bingTileType,zoom,tileX,tileY);
+		if (cacheFilename!=null)
+			return tileRetriever.getCachedTileImage(cacheFilename);
+		else
+			return null;
+	}
+
+	/** Gets a map tile without blocking (see TileRetriever.getTileImageAsync())
+	 * 
+	 * @param bingTileType  The tile type
+	 * @param tileX
+	 * @param tileY
+	 * @param zoom
+	 * @return a future that completes with the image
+	 */
+	CompletableFuture<PImage> getTileImageAsync(BingTileType bingTileType,int tileX,int tileY,int zoom){
+		if (zoom<1 || tileX<0 || tileY<0 || tileX>=(1<<zoom) || tileY>=(1<<zoom))
+			return CompletableFuture.<PImage>failedFuture(new IllegalArgumentException("No tile "+tileX+","+tileY+" at zoom level "+zoom));
+		String tileUrl=getTileURL(bingTileType,zoom,tileX,tileY);
+		if (tileUrl==null)
+			return CompletableFuture.<PImage>failedFuture(new IOException("Could not get the Bing tile server details"));
+		return tileRetriever.getTileImageAsync(tileUrl,getTileCacheFileName(bingTileType,zoom,tileX,tileY),TileKey.key(zoom,tileX,tileY));
+	}
+
 	/** Obtain the tile server information from Bing using their API documented
 	 * here: http://msdn.microsoft.com/en-us/library/ff701716.aspx
 	 */
@@ -264,6 +335,7 @@ class Bing extends BaseMapProvider{
 		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder docBuilder=null;
 		Document doc=null;
+		urlTemplates=null;
 		baseUrls=new HashMap<Bing.BingTileType, String>();
 		subdomains=new HashMap<Bing.BingTileType, List<String>>();
 		for (Entry<BingTileType, String> entry:metadataURLs.entrySet()){
@@ -309,66 +381,73 @@ class Bing extends BaseMapProvider{
 				subdomains.put(entry.getKey(), theseSubdomains);
 			}
 			else{
-				//defaults
-				baseUrls=new HashMap<Bing.BingTileType, String>();
-				baseUrls.put(BingTileType.ROAD,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/r{quadkey}.jpeg?g=950&mkt={culture}&shading=hill&stl=H");
-				baseUrls.put(BingTileType.AERIAL_WITH_LABELS,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/h{quadkey}.jpeg?g=950&mkt={culture}&stl=H");
-				baseUrls.put(BingTileType.AERIAL,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/a{quadkey}.jpeg?g=950");
-				subdomains=new HashMap<Bing.BingTileType, List<String>>();
-				ArrayList<String> domains=new ArrayList<String>();
-				domains.add("t0");
-				subdomains.put(BingTileType.AERIAL, domains);
-				subdomains.put(BingTileType.AERIAL_WITH_LABELS, domains);
-				subdomains.put(BingTileType.ROAD, domains);
+				setDefaultBaseUrls();
 			}
 		}
 	}
 
-	private String getTileCacheFileName(BingTileType bingTileType,String quadKey){
-		return "bing-"+bingTileType.toString().toLowerCase()+"-"+quadKey+".jpeg";
+	/** Uses the default tile server URLs instead of those from the Bing metadata
+	 * 
+	 */
+	void setDefaultBaseUrls(){
+		urlTemplates=null;
+		baseUrls=new HashMap<Bing.BingTileType, String>();
+		baseUrls.put(BingTileType.ROAD,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/r{quadkey}.jpeg?g=950&mkt={culture}&shading=hill&stl=H");
+		baseUrls.put(BingTileType.AERIAL_WITH_LABELS,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/h{quadkey}.jpeg?g=950&mkt={culture}&stl=H");
+		baseUrls.put(BingTileType.AERIAL,"http://ecn.{subdomain}.tiles.virtualearth.net/tiles/a{quadkey}.jpeg?g=950");
+		subdomains=new HashMap<Bing.BingTileType, List<String>>();
+		ArrayList<String> domains=new ArrayList<String>();
+		domains.add("t0");
+		subdomains.put(BingTileType.AERIAL, domains);
+		subdomains.put(BingTileType.AERIAL_WITH_LABELS, domains);
+		subdomains.put(BingTileType.ROAD, domains);
 	}
-	
-	private String getTileURL(BingTileType bingTileType,String quadKey){
-		if (baseUrls==null){
-			retrieveBaseUrl();
-		}
 
-		if (baseUrls!=null){
-			//Choose a random subdomain
-			String subdomain=subdomains.get(bingTileType).get((int)(Math.random()*subdomains.size())+1);
-
-			//Substitute the required parameters into the base URL
-			String url=baseUrls.get(bingTileType).replace("{subdomain}",subdomain).replace("{quadkey}",quadKey).replace("{culture}",culture);
-
-			//Set an an parameter of a passThroughURL if this has been identified
-			url+="&ext=.jpeg";//processing needs the image extension to recognise the image type
+	String getTileCacheFileName(BingTileType bingTileType,String quadKey){
+		long tile=BingTileSystem.quadKeyToTileXYPacked(quadKey);
+		return getTileCacheFileName(bingTileType,quadKey.length(),BingTileSystem.unpackX(tile),BingTileSystem.unpackY(tile));
+	}
 
-			return tileRetriever.applyPassThroughURL(url);
+	private String getTileCacheFileName(BingTileType bingTileType,int zoom,int tileX,int tileY){
+		UrlTemplate cacheFileTemplate;
+		synchronized (cacheFileTemplates) {
+			cacheFileTemplate=cacheFileTemplates.get(bingTileType);
+			if (cacheFileTemplate==null){
+				cacheFileTemplate=new UrlTemplate("bing-"+bingTileType.toString().toLowerCase()+"-{q}.jpeg",null);
+				cacheFileTemplates.put(bingTileType,cacheFileTemplate);
+			}
 		}
-		return null;
+		return cacheFileTemplate.expand(zoom,tileX,tileY);
 	}
 	
-	/** Get the longitude of the tile's left side
+	/** Makes the URL of a tile from the base URL, which is compiled into a template the
+	 * first time it is needed
 	 * 
-	 * Adapted from: http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
-	 * @param lat
-	 * @param zoom 
-	 * @returns float
+	 * @param bingTileType  The tile type
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile column
+	 * @param tileY  Tile row
+	 * @return the URL, or null if the base URLs could not be got
 	 */
-	private static double tileX2Lon(int tileX, int zoom){
-		return ((tileX / Math.pow(2.0, zoom) * 360.0) - 180.0);
-	}
+	private String getTileURL(BingTileType bingTileType,int zoom,int tileX,int tileY){
+		if (baseUrls==null){
+			retrieveBaseUrl();
+		}
 
-	/** Get latitude of the tile's top
-	 * 
- 	 * Adapted from: http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
-	 * @param lat
-	 * @param zoom 
-	 * @returns float
-	 */
-	private static double tileY2Lat(int tileY, int zoom){
-		double n = Math.PI - ((2.0 * Math.PI * tileY) / Math.pow(2.0, zoom));
-		return (180.0 / Math.PI * Math.atan(0.5 * (Math.exp(n) - Math.exp(-n))));
+		Map<BingTileType, UrlTemplate> urlTemplates=this.urlTemplates;
+		if (urlTemplates==null && baseUrls!=null){
+			urlTemplates=new HashMap<Bing.BingTileType, UrlTemplate>();
+			for (Entry<BingTileType, String> entry:baseUrls.entrySet()){
+				List<String> tileSubdomains=subdomains.get(entry.getKey());
+				//processing needs the image extension to recognise the image type
+				String template=entry.getValue().replace("{culture}",culture)+"&ext=.jpeg";
+				urlTemplates.put(entry.getKey(),new UrlTemplate(template,tileSubdomains.toArray(new String[tileSubdomains.size()])));
+			}
+			this.urlTemplates=urlTemplates;
+		}
+		if (urlTemplates!=null)
+			return tileRetriever.applyPassThroughURL(urlTemplates.get(bingTileType).expand(zoom,tileX,tileY));
+		return null;
 	}
 
 }
@@ -26,6 +26,9 @@ class BingTileSystem {
 	static private final double maxLatitude = 85.05112878;
 	static private final double minLongitude = -180;
 	static private final double maxLongitude = 180;
+	static private final int TILE_SHIFT = 8; //tiles are 256 (1<<8) pixels square
+	static private final double INV_4PI = 1 / (4 * Math.PI);
+	static private final double DEG_TO_RAD = Math.PI / 180;
 
 	/** Clips a number to the specified minimum and maximum values.
 	 * 
@@ -97,17 +100,8 @@ class BingTileSystem {
 	 * @return pixel XY value
 	 */
 	static Point lonLatToPixelXY(double longitude,double latitude, int levelOfDetail){
-		latitude = clip(latitude, minLatitude, maxLatitude);
-		longitude = clip(longitude, minLongitude, maxLongitude);
-
-		double x = (longitude + 180) / 360; 
-		double sinLatitude = Math.sin(latitude * Math.PI / 180);
-		double y = 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
-
-		int mapSize = mapSize(levelOfDetail);
-		int pixelX = (int) clip(x * mapSize + 0.5, 0, mapSize - 1);
-		int pixelY = (int) clip(y * mapSize + 0.5, 0, mapSize - 1);
-		return new Point(pixelX,pixelY);
+		long pixelXY=lonLatToPixelXYPacked(longitude, latitude, levelOfDetail);
+		return new Point(unpackX(pixelXY),unpackY(pixelXY));
 	}
 
 
@@ -123,13 +117,7 @@ class BingTileSystem {
 	 */
 	static public PVector pixelXYToLatLong(int pixelX, int pixelY, int levelOfDetail)
 	{
-		double mapSize = mapSize(levelOfDetail);
-		double x = (clip(pixelX, 0, mapSize - 1) / mapSize) - 0.5;
-		double y = 0.5 - (clip(pixelY, 0, mapSize - 1) / mapSize);
-
-		float latitude = (float)(90 - 360 * Math.atan(Math.exp(-y * 2 * Math.PI)) / Math.PI);
-		float longitude = (float)(360 * x);
-		return new PVector(longitude,latitude);
+		return new PVector((float)pixelXToLon(pixelX, levelOfDetail),(float)pixelYToLat(pixelY, levelOfDetail));
 	}
 
 
@@ -143,9 +131,8 @@ class BingTileSystem {
 	 * @return Tile x/y
 	 */
 	static Point pixelXYToTileXY(int pixelX, int pixelY){
-		int x= pixelX / 256;
-		int y = pixelY / 256;
-		return new Point(x,y);
+		long tileXY=pixelXYToTileXYPacked(pixelX, pixelY);
+		return new Point(unpackX(tileXY),unpackY(tileXY));
 	}
 
 
@@ -160,9 +147,8 @@ class BingTileSystem {
 	 * @return xy
 	 */
 	static Point tileXYToPixelXY(int tileX, int tileY){
-		int pixelX = tileX * 256;
-		int pixelY = tileY * 256;
-		return new Point(pixelX,pixelY);
+		long pixelXY=tileXYToPixelXYPacked(tileX, tileY);
+		return new Point(unpackX(pixelXY),unpackY(pixelXY));
 	}
 
 
@@ -177,23 +163,9 @@ class BingTileSystem {
 	 * @return quadkey
 	 */
 	static String tileXYToQuadKey(int tileX, int tileY, int levelOfDetail){
-		StringBuilder quadKey = new StringBuilder();
-		for (int i = levelOfDetail; i > 0; i--)
-		{
-			char digit = '0';
-			int mask = 1 << (i - 1);
-			if ((tileX & mask) != 0)
-			{
-				digit++;
-			}
-			if ((tileY & mask) != 0)
-			{
-				digit++;
-				digit++;
-			}
-			quadKey.append(digit);
-		}
-		return quadKey.toString();
+		char[] quadKey=new char[levelOfDetail];
+		tileXYToQuadKey(tileX, tileY, levelOfDetail, quadKey);
+		return new String(quadKey);
 	}
 
 
@@ -204,37 +176,275 @@ class BingTileSystem {
 	 * 
 	 * @param quadKey QuadKey of the tile
 	 * @return tileX/tileY
+	 * @throws IllegalArgumentException if the QuadKey contains anything other than 0-3
 	 */
 	static Point quadKeyToTileXY(String quadKey){
+		long tileXY=quadKeyToTileXYPacked(quadKey);
+		return new Point(unpackX(tileXY),unpackY(tileXY));
+	}
+
+
+	//----------------------------------------------------------------------------------
+	// Primitive versions of the above. These write into caller-supplied arrays or return
+	// x/y pairs packed into a long (x in the high 32 bits, y in the low 32 bits) so that
+	// they can be called in tight loops without creating any objects.
+	//----------------------------------------------------------------------------------
+
+	/** Packs an x/y pair into a single long
+	 * 
+	 * @param x  X value (high 32 bits)
+	 * @param y  Y value (low 32 bits)
+	 * @return packed x/y
+	 */
+	static long pack(int x, int y){
+		return ((long)x<<32) | (y & 0xffffffffL);
+	}
+
+	/** Gets the x value from a packed x/y pair
+	 * 
+	 * @param xy  Packed x/y (see pack())
+	 * @return x
+	 */
+	static int unpackX(long xy){
+		return (int)(xy>>>32);
+	}
+
+	/** Gets the y value from a packed x/y pair
+	 * 
+	 * @param xy  Packed x/y (see pack())
+	 * @return y
+	 */
+	static int unpackY(long xy){
+		return (int)xy;
+	}
+
+	/** Converts a longitude into a pixel X coordinate at a specified level of detail.
+	 * 
+	 * @param longitude  Longitude of the point, in degrees
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @return pixel X
+	 */
+	static int lonToPixelX(double longitude, int levelOfDetail){
+		if (longitude<minLongitude)
+			longitude=minLongitude;
+		else if (longitude>maxLongitude)
+			longitude=maxLongitude;
+		double mapSize = 256L << levelOfDetail;
+		double pixelX = (longitude + 180) / 360 * mapSize + 0.5;
+		return (int)(pixelX<mapSize-1?pixelX:mapSize-1);
+	}
+
+	/** Converts a latitude into a pixel Y coordinate at a specified level of detail.
+	 * 
+	 * @param latitude  Latitude of the point, in degrees
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @return pixel Y
+	 */
+	static int latToPixelY(double latitude, int levelOfDetail){
+		if (latitude<minLatitude)
+			latitude=minLatitude;
+		else if (latitude>maxLatitude)
+			latitude=maxLatitude;
+		double mapSize = 256L << levelOfDetail;
+		double sinLatitude = Math.sin(latitude * DEG_TO_RAD);
+		double pixelY = (0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) * INV_4PI) * mapSize + 0.5;
+		if (pixelY<0)
+			return 0;
+		return (int)(pixelY<mapSize-1?pixelY:mapSize-1);
+	}
+
+	/** Converts a pixel X coordinate at a specified level of detail into a longitude
+	 * 
+	 * @param pixelX  X coordinate of the point, in pixels.
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @return longitude
+	 */
+	static double pixelXToLon(int pixelX, int levelOfDetail){
+		double mapSize = 256L << levelOfDetail;
+		return 360 * ((clip(pixelX, 0, mapSize - 1) / mapSize) - 0.5);
+	}
+
+	/** Converts a pixel Y coordinate at a specified level of detail into a latitude
+	 * 
+	 * @param pixelY  Y coordinate of the point, in pixels.
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @return latitude
+	 */
+	static double pixelYToLat(int pixelY, int levelOfDetail){
+		double mapSize = 256L << levelOfDetail;
+		double y = 0.5 - (clip(pixelY, 0, mapSize - 1) / mapSize);
+		return 90 - 360 * Math.atan(Math.exp(-y * 2 * Math.PI)) / Math.PI;
+	}
+
+	/** Converts a lon/lat into pixel XY coordinates, packed into a long
+	 * 
+	 * @param longitude  Longitude of the point, in degrees
+	 * @param latitude  Latitude of the point, in degrees
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @return packed pixel XY (see unpackX() and unpackY())
+	 */
+	static long lonLatToPixelXYPacked(double longitude, double latitude, int levelOfDetail){
+		return pack(lonToPixelX(longitude, levelOfDetail),latToPixelY(latitude, levelOfDetail));
+	}
+
+	/** Converts a lon/lat into pixel XY coordinates
+	 * 
+	 * @param longitude  Longitude of the point, in degrees
+	 * @param latitude  Latitude of the point, in degrees
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @param pixelXY  Array of at least 2 into which pixel X and Y are written
+	 */
+	static void lonLatToPixelXY(double longitude, double latitude, int levelOfDetail, int[] pixelXY){
+		pixelXY[0]=lonToPixelX(longitude, levelOfDetail);
+		pixelXY[1]=latToPixelY(latitude, levelOfDetail);
+	}
+
+	/** Converts arrays of lon/lats into pixel XY coordinates
+	 * 
+	 * @param longitudes  Longitudes, in degrees
+	 * @param latitudes  Latitudes, in degrees
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @param pixelXs  Array into which pixel Xs are written (at least as long as longitudes)
+	 * @param pixelYs  Array into which pixel Ys are written (at least as long as latitudes)
+	 */
+	static void lonLatToPixelXY(double[] longitudes, double[] latitudes, int levelOfDetail, int[] pixelXs, int[] pixelYs){
+		int n=longitudes.length;
+		for (int i=0;i<n;i++){
+			pixelXs[i]=lonToPixelX(longitudes[i], levelOfDetail);
+			pixelYs[i]=latToPixelY(latitudes[i], levelOfDetail);
+		}
+	}
+
+	/** Converts a pixel XY coordinates into a lon/lat
+	 * 
+	 * @param pixelX  X coordinate of the point, in pixels.
+	 * @param pixelY  Y coordinates of the point, in pixels.
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @param lonLat  Array of at least 2 into which longitude and latitude are written
+	 */
+	static void pixelXYToLonLat(int pixelX, int pixelY, int levelOfDetail, double[] lonLat){
+		lonLat[0]=pixelXToLon(pixelX, levelOfDetail);
+		lonLat[1]=pixelYToLat(pixelY, levelOfDetail);
+	}
+
+	/** Converts arrays of pixel XY coordinates into lon/lats
+	 * 
+	 * @param pixelXs  Pixel X coordinates
+	 * @param pixelYs  Pixel Y coordinates
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @param longitudes  Array into which longitudes are written (at least as long as pixelXs)
+	 * @param latitudes  Array into which latitudes are written (at least as long as pixelYs)
+	 */
+	static void pixelXYToLonLat(int[] pixelXs, int[] pixelYs, int levelOfDetail, double[] longitudes, double[] latitudes){
+		int n=pixelXs.length;
+		for (int i=0;i<n;i++){
+			longitudes[i]=pixelXToLon(pixelXs[i], levelOfDetail);
+			latitudes[i]=pixelYToLat(pixelYs[i], levelOfDetail);
+		}
+	}
+
+	/** Converts pixel XY coordinates into the tile XY of the tile containing it, packed into a long
+	 * 
+	 * @param pixelX  Pixel X coordinate
+	 * @param pixelY  Pixel Y coordinate
+	 * @return packed tile XY (see unpackX() and unpackY())
+	 */
+	static long pixelXYToTileXYPacked(int pixelX, int pixelY){
+		return pack(pixelX>>TILE_SHIFT,pixelY>>TILE_SHIFT);
+	}
+
+	/** Converts arrays of pixel XY coordinates into tile XYs. The output arrays can be the 
+	 * same as the input arrays.
+	 * 
+	 * @param pixelXs  Pixel X coordinates
+	 * @param pixelYs  Pixel Y coordinates
+	 * @param tileXs  Array into which tile Xs are written (at least as long as pixelXs)
+	 * @param tileYs  Array into which tile Ys are written (at least as long as pixelYs)
+	 */
+	static void pixelXYToTileXY(int[] pixelXs, int[] pixelYs, int[] tileXs, int[] tileYs){
+		int n=pixelXs.length;
+		for (int i=0;i<n;i++){
+			tileXs[i]=pixelXs[i]>>TILE_SHIFT;
+			tileYs[i]=pixelYs[i]>>TILE_SHIFT;
+		}
+	}
+
+	/** Converts tile XY coordinates into the pixel XY of the tile's upper-left pixel, packed
+	 * into a long
+	 * 
+	 * @param tileX  Tile X coordinate
+	 * @param tileY  Tile Y coordinate
+	 * @return packed pixel XY (see unpackX() and unpackY())
+	 */
+	static long tileXYToPixelXYPacked(int tileX, int tileY){
+		return pack(tileX<<TILE_SHIFT,tileY<<TILE_SHIFT);
+	}
+
+	/** Converts arrays of tile XY coordinates into the pixel XYs of their upper-left pixels.
+	 * The output arrays can be the same as the input arrays.
+	 * 
+	 * @param tileXs  Tile X coordinates
+	 * @param tileYs  Tile Y coordinates
+	 * @param pixelXs  Array into which pixel Xs are written (at least as long as tileXs)
+	 * @param pixelYs  Array into which pixel Ys are written (at least as long as tileYs)
+	 */
+	static void tileXYToPixelXY(int[] tileXs, int[] tileYs, int[] pixelXs, int[] pixelYs){
+		int n=tileXs.length;
+		for (int i=0;i<n;i++){
+			pixelXs[i]=tileXs[i]<<TILE_SHIFT;
+			pixelYs[i]=tileYs[i]<<TILE_SHIFT;
+		}
+	}
+
+	/** Writes the QuadKey of a tile into a char buffer.
+	 * 
+	 * @param tileX  Tile X coordinate
+	 * @param tileY  Tile Y coordinate
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 23 (highest detail).
+	 * @param quadKey  Buffer of at least levelOfDetail chars to write the QuadKey into
+	 * @return number of chars written (equal to levelOfDetail)
+	 */
+	static int tileXYToQuadKey(int tileX, int tileY, int levelOfDetail, char[] quadKey){
+		for (int i = levelOfDetail; i > 0; i--){
+			int bit = i - 1;
+			quadKey[levelOfDetail-i]=(char)('0' + (((tileX >>> bit) & 1) | (((tileY >>> bit) & 1) << 1)));
+		}
+		return levelOfDetail;
+	}
+
+	/** Converts a QuadKey into tile XY coordinates, packed into a long.
+	 * 
+	 * @param quadKey QuadKey of the tile
+	 * @return packed tile XY (see unpackX() and unpackY())
+	 * @throws IllegalArgumentException if the QuadKey contains anything other than 0-3
+	 */
+	static long quadKeyToTileXYPacked(CharSequence quadKey){
 		int tileX = 0;
 		int tileY = 0;
 		int levelOfDetail = quadKey.length();
-		for (int i = levelOfDetail; i > 0; i--)
-		{
-			int mask = 1 << (i - 1);
-			switch (quadKey.charAt(levelOfDetail - i))
-			{
-			case '0':
-				break;
-
-			case '1':
-				tileX |= mask;
-				break;
-
-			case '2':
-				tileY |= mask;
-				break;
-
-			case '3':
-				tileX |= mask;
-				tileY |= mask;
-				break;
-
-			default:
-				System.out.println("Invalid quadkey");
-			}
+		for (int i = 0; i < levelOfDetail; i++){
+			int digit = quadKey.charAt(i) - '0';
+			if (digit < 0 || digit > 3)
+				throw new IllegalArgumentException("Invalid quadkey: "+quadKey);
+			tileX = (tileX << 1) | (digit & 1);
+			tileY = (tileY << 1) | (digit >> 1);
 		}
-		return new Point(tileX,tileY);
+		return pack(tileX,tileY);
 	}
-}
 
+	/** Converts arrays of tile XYs into arrays of lon/lats of their upper-left corners. 
+	 * 
+	 * @param tileXs  Tile X coordinates
+	 * @param tileYs  Tile Y coordinates
+	 * @param levelOfDetail  Level of detail, from 1 (lowest detail) to 22 (highest detail).
+	 * @param longitudes  Array into which longitudes are written (at least as long as tileXs)
+	 * @param latitudes  Array into which latitudes are written (at least as long as tileYs)
+	 */
+	static void tileXYToLonLat(int[] tileXs, int[] tileYs, int levelOfDetail, double[] longitudes, double[] latitudes){
+		int n=tileXs.length;
+		for (int i=0;i<n;i++){
+			longitudes[i]=pixelXToLon(tileXs[i]<<TILE_SHIFT, levelOfDetail);
+			latitudes[i]=pixelYToLat(tileYs[i]<<TILE_SHIFT, levelOfDetail);
+		}
+	}
+}
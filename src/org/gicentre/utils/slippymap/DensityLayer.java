@@ -0,0 +1,367 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.gicentre.utils.move.ZoomPanState;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Draws the density of the points of a PointLayer as a heatmap or dot-density raster.
+ *
+ * Points are counted into a grid of bins for each map tile, using the same z/x/y tiling
+ * scheme as the base map tiles. Grids are built in parallel in other threads and kept in
+ * an in-memory cache, so panning only counts the newly exposed tiles. When zooming out,
+ * grids are made from the four child grids if they have been built; when zooming in,
+ * the parent grid is drawn until the new ones are ready. Listeners are informed when
+ * grids become available, as with base map tiles.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class DensityLayer {
+
+	/** How densities are drawn
+	 *
+	 */
+	static public enum DensityStyle{
+		HEATMAP, //each bin is coloured by its count
+		DOTS     //a dot in each bin that has points, coloured by its count
+	}
+
+	static final int GRID=64; //bins across each tile
+	static private final int DOT_CELL=4; //pixels across each bin when drawing dots
+	static private final int MAX_ZOOM=20;
+	static private final int MAX_FALLBACK_LEVELS=6; //GRID>>6 is a single bin
+	static private final int THREAD_KEEP_ALIVE=10; //seconds an idle counting thread is kept for
+
+	private PointLayer pointLayer;
+	private LRUCache<Long, DensityTile> tileCache;
+	private Set<Long> pending=new HashSet<Long>(); //tiles being counted
+	private ExecutorService executor;
+	private Set<SlippyMapListener> slippyMapListeners=new CopyOnWriteArraySet<SlippyMapListener>();
+
+	private DensityStyle densityStyle=DensityStyle.HEATMAP;
+	private int lowColour=0x400000ff; //colour of bins with one point
+	private int highColour=0xc0ff0000; //colour of bins with maxCount or more
+	private int maxCount=50;
+	private int styleVersion=0; //incremented when the style changes, so images are remade
+	private TileGeometry.TileImages cachedImages=new TileGeometry.TileImages(){
+		public PImage getImage(long key){
+			DensityTile tile=getCachedTile(key);
+			return tile==null?null:DensityLayer.this.getImage(tile);
+		}
+	};
+
+	/** A tile's grid of counts and its image
+	 */
+	static class DensityTile{
+		int[] counts=new int[GRID*GRID];
+		PImage image;
+		int imageStyleVersion=-1;
+	}
+
+	/** Constructor
+	 *
+	 * Caches the grids of 500 tiles.
+	 *
+	 * @param pointLayer  The points
+	 */
+	public DensityLayer(PointLayer pointLayer){
+		this(pointLayer,500);
+	}
+
+	/** Constructor
+	 *
+	 * @param pointLayer  The points
+	 * @param maxTilesInCache  Number of tile grids held in the in-memory cache
+	 */
+	public DensityLayer(PointLayer pointLayer,int maxTilesInCache){
+		this.pointLayer=pointLayer;
+		tileCache=new LRUCache<Long, DensityTile>(maxTilesInCache);
+		int numThreads=Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor threadPool=new ThreadPoolExecutor(numThreads,numThreads,THREAD_KEEP_ALIVE,TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread thread=new Thread(r,"DensityLayer");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		threadPool.allowCoreThreadTimeOut(true); //no threads while nothing is being counted
+		executor=threadPool;
+	}
+
+	/** Sets how densities are drawn
+	 *
+	 * @param densityStyle
+	 */
+	public void setDensityStyle(DensityStyle densityStyle){
+		this.densityStyle=densityStyle;
+		styleVersion++;
+	}
+
+	/** Sets the colours used. Colours are interpolated between these on a log scale.
+	 *
+	 * @param lowColour  Colour of bins with one point
+	 * @param highColour  Colour of bins with maxCount or more points
+	 * @param maxCount  Count at which the high colour is used
+	 */
+	public void setColours(int lowColour,int highColour,int maxCount){
+		this.lowColour=lowColour;
+		this.highColour=highColour;
+		this.maxCount=Math.max(1,maxCount);
+		styleVersion++;
+	}
+
+	/** Adds a listener. This will be informed when the grid of a tile is available to draw
+	 *
+	 * @param slippyMapListener
+	 */
+	public void addSlippyMapListener(SlippyMapListener slippyMapListener){
+		slippyMapListeners.add(slippyMapListener);
+	}
+
+	/** Removes a listener
+	 *
+	 * @param slippyMapListener
+	 */
+	public void removeSlippyMapListener(SlippyMapListener slippyMapListener){
+		slippyMapListeners.remove(slippyMapListener);
+	}
+
+	/** Stops the threads that count points now, rather than when they have been idle for a
+	 * while. The layer cannot be used afterwards.
+	 *
+	 */
+	public void dispose(){
+		executor.shutdownNow();
+	}
+
+	/** Draws the density of points in the viewport
+	 *
+	 * @param slippyMap  The map
+	 * @param zoomPanState  Zoom/pan state - usually that of ZoomPan at the start of the sketch's
+	 * draw loop
+	 * @param canvas  The canvas to draw on
+	 */
+	public void draw(SlippyMap slippyMap,ZoomPanState zoomPanState,PGraphics canvas){
+		ViewTransform viewTransform=slippyMap.getViewTransform(zoomPanState);
+		LonLatBounds viewPort=slippyMap.getLonLatViewPort(zoomPanState);
+
+		//use the level at which tiles are closest to 256 pixels across
+		int zoom=(int)Math.round(Math.log(viewTransform.tileScreenWidth(0)/256)/Math.log(2));
+		zoom=Math.max(0,Math.min(MAX_ZOOM,zoom));
+		int firstTileX=TileGeometry.lonToTileX(viewPort.getMinX(),zoom);
+		int lastTileX=TileGeometry.lonToTileX(viewPort.getMaxX(),zoom);
+		int firstTileY=TileGeometry.latToTileY(viewPort.getMaxY(),zoom);
+		int lastTileY=TileGeometry.latToTileY(viewPort.getMinY(),zoom);
+
+		for (int tileX=firstTileX;tileX<=lastTileX;tileX++){
+			for (int tileY=firstTileY;tileY<=lastTileY;tileY++){
+				float x1=(float)viewTransform.tileXToScreenX(tileX,zoom);
+				float y1=(float)viewTransform.tileYToScreenY(tileY,zoom);
+				float x2=(float)viewTransform.tileXToScreenX(tileX+1,zoom);
+				float y2=(float)viewTransform.tileYToScreenY(tileY+1,zoom);
+				DensityTile tile=getTile(zoom,tileX,tileY);
+				if (tile!=null){
+					PImage image=getImage(tile);
+					canvas.image(image,x1,y1,x2-x1,y2-y1);
+				}
+				else{
+					//draw the relevant part of the nearest coarser grid that is available
+					TileGeometry.drawFromParent(canvas,cachedImages,zoom,tileX,tileY,MAX_FALLBACK_LEVELS,x1,y1,x2,y2);
+				}
+			}
+		}
+	}
+
+	/** Gets a tile's grid from the cache, makes it from its children if they are all cached,
+	 * or otherwise queues it for counting and returns null
+	 *
+	 * @param zoom
+	 * @param tileX
+	 * @param tileY
+	 * @return the tile or null if not yet available
+	 */
+	private DensityTile getTile(int zoom,int tileX,int tileY){
+		long key=TileKey.key(zoom,tileX,tileY);
+		DensityTile tile=getCachedTile(key);
+		if (tile!=null)
+			return tile;
+		if (zoom<MAX_ZOOM){
+			tile=fromChildren(zoom,tileX,tileY);
+			if (tile!=null){
+				synchronized (tileCache) {
+					tileCache.put(key,tile);
+				}
+				return tile;
+			}
+		}
+		requestTile(key);
+		return null;
+	}
+
+	private DensityTile getCachedTile(long key){
+		synchronized (tileCache) {
+			return tileCache.get(key);
+		}
+	}
+
+	/** Queues the counting of a tile in another thread
+	 *
+	 * @param key
+	 */
+	private void requestTile(final long key){
+		synchronized (pending) {
+			if (!pending.add(key))
+				return; //already queued
+		}
+		executor.execute(new Runnable(){
+			public void run(){
+				try{
+					DensityTile tile=countTile(TileKey.zoom(key),TileKey.tileX(key),TileKey.tileY(key));
+					synchronized (tileCache) {
+						tileCache.put(key,tile);
+					}
+				}
+				finally{
+					//so it is counted again when next drawn if counting failed
+					synchronized (pending) {
+						pending.remove(key);
+					}
+				}
+				for (SlippyMapListener slippyMapListener:slippyMapListeners)
+					slippyMapListener.newTileAvailable();
+			}
+		});
+	}
+
+	/** Counts the points in each bin of a tile
+	 *
+	 * @param zoom
+	 * @param tileX
+	 * @param tileY
+	 * @return the tile
+	 */
+	DensityTile countTile(int zoom,int tileX,int tileY){
+		DensityTile tile=new DensityTile();
+		//the points in the tile (or in the level 16 tile that contains it) are contiguous
+		int indexZoom=Math.min(zoom,PointLayer.LEVEL);
+		long range=pointLayer.tileRange(indexZoom,tileX>>(zoom-indexZoom),tileY>>(zoom-indexZoom));
+		int from=BingTileSystem.unpackX(range);
+		int to=BingTileSystem.unpackY(range);
+		double scale=(double)(1L<<zoom)*GRID;
+		double minBinX=(double)tileX*GRID;
+		double minBinY=(double)tileY*GRID;
+		int[] counts=tile.counts;
+		for (int i=from;i<to;i++){
+			int binX=(int)Math.floor(TileGeometry.lonToUnitX(pointLayer.lons[i])*scale-minBinX);
+			int binY=(int)Math.floor(TileGeometry.latToUnitY(pointLayer.lats[i])*scale-minBinY);
+			if (binX>=0 && binX<GRID && binY>=0 && binY<GRID)
+				counts[binY*GRID+binX]++;
+		}
+		return tile;
+	}
+
+	/** Makes a tile's grid by adding up 2x2 bins of the grids of its four children, if they
+	 * are all in the cache
+	 *
+	 * @param zoom
+	 * @param tileX
+	 * @param tileY
+	 * @return the tile, or null if any of the children are not cached
+	 */
+	private DensityTile fromChildren(int zoom,int tileX,int tileY){
+		DensityTile[] children=new DensityTile[4];
+		for (int i=0;i<4;i++){
+			children[i]=getCachedTile(TileKey.key(zoom+1,(tileX<<1)|(i&1),(tileY<<1)|(i>>1)));
+			if (children[i]==null)
+				return null;
+		}
+		DensityTile tile=new DensityTile();
+		int half=GRID/2;
+		for (int binY=0;binY<GRID;binY++){
+			for (int binX=0;binX<GRID;binX++){
+				int[] childCounts=children[(binX/half)|((binY/half)<<1)].counts;
+				int childBinX=(binX%half)*2;
+				int childBinY=(binY%half)*2;
+				int i=childBinY*GRID+childBinX;
+				tile.counts[binY*GRID+binX]=childCounts[i]+childCounts[i+1]+childCounts[i+GRID]+childCounts[i+GRID+1];
+			}
+		}
+		return tile;
+	}
+
+	/** Gets the image of a tile's grid, making it if it hasn't been made with the current style
+	 *
+	 * @param tile
+	 * @return image
+	 */
+	private PImage getImage(DensityTile tile){
+		if (tile.image!=null && tile.imageStyleVersion==styleVersion)
+			return tile.image;
+		double logMax=Math.log(1+maxCount);
+		PImage image;
+		if (densityStyle==DensityStyle.HEATMAP){
+			image=new PImage(GRID,GRID,PConstants.ARGB);
+			for (int i=0;i<GRID*GRID;i++)
+				image.pixels[i]=getColour(tile.counts[i],logMax);
+		}
+		else{
+			int size=GRID*DOT_CELL;
+			image=new PImage(size,size,PConstants.ARGB);
+			for (int binY=0;binY<GRID;binY++){
+				for (int binX=0;binX<GRID;binX++){
+					int count=tile.counts[binY*GRID+binX];
+					if (count>0){
+						//2x2 dot in the middle of the bin
+						int colour=getColour(count,logMax);
+						int p=(binY*DOT_CELL+DOT_CELL/2-1)*size+binX*DOT_CELL+DOT_CELL/2-1;
+						image.pixels[p]=colour;
+						image.pixels[p+1]=colour;
+						image.pixels[p+size]=colour;
+						image.pixels[p+size+1]=colour;
+					}
+				}
+			}
+		}
+		image.updatePixels();
+		tile.image=image;
+		tile.imageStyleVersion=styleVersion;
+		return image;
+	}
+
+	private int getColour(int count,double logMax){
+		if (count==0)
+			return 0;
+		float amount=(float)Math.min(1,Math.log(1+count)/logMax);
+		return PGraphics.lerpColor(lowColour,highColour,amount,PConstants.RGB);
+	}
+}
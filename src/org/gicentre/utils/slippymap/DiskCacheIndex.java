@@ -0,0 +1,205 @@
+package org.gicentre.utils.slippymap;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+//****************************************************************************************
+/** An in-memory index of the tiles in a disk cache directory, so that tiles that are not on
+ * disk can be found out about without touching the file system. It holds a 64-bit hash of
+ * each file name in an open-addressing hash set (about 8-16 bytes per tile), so saying that a
+ * tile is not on disk is always right, and saying that it is is only wrong if the file has
+ * been deleted by something else (which the read that follows finds out, and removes it).
+ *
+ * It is built by listing the directory in the background. Until then, every tile might be on
+ * disk. There is one index for each directory, shared by the retrievers using it, and it is
+ * kept up to date as tiles are written and found to be missing. Files written to the
+ * directory by other programs after it is built are not known about (the tiles are
+ * downloaded again).
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class DiskCacheIndex {
+
+	static private final long EMPTY=0; //hash of no file (no file name hashes to this)
+	static private Map<String,DiskCacheIndex> indexes=new HashMap<String,DiskCacheIndex>(); //by directory (guarded by class)
+
+	private final File directory;
+	private long[] hashes=new long[1024]; //open addressing with linear probing (size is a power of 2)
+	private int size=0;
+	private volatile boolean ready=false; //whether the directory has been listed
+
+	/** Constructor. The index is not ready until build() has been called
+	 *
+	 * @param directory  The disk cache directory
+	 */
+	DiskCacheIndex(File directory){
+		this.directory=directory;
+	}
+
+	/** Gets the index of a disk cache directory, starting to build it if there isn't one
+	 *
+	 * @param directory  The disk cache directory
+	 * @param executor  Builds the index
+	 * @return the index
+	 */
+	static synchronized DiskCacheIndex forDirectory(String directory,Executor executor){
+		String key=new File(directory).getAbsolutePath();
+		DiskCacheIndex index=indexes.get(key);
+		if (index==null){
+			final DiskCacheIndex newIndex=new DiskCacheIndex(new File(key));
+			indexes.put(key,newIndex);
+			executor.execute(new Runnable(){
+				public void run(){
+					newIndex.build();
+				}
+			});
+			index=newIndex;
+		}
+		return index;
+	}
+
+	/** Lists the directory and adds the tiles in it. Tiles added or removed while this is
+	 * running are kept
+	 *
+	 */
+	void build(){
+		String[] fileNames=directory.list();
+		if (fileNames!=null){
+			for (String fileName:fileNames)
+				if (!fileName.endsWith(".tmp")) //being written
+					add(fileName);
+		}
+		ready=true;
+	}
+
+	boolean isReady(){
+		return ready;
+	}
+
+	/** Whether a tile might be on disk
+	 *
+	 * @param cacheFilename
+	 * @return false if it is definitely not, true if it is (or the index is not ready)
+	 */
+	boolean mightContain(String cacheFilename){
+		if (!ready)
+			return true;
+		long hash=hash(cacheFilename);
+		synchronized (this) {
+			return hashes[find(hash)]==hash;
+		}
+	}
+
+	/** Records that a tile has been written to disk
+	 *
+	 * @param cacheFilename
+	 */
+	void add(String cacheFilename){
+		long hash=hash(cacheFilename);
+		synchronized (this) {
+			int slot=find(hash);
+			if (hashes[slot]==hash)
+				return;
+			hashes[slot]=hash;
+			size++;
+			if (size*2>hashes.length) //keep it no more than half full
+				resize(hashes.length*2);
+		}
+	}
+
+	/** Records that a tile is no longer on disk
+	 *
+	 * @param cacheFilename
+	 */
+	void remove(String cacheFilename){
+		long hash=hash(cacheFilename);
+		synchronized (this) {
+			int slot=find(hash);
+			if (hashes[slot]!=hash)
+				return;
+			hashes[slot]=EMPTY;
+			size--;
+			//move back those after it that would no longer be found
+			int mask=hashes.length-1;
+			int next=(slot+1)&mask;
+			while (hashes[next]!=EMPTY){
+				int home=(int)hashes[next]&mask;
+				//whether home is cyclically outside (slot,next]
+				if (slot<=next?(home<=slot || home>next):(home<=slot && home>next)){
+					hashes[slot]=hashes[next];
+					hashes[next]=EMPTY;
+					slot=next;
+				}
+				next=(next+1)&mask;
+			}
+		}
+	}
+
+	synchronized int size(){
+		return size;
+	}
+
+	/** Finds the slot holding a hash, or the empty slot where it would go. Must be called
+	 * while holding this
+	 *
+	 * @param hash
+	 * @return the slot
+	 */
+	private int find(long hash){
+		int mask=hashes.length-1;
+		int slot=(int)hash&mask;
+		while (hashes[slot]!=EMPTY && hashes[slot]!=hash)
+			slot=(slot+1)&mask;
+		return slot;
+	}
+
+	/** Rehashes into a bigger array. Must be called while holding this
+	 *
+	 * @param capacity  Power of 2
+	 */
+	private void resize(int capacity){
+		long[] oldHashes=hashes;
+		hashes=new long[capacity];
+		for (long hash:oldHashes)
+			if (hash!=EMPTY)
+				hashes[find(hash)]=hash;
+	}
+
+	/** 64-bit FNV-1a hash of a file name, mixed so that the low bits used for the slot are
+	 * well spread
+	 *
+	 * @param cacheFilename
+	 * @return the hash (never EMPTY)
+	 */
+	static long hash(String cacheFilename){
+		long hash=0xcbf29ce484222325L;
+		for (int i=0;i<cacheFilename.length();i++){
+			hash^=cacheFilename.charAt(i);
+			hash*=0x100000001b3L;
+		}
+		hash^=hash>>>32;
+		return hash==EMPTY?1:hash;
+	}
+}
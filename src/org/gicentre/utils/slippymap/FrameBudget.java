@@ -0,0 +1,107 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** Limits the time spent drawing the tiles of a frame. Tiles are drawn in order of
+ * importance (lower resolution tiles that cover the map first, then the right tiles from
+ * the centre out) and drawing stops when the time is up. Finding which tiles to draw is
+ * not stopped, as it needs to be done again to carry on, and at least one tile is drawn
+ * each time, so that carrying on always gets somewhere. If the frame is kept (see
+ * FrameCache) and the view has not changed, the next frame carries on from where it
+ * stopped rather than drawing those tiles again.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class FrameBudget {
+
+	private long deadline=Long.MAX_VALUE; //System.nanoTime() by which drawing should stop
+	private boolean resuming=false; //whether the tiles drawn when the last frame was stopped are still there
+	private boolean stopped=false; //whether drawing has been stopped in this frame
+	private long stoppedSignature; //the tiles being drawn when drawing was last stopped (see getSignature())
+	private int stoppedIndex=0; //how many of them had been drawn
+
+	/** Starts a frame
+	 *
+	 * @param startNanos  When the frame started (System.nanoTime())
+	 * @param budgetNanos  Time allowed for drawing (0 or less for no limit)
+	 */
+	void startFrame(long startNanos,long budgetNanos){
+		deadline=budgetNanos>0?startNanos+budgetNanos:Long.MAX_VALUE;
+		stopped=false;
+		resuming=false;
+	}
+
+	/** Sets whether the tiles drawn before drawing was last stopped are still there (i.e.
+	 * drawing into the same buffer with the same view), so need not be drawn again
+	 *
+	 * @param resuming
+	 */
+	void setResuming(boolean resuming){
+		this.resuming=resuming;
+	}
+
+	/** Whether the time is up. Once it is, drawing should stop
+	 *
+	 * @return
+	 */
+	boolean isSpent(){
+		return deadline!=Long.MAX_VALUE && System.nanoTime()>=deadline;
+	}
+
+	/** Finds where to start drawing a list of tiles
+	 *
+	 * @param signature  Signature of the tiles (see getSignature())
+	 * @return index of the first tile to draw (0 unless resuming the same tiles)
+	 */
+	int getStartIndex(long signature){
+		return resuming && signature==stoppedSignature?stoppedIndex:0;
+	}
+
+	/** Records that drawing a list of tiles has been stopped because the time is up
+	 *
+	 * @param signature  Signature of the tiles (see getSignature())
+	 * @param index  Index of the first tile that was not drawn
+	 */
+	void stop(long signature,int index){
+		stopped=true;
+		stoppedSignature=signature;
+		stoppedIndex=index;
+	}
+
+	/** Whether drawing has been stopped in this frame
+	 *
+	 * @return
+	 */
+	boolean isStopped(){
+		return stopped;
+	}
+
+	/** Adds a tile to the signature of a list of tiles
+	 *
+	 * @param signature  Signature of the tiles before it (1 for the first)
+	 * @param tileKey  The tile (see TileKey)
+	 * @return the signature
+	 */
+	static long getSignature(long signature,long tileKey){
+		return signature*31+tileKey;
+	}
+}
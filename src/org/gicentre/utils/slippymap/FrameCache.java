@@ -0,0 +1,221 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+
+//****************************************************************************************
+/** Keeps the composed map (tiles and overlays) from the previous frame in an offscreen
+ * buffer. If only the pan has changed (by whole pixels) and no tiles have arrived since,
+ * the buffer is shifted by the pan and only the newly exposed strips are drawn. Otherwise
+ * the whole buffer is drawn again. If drawing the whole buffer was stopped (see FrameBudget)
+ * and nothing has changed, it is carried on with in the next frame (if drawing a strip was
+ * stopped, the whole buffer is drawn again). Until then, what is drawn over the map (see
+ * Painter.paintOver()) is drawn on the canvas over the unfinished areas.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class FrameCache {
+
+	static private final double MAX_SCALE_DIFFERENCE=1e-6; //relative scale change that is still treated as the same zoom (ZoomPanState uses floats)
+	static private final double MAX_SUBPIXEL_SHIFT=0.01; //pan (in pixels) that is still treated as a whole number of pixels
+
+	/** Draws the map (or part of it) into the buffer
+	 */
+	interface Painter{
+		/** Draws the map into the buffer. Drawing is clipped to the area being drawn.
+		 *
+		 * @param g  The buffer
+		 * @param viewTransform  Transformation to buffer coordinates
+		 * @param latLonBounds  Area to draw
+		 * @param wholeFrame  Whether the whole buffer is being drawn (rather than a strip)
+		 * @param resume  Whether carrying on with a whole buffer that was stopped in the last
+		 * frame (the buffer has not been cleared)
+		 * @return false if drawing was stopped before it was finished
+		 */
+		boolean paint(PGraphics g,ViewTransform viewTransform,Rectangle2D latLonBounds,boolean wholeFrame,boolean resume);
+
+		/** Draws on the canvas, over part of the buffer whose drawing was stopped, what is
+		 * drawn into the buffer once the map under it has been (e.g. overlays). It is not
+		 * kept in the buffer, which carries on being drawn in the next frame.
+		 *
+		 * @param g  The canvas (clipped to the area)
+		 * @param viewTransform  Transformation to the screen
+		 * @param latLonBounds  Area to draw
+		 * @param wholeFrame  Whether the area is the whole buffer
+		 */
+		void paintOver(PGraphics g,ViewTransform viewTransform,Rectangle2D latLonBounds,boolean wholeFrame);
+	}
+
+	private PApplet applet;
+	private PGraphics frame; //the buffer (beginDraw() is called once when created - see draw())
+	private ViewTransform lastViewTransform; //transformation the buffer was drawn with (null if it needs to be drawn again)
+	private int lastZoom;
+	private int lastTileArrivalCount;
+	private boolean finished=true; //whether drawing the buffer was finished (rather than stopped)
+	private boolean resumable=false; //whether it was stopped while drawing the whole buffer (rather than a strip)
+	private final List<Rectangle> stoppedAreas=new ArrayList<Rectangle>(); //areas of the buffer whose drawing was stopped in this frame
+
+	/** Constructor
+	 *
+	 * @param applet  The sketch
+	 */
+	FrameCache(PApplet applet){
+		this.applet=applet;
+	}
+
+	/** Makes the next draw() draw the whole buffer again. Call this when what is drawn has
+	 * changed for some reason other than tiles arriving (e.g. the map type)
+	 *
+	 */
+	void invalidate(){
+		lastViewTransform=null;
+	}
+
+	/** Brings the buffer up to date and draws it on the canvas
+	 *
+	 * @param viewTransform  Screen area and zoom/pan for this frame
+	 * @param zoom  Zoom level the tiles are drawn at
+	 * @param tileArrivalCount  Number of tiles that have arrived so far (see TileRetriever)
+	 * @param canvas  The canvas to draw on
+	 * @param painter  Draws the map into the buffer
+	 */
+	void draw(ViewTransform viewTransform,int zoom,int tileArrivalCount,PGraphicsJava2D canvas,Painter painter){
+		Rectangle screenBounds=viewTransform.screenBounds;
+		int width=screenBounds.width;
+		int height=screenBounds.height;
+		if (frame==null || frame.width!=width || frame.height!=height){
+			frame=applet.createGraphics(width,height,PConstants.JAVA2D);
+			//endDraw() is never called, because it copies the whole image into pixels[] - the
+			//buffer is drawn with Java2D directly, so this is not needed
+			frame.beginDraw();
+			lastViewTransform=null;
+		}
+
+		//buffer coordinates have the map's top left at 0,0
+		ViewTransform frameTransform=viewTransform.translated(-screenBounds.x,-screenBounds.y);
+		boolean shifted=false;
+		stoppedAreas.clear();
+		if (lastViewTransform!=null && !finished && resumable && zoom==lastZoom && tileArrivalCount==lastTileArrivalCount
+				&& frameTransform.scaleX==lastViewTransform.scaleX && frameTransform.scaleY==lastViewTransform.scaleY
+				&& frameTransform.offsetX==lastViewTransform.offsetX && frameTransform.offsetY==lastViewTransform.offsetY){
+			//nothing has changed since drawing was stopped, so carry on
+			finished=paint(new Rectangle(0,0,width,height),frameTransform,painter,true,true);
+			shifted=true;
+		}
+		else if (lastViewTransform!=null && finished && zoom==lastZoom && tileArrivalCount==lastTileArrivalCount
+				&& Math.abs(frameTransform.scaleX/lastViewTransform.scaleX-1)<MAX_SCALE_DIFFERENCE
+				&& Math.abs(frameTransform.scaleY/lastViewTransform.scaleY-1)<MAX_SCALE_DIFFERENCE){
+			double dx=frameTransform.offsetX-lastViewTransform.offsetX;
+			double dy=frameTransform.offsetY-lastViewTransform.offsetY;
+			long shiftX=Math.round(dx);
+			long shiftY=Math.round(dy);
+			if (Math.abs(dx-shiftX)<MAX_SUBPIXEL_SHIFT && Math.abs(dy-shiftY)<MAX_SUBPIXEL_SHIFT
+					&& Math.abs(shiftX)<width && Math.abs(shiftY)<height){
+				if (shiftX!=0 || shiftY!=0){
+					((PGraphicsJava2D)frame).g2.copyArea(0,0,width,height,(int)shiftX,(int)shiftY);
+					//draw the strips the shift has exposed
+					if (shiftX>0)
+						finished&=paint(new Rectangle(0,0,(int)shiftX,height),frameTransform,painter,false,false);
+					else if (shiftX<0)
+						finished&=paint(new Rectangle(width+(int)shiftX,0,(int)-shiftX,height),frameTransform,painter,false,false);
+					if (shiftY>0)
+						finished&=paint(new Rectangle(0,0,width,(int)shiftY),frameTransform,painter,false,false);
+					else if (shiftY<0)
+						finished&=paint(new Rectangle(0,height+(int)shiftY,width,(int)-shiftY),frameTransform,painter,false,false);
+				}
+				shifted=true;
+			}
+		}
+		if (!shifted)
+			finished=paint(new Rectangle(0,0,width,height),frameTransform,painter,true,false);
+		lastViewTransform=frameTransform;
+		lastZoom=zoom;
+		lastTileArrivalCount=tileArrivalCount;
+
+		resumable=stoppedAreas.size()==1 && stoppedAreas.get(0).width==width && stoppedAreas.get(0).height==height;
+
+		canvas.g2.drawImage(frame.image,screenBounds.x,screenBounds.y,null);
+		for (Rectangle area:stoppedAreas)
+			paintOver(area,viewTransform,canvas,painter,resumable);
+	}
+
+	/** Clears an area of the buffer and draws the map in it
+	 *
+	 * @param area  Area of the buffer
+	 * @param frameTransform  Transformation to buffer coordinates
+	 * @param painter  Draws the map
+	 * @param wholeFrame  Whether area is the whole buffer
+	 * @param resume  Whether to carry on drawing the buffer without clearing it
+	 * @return false if drawing was stopped before it was finished
+	 */
+	private boolean paint(Rectangle area,ViewTransform frameTransform,Painter painter,boolean wholeFrame,boolean resume){
+		Graphics2D g2=((PGraphicsJava2D)frame).g2;
+		g2.setClip(area);
+		if (!resume){
+			Composite composite=g2.getComposite();
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(area.x,area.y,area.width,area.height);
+			g2.setComposite(composite);
+		}
+		LonLatBounds latLonBounds=new LonLatBounds(
+				frameTransform.screenXToLon(area.x),frameTransform.screenYToLat(area.y+area.height),
+				frameTransform.screenXToLon(area.x+area.width),frameTransform.screenYToLat(area.y));
+		boolean finished=painter.paint(frame,frameTransform,latLonBounds,wholeFrame,resume);
+		g2.setClip(null);
+		if (!finished)
+			stoppedAreas.add(area);
+		return finished;
+	}
+
+	/** Draws over an area of the canvas whose drawing into the buffer was stopped
+	 *
+	 * @param area  Area of the buffer
+	 * @param viewTransform  Transformation to the screen
+	 * @param canvas  The canvas
+	 * @param painter  Draws over the map
+	 * @param wholeFrame  Whether area is the whole buffer
+	 */
+	private void paintOver(Rectangle area,ViewTransform viewTransform,PGraphicsJava2D canvas,Painter painter,boolean wholeFrame){
+		Rectangle screenBounds=viewTransform.screenBounds;
+		int x=screenBounds.x+area.x;
+		int y=screenBounds.y+area.y;
+		Shape clip=canvas.g2.getClip();
+		canvas.g2.clipRect(x,y,area.width,area.height);
+		LonLatBounds latLonBounds=new LonLatBounds(
+				viewTransform.screenXToLon(x),viewTransform.screenYToLat(y+area.height),
+				viewTransform.screenXToLon(x+area.width),viewTransform.screenYToLat(y));
+		painter.paintOver(canvas,viewTransform,latLonBounds,wholeFrame);
+		canvas.g2.setClip(clip);
+	}
+}
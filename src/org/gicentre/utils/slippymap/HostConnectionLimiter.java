@@ -0,0 +1,240 @@
+package org.gicentre.utils.slippymap;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+//****************************************************************************************
+/** Limits the number of tiles downloaded at the same time from each host, and optionally
+ * the number of requests each second, across all SlippyMaps, to keep within tile servers'
+ * usage policies (e.g. OpenStreetMap asks for no more than two connections). The hosts in a
+ * domain that has a limit share it (so a.tile.openstreetmap.org, b.tile.openstreetmap.org and
+ * c.tile.openstreetmap.org have two between them). Also gets the virtual thread executor that
+ * TileRetriever uses when there are virtual threads (Java 21 and later).
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class HostConnectionLimiter {
+
+	/** Semaphore whose number of permits can be changed while permits are held, which can
+	 * also space out when permits are given
+	 */
+	static class HostPermits extends Semaphore{
+		private static final long serialVersionUID=1L;
+		private int limit;
+		private long minIntervalNanos=0; //between requests (guarded by this)
+		private long nextRequestNanos=0; //earliest time of the next request (guarded by this)
+
+		HostPermits(int limit){
+			super(limit,true);
+			this.limit=limit;
+		}
+
+		synchronized void setLimit(int limit){
+			if (limit>this.limit)
+				release(limit-this.limit);
+			else
+				reducePermits(this.limit-limit);
+			this.limit=limit;
+		}
+
+		synchronized void setMaxRequestsPerSecond(double maxRequestsPerSecond){
+			minIntervalNanos=maxRequestsPerSecond>0?(long)(1e9/maxRequestsPerSecond):0;
+		}
+
+		/** Reserves the next request time
+		 *
+		 * @return nanoseconds to wait until then
+		 */
+		synchronized long reserveRequest(){
+			if (minIntervalNanos==0)
+				return 0;
+			long now=System.nanoTime();
+			long requestTime=Math.max(now,nextRequestNanos);
+			nextRequestNanos=requestTime+minIntervalNanos;
+			return requestTime-now;
+		}
+	}
+
+	static private volatile int defaultLimit=6; //connections per host, unless set for the host's domain
+	static private Map<String, Integer> domainLimits=new ConcurrentHashMap<String, Integer>(); //connections to all the hosts in a domain
+	static private Map<String, Double> domainRates=new ConcurrentHashMap<String, Double>(); //maximum requests each second to all the hosts in a domain
+	static private Map<String, HostPermits> hostPermits=new ConcurrentHashMap<String, HostPermits>(); //by domain (if it has a limit or rate) or host
+	static private ExecutorService virtualThreadExecutor;
+	static private boolean virtualThreadsChecked=false; //whether we've looked for virtual threads (guarded by class)
+
+	static{
+		domainLimits.put("openstreetmap.org",2);
+	}
+
+	/** Sets the maximum number of connections to each host, unless set for its domain
+	 *
+	 * @param limit  Number of connections (at least 1)
+	 */
+	static void setDefaultLimit(int limit){
+		defaultLimit=Math.max(1,limit);
+		for (Map.Entry<String, HostPermits> entry:hostPermits.entrySet())
+			entry.getValue().setLimit(getLimit(entry.getKey()));
+	}
+
+	/** Sets the maximum number of connections to the hosts in a domain, between them (so
+	 * a.tile.openstreetmap.org and b.tile.openstreetmap.org share openstreetmap.org's)
+	 *
+	 * @param domain  Domain (e.g. openstreetmap.org for a.tile.openstreetmap.org)
+	 * @param limit  Number of connections (at least 1)
+	 */
+	static void setDomainLimit(String domain,int limit){
+		domainLimits.put(domain.toLowerCase(),Math.max(1,limit));
+		for (Map.Entry<String, HostPermits> entry:hostPermits.entrySet())
+			entry.getValue().setLimit(getLimit(entry.getKey()));
+	}
+
+	/** Sets the maximum number of requests each second to the hosts in a domain, between
+	 * them
+	 *
+	 * @param domain  Domain (or a single host)
+	 * @param maxRequestsPerSecond  Number of requests (0 for no limit)
+	 */
+	static void setDomainRate(String domain,double maxRequestsPerSecond){
+		domainRates.put(domain.toLowerCase(),Math.max(0,maxRequestsPerSecond));
+		for (Map.Entry<String, HostPermits> entry:hostPermits.entrySet())
+			entry.getValue().setMaxRequestsPerSecond(getRate(entry.getKey()));
+	}
+
+	/** Gets the longest domain that a host is in from those given
+	 *
+	 * @param host
+	 * @param domains
+	 * @return the domain, or null if it is in none of them
+	 */
+	static private String getDomain(String host,Set<String> domains){
+		String matchedDomain=null;
+		for (String domain:domains)
+			if ((host.equals(domain) || host.endsWith("."+domain)) && (matchedDomain==null || domain.length()>matchedDomain.length()))
+				matchedDomain=domain;
+		return matchedDomain;
+	}
+
+	/** Gets the limit for a host (or domain), from the longest domain it is in that has a limit
+	 *
+	 * @param host
+	 * @return the number of connections
+	 */
+	static int getLimit(String host){
+		String domain=getDomain(host,domainLimits.keySet());
+		return domain==null?defaultLimit:domainLimits.get(domain);
+	}
+
+	/** Gets the maximum requests each second to a host (or domain), from the longest domain it
+	 * is in that has a rate
+	 *
+	 * @param host
+	 * @return the number of requests (0 for no limit)
+	 */
+	static double getRate(String host){
+		String domain=getDomain(host,domainRates.keySet());
+		return domain==null?0:domainRates.get(domain);
+	}
+
+	/** Gets the permits for connections to a host. Hosts in a domain that has a limit or rate
+	 * share the domain's
+	 *
+	 * @param host
+	 * @return the permits
+	 */
+	static HostPermits getPermits(String host){
+		host=host.toLowerCase();
+		String limitedDomain=getDomain(host,domainLimits.keySet());
+		String rateDomain=getDomain(host,domainRates.keySet());
+		String key=host;
+		if (limitedDomain!=null || rateDomain!=null)
+			key=rateDomain==null || (limitedDomain!=null && limitedDomain.length()>rateDomain.length())?limitedDomain:rateDomain;
+		HostPermits permits=hostPermits.get(key);
+		if (permits==null){
+			synchronized (hostPermits) {
+				permits=hostPermits.get(key);
+				if (permits==null){
+					permits=new HostPermits(getLimit(key));
+					permits.setMaxRequestsPerSecond(getRate(key));
+					hostPermits.put(key,permits);
+				}
+			}
+		}
+		return permits;
+	}
+
+	/** Waits until a connection to the host in a URL is allowed (and, if its requests are
+	 * limited, until the next request is allowed). Call release() with what
+	 * this returns when the download has finished
+	 *
+	 * @param url
+	 * @return the host's permits (null if the URL is not valid)
+	 * @throws InterruptedException
+	 */
+	static HostPermits acquire(URL url) throws InterruptedException{
+		String host=url.getHost();
+		if (host==null)
+			return null;
+		HostPermits permits=getPermits(host);
+		permits.acquire();
+		long waitNanos=permits.reserveRequest();
+		if (waitNanos>0){
+			try{
+				Thread.sleep(waitNanos/1000000,(int)(waitNanos%1000000));
+			}
+			catch (InterruptedException e){
+				permits.release();
+				throw e;
+			}
+		}
+		return permits;
+	}
+
+	static void release(HostPermits permits){
+		if (permits!=null)
+			permits.release();
+	}
+
+	/** Gets an executor that starts a virtual thread for each task. Virtual threads are
+	 * looked up by reflection, so that this still runs on Java versions without them
+	 *
+	 * @return the executor, or null if there are no virtual threads
+	 */
+	static synchronized ExecutorService getVirtualThreadExecutor(){
+		if (!virtualThreadsChecked){
+			virtualThreadsChecked=true;
+			try{
+				Method method=java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				virtualThreadExecutor=(ExecutorService)method.invoke(null);
+			}
+			catch (Exception e){
+				//silently handle - not available before Java 21
+			}
+		}
+		return virtualThreadExecutor;
+	}
+}
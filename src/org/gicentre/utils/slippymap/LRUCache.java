@@ -1,5 +1,6 @@
 package org.gicentre.utils.slippymap;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -16,11 +17,33 @@ import java.util.Map;
 class LRUCache<K, V> extends LinkedHashMap<K, V> {
 	private static final long serialVersionUID = 1L;
 
-	private final int limit;
+	private int limit;
 	public LRUCache(int limit) {
 		super(16, 0.75f, true);
 		this.limit = limit;
 	}
+
+	/** Gets the size limit
+	 * 
+	 * @return limit
+	 */
+	int getLimit() {
+		return limit;
+	}
+
+	/** Changes the size limit. If it is smaller than the number of entries, the oldest are
+	 * removed
+	 * 
+	 * @param limit
+	 */
+	void setLimit(int limit) {
+		this.limit = Math.max(1, limit);
+		Iterator<K> keys = keySet().iterator();
+		while (size() > this.limit && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
 	
 	@Override
 	protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
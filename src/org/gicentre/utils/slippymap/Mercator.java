@@ -17,7 +17,18 @@ package org.gicentre.utils.slippymap;
 
 class Mercator {
 
-	/** Converts latitude to mercator Y
+	static final double MIN_MERC_Y=latToMercY(-85);
+	static final double MAX_MERC_Y=latToMercY(85);
+	static final double MIN_MERC_X=latToMercY(-180);
+	static final double MAX_MERC_X=lonToMercX(180);
+	//The extent of the tiles (+/-85.0511 degrees latitude) in both x and y. Only used while
+	//snapping to native resolution, so that the map is square and tiles are square on the
+	//screen - otherwise map coordinates stay as they were. Latitudes are still clipped to +/-85
+	static final double MIN_TILE_MERC=-Math.PI;
+	static final double MAX_TILE_MERC=Math.PI;
+
+	/** Converts latitude to mercator Y. Uses ln((1+sin)/(1-sin))/2, which is the same as
+	 * ln(tan+sec) but needs one sin() and one log(), as it is used for large numbers of points
 	 * 
 	 * @param lat
 	 * @return y
@@ -29,7 +40,8 @@ class Mercator {
 		else if (lat>85){
 			lat=85;
 		}
-		return Math.log(Math.tan(Math.toRadians(lat))+(1/Math.cos(Math.toRadians(lat))));
+		double sinLat=Math.sin(Math.toRadians(lat));
+		return 0.5*Math.log((1+sinLat)/(1-sinLat));
 	}
 	
 	/** Converts longitude to Mercator X
@@ -69,28 +81,28 @@ class Mercator {
 	 * 
 	 */
 	static double getMinMercY(){
-		return latToMercY(-85);
+		return MIN_MERC_Y;
 	}
 
 	/* Max Mercator Y coordinate
 	 * 
 	 */
 	static public double getMaxMercY(){
-		return latToMercY(85);
+		return MAX_MERC_Y;
 	}
 
 	/* Min Mercator X coordinate
 	 * 
 	 */
 	static public double getMinMercX(){
-		return latToMercY(-180);
+		return MIN_MERC_X;
 	}
 
 	/* Max Mercator Y coordinate
 	 * 
 	 */
 	static public double getMaxMercX(){
-		return lonToMercX(180);
+		return MAX_MERC_X;
 	}
 
 
@@ -0,0 +1,116 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+
+//****************************************************************************************
+/** Works out whether the map is moving (being zoomed or panned) from how far the map moves
+ * on the screen between frames. While it is, tiles that are only seen for a moment need not
+ * be requested. The end of a ZoomPan gesture (see ZoomPanListener) stops the movement
+ * straight away, so that the next frame gets its tiles even if the view has been snapped.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class MotionTracker {
+
+	static final float DEFAULT_THRESHOLD=200; //speed in pixels per second below which the map is treated as still
+	static private final long MIN_FRAME_NANOS=1000000; //shortest time between frames used to work out speed
+
+	private float threshold=DEFAULT_THRESHOLD;
+	private boolean hasLastFrame=false;
+	private double lastScaleX,lastOffsetX,lastScaleY,lastOffsetY;
+	private long lastNanos;
+	private boolean moving=false;
+	private volatile boolean gestureEnded=false;
+
+	/** Sets the speed below which the map is treated as still
+	 *
+	 * @param threshold  Speed in pixels per second
+	 */
+	void setThreshold(float threshold){
+		this.threshold=threshold;
+	}
+
+	float getThreshold(){
+		return threshold;
+	}
+
+	/** Records that a zoom or pan gesture has ended, so that the next frame is still
+	 *
+	 */
+	void gestureEnded(){
+		gestureEnded=true;
+	}
+
+	/** Records the view of a frame and works out whether the map is moving
+	 *
+	 * @param viewTransform  Screen area and zoom/pan for this frame
+	 * @param nanos  Time of the frame (System.nanoTime())
+	 * @return whether the map is moving
+	 */
+	boolean update(ViewTransform viewTransform,long nanos){
+		if (gestureEnded){
+			gestureEnded=false;
+			moving=false;
+		}
+		else if (hasLastFrame){
+			//how far the edges of the screen have moved over the map, in pixels
+			Rectangle screenBounds=viewTransform.screenBounds;
+			double distance=Math.max(
+					Math.max(getDistance(screenBounds.getMinX(),lastScaleX,lastOffsetX,viewTransform.scaleX,viewTransform.offsetX),
+							getDistance(screenBounds.getMaxX(),lastScaleX,lastOffsetX,viewTransform.scaleX,viewTransform.offsetX)),
+					Math.max(getDistance(screenBounds.getMinY(),lastScaleY,lastOffsetY,viewTransform.scaleY,viewTransform.offsetY),
+							getDistance(screenBounds.getMaxY(),lastScaleY,lastOffsetY,viewTransform.scaleY,viewTransform.offsetY)));
+			double seconds=Math.max(nanos-lastNanos,MIN_FRAME_NANOS)/1e9;
+			moving=distance/seconds>=threshold;
+		}
+		hasLastFrame=true;
+		lastScaleX=viewTransform.scaleX;
+		lastOffsetX=viewTransform.offsetX;
+		lastScaleY=viewTransform.scaleY;
+		lastOffsetY=viewTransform.offsetY;
+		lastNanos=nanos;
+		return moving;
+	}
+
+	/** Whether the map was moving in the last frame
+	 *
+	 * @return
+	 */
+	boolean isMoving(){
+		return moving;
+	}
+
+	/** Finds how far the map under a screen position has moved since the last frame
+	 *
+	 * @param screen  Screen position (x or y)
+	 * @param lastScale  Scale of the last frame
+	 * @param lastOffset  Offset of the last frame
+	 * @param scale  Scale of this frame
+	 * @param offset  Offset of this frame
+	 * @return distance in pixels
+	 */
+	private static double getDistance(double screen,double lastScale,double lastOffset,double scale,double offset){
+		double merc=(screen-lastOffset)/lastScale;
+		return Math.abs(merc*scale+offset-screen);
+	}
+}
@@ -2,25 +2,18 @@ package org.gicentre.utils.slippymap;
 
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import org.gicentre.utils.move.ZoomPan;
-import org.gicentre.utils.move.ZoomPanState;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PGraphics;
 import processing.core.PImage;
-import processing.core.PVector;
 
 //****************************************************************************************
-/** Indentifies the required OpenStreetMap tiles
+/** Indentifies the required OpenStreetMap tiles. Draws tiles from any TileSource (the
+* OpenStreetMap and Stamen map types are built-in sources - see TileSourceRegistry)
 *    
 * Only intended to be used by SlippyMap - hence Class and all methods have only
 * package-wide visibility
@@ -32,21 +25,6 @@ import processing.core.PVector;
 
 class OpenStreetMap extends BaseMapProvider{
 	
-	/** OpenStreetMap map tile types
-	 * 
-	 */
-	static public enum OsmTileType{
-		MAPNIK,
-		MAPQUEST,
-		CLOUDMADE,
-		WATERCOLOUR,
-		TONER,
-		TERRAIN
-	}
-	
-	int cloudMadeStyleId=1; //Cloudmade style ID
-	String ApiKey=null;  //Cloudemade API key
-	
 	PApplet applet;
 
 	/**Constructor
@@ -63,148 +41,153 @@ class OpenStreetMap extends BaseMapProvider{
 	/** Draws the map
 	 * 
 	 * @param latLonBounds  Viewport
-	 * @param screenBounds Screen area
-	 * @param zoomPan ZoomPan (for zoom/pan information)
+	 * @param viewTransform Screen area and zoom/pan for this frame
 	 * @param g  The canvas to draw on (use PApplet.g for on-screen drawing)
-	 * @param osmTileType  The tile type
+	 * @param tileSource  The tile source
 	 */
-	void drawMap(Rectangle2D latLonBounds,Rectangle screenBounds,ZoomPanState zoomPanState,PGraphics g,OsmTileType osmTileType){ 
+	void drawMap(Rectangle2D latLonBounds,ViewTransform viewTransform,PGraphics g,TileSource tileSource){ 
+		drawTiles(latLonBounds,viewTransform,g,tileSource,getZoom(latLonBounds,viewTransform.screenBounds));
+		drawAttribution(viewTransform.screenBounds,g,tileSource);
+	}
 
-		//find appropriate zoom
-		int correctNumTilesAcross=screenBounds.width/tilePixelWidth;
-		//start at max resolution
-		int firstTileX=lon2TileX(latLonBounds.getMinX(),20);
-		int firstTileY=lat2TileY(latLonBounds.getMinY(),20);
-		int lastTileX=lon2TileX(latLonBounds.getMaxX(),20);
-		int lastTileY=lat2TileY(latLonBounds.getMaxY(),20);
-		int numTilesAcross=lastTileX-firstTileX;
-		int zoom=20;
-		//try decreasing zoom level until an appropriate one is found
-		while (numTilesAcross>correctNumTilesAcross && zoom>1){
-			zoom--;
-			numTilesAcross/=2;
-		}
+	/** Draws the tiles that cover an area at a particular zoom level. Lower resolution tiles
+	 * (drawn where tiles are missing) are drawn first, then tiles from the centre out, so
+	 * that if the frame budget runs out, the map is covered and its middle is detailed.
+	 * 
+	 * @param latLonBounds  Area to draw (the viewport or part of it)
+	 * @param viewTransform Screen area and zoom/pan for this frame
+	 * @param g  The canvas to draw on
+	 * @param tileSource  The tile source
+	 * @param zoom  Zoom level for 256 pixel tiles (see getZoom())
+	 * @return whether every tile was drawn at the zoom level (false if any were missing or
+	 * the frame budget ran out)
+	 */
+	boolean drawTiles(Rectangle2D latLonBounds,ViewTransform viewTransform,PGraphics g,TileSource tileSource,int zoom){ 
+		zoom=getSourceZoom(tileSource,zoom);
+		boolean complete=true;
 
 		//display tiles in viewable area
-		HashSet<String> keys=new HashSet<String>();
-		List<TileInfo> tilesToDraw=new ArrayList<OpenStreetMap.TileInfo>();
+		TilePlan tilesToDraw=tilePlan; //TileKeys of the tiles to draw, and their images
+		tilesToDraw.clear();
+		coarseTilesRequested.clear(); //while moving
 		
-		firstTileX = lon2TileX((float)Math.max(latLonBounds.getMinX(),-180),zoom);
-		lastTileX = lon2TileX((float)Math.min(latLonBounds.getMaxX(),180),zoom);
-		firstTileY = lat2TileY((float)Math.min(latLonBounds.getMaxY(),85),zoom);
-		lastTileY = lat2TileY((float)Math.max(latLonBounds.getMinY(),-85),zoom);
-		for (int tileX=firstTileX;tileX<=lastTileX;tileX++){
-			for (int tileY=firstTileY;tileY<=lastTileY;tileY++){
-				if (!keys.contains(tileX+":"+tileY+":"+zoom)){
-					PImage im = getTileImage(tileX,tileY,zoom,false,osmTileType);
-					if (im!=null){
-						//If a tile is successfully retrieved...
-						//Save as an instance of TileInfo
-						TileInfo tileInfo = new TileInfo();
-						tileInfo.tileX=tileX;
-						tileInfo.tileY=tileY;
-						tileInfo.zoom=zoom;
-						tileInfo.image=im;
-						//Add to list of tiles to draw
-						tilesToDraw.add(tileInfo);
-						keys.add(tileX+":"+tileY+":"+zoom);
-					}
-					else{
-						//then look for a lower-res one from the cache
-						int newZoom=zoom;
-						double lon = tileX2Lon(tileX, zoom);
-						double lat = tileY2Lat(tileY, zoom);
-						int newTileX=0;
-						int newTileY=0;
-						while (newZoom>0 && im==null){
-							newZoom--;
-							newTileX=lon2TileX(lon, newZoom);
-							newTileY=lat2TileY(lat, newZoom);
-							im = getTileImage(newTileX,newTileY,newZoom,true,osmTileType);
+		int firstTileX = lon2TileX((float)Math.max(latLonBounds.getMinX(),-180),zoom);
+		int lastTileX = lon2TileX((float)Math.min(latLonBounds.getMaxX(),180),zoom);
+		int firstTileY = lat2TileY((float)Math.min(latLonBounds.getMaxY(),85),zoom);
+		int lastTileY = lat2TileY((float)Math.max(latLonBounds.getMinY(),-85),zoom);
+		int numTiles=orderCentreOut(firstTileX,lastTileX,firstTileY,lastTileY);
+		for (int t=0;t<numTiles;t++){
+			int tileX=(int)(centreOutOrder[t]>>>32);
+			int tileY=(int)centreOutOrder[t];
+			if (!tilesToDraw.contains(TileKey.key(zoom,tileX,tileY))){
+				PImage im = getTileImage(tileX,tileY,zoom,deferFetches,tileSource);
+				if (im!=null){
+					//If a tile is successfully retrieved, add to list of tiles to draw
+					tilesToDraw.add(TileKey.key(zoom,tileX,tileY),im);
+				}
+				else{
+					complete=false;
+					//then look for a lower-res one in memory
+					//(the tile containing this one at each coarser zoom level)
+					int newZoom=zoom;
+					boolean found=false;
+					while (newZoom>0 && !found){
+						newZoom--;
+						int newTileX=tileX>>(zoom-newZoom);
+						int newTileY=tileY>>(zoom-newZoom);
+						long newKey=TileKey.key(newZoom,newTileX,newTileY);
+						if (tilesToDraw.contains(newKey))
+							found=true; //already found for a neighbouring tile
+						else{
+							im = getCachedTileImage(newTileX,newTileY,newZoom,tileSource);
+							if (im!=null){
+								tilesToDraw.add(newKey,im);
+								found=true;
+							}
 						}
-//						System.out.println(newZoom);
-						if (im!=null && !keys.contains(newTileX+":"+newTileY+":"+newZoom)){
-							TileInfo tileInfo = new TileInfo();
-							tileInfo.tileX=newTileX;
-							tileInfo.tileY=newTileY;
-							tileInfo.zoom=newZoom;
-							tileInfo.image=im;
-							tilesToDraw.add(tileInfo);
-							keys.add(newTileX+":"+newTileY+":"+newZoom);
+					}
+//					System.out.println(newZoom);
+					if (deferFetches){
+						//while moving, request a coarse tile if there isn't one, rather than this one
+						int coarseZoom=Math.max(0,zoom-DEFERRED_FETCH_LEVELS);
+						if (!found || newZoom<coarseZoom){
+							int coarseTileX=tileX>>(zoom-coarseZoom);
+							int coarseTileY=tileY>>(zoom-coarseZoom);
+							if (coarseTilesRequested.add(TileKey.key(coarseZoom,coarseTileX,coarseTileY),null))
+								getTileImage(coarseTileX,coarseTileY,coarseZoom,false,tileSource);
 						}
 					}
 				}
 			}
 		}
 		
-		//Sort the tiles by their map resolution (so lower res ones are drawn first
-		Collections.sort(tilesToDraw);
+		//Sort the tiles by their map resolution (so lower res ones are drawn first). The sort
+		//is stable, so tiles at each resolution stay in centre-out order
+		tilesToDraw.sortByZoom();
+		//Carry on from where the last frame stopped if its tiles are still there
+		int startIndex=0;
+		long signature=1;
+		if (frameBudget!=null){
+			signature=tilesToDraw.getSignature();
+			startIndex=frameBudget.getStartIndex(signature);
+		}
 		//Draw the tiles
-		for (TileInfo tileInfo:tilesToDraw){
-			PVector p1=new PVector(
-					(float)(SlippyMap.map((float)Mercator.lonToMercX(tileX2Lon(tileInfo.tileX, tileInfo.zoom)),Mercator.getMinMercX(),Mercator.getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width)),
-					//use width below because need assume tiles are square - we can always use width
-					(float)(SlippyMap.map((float)Mercator.latToMercY(tileY2Lat(tileInfo.tileY, tileInfo.zoom)),Mercator.getMinMercY(),Mercator.getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y))
-			);
-			PVector p2=new PVector(
-					(float)(SlippyMap.map((float)Mercator.lonToMercX(tileX2Lon(tileInfo.tileX+1, tileInfo.zoom)),Mercator.getMinMercX(),Mercator.getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width)),
-					//use width below because need assume tiles are square - we can always use width
-					(float)(SlippyMap.map((float)Mercator.latToMercY(tileY2Lat(tileInfo.tileY+1, tileInfo.zoom)),Mercator.getMinMercY(),Mercator.getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y))
-			);
-			if (zoomPanState==null)
-				g.image(tileInfo.image,
-						p1.x,
-						p1.y,
-						p2.x-p1.x,
-						p2.y-p1.y
-						);
-			else
-				g.image(tileInfo.image,
-						zoomPanState.getCoordToDisp(p1).x,
-						zoomPanState.getCoordToDisp(p1).y,
-						zoomPanState.getCoordToDisp(p2).x-zoomPanState.getCoordToDisp(p1).x,
-						zoomPanState.getCoordToDisp(p2).y-zoomPanState.getCoordToDisp(p1).y
-						);
+		for (int i=startIndex;i<tilesToDraw.size();i++){
+			//at least one tile is drawn, so that carrying on in the next frame gets somewhere
+			if (frameBudget!=null && i>startIndex && frameBudget.isSpent()){
+				frameBudget.stop(signature,i);
+				return false;
+			}
+			long key=tilesToDraw.getKey(i);
+			int tileZoom=TileKey.zoom(key);
+			int tileX=TileKey.tileX(key);
+			int tileY=TileKey.tileY(key);
+			float x1=(float)viewTransform.tileXToScreenX(tileX, tileZoom);
+			float y1=(float)viewTransform.tileYToScreenY(tileY, tileZoom);
+			float x2=(float)viewTransform.tileXToScreenX(tileX+1, tileZoom);
+			float y2=(float)viewTransform.tileYToScreenY(tileY+1, tileZoom);
+			drawTile(g,tilesToDraw.getImage(i),x1,y1,x2,y2);
+			tileRetriever.metrics.tileDrawn(tileZoom!=zoom);
 //			g.fill(0);
 //			g.textAlign(PApplet.LEFT,PApplet.TOP);
-//			g.text(tileInfo.tileX+","+tileInfo.tileY+","+tileInfo.zoom,zoomPanState.getCoordToDisp(p1).x,zoomPanState.getCoordToDisp(p1).y);
+//			g.text(tileX+","+tileY+","+tileZoom,x1,y1);
 		}
-		
-		//Draw copyright statements
+		return complete;
+	}
+
+	/** Draws the copyright statement of a tile source
+	 * 
+	 * @param screenBounds  Screen area of the map
+	 * @param g  The canvas to draw on
+	 * @param tileSource  The tile source
+	 */
+	void drawAttribution(Rectangle screenBounds,PGraphics g,TileSource tileSource){
+		String attribution=tileSource.getAttribution();
+		if (attribution==null)
+			return;
 		g.pushStyle();
 		g.fill(100);
 		g.textSize(10);
 		g.textAlign(PConstants.LEFT,PConstants.TOP);
-		if (osmTileType==OsmTileType.MAPNIK)
-			g.text("Data and map information provided by Open Street Map and contributors, CC-BY-SA",(int)screenBounds.x,(int)screenBounds.y);
-		else if (osmTileType==OsmTileType.MAPQUEST)
-			g.text("Data, imagery and map information provided by MapQuest, Open Street Map and contributors, CC-BY-SA",(int)screenBounds.x,(int)screenBounds.y);
-		else if (osmTileType==OsmTileType.CLOUDMADE)
-			g.text("Data and map information provided by Open Street Map, Cloudmade and contributors, CC-BY-SA",(int)screenBounds.x,(int)screenBounds.y);
-		else if (osmTileType==OsmTileType.WATERCOLOUR)
-			g.text("Map tiles by Stamen Design, under CC BY 3.0. Data by OpenStreetMap, under CC BY SA",(int)screenBounds.x,(int)screenBounds.y);
-		else if (osmTileType==OsmTileType.TONER)
-			g.text("Map tiles by Stamen Design, under CC BY 3.0. Data by OpenStreetMap, under CC BY SA",(int)screenBounds.x,(int)screenBounds.y);
-		else if (osmTileType==OsmTileType.TERRAIN)
-			g.text("Map tiles by Stamen Design, under CC BY 3.0. Data by OpenStreetMap, under CC BY SA",(int)screenBounds.x,(int)screenBounds.y);
+		g.text(attribution,(int)screenBounds.x,(int)screenBounds.y);
 		g.popStyle();
 		
 	}
-	
-	/** Sets the API key to use with CloudMade (only required if cloudmade tiles being used) 
-	 *  
-	 * @param apiKey
-	 */
-	void setCloudMadeApiKey(String apiKey){
-		this.ApiKey=apiKey;
-	}
-	
-	/** Sets the Cloudmade style ID (only needed if cloudmade tiles being used
+
+	/** Gets the zoom level of a source's tiles that are drawn at the same size as 256 pixel
+	 * tiles at a zoom level (lower for bigger tiles), up to its most detailed level
 	 * 
-	 * @param cloudMadeStyleId
+	 * @param tileSource  The tile source
+	 * @param zoom  Zoom level for 256 pixel tiles
+	 * @return the source's zoom level
 	 */
-	void setCloudMadeStyle(int cloudMadeStyleId){
-		this.cloudMadeStyleId=cloudMadeStyleId;
+	static int getSourceZoom(TileSource tileSource,int zoom){
+		int tileSize=tileSource.getTileSize();
+		while (tileSize>NATIVE_TILE_SIZE && zoom>0){
+			tileSize/=2;
+			zoom--;
+		}
+		return Math.min(zoom,tileSource.getMaxZoom());
 	}
 
 
@@ -214,14 +197,46 @@ class OpenStreetMap extends BaseMapProvider{
 	 * @param zoom 
 	 * @returns PImage
 	 */
-	private  PImage getTileImage(int tileX, int tileY, int zoom,boolean onlyGetFromCache,OsmTileType osmTileType) {
-		String tileUrl=getTileUrl(osmTileType, tileX, tileY, zoom);
-		String tileCacheFilename=getTileCacheFileName(osmTileType, tileX, tileY, zoom);
-		if (tileUrl!=null && tileCacheFilename!=null)
-			return tileRetriever.getTileImage(tileUrl,tileCacheFilename,onlyGetFromCache);
+	private  PImage getTileImage(int tileX, int tileY, int zoom,boolean onlyGetFromCache,TileSource tileSource) {
+		if (tileX<0 || tileX>=(1<<zoom) || tileY<0 || tileY>=(1<<zoom))
+			return null;
+		String tileCacheFilename=getTileCacheFileName(tileSource, tileX, tileY, zoom);
+		PImage image=tileRetriever.lookUpTileImage(tileCacheFilename,onlyGetFromCache);
+		if (image==null){
+			//only make the URL if the tile has to be read or fetched
+			String tileUrl=getTileUrl(tileSource, tileX, tileY, zoom);
+			if (tileUrl!=null)
+				tileRetriever.requestTileImage(tileUrl,tileCacheFilename,TileKey.key(zoom,tileX,tileY),onlyGetFromCache);
+		}
+		return image;
+	}
+	/** Get a map tile if it is in the in-memory cache, without reading or retrieving it
+	 * 
+	 * @returns PImage
+	 */
+	private PImage getCachedTileImage(int tileX, int tileY, int zoom,TileSource tileSource) {
+		String tileCacheFilename=getTileCacheFileName(tileSource, tileX, tileY, zoom);
+		if (tileCacheFilename!=null)
+			return tileRetriever.getCachedTileImage(tileCacheFilename);
 		else
 			return null;
 	}
+
+	/** Gets a map tile without blocking (see TileRetriever.getTileImageAsync())
+	 * 
+	 * @param tileSource  The tile source
+	 * @param tileX
+	 * @param tileY
+	 * @param zoom
+	 * @return a future that completes with the image
+	 */
+	CompletableFuture<PImage> getTileImageAsync(TileSource tileSource,int tileX,int tileY,int zoom){
+		String tileUrl=getTileUrl(tileSource, tileX, tileY, zoom);
+		if (tileUrl==null)
+			return CompletableFuture.<PImage>failedFuture(new IllegalArgumentException("No tile "+tileX+","+tileY+" at zoom level "+zoom));
+		return tileRetriever.getTileImageAsync(tileUrl,getTileCacheFileName(tileSource, tileX, tileY, zoom),TileKey.key(zoom,tileX,tileY));
+	}
+
 	/** Get x tile number from longitude
 	 * 
 	 * Modified from http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
@@ -245,101 +260,15 @@ class OpenStreetMap extends BaseMapProvider{
 		return (int)(Math.floor((1.0-Math.log(Math.tan(lat*Math.PI/180.0) + 1.0/Math.cos(lat*Math.PI/180.0))/Math.PI)/2.0 *Math.pow(2.0,zoom)));
 	}
 
-	/** Get lon tile x's left side
-	 * 
-	 * Modified from http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
-	 * 
-	 * @param lat
-	 * @param zoom 
-	 * @returns float
-	 */
-	private static double tileX2Lon(int tileX, int zoom){
-		return ((tileX / Math.pow(2.0, zoom) * 360.0) - 180.0);
-	}
-
-	/** Get lat tile y's top
-	 * 
-	 * Modified from http://wiki.openstreetmap.org/wiki/Slippy_map_tilenames
-	 * 
-	 * @param lat
-	 * @param zoom 
-	 * @returns float
-	 */
-	private static double tileY2Lat(int tileY, int zoom){
-		double n = Math.PI - ((2.0 * Math.PI * tileY) / Math.pow(2.0, zoom));
-		return (180.0 / Math.PI * Math.atan(0.5 * (Math.exp(n) - Math.exp(-n))));
-	}
-
 
-	private String getTileUrl(OsmTileType osmTileType,int tileX, int tileY, int zoom){
-		if (tileX<0 || tileX>Math.pow(2,zoom)-1 || tileY<0 || tileY>Math.pow(2,zoom)-1)
+	private String getTileUrl(TileSource tileSource,int tileX, int tileY, int zoom){
+		if (tileX<0 || tileX>=(1<<zoom) || tileY<0 || tileY>=(1<<zoom))
 			return null;
-		else{
-			String tileName=zoom+"/"+tileX+"/"+tileY;
-			String url=null;
-			if (osmTileType==OsmTileType.MAPNIK){
-				int r=((int)(Math.random()*4));
-				String subdomain="";
-				if (r==1)
-					subdomain="a.";
-				if (r==2)
-					subdomain="b.";
-				if (r==3)
-					subdomain="c.";
-				url = "http://"+subdomain+"tile.openstreetmap.org/"+tileName+".png";
-			}
-			else if (osmTileType==OsmTileType.MAPQUEST){
-				int r=((int)(Math.random()*3))+1;
-				url = "http://otile"+r+".mqcdn.com/tiles/1.0.0/osm/"+tileName+".jpg";
-			}
-			else if (osmTileType==OsmTileType.CLOUDMADE){
-				int r=((int)(Math.random()*3));
-				String subdomain=null;
-				if (r==0)
-					subdomain="a";
-				if (r==1)
-					subdomain="b.";
-				if (r==2)
-					subdomain="c.";
-				url = "http://"+subdomain+".tile.cloudmade.com/"+ApiKey+"/"+cloudMadeStyleId+"/256/"+tileName+".png";
-			}
-			else if (osmTileType==OsmTileType.WATERCOLOUR){
-				url = "http://tile.stamen.com/watercolor/"+tileName+".png";
-			}
-			else if (osmTileType==OsmTileType.TONER){
-				url = "http://tile.stamen.com/toner/"+tileName+".png";
-			}
-			else if (osmTileType==OsmTileType.TERRAIN){
-				url = "http://tile.stamen.com/terrain/"+tileName+".png";
-			}
-			return tileRetriever.applyPassThroughURL(url);
-		}
-	}
-	
-	private String getTileCacheFileName(OsmTileType osmTileType,int tileX, int tileY, int zoom){
-		return "osm-"+osmTileType.toString().toLowerCase()+"-"+tileX+"-"+tileY+"-"+zoom+".png";
+		else
+			return tileRetriever.applyPassThroughURL(tileSource.getTileUrl(zoom,tileX,tileY));
 	}
 	
-	/** private class that stores details of tiles that need to be
-	 * drawn. Instances sort themselves by zoom level, so that tiles
-	 * of a less coarse resolution are drawn over the top of tiles
-	 * with a more coarse resolution
-	 * 
-	 * @author Aidan Slingsby
-	 *
-	 */
-	private class TileInfo implements Comparable<TileInfo>{
-		int tileX;
-		int tileY;
-		int zoom;
-		PImage image;
-		
-		//Sorts by zoom level
-		public int compareTo(TileInfo o) {
-			if (o.zoom<this.zoom)
-				return 1;
-			else
-				return -1;
-		}
+	String getTileCacheFileName(TileSource tileSource,int tileX, int tileY, int zoom){
+		return tileSource.getCacheFileName(zoom,tileX,tileY);
 	}
 }
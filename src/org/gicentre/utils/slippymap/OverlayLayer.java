@@ -0,0 +1,190 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Draws a SlippyMapOverlay in tiles. Tiles are drawn into transparent images by a worker
+ * pool, kept in an in-memory cache and drawn over the base map, so only tiles that have not
+ * been seen before need to be drawn by the overlay.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class OverlayLayer {
+
+	static private final int MAX_FALLBACK_LEVELS=4; //how many levels up to look for a tile to draw instead
+
+	final SlippyMapOverlay overlay;
+	private PApplet applet;
+	private ExecutorService executor;
+	private TileRetriever tileRetriever; //for informing listeners
+	private LRUCache<Long, PImage> tileCache;
+	private Map<Long, Integer> pending=new HashMap<Long, Integer>(); //tiles queued for drawing, with the frame they were last wanted in
+	private volatile int frame=0;
+	private volatile int generation=0; //incremented when the cache is cleared, so that tiles drawn before are ignored
+	private int tileSize=-1;
+	private TileGeometry.TileImages cachedImages=new TileGeometry.TileImages(){
+		public PImage getImage(long key){
+			return getCachedTile(key);
+		}
+	};
+
+	/** Constructor
+	 *
+	 * @param applet  The sketch
+	 * @param overlay  The overlay
+	 * @param executor  Worker pool to draw tiles with
+	 * @param tileRetriever  The tile retriever, whose listeners are informed when tiles are ready
+	 * @param maxTilesInCache  Maximum number of tiles in the in-memory cache
+	 */
+	OverlayLayer(PApplet applet,SlippyMapOverlay overlay,ExecutorService executor,TileRetriever tileRetriever,int maxTilesInCache){
+		this.applet=applet;
+		this.overlay=overlay;
+		this.executor=executor;
+		this.tileRetriever=tileRetriever;
+		this.tileCache=new LRUCache<Long, PImage>(maxTilesInCache);
+	}
+
+	/** Removes all cached tiles, so that the overlay is drawn again
+	 *
+	 */
+	void invalidate(){
+		synchronized (tileCache) {
+			generation++;
+			tileCache.clear();
+		}
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	/** Starts a new frame. Tiles that were wanted before the last frame but not since are
+	 * not drawn (e.g. those that have been panned past)
+	 *
+	 */
+	void nextFrame(){
+		frame++;
+	}
+
+	/** Draws the overlay tiles in the viewport
+	 *
+	 * @param latLonBounds  Viewport
+	 * @param viewTransform  Screen area and zoom/pan for this frame
+	 * @param g  The canvas to draw on
+	 * @param zoom  Zoom level (normally the same as the base map)
+	 * @param tileSize  Size of the tiles in pixels (normally about the size they will be drawn at)
+	 * @return whether every tile was drawn (false if any are still being drawn by the overlay)
+	 */
+	boolean draw(Rectangle2D latLonBounds,ViewTransform viewTransform,PGraphics g,int zoom,int tileSize){
+		if (tileSize!=this.tileSize){
+			invalidate();
+			this.tileSize=tileSize;
+		}
+		boolean complete=true;
+		int firstTileX=TileGeometry.lonToTileX(latLonBounds.getMinX(),zoom);
+		int lastTileX=TileGeometry.lonToTileX(latLonBounds.getMaxX(),zoom);
+		int firstTileY=TileGeometry.latToTileY(latLonBounds.getMaxY(),zoom);
+		int lastTileY=TileGeometry.latToTileY(latLonBounds.getMinY(),zoom);
+		for (int tileX=firstTileX;tileX<=lastTileX;tileX++){
+			for (int tileY=firstTileY;tileY<=lastTileY;tileY++){
+				float x1=(float)viewTransform.tileXToScreenX(tileX,zoom);
+				float y1=(float)viewTransform.tileYToScreenY(tileY,zoom);
+				float x2=(float)viewTransform.tileXToScreenX(tileX+1,zoom);
+				float y2=(float)viewTransform.tileYToScreenY(tileY+1,zoom);
+				long key=TileKey.key(zoom,tileX,tileY);
+				PImage image=getCachedTile(key);
+				if (image!=null){
+					BaseMapProvider.drawTileImage(g,image,x1,y1,x2,y2);
+				}
+				else{
+					complete=false;
+					requestTile(key);
+					//draw the relevant part of a lower resolution tile if there is one
+					TileGeometry.drawFromParent(g,cachedImages,zoom,tileX,tileY,MAX_FALLBACK_LEVELS,x1,y1,x2,y2);
+				}
+			}
+		}
+		return complete;
+	}
+
+	private PImage getCachedTile(long key){
+		synchronized (tileCache) {
+			return tileCache.get(key);
+		}
+	}
+
+	/** Queues a tile to be drawn by the worker pool, unless it is already queued
+	 *
+	 * @param key
+	 */
+	private void requestTile(final long key){
+		synchronized (pending) {
+			boolean queued=pending.containsKey(key);
+			pending.put(key,frame);
+			if (queued)
+				return;
+		}
+		final int tileGeneration=generation;
+		final int size=tileSize;
+		executor.execute(new Runnable(){
+			public void run(){
+				synchronized (pending) {
+					Integer lastWanted=pending.get(key);
+					//don't draw tiles that have not been wanted for a while (e.g. have been panned past)
+					if (lastWanted==null || frame-lastWanted>1 || tileGeneration!=generation){
+						pending.remove(key);
+						return;
+					}
+				}
+				PImage image=null;
+				try{
+					PGraphics canvas=applet.createGraphics(size,size,PConstants.JAVA2D);
+					canvas.beginDraw();
+					overlay.drawTile(canvas,new OverlayTile(TileKey.zoom(key),TileKey.tileX(key),TileKey.tileY(key),size));
+					canvas.endDraw();
+					image=canvas;
+				}
+				catch (RuntimeException e){
+					//the overlay failed to draw the tile - it is drawn again when next wanted
+					tileRetriever.metrics.errors.increment();
+				}
+				synchronized (tileCache) {
+					if (image!=null && tileGeneration==generation)
+						tileCache.put(key,image);
+				}
+				synchronized (pending) {
+					pending.remove(key);
+				}
+				if (image!=null)
+					tileRetriever.fireNewTileAvailable(null,key);
+			}
+		});
+	}
+}
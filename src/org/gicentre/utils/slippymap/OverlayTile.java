@@ -0,0 +1,127 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** A tile of an overlay (see SlippyMapOverlay), identified by its zoom level and x/y in the
+ * same scheme as OpenStreetMap tiles. Converts between lon/lat and pixel coordinates on
+ * the tile's canvas.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class OverlayTile {
+
+	private final int zoom;
+	private final int tileX;
+	private final int tileY;
+	private final int size;
+	private final double tilesAcross; //number of tiles across the world at this zoom level
+
+	/** Constructor
+	 *
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile x
+	 * @param tileY  Tile y
+	 * @param size  Width and height of the tile in pixels
+	 */
+	OverlayTile(int zoom, int tileX, int tileY, int size){
+		this.zoom=zoom;
+		this.tileX=tileX;
+		this.tileY=tileY;
+		this.size=size;
+		this.tilesAcross=1L<<zoom;
+	}
+
+	/** Gets the zoom level
+	 *
+	 * @return zoom level
+	 */
+	public int getZoom(){
+		return zoom;
+	}
+
+	/** Gets the tile's x
+	 *
+	 * @return tile x
+	 */
+	public int getTileX(){
+		return tileX;
+	}
+
+	/** Gets the tile's y
+	 *
+	 * @return tile y
+	 */
+	public int getTileY(){
+		return tileY;
+	}
+
+	/** Gets the width and height of the tile in pixels
+	 *
+	 * @return size
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/** Gets the lon/lat bounds of the tile. Useful for finding what to draw (for example with
+	 * PointLayer.query())
+	 *
+	 * @return bounds
+	 */
+	public LonLatBounds getLonLatBounds(){
+		return new LonLatBounds(getLonFromX(0),getLatFromY(0),getLonFromX(size),getLatFromY(size));
+	}
+
+	/** Converts longitude to x on the tile's canvas
+	 *
+	 * @param lon  Longitude
+	 * @return x
+	 */
+	public float getXFromLon(double lon){
+		return (float)((TileGeometry.lonToUnitX(lon)*tilesAcross-tileX)*size);
+	}
+
+	/** Converts latitude to y on the tile's canvas
+	 *
+	 * @param lat  Latitude
+	 * @return y
+	 */
+	public float getYFromLat(double lat){
+		return (float)((TileGeometry.latToUnitY(lat)*tilesAcross-tileY)*size);
+	}
+
+	/** Converts x on the tile's canvas to longitude
+	 *
+	 * @param x
+	 * @return longitude
+	 */
+	public double getLonFromX(double x){
+		return (tileX+x/size)/tilesAcross*360-180;
+	}
+
+	/** Converts y on the tile's canvas to latitude
+	 *
+	 * @param y
+	 * @return latitude
+	 */
+	public double getLatFromY(double y){
+		double n=Math.PI-2*Math.PI*(tileY+y/size)/tilesAcross;
+		return Math.toDegrees(Math.atan(Math.sinh(n)));
+	}
+}
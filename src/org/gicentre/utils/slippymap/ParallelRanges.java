@@ -0,0 +1,103 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+//****************************************************************************************
+/** Splits work on a range of array indices into chunks, one per core, which are processed
+ * in parallel. Used for converting large arrays of points.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class ParallelRanges {
+
+	/** Work on a range of indices
+	 *
+	 */
+	interface RangeTask{
+		/** Process indices from (inclusive) to to (exclusive)
+		 *
+		 * @param from
+		 * @param to
+		 */
+		void run(int from,int to);
+	}
+
+	/** Runs the task on indices 0 to n. If n is at least the threshold, the range is
+	 * split between the available cores, otherwise it is run in the calling thread.
+	 * Returns when all the work is done.
+	 *
+	 * @param n  Number of indices
+	 * @param threshold  Minimum number of indices for which work will be split
+	 * @param task  The task
+	 */
+	static void run(int n,int threshold,final RangeTask task){
+		int numChunks=Math.min(Runtime.getRuntime().availableProcessors(),ForkJoinPool.getCommonPoolParallelism()+1);
+		if (n<threshold || numChunks<2 || n<numChunks){
+			task.run(0,n);
+			return;
+		}
+		int chunkSize=(n+numChunks-1)/numChunks;
+		Future<?>[] futures=new Future<?>[numChunks-1];
+		//hand all but the first chunk to other threads and do the first one here
+		for (int i=1;i<numChunks;i++){
+			final int from=i*chunkSize;
+			final int to=Math.min(n,from+chunkSize);
+			futures[i-1]=ForkJoinPool.commonPool().submit(new Runnable(){
+				public void run(){
+					if (from<to)
+						task.run(from,to);
+				}
+			});
+		}
+		task.run(0,Math.min(n,chunkSize));
+		//wait for every chunk, even if interrupted, so nothing is still being written on return
+		boolean interrupted=false;
+		Throwable failure=null;
+		for (Future<?> future:futures){
+			while (true){
+				try{
+					future.get();
+					break;
+				}
+				catch (InterruptedException e){
+					interrupted=true;
+				}
+				catch (ExecutionException e){
+					if (failure==null)
+						failure=e.getCause();
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		if (failure instanceof Error)
+			throw (Error)failure;
+		if (failure!=null)
+			throw new RuntimeException(failure);
+	}
+}
@@ -0,0 +1,320 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.gicentre.utils.move.ZoomPanState;
+
+import processing.core.PGraphics;
+import processing.core.PVector;
+
+//****************************************************************************************
+/** A set of lon/lat points that can be drawn on a SlippyMap. Points are spatially indexed
+ * when the layer is created, so finding the points in the viewport takes time proportional
+ * to the number of points found rather than the total number of points. This keeps
+ * redrawing fast at any zoom level, even with tens of millions of points.
+ *
+ * Points are sorted into Z-order (Morton order) of the level 16 map tiles that contain
+ * them, so the points of any tile at level 16 or less are in one contiguous run. Queries
+ * descend the tile quadtree, skipping empty tiles, taking every point of tiles that are
+ * completely inside the query and checking individual points only in tiles on the edge.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class PointLayer {
+
+	/** Interface for receiving the points found by a query
+	 *
+	 */
+	public interface PointVisitor{
+		/** Called for each point found
+		 *
+		 * @param index  Index of the point in the arrays/collection the layer was created from
+		 * @param lon  Longitude
+		 * @param lat  Latitude
+		 */
+		public void visit(int index, float lon, float lat);
+	}
+
+	static final int LEVEL=16; //tile level at which points are indexed
+	static final int CELLS=1<<LEVEL; //number of tiles across at that level
+
+	//All sorted by key. Keys are Morton codes with the top bit flipped, so that signed
+	//comparison of the keys gives the same order as unsigned comparison of the codes.
+	final int[] keys;
+	final float[] lons;
+	final float[] lats;
+	final int[] indices; //indices of the points in the original input
+
+	private boolean[] drawnPixels; //reused by draw() to avoid overplotting
+
+	/** Constructor
+	 *
+	 * @param lons  Longitudes of the points
+	 * @param lats  Latitudes of the points
+	 */
+	public PointLayer(float[] lons, float[] lats){
+		int n=lons.length;
+		if (lats.length!=n)
+			throw new IllegalArgumentException("Must have the same number of longitudes and latitudes");
+
+		//sort by morton code, keeping track of the original index
+		long[] keyAndIndex=new long[n];
+		for (int i=0;i<n;i++)
+			keyAndIndex[i]=((long)sortableKey(lonToCell(lons[i]),latToCell(lats[i])))<<32 | i;
+		Arrays.parallelSort(keyAndIndex);
+
+		keys=new int[n];
+		this.lons=new float[n];
+		this.lats=new float[n];
+		indices=new int[n];
+		for (int i=0;i<n;i++){
+			int index=(int)keyAndIndex[i];
+			keys[i]=(int)(keyAndIndex[i]>>32);
+			this.lons[i]=lons[index];
+			this.lats[i]=lats[index];
+			indices[i]=index;
+		}
+	}
+
+	/** Constructor
+	 *
+	 * @param lonLats  Lon/lats of the points (x=lon, y=lat). Indices passed to PointVisitor
+	 * are in the collection's iteration order
+	 */
+	public PointLayer(Collection<PVector> lonLats){
+		this(toLons(lonLats),toLats(lonLats));
+	}
+
+	/** Number of points in the layer
+	 *
+	 * @return number of points
+	 */
+	public int size(){
+		return keys.length;
+	}
+
+	/** Finds all the points within a lon/lat bounding box - typically
+	 * SlippyMap.getLonLatViewPort()
+	 *
+	 * @param lonLatBounds  The bounds
+	 * @param pointVisitor  Called for each point found (in no particular order)
+	 */
+	public void query(Rectangle2D lonLatBounds, PointVisitor pointVisitor){
+		if (keys.length==0)
+			return;
+		int minX=lonToCell(lonLatBounds.getMinX());
+		int maxX=lonToCell(lonLatBounds.getMaxX());
+		int minY=latToCell(lonLatBounds.getMaxY()); //y goes down
+		int maxY=latToCell(lonLatBounds.getMinY());
+		query(0,0,0,0,keys.length,minX,minY,maxX,maxY,lonLatBounds,pointVisitor);
+	}
+
+	/** Counts the points within a lon/lat bounding box
+	 *
+	 * @param lonLatBounds  The bounds
+	 * @return number of points
+	 */
+	public int count(Rectangle2D lonLatBounds){
+		final int[] count=new int[1];
+		query(lonLatBounds,new PointVisitor(){
+			public void visit(int index, float lon, float lat){
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+
+	/** Draws the points in the map's viewport as circles, using the current fill and stroke.
+	 * Only one point is drawn per pixel.
+	 *
+	 * @param slippyMap  The map
+	 * @param zoomPanState  Zoom/pan state - usually that of ZoomPan at the start of the sketch's
+	 * draw loop
+	 * @param canvas  The canvas to draw on
+	 * @param diameter  Diameter of the circles in pixels
+	 */
+	public void draw(SlippyMap slippyMap, ZoomPanState zoomPanState, final PGraphics canvas, final float diameter){
+		final ViewTransform viewTransform=slippyMap.getViewTransform(zoomPanState);
+		final int minX=viewTransform.screenBounds.x;
+		final int minY=viewTransform.screenBounds.y;
+		final int width=viewTransform.screenBounds.width;
+		final int height=viewTransform.screenBounds.height;
+		if (drawnPixels==null || drawnPixels.length!=width*height)
+			drawnPixels=new boolean[width*height];
+		else
+			Arrays.fill(drawnPixels,false);
+		final boolean[] drawn=drawnPixels;
+		query(slippyMap.getLonLatViewPort(zoomPanState),new PointVisitor(){
+			public void visit(int index, float lon, float lat){
+				double x=viewTransform.lonToScreenX(lon);
+				double y=viewTransform.latToScreenY(lat);
+				int px=(int)x-minX;
+				int py=(int)y-minY;
+				if (px>=0 && py>=0 && px<width && py<height && !drawn[py*width+px]){
+					drawn[py*width+px]=true;
+					canvas.ellipse((float)x,(float)y,diameter,diameter);
+				}
+			}
+		});
+	}
+
+	/** Index of the first point whose key is at least the specified key
+	 *
+	 * @param key  Key (sortable form)
+	 * @param from  Index to start searching from
+	 * @param to  Index after the last one to search
+	 * @return index
+	 */
+	int lowerBound(int key, int from, int to){
+		while (from<to){
+			int mid=(from+to)>>>1;
+			if (keys[mid]<key)
+				from=mid+1;
+			else
+				to=mid;
+		}
+		return from;
+	}
+
+	/** Finds the range of sorted points in a tile
+	 *
+	 * @param zoom  Zoom level of the tile (16 or less)
+	 * @param tileX  Tile x
+	 * @param tileY  Tile y
+	 * @return start (high 32 bits) and end (low 32 bits) indices, as BingTileSystem.pack()
+	 */
+	long tileRange(int zoom, int tileX, int tileY){
+		int shift=2*(LEVEL-zoom);
+		long firstCode=(morton(tileX,tileY)&0xffffffffL)<<shift;
+		long lastCode=firstCode+(1L<<shift)-1;
+		int start=lowerBound((int)firstCode^Integer.MIN_VALUE,0,keys.length);
+		int end=keys.length;
+		if (lastCode<0xffffffffL)
+			end=lowerBound((int)(lastCode+1)^Integer.MIN_VALUE,start,keys.length);
+		return BingTileSystem.pack(start,end);
+	}
+
+	/** Recursively visits the quadtree cell at (cellX,cellY) at the specified level, whose
+	 * points are all in the range from-to.
+	 */
+	private void query(int level, int cellX, int cellY, int from, int to, int minX, int minY, int maxX, int maxY, Rectangle2D lonLatBounds, PointVisitor pointVisitor){
+		if (from>=to)
+			return; //no points
+		int shift=LEVEL-level;
+		int firstX=cellX<<shift;
+		int firstY=cellY<<shift;
+		int lastX=firstX+(1<<shift)-1;
+		int lastY=firstY+(1<<shift)-1;
+		if (lastX<minX || firstX>maxX || lastY<minY || firstY>maxY)
+			return; //outside query
+		if (firstX>minX && lastX<maxX && firstY>minY && lastY<maxY){
+			//completely inside the query (and not in an edge cell), so take all points
+			for (int i=from;i<to;i++)
+				pointVisitor.visit(indices[i],lons[i],lats[i]);
+			return;
+		}
+		if (level==LEVEL){
+			//edge cell - check each point
+			double minLon=lonLatBounds.getMinX();
+			double maxLon=lonLatBounds.getMaxX();
+			double minLat=lonLatBounds.getMinY();
+			double maxLat=lonLatBounds.getMaxY();
+			for (int i=from;i<to;i++){
+				float lon=lons[i];
+				float lat=lats[i];
+				if (lon>=minLon && lon<=maxLon && lat>=minLat && lat<=maxLat)
+					pointVisitor.visit(indices[i],lon,lat);
+			}
+			return;
+		}
+		//split the range between the four children (in morton order)
+		int childShift=2*(LEVEL-level-1);
+		long base=((long)morton(cellX,cellY))<<(2*shift);
+		int start=from;
+		for (int child=0;child<4;child++){
+			int end;
+			if (child==3)
+				end=to;
+			else
+				end=lowerBound((int)(base+((long)(child+1)<<childShift))^Integer.MIN_VALUE,start,to);
+			query(level+1,(cellX<<1)|(child&1),(cellY<<1)|(child>>1),start,end,minX,minY,maxX,maxY,lonLatBounds,pointVisitor);
+			start=end;
+		}
+	}
+
+	/** Interleaves the bits of x and y (x in the even bits)
+	 *
+	 * @param x
+	 * @param y
+	 * @return Morton code
+	 */
+	static int morton(int x, int y){
+		return spread(x)|(spread(y)<<1);
+	}
+
+	private static int spread(int v){
+		v&=0xffff;
+		v=(v|(v<<8))&0x00ff00ff;
+		v=(v|(v<<4))&0x0f0f0f0f;
+		v=(v|(v<<2))&0x33333333;
+		v=(v|(v<<1))&0x55555555;
+		return v;
+	}
+
+	private static int sortableKey(int cellX, int cellY){
+		return morton(cellX,cellY)^Integer.MIN_VALUE;
+	}
+
+	/** Level 16 tile x containing a longitude
+	 *
+	 * @param lon
+	 * @return tile x
+	 */
+	static int lonToCell(double lon){
+		return TileGeometry.lonToTileX(lon,LEVEL);
+	}
+
+	/** Level 16 tile y containing a latitude
+	 *
+	 * @param lat
+	 * @return tile y
+	 */
+	static int latToCell(double lat){
+		return TileGeometry.latToTileY(lat,LEVEL);
+	}
+
+	private static float[] toLons(Collection<PVector> lonLats){
+		float[] lons=new float[lonLats.size()];
+		int i=0;
+		for (PVector lonLat:lonLats)
+			lons[i++]=lonLat.x;
+		return lons;
+	}
+
+	private static float[] toLats(Collection<PVector> lonLats){
+		float[] lats=new float[lonLats.size()];
+		int i=0;
+		for (PVector lonLat:lonLats)
+			lats[i++]=lonLat.y;
+		return lats;
+	}
+}
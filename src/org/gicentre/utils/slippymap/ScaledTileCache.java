@@ -0,0 +1,190 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+//****************************************************************************************
+/** In-memory cache of tile images that have already been scaled to the size they are drawn
+ * at, so that while the map scale stays the same (e.g. while panning) tiles are drawn
+ * without scaling. Scaled tiles are made in another thread and the cache is emptied when
+ * the scale changes.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class ScaledTileCache {
+
+	static private final double MAX_SCALE_DIFFERENCE=1e-6; //relative scale change that is still treated as the same scale
+
+	/** A tile image scaled to a size in pixels. Tile images are compared by identity
+	 */
+	static private class ScaledTile{
+		final PImage image;
+		final int width;
+		final int height;
+		ScaledTile(PImage image,int width,int height){
+			this.image=image;
+			this.width=width;
+			this.height=height;
+		}
+		public boolean equals(Object o){
+			ScaledTile scaledTile=(ScaledTile)o;
+			return image==scaledTile.image && width==scaledTile.width && height==scaledTile.height;
+		}
+		public int hashCode(){
+			return (System.identityHashCode(image)*31+width)*31+height;
+		}
+	}
+
+	private TileRetriever tileRetriever; //for informing listeners
+	private LRUCache<ScaledTile, PImage> tileCache;
+	private Set<ScaledTile> pending=new HashSet<ScaledTile>(); //tiles queued for scaling
+	private ThreadPoolExecutor executor; //scales tiles
+	private double scale=Double.NaN; //map scale the cached tiles were made for
+	private boolean scaleSettled=false; //whether the scale was the same in the last frame
+	private volatile int generation=0; //incremented when the cache is emptied, so that tiles scaled before are ignored
+
+	/** Constructor
+	 *
+	 * @param tileRetriever  The tile retriever, whose listeners are informed when tiles are ready
+	 * @param maxTilesInCache  Maximum number of scaled tiles in the cache
+	 */
+	ScaledTileCache(TileRetriever tileRetriever,int maxTilesInCache){
+		this.tileRetriever=tileRetriever;
+		this.tileCache=new LRUCache<ScaledTile, PImage>(maxTilesInCache);
+	}
+
+	/** Sets the map scale for this frame. Empties the cache if it has changed
+	 *
+	 * @param scale  Map scale (e.g. ViewTransform.scaleX)
+	 */
+	void setScale(double scale){
+		if (Math.abs(scale/this.scale-1)<MAX_SCALE_DIFFERENCE){
+			scaleSettled=true;
+			return;
+		}
+		this.scale=scale;
+		scaleSettled=false;
+		synchronized (tileCache) {
+			generation++;
+			tileCache.clear();
+		}
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	/** Draws a tile from the cache, on whole pixels. If it is not in the cache, it is queued
+	 * for scaling (unless the scale is still changing) and nothing is drawn
+	 *
+	 * @param g  The canvas to draw on
+	 * @param image  The (unscaled) tile image
+	 * @param x1  Left
+	 * @param y1  Top
+	 * @param x2  Right
+	 * @param y2  Bottom
+	 * @return whether the tile was drawn
+	 */
+	boolean draw(PGraphics g,PImage image,float x1,float y1,float x2,float y2){
+		int x=Math.round(x1);
+		int y=Math.round(y1);
+		int width=Math.round(x2)-x;
+		int height=Math.round(y2)-y;
+		if (width<=0 || height<=0 || (width==image.width && height==image.height))
+			return false;
+		ScaledTile key=new ScaledTile(image,width,height);
+		PImage scaledImage;
+		synchronized (tileCache) {
+			scaledImage=tileCache.get(key);
+		}
+		if (scaledImage!=null){
+			g.image(scaledImage,x,y);
+			return true;
+		}
+		//don't scale tiles while zooming
+		if (scaleSettled)
+			requestTile(key);
+		return false;
+	}
+
+	/** Stops scaling tiles and empties the cache
+	 *
+	 */
+	void dispose(){
+		if (executor!=null)
+			executor.shutdownNow();
+		synchronized (tileCache) {
+			generation++;
+			tileCache.clear();
+		}
+	}
+
+	/** Queues a tile to be scaled, unless it is already queued
+	 *
+	 * @param key
+	 */
+	private void requestTile(final ScaledTile key){
+		synchronized (pending) {
+			if (!pending.add(key))
+				return;
+		}
+		if (executor==null){
+			executor=new ThreadPoolExecutor(1,1,1,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread thread=new Thread(r,"SlippyMapTileScaler");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true); //no thread while there is nothing to scale
+		}
+		final int tileGeneration=generation;
+		executor.execute(new Runnable(){
+			public void run(){
+				if (tileGeneration!=generation){
+					synchronized (pending) {
+						pending.remove(key);
+					}
+					return;
+				}
+				PImage scaledImage=key.image.get();
+				scaledImage.resize(key.width,key.height);
+				synchronized (tileCache) {
+					if (tileGeneration==generation)
+						tileCache.put(key,scaledImage);
+				}
+				synchronized (pending) {
+					pending.remove(key);
+				}
+				tileRetriever.fireNewTileAvailable();
+			}
+		});
+	}
+}
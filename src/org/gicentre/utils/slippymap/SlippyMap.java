@@ -3,14 +3,30 @@ package org.gicentre.utils.slippymap;
 import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
 import org.gicentre.utils.move.ZoomPan;
+import org.gicentre.utils.move.ZoomPanListener;
 import org.gicentre.utils.move.ZoomPanState;
 import org.gicentre.utils.slippymap.Bing.BingTileType;
-import org.gicentre.utils.slippymap.OpenStreetMap.OsmTileType;
 
 import processing.core.PApplet;
 import processing.core.PGraphics;
 import processing.core.PGraphicsJava2D;
+import processing.core.PImage;
 import processing.core.PVector;
 
 //****************************************************************************************
@@ -21,6 +37,9 @@ import processing.core.PVector;
  * To use, create an instance of ZoomPan (to handling the zooming and panning), create
  * an instance of SlippyMap (passing in the ZoomPan instance), and then call its draw() 
  * method in the draw loop. See org.gicentre.tests.SlippyMapTest
+ * 
+ * Call dispose() when a map is no longer needed, to free its threads and caches (this is
+ * done automatically when the sketch stops).
  *  
  * @author Aidan Slingsby, giCentre, City University London.
  * @version 1.0, August 2011 
@@ -42,7 +61,12 @@ import processing.core.PVector;
 */
 
 
-public class SlippyMap{
+public class SlippyMap implements AutoCloseable{
+
+	/** Maximum number of tiles that getTiles() can get at once */
+	static public final int MAX_ASYNC_TILES=1024;
+	/** Longest time the first frame waits for the tiles in memory last time to be loaded from the disk cache */
+	static public final long WARM_START_WAIT_MILLIS=2000;
 
 	private PApplet applet;
 	private Rectangle screenBounds;
@@ -50,10 +74,32 @@ public class SlippyMap{
 	private Bing bing;
 	private OpenStreetMap osm;
 	private SlippyMapType slippyMapType=SlippyMapType.OSM_MAPNIK; //default base map style
-	private TileRetriever tileRetriever; //Tiles are retrieved in a different thread
+	private TileSource tileSource=TileSourceRegistry.get("osm-mapnik"); //source of the tiles of non-Bing map types (null for none)
+	private String cloudMadeApiKey;
+	private int cloudMadeStyleId=1;
+	TileRetriever tileRetriever; //Tiles are retrieved in a different thread
 	
 	private int tilePixelWidth;
+	private int maxItemsInCache;
 	private String bingApiKey;
+	private int parallelProjectionThreshold=100000; //number of points above which batch conversions are split between cores
+	private List<OverlayLayer> overlayLayers=new CopyOnWriteArrayList<OverlayLayer>(); //overlays drawn over the base map in tiles
+	private ExecutorService overlayExecutor; //draws overlay tiles
+	private boolean useFrameCache=false; //whether to keep the composed map between frames (see setUseFrameCache())
+	private FrameCache frameCache;
+	private boolean snapToNativeResolution=false; //whether to snap zoom/pan so that tiles are drawn unscaled (see setSnapToNativeResolution())
+	private ZoomPanListener nativeResolutionSnapper; //snaps when zooming/panning ends
+	private MotionTracker motionTracker=new MotionTracker(); //whether the map is being zoomed or panned
+	private boolean deferTilesWhileMoving=true; //whether to only request coarse tiles while the map is moving (see setDeferTilesWhileMoving())
+	private ZoomPanListener gestureListener; //stops the map moving when zooming/panning ends
+	private FrameBudget frameBudget=new FrameBudget(); //limits the time spent drawing tiles (see draw(ZoomPanState,PGraphics,float))
+	private boolean mapComplete=false; //whether the whole map was drawn in the last frame
+	private ScaledTileCache scaledTileCache; //tiles already scaled to the size they are drawn at (null if not used)
+	private boolean warmStart=false; //whether to save and load the tiles in memory between runs (see setWarmStart())
+	private boolean warmStartLoaded=false; //whether the first frame has loaded them (or found they are not wanted)
+	private WarmStartManifest warmStartManifest; //what was saved when the map was last disposed (null if not read yet)
+	private LonLatBounds lastViewPort; //viewport of the last frame drawn (null if none has been)
+	private volatile boolean disposed=false;
 	
 
 	/** Constructor
@@ -96,10 +142,138 @@ public class SlippyMap{
 		this.screenBounds=screenBounds;
 		this.zoomPan=zoomPan;
 		this.tilePixelWidth=tilePixelWidth;
+		this.maxItemsInCache=maxItemsInCache;
 
 		//For tile retrieval in another thread
 		tileRetriever=new TileRetriever(applet, maxItemsInCache);
-		
+
+		//get the tiles that were not requested while zooming/panning as soon as it ends
+		if (zoomPan!=null){
+			gestureListener=new ZoomPanListener(){
+				public void zoomEnded(){
+					gestureEnded();
+				}
+				public void panEnded(){
+					gestureEnded();
+				}
+			};
+			zoomPan.addZoomPanListener(gestureListener);
+		}
+
+		//free threads and memory when the sketch stops
+		if (applet!=null)
+			applet.registerMethod("dispose",this);
+	}
+
+	/** Stops retrieving tiles and frees the threads, caches and monitoring MBeans this map
+	 * uses. Futures waiting for tiles are cancelled and listeners are no longer informed. The
+	 * map draws nothing afterwards. Called automatically when the sketch stops; call it when
+	 * a map is no longer needed before then (e.g. when a view is rebuilt).
+	 * 
+	 */
+	public void dispose(){
+		if (disposed)
+			return;
+		disposed=true;
+		if (applet!=null)
+			applet.unregisterMethod("dispose",this);
+		if (nativeResolutionSnapper!=null && zoomPan!=null)
+			zoomPan.removeZoomPanListener(nativeResolutionSnapper);
+		nativeResolutionSnapper=null;
+		if (gestureListener!=null && zoomPan!=null)
+			zoomPan.removeZoomPanListener(gestureListener);
+		gestureListener=null;
+		if (warmStart && tileRetriever.isUseFileCache())
+			saveWarmStart();
+		tileRetriever.dispose();
+		if (overlayExecutor!=null)
+			overlayExecutor.shutdownNow();
+		for (OverlayLayer overlayLayer:overlayLayers)
+			overlayLayer.invalidate();
+		if (scaledTileCache!=null)
+			scaledTileCache.dispose();
+		frameCache=null;
+	}
+
+	/** Reads what was saved when a map was last disposed (once)
+	 * 
+	 * @return the manifest, or null if warm start is off, the disk cache is not used or nothing was saved
+	 */
+	private WarmStartManifest getWarmStartManifest(){
+		if (!warmStart || !tileRetriever.isUseFileCache())
+			return null;
+		if (warmStartManifest==null)
+			warmStartManifest=WarmStartManifest.read(new File(tileRetriever.getFileCachePath()+WarmStartManifest.FILENAME));
+		return warmStartManifest;
+	}
+
+	/** Loads the tiles that were in memory when a map was last disposed from the disk cache,
+	 * waiting up to WARM_START_WAIT_MILLIS for them. Called when the first frame is drawn, so
+	 * that the map can be set up (e.g. with setWarmStart() or setUseFileCache()) first
+	 * 
+	 */
+	private void loadWarmStart(){
+		WarmStartManifest manifest=getWarmStartManifest();
+		if (manifest==null)
+			return;
+		List<String> cacheFilenames=manifest.getCacheFilenames();
+		//the most recently used, if they don't all fit
+		cacheFilenames=cacheFilenames.subList(Math.max(0,cacheFilenames.size()-maxItemsInCache),cacheFilenames.size());
+		if (cacheFilenames.isEmpty())
+			return;
+		CountDownLatch latch=tileRetriever.preloadFromFileCache(cacheFilenames);
+		try{
+			latch.await(WARM_START_WAIT_MILLIS,TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Saves the tiles in memory and the last viewport to the disk cache, for the next time a
+	 * map is created
+	 * 
+	 */
+	private void saveWarmStart(){
+		try{
+			new WarmStartManifest(lastViewPort,tileRetriever.getCachedTileNames())
+					.write(new File(tileRetriever.getFileCachePath()+WarmStartManifest.FILENAME));
+		}
+		catch (IOException e){
+			System.err.println("Could not save the tiles in memory to the disk cache: "+e.getMessage());
+		}
+	}
+
+	/** Sets whether the tiles in the in-memory cache and the viewport are saved to the disk
+	 * cache when the map is disposed, so that the next map to be created can load them before
+	 * its first frame (and zoom to the same place with getWarmStartViewPort()). The first
+	 * frame waits up to WARM_START_WAIT_MILLIS for them, so call this before it is drawn.
+	 * Only has an effect if the disk cache is used. Default is false
+	 * 
+	 * @param warmStart
+	 */
+	public void setWarmStart(boolean warmStart){
+		this.warmStart=warmStart;
+	}
+
+	public boolean isWarmStart(){
+		return warmStart;
+	}
+
+	/** Gets the viewport when a map was last disposed (see setWarmStart()), e.g. to zoomTo() it
+	 * 
+	 * @return the viewport, or null if it is not known (or warm start is off)
+	 */
+	public LonLatBounds getWarmStartViewPort(){
+		WarmStartManifest manifest=getWarmStartManifest();
+		return manifest==null?null:manifest.getViewPort();
+	}
+
+	/** Same as dispose(), so that a map can be used in try-with-resources
+	 * 
+	 */
+	public void close(){
+		dispose();
 	}
 
 	/** If this is to be used as an UNSIGNED APPLET, tile requests need to be routed through
@@ -158,6 +332,15 @@ public class SlippyMap{
 		return coordBounds;
 	}
 	
+	/** Gets the transformation from Mercator/tile coordinates to the screen for a zoompan state
+	 * 
+	 * @param zoomPanState  The zoom/pan state (or null for the unzoomed/unpanned map)
+	 * @return The transformation
+	 */
+	ViewTransform getViewTransform(ZoomPanState zoomPanState){
+		return new ViewTransform(screenBounds,zoomPanState,snapToNativeResolution);
+	}
+
 	/** Sets whether the tiles should be cached on disk or not
 	 * 
 	 * @param useFileCache
@@ -204,46 +387,486 @@ public class SlippyMap{
 	 * 
 	 */
 	public void draw(ZoomPanState zoomPanState,PGraphics canvas){
+		draw(getViewTransform(zoomPanState),canvas,0);
+	}
+
+	/** Draws the map, spending no more than about a given time drawing tiles (see
+	 * draw(ZoomPanState,PGraphics,float))
+	 * 
+	 * @param budgetMillis  Time allowed for drawing tiles in milliseconds (0 for no limit)
+	 * @return whether the whole map has been drawn, with every tile and overlay tile at the
+	 * right resolution
+	 */
+	public boolean draw(float budgetMillis){
+		return this.draw(zoomPan.getZoomPanState(),applet.g,budgetMillis);
+	}
+
+	/** Draws the map using a particular zoompan state, spending no more than about a given
+	 * time drawing tiles. Lower resolution tiles that cover the map are drawn first, then the
+	 * right tiles from the centre out, and drawing stops when the time is up. With
+	 * setUseFrameCache(true), the next frame carries on from where this one stopped if the
+	 * view has not changed; otherwise each frame starts again, drawing the tiles that are the
+	 * most important first. Overlays and the attribution are always drawn.
+	 * 
+	 * @param zoomPanState  Zoom/pan for this frame
+	 * @param canvas  The canvas to draw on
+	 * @param budgetMillis  Time allowed for drawing tiles in milliseconds (0 for no limit)
+	 * @return whether the whole map has been drawn, with every tile and overlay tile at the
+	 * right resolution (false if the time ran out or tiles are still being retrieved)
+	 */
+	public boolean draw(ZoomPanState zoomPanState,PGraphics canvas,float budgetMillis){
+		return draw(getViewTransform(zoomPanState),canvas,(long)(budgetMillis*1e6));
+	}
+
+	/** Draws the map with a transformation to the screen, rather than a zoompan state (so it
+	 * can be drawn without ZoomPan, e.g. when testing)
+	 * 
+	 * @param viewTransform  Transformation to the screen
+	 * @param canvas  The canvas to draw on
+	 */
+	void draw(ViewTransform viewTransform,PGraphics canvas){
+		draw(viewTransform,canvas,0);
+	}
+
+	/** Draws the map with a transformation to the screen, spending no more than about a given
+	 * time drawing tiles
+	 * 
+	 * @param viewTransform  Transformation to the screen
+	 * @param canvas  The canvas to draw on
+	 * @param budgetNanos  Time allowed for drawing tiles in nanoseconds (0 for no limit)
+	 * @return whether the whole map has been drawn (see draw(ZoomPanState,PGraphics,float))
+	 */
+	boolean draw(ViewTransform viewTransform,PGraphics canvas,long budgetNanos){
+		long startTime=System.nanoTime();
+		
+		if (disposed || !createBaseMap())
+			return false;
+		if (!warmStartLoaded){
+			//the first frame waits for the tiles that were in memory last time
+			warmStartLoaded=true;
+			loadWarmStart();
+		}
 		
+		tileRetriever.notifier.setViewTransform(viewTransform);
+		BaseMapProvider baseMap=getBaseMap();
+		boolean deferFetches=motionTracker.update(viewTransform,startTime) && deferTilesWhileMoving;
+		if (baseMap.deferFetches && !deferFetches)
+			invalidateFrameCache(); //draw it all again, requesting the tiles that were not requested while moving
+		baseMap.deferFetches=deferFetches;
+		frameBudget.startFrame(startTime,budgetNanos);
+		baseMap.frameBudget=budgetNanos>0?frameBudget:null;
+		LonLatBounds lonLatViewPort=new LonLatBounds(
+				viewTransform.screenXToLon(screenBounds.getMinX()),viewTransform.screenYToLat(screenBounds.getMaxY()),
+				viewTransform.screenXToLon(screenBounds.getMaxX()),viewTransform.screenYToLat(screenBounds.getMinY()));
+		lastViewPort=lonLatViewPort;
+		baseMap.scaledTileCache=scaledTileCache;
+		if (scaledTileCache!=null)
+			scaledTileCache.setScale(viewTransform.scaleX);
+		//overlays are drawn at the same zoom level and tile size as the base map
+		final int zoom;
+		final int overlayTileSize;
+		if (snapToNativeResolution){
+			zoom=getNativeZoom(viewTransform);
+			overlayTileSize=BaseMapProvider.NATIVE_TILE_SIZE;
+		}
+		else{
+			zoom=baseMap.getZoom(lonLatViewPort,screenBounds);
+			overlayTileSize=tilePixelWidth;
+		}
+
+		if (canvas instanceof PGraphicsJava2D)
+			((PGraphicsJava2D)canvas).g2.setClip(screenBounds); //start clipping
+		if (useFrameCache && canvas instanceof PGraphicsJava2D){
+			if (frameCache==null)
+				frameCache=new FrameCache(applet);
+			frameCache.draw(viewTransform,zoom,tileRetriever.tileArrivalCount.get(),(PGraphicsJava2D)canvas,new FrameCache.Painter(){
+				public boolean paint(PGraphics g,ViewTransform frameTransform,Rectangle2D latLonBounds,boolean wholeFrame,boolean resume){
+					if (wholeFrame)
+						mapComplete=true; //everything is being drawn (again)
+					frameBudget.setResuming(resume);
+					boolean tilesComplete=drawTiles(latLonBounds,frameTransform,g,zoom);
+					if (frameBudget.isStopped()){
+						//overlays are drawn into the buffer once all the tiles under them have
+						//been (until then, they are drawn over it - see paintOver())
+						mapComplete=false;
+						return false;
+					}
+					boolean overlaysComplete=drawOverlays(latLonBounds,frameTransform,g,zoom,overlayTileSize,wholeFrame);
+					mapComplete&=tilesComplete && overlaysComplete;
+					return true;
+				}
+
+				public void paintOver(PGraphics g,ViewTransform viewTransform,Rectangle2D latLonBounds,boolean wholeFrame){
+					drawOverlays(latLonBounds,viewTransform,g,zoom,overlayTileSize,wholeFrame);
+				}
+			});
+		}
+		else{
+			boolean tilesComplete=drawTiles(lonLatViewPort,viewTransform,canvas,zoom);
+			boolean overlaysComplete=drawOverlays(lonLatViewPort,viewTransform,canvas,zoom,overlayTileSize,true);
+			mapComplete=tilesComplete && overlaysComplete && !frameBudget.isStopped();
+		}
+		drawAttribution(canvas);
+		if (canvas instanceof PGraphicsJava2D)
+			((PGraphicsJava2D)canvas).g2.setClip(null); //stop clipping
+		tileRetriever.metrics.frameDrawn(System.nanoTime()-startTime);
+		return mapComplete;
+	}
+
+	/** Gets a snapshot of the tile pipeline's metrics: cache hits and misses, fetch, decode
+	 * and disk write times, the fetch queue and frame draw times. These are always collected
+	 * and are cheap to collect.
+	 * 
+	 * @return The metrics
+	 */
+	public SlippyMapMetrics getMetrics(){
+		return tileRetriever.metrics.snapshot(tileRetriever.urls.size());
+	}
+
+	/** Creates the provider of the current map type's tiles if it has not been created
+	 * 
+	 * @return false if it cannot be created (Bing without an API key)
+	 */
+	private boolean createBaseMap(){
 		if (slippyMapType.toString().startsWith("BING_") && bing==null){
 			if (this.bingApiKey==null){
 				System.err.println("Must call setBingApiKey() before using Bing maps");
-				return;
+				return false;
 			}
 			
 			else {
 				bing=new Bing(applet,tilePixelWidth,tileRetriever,bingApiKey);//can replace with osm
 			}
 		}
-		if (slippyMapType.toString().startsWith("OSM_") && osm==null)
+		if (!slippyMapType.toString().startsWith("BING_") && osm==null)
 			osm=new OpenStreetMap(applet,tilePixelWidth,tileRetriever);//can replace with osm
+		return true;
+	}
 
-		
-		startClipping(); //start clipping
+	/** Gets a tile of the current map type, without blocking. The future completes when the
+	 * tile is in the in-memory cache, whether it was already there, or was read from the disk
+	 * cache or downloaded. Cancelling the future stops the tile being downloaded if nothing
+	 * else wants it and the download has not started.
+	 * 
+	 * Tiles are numbered from the top left (north-west) at each zoom level, from 0 to
+	 * 2^zoom-1 in each direction.
+	 * 
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile column
+	 * @param tileY  Tile row
+	 * @return a future that completes with the tile image, or exceptionally (with an
+	 * IOException if the tile could not be retrieved)
+	 */
+	public CompletableFuture<PImage> getTile(int zoom,int tileX,int tileY){
+		if (!createBaseMap())
+			return CompletableFuture.<PImage>failedFuture(new IllegalStateException("Must call setBingApiKey() before using Bing maps"));
+		if (slippyMapType==SlippyMapType.BING_AERIAL)
+			return bing.getTileImageAsync(BingTileType.AERIAL,tileX,tileY,zoom);
+		else if (slippyMapType==SlippyMapType.BING_ROAD)
+			return bing.getTileImageAsync(BingTileType.ROAD,tileX,tileY,zoom);
+		else if (slippyMapType==SlippyMapType.BING_AERIAL_WITH_LABELS)
+			return bing.getTileImageAsync(BingTileType.AERIAL_WITH_LABELS,tileX,tileY,zoom);
+		else if (tileSource==null)
+			return CompletableFuture.<PImage>failedFuture(new IllegalStateException("No map type to get tiles of"));
+		else
+			return osm.getTileImageAsync(tileSource,tileX,tileY,zoom);
+	}
+
+	/** Gets all the tiles of the current map type that cover an area at a zoom level, without
+	 * blocking (see getTile()). The tiles are in rows from the top (north), each from left to
+	 * right (west to east). Cancelling the future cancels the tiles that have not been
+	 * retrieved yet; if any tile cannot be retrieved, the future completes exceptionally and
+	 * the rest are cancelled.
+	 * 
+	 * @param lonLatBounds  Area
+	 * @param zoom  Zoom level
+	 * @return a future that completes with the tile images
+	 * @throws IllegalArgumentException if the area needs more than MAX_ASYNC_TILES tiles
+	 */
+	public CompletableFuture<List<PImage>> getTiles(LonLatBounds lonLatBounds,int zoom){
+		int firstTileX=TileGeometry.lonToTileX(lonLatBounds.getMinX(),zoom);
+		int lastTileX=TileGeometry.lonToTileX(lonLatBounds.getMaxX(),zoom);
+		int firstTileY=TileGeometry.latToTileY(lonLatBounds.getMaxY(),zoom);
+		int lastTileY=TileGeometry.latToTileY(lonLatBounds.getMinY(),zoom);
+		long numWanted=(long)(lastTileX-firstTileX+1)*(lastTileY-firstTileY+1);
+		if (numWanted>MAX_ASYNC_TILES)
+			throw new IllegalArgumentException(numWanted+" tiles needed at zoom level "+zoom+" (the maximum is "+MAX_ASYNC_TILES+")");
+		final List<CompletableFuture<PImage>> tileFutures=new ArrayList<CompletableFuture<PImage>>();
+		for (int tileY=firstTileY;tileY<=lastTileY;tileY++)
+			for (int tileX=firstTileX;tileX<=lastTileX;tileX++)
+				tileFutures.add(getTile(zoom,tileX,tileY));
+		final CompletableFuture<List<PImage>> future=new CompletableFuture<List<PImage>>();
+		BiConsumer<PImage, Throwable> tileRetrieved=new BiConsumer<PImage, Throwable>(){
+			private int numRetrieved=0;
+			public synchronized void accept(PImage image,Throwable throwable){
+				if (throwable!=null){
+					future.completeExceptionally(throwable);
+					return;
+				}
+				numRetrieved++;
+				if (numRetrieved==tileFutures.size()){
+					List<PImage> images=new ArrayList<PImage>(tileFutures.size());
+					for (CompletableFuture<PImage> tileFuture:tileFutures)
+						images.add(tileFuture.join());
+					future.complete(images);
+				}
+			}
+		};
+		for (CompletableFuture<PImage> tileFuture:tileFutures)
+			tileFuture.whenComplete(tileRetrieved);
+		//cancel the tiles not retrieved yet if this is cancelled or a tile fails
+		future.whenComplete(new BiConsumer<List<PImage>, Throwable>(){
+			public void accept(List<PImage> images,Throwable throwable){
+				if (throwable!=null)
+					for (CompletableFuture<PImage> tileFuture:tileFutures)
+						tileFuture.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/** Gets the provider of the current map type's tiles
+	 * 
+	 * @return The provider
+	 */
+	private BaseMapProvider getBaseMap(){
+		if (slippyMapType.toString().startsWith("BING_"))
+			return bing;
+		else
+			return osm;
+	}
+
+	/** Draws the base map tiles that cover an area
+	 * 
+	 * @param latLonBounds  Area to draw
+	 * @param viewTransform  Screen area and zoom/pan for this frame
+	 * @param g  The canvas to draw on
+	 * @param zoom  Zoom level
+	 * @return whether every tile was drawn at the zoom level
+	 */
+	private boolean drawTiles(Rectangle2D latLonBounds,ViewTransform viewTransform,PGraphics g,int zoom){
 		//draw the correct style of map
 		if (slippyMapType==SlippyMapType.BING_AERIAL)
-			bing.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,BingTileType.AERIAL);
+			return bing.drawTiles(latLonBounds,viewTransform,g,BingTileType.AERIAL,zoom);
 		else if (slippyMapType==SlippyMapType.BING_ROAD)
-			bing.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,BingTileType.ROAD);
+			return bing.drawTiles(latLonBounds,viewTransform,g,BingTileType.ROAD,zoom);
 		else if (slippyMapType==SlippyMapType.BING_AERIAL_WITH_LABELS)
-			bing.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,BingTileType.AERIAL_WITH_LABELS);
-		else if (slippyMapType==SlippyMapType.OSM_MAPNIK)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.MAPNIK);
-		else if (slippyMapType==SlippyMapType.OSM_MAPQUEST)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.MAPQUEST);
-		else if (slippyMapType==SlippyMapType.OSM_CLOUDMADE)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.CLOUDMADE);
-		else if (slippyMapType==SlippyMapType.STAMEN_WATERCOLOUR)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.WATERCOLOUR);
-		else if (slippyMapType==SlippyMapType.STAMEN_TONER)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.TONER);
-		else if (slippyMapType==SlippyMapType.STAMEN_TERRAIN)
-			osm.drawMap(this.getLonLatViewPort(),screenBounds,zoomPanState,canvas,OsmTileType.TERRAIN);
-		stopClipping(); //stop clipping
+			return bing.drawTiles(latLonBounds,viewTransform,g,BingTileType.AERIAL_WITH_LABELS,zoom);
+		else if (tileSource!=null)
+			return osm.drawTiles(latLonBounds,viewTransform,g,tileSource,zoom);
+		return true;
+	}
+
+	/** Draws the overlays that cover an area
+	 * 
+	 * @param latLonBounds  Area to draw
+	 * @param viewTransform  Screen area and zoom/pan for this frame
+	 * @param g  The canvas to draw on
+	 * @param zoom  Zoom level
+	 * @param tileSize  Size of overlay tiles in pixels
+	 * @param newFrame  Whether this is the first time overlays are drawn this frame
+	 * @return whether every overlay tile was drawn
+	 */
+	private boolean drawOverlays(Rectangle2D latLonBounds,ViewTransform viewTransform,PGraphics g,int zoom,int tileSize,boolean newFrame){
+		boolean complete=true;
+		for (OverlayLayer overlayLayer:overlayLayers){
+			if (newFrame)
+				overlayLayer.nextFrame();
+			if (!overlayLayer.draw(latLonBounds,viewTransform,g,zoom,tileSize))
+				complete=false;
+		}
+		return complete;
+	}
+
+	/** Draws the copyright statement of the current map type
+	 * 
+	 * @param g  The canvas to draw on
+	 */
+	private void drawAttribution(PGraphics g){
+		if (slippyMapType==SlippyMapType.BING_AERIAL || slippyMapType==SlippyMapType.BING_ROAD || slippyMapType==SlippyMapType.BING_AERIAL_WITH_LABELS)
+			bing.drawAttribution(screenBounds,g);
+		else if (tileSource!=null)
+			osm.drawAttribution(screenBounds,g,tileSource);
+	}
+
+	/** Sets whether the composed map is kept between frames. When only the pan has changed,
+	 * the previous frame is shifted and only the newly exposed strips are drawn, which makes
+	 * panning large maps much cheaper. The whole map is drawn again when the zoom changes or
+	 * new tiles arrive. Only works with the JAVA2D renderer and uses an extra
+	 * width*height*4 bytes. Off by default.
+	 * 
+	 * @param useFrameCache
+	 */
+	public void setUseFrameCache(boolean useFrameCache){
+		this.useFrameCache=useFrameCache;
+		if (!useFrameCache)
+			frameCache=null;
+	}
+
+	/** Sets whether tiles are kept already scaled to the size they are drawn at. While the
+	 * zoom stays the same (e.g. while panning), tiles are scaled once in another thread and
+	 * then drawn without scaling. Listeners are informed when scaled tiles are available. Uses
+	 * as much memory again as the tile cache. Off by default.
+	 * 
+	 * @param useScaledTileCache
+	 */
+	public void setUseScaledTileCache(boolean useScaledTileCache){
+		if (useScaledTileCache && scaledTileCache==null)
+			scaledTileCache=new ScaledTileCache(tileRetriever,maxItemsInCache);
+		else if (!useScaledTileCache && scaledTileCache!=null){
+			scaledTileCache.dispose();
+			scaledTileCache=null;
+		}
+	}
+
+	/** Sets whether zooming and panning snap to the map's native resolution. When a zoom or
+	 * pan ends, the zoom scale is snapped to the nearest at which tiles are drawn at their own
+	 * size (256 pixels) and the pan is snapped so that they are on whole pixels. Tiles are
+	 * then drawn without scaling, which is much faster. While zooming, tiles are scaled as
+	 * normal. The tile pixel width is ignored when this is on. Off by default.
+	 * 
+	 * While it is on, the map's extents are those of the tiles (+/-85.0511 degrees latitude,
+	 * rather than +/-85), so that tiles are square. This moves map and screen coordinates
+	 * from getMapCoordFromLonLat() and getScreenFromLonLat() slightly, so a saved zoom/pan
+	 * state shows a slightly different area with it on than off.
+	 * 
+	 * @param snapToNativeResolution
+	 */
+	public void setSnapToNativeResolution(boolean snapToNativeResolution){
+		this.snapToNativeResolution=snapToNativeResolution;
+		if (snapToNativeResolution && nativeResolutionSnapper==null){
+			nativeResolutionSnapper=new ZoomPanListener(){
+				public void zoomEnded(){
+					snapToNativeResolution();
+				}
+				public void panEnded(){
+					snapToNativeResolution();
+				}
+			};
+			zoomPan.addZoomPanListener(nativeResolutionSnapper);
+			snapToNativeResolution();
+		}
+		else if (!snapToNativeResolution && nativeResolutionSnapper!=null){
+			zoomPan.removeZoomPanListener(nativeResolutionSnapper);
+			nativeResolutionSnapper=null;
+		}
+	}
+
+	/** Sets whether tiles are requested while the map is being zoomed or panned. If not, only
+	 * tiles that are already cached (and lower resolution tiles that cover the missing ones)
+	 * are drawn while it moves, and tiles a few zoom levels lower are requested where there is
+	 * nothing to draw. This stops tiles that would only be seen for a moment (e.g. at the zoom
+	 * levels passed through while zooming) being downloaded. Tiles are requested as normal
+	 * once the map stops or slows down (see setMovingThreshold()). On by default.
+	 * 
+	 * @param deferTilesWhileMoving
+	 */
+	public void setDeferTilesWhileMoving(boolean deferTilesWhileMoving){
+		this.deferTilesWhileMoving=deferTilesWhileMoving;
+		invalidateFrameCache();
+	}
+
+	/** Sets the speed below which the map is treated as still (see setDeferTilesWhileMoving()).
+	 * The speed is how fast the map moves across the edges of the screen, so includes zooming.
+	 * 
+	 * @param pixelsPerSecond  Speed in pixels per second (200 by default)
+	 */
+	public void setMovingThreshold(float pixelsPerSecond){
+		motionTracker.setThreshold(pixelsPerSecond);
+	}
+
+	/** Gets whether the map was moving (being zoomed or panned faster than the moving
+	 * threshold) when it was last drawn
+	 * 
+	 * @return whether it was moving
+	 */
+	public boolean isMoving(){
+		return motionTracker.isMoving();
+	}
+
+	/** Called when ZoomPan stops zooming or panning. Asks for the map to be drawn again (by
+	 * informing listeners) if it was moving, so that the tiles that were not requested are
+	 * requested now that it has stopped
+	 * 
+	 */
+	private void gestureEnded(){
+		motionTracker.gestureEnded();
+		if (motionTracker.isMoving())
+			tileRetriever.fireNewTileAvailable();
+	}
+
+	/** Finds the zoom level whose tiles are closest to being drawn at their own size
+	 * 
+	 * @param viewTransform  Screen area and zoom/pan
+	 * @return zoom level
+	 */
+	private int getNativeZoom(ViewTransform viewTransform){
+		double tilesAcross=viewTransform.tileScreenWidth(0)/BaseMapProvider.NATIVE_TILE_SIZE;
+		int zoom=(int)Math.round(Math.log(tilesAcross)/Math.log(2));
+		return Math.max(1,Math.min(20,zoom));
+	}
+
+	/** Changes ZoomPan's zoom scale so that tiles are drawn at their own size, and its pan so 
+	 * that they are on whole pixels. The centre of the map stays where it is.
+	 * 
+	 */
+	private void snapToNativeResolution(){
+		ViewTransform viewTransform=getViewTransform(zoomPan.getZoomPanState());
+		int zoom=getNativeZoom(viewTransform);
+		double centreX=screenBounds.getCenterX();
+		double centreY=screenBounds.getCenterY();
+		double centreMercX=(centreX-viewTransform.offsetX)/viewTransform.scaleX;
+		double centreMercY=(centreY-viewTransform.offsetY)/viewTransform.scaleY;
+
+		zoomPan.setZoomScale(zoomPan.getZoomScale()*BaseMapProvider.NATIVE_TILE_SIZE/viewTransform.tileScreenWidth(zoom));
+
+		//The pan offset is in screen pixels, so move by the difference between where the map
+		//is and where it should be. Done twice because ZoomPan stores the pan in floats
+		for (int i=0;i<2;i++){
+			viewTransform=getViewTransform(zoomPan.getZoomPanState());
+			//where the top left corner of the world (and so of every tile) should be
+			double left=Math.round(centreX-centreMercX*viewTransform.scaleX-Math.PI*viewTransform.scaleX);
+			double top=Math.round(centreY-centreMercY*viewTransform.scaleY+Math.PI*viewTransform.scaleY);
+			double dx=left-(viewTransform.offsetX-Math.PI*viewTransform.scaleX);
+			double dy=top-(viewTransform.offsetY+Math.PI*viewTransform.scaleY);
+			PVector panOffset=zoomPan.getPanOffset();
+			zoomPan.setPanOffset((float)(panOffset.x+dx),(float)(panOffset.y+dy));
+			//the centre is now wherever the snapped position put it
+			centreMercX=(centreX-viewTransform.offsetX-dx)/viewTransform.scaleX;
+			centreMercY=(centreY-viewTransform.offsetY-dy)/viewTransform.scaleY;
+		}
+	}
+
+	/** Makes the composed map be drawn again in full on the next frame
+	 * 
+	 */
+	private void invalidateFrameCache(){
+		if (frameCache!=null)
+			frameCache.invalidate();
 	}
 
 	
 
+	/* Mercator extents of the map. These are those of the tiles while snapping to native
+	 * resolution, so that the tiles are square (see Mercator)
+	 * 
+	 */
+	private double getMinMercX(){
+		return snapToNativeResolution?Mercator.MIN_TILE_MERC:Mercator.getMinMercX();
+	}
+
+	private double getMaxMercX(){
+		return snapToNativeResolution?Mercator.MAX_TILE_MERC:Mercator.getMaxMercX();
+	}
+
+	private double getMinMercY(){
+		return snapToNativeResolution?Mercator.MIN_TILE_MERC:Mercator.getMinMercY();
+	}
+
+	private double getMaxMercY(){
+		return snapToNativeResolution?Mercator.MAX_TILE_MERC:Mercator.getMaxMercY();
+	}
+
 	/** Convert longitude and latitude to unzoomed/unpanned map coordinates (Mercator)
 	 * 
 	 * @param lon  Longitude
@@ -251,9 +874,9 @@ public class SlippyMap{
 	 * @return  Map coordinate
 	 */
 	Point2D getMapCoordFromLonLat(float lon,float lat){
-		double x=map(Mercator.lonToMercX(lon),Mercator.getMinMercX(),Mercator.getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width);
+		double x=map(Mercator.lonToMercX(lon),getMinMercX(),getMaxMercX(),screenBounds.x,screenBounds.x+screenBounds.width);
 		//use width below because need assume tiles are square - we can always use width
-		double y=map(Mercator.latToMercY(lat),Mercator.getMinMercY(),Mercator.getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y);
+		double y=map(Mercator.latToMercY(lat),getMinMercY(),getMaxMercY(),screenBounds.y+screenBounds.width,screenBounds.y);
 		return new Point2D.Double(x,y);
 	}
 
@@ -291,11 +914,15 @@ public class SlippyMap{
 	 * 
 	 * @param lon
 	 * @param lat
+	 * @param zoomPanState  Zoom/pan (null for none)
 	 * @return Screen coordinate
 	 */	
 	public PVector getScreenFromLonLat(float lon,float lat,ZoomPanState zoomPanState){
 		Point2D pCoord = getMapCoordFromLonLat(lon,lat);
-		return zoomPanState.getCoordToDisp(new PVector((float)pCoord.getX(),(float)pCoord.getY()));
+		PVector mapCoord=new PVector((float)pCoord.getX(),(float)pCoord.getY());
+		if (zoomPanState==null)
+			return mapCoord;
+		return zoomPanState.getCoordToDisp(mapCoord);
 	}
 
 	
@@ -309,6 +936,117 @@ public class SlippyMap{
 		return getScreenFromLonLat(lonLat.x,lonLat.y,zoomPanState);
 	}
 
+	/** Sets the number of points above which the array versions of getScreenFromLonLat() and
+	 * getMapCoordFromLonLat() split the work between all available cores.
+	 * 
+	 * @param parallelThreshold  Number of points (Integer.MAX_VALUE to never split)
+	 */
+	public void setParallelProjectionThreshold(int parallelThreshold){
+		this.parallelProjectionThreshold=parallelThreshold;
+	}
+
+	/** Convert arrays of longitudes and latitudes to screen coordinates using a particular
+	 * ZoomPanState - usually that of ZoomPan at the start of the sketch's draw loop. Much faster
+	 * than converting points one by one, because the transformation is worked out only once
+	 * and no objects are created for each point.
+	 * 
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param screenXs  Array (at least as long as lons) to write the screen x coordinates into
+	 * @param screenYs  Array (at least as long as lats) to write the screen y coordinates into
+	 * @param zoomPanState  The zoom/pan state
+	 */
+	public void getScreenFromLonLat(float[] lons,float[] lats,float[] screenXs,float[] screenYs,ZoomPanState zoomPanState){
+		projectLonLats(lons,lats,screenXs,screenYs,new ViewTransform(screenBounds,zoomPanState,snapToNativeResolution),true);
+	}
+
+	/** Convert arrays of longitudes and latitudes to screen coordinates using a particular
+	 * ZoomPanState - usually that of ZoomPan at the start of the sketch's draw loop.
+	 * 
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param screenXs  Array (at least as long as lons) to write the screen x coordinates into
+	 * @param screenYs  Array (at least as long as lats) to write the screen y coordinates into
+	 * @param zoomPanState  The zoom/pan state
+	 */
+	public void getScreenFromLonLat(double[] lons,double[] lats,double[] screenXs,double[] screenYs,ZoomPanState zoomPanState){
+		projectLonLats(lons,lats,screenXs,screenYs,new ViewTransform(screenBounds,zoomPanState,snapToNativeResolution),true);
+	}
+
+	/** Convert interleaved longitudes and latitudes (lon,lat,lon,lat...) to interleaved screen
+	 * coordinates (x,y,x,y...) using a particular ZoomPanState - usually that of ZoomPan at the
+	 * start of the sketch's draw loop. Points are read from the position to the limit of lonLats
+	 * and written from the position of screenXYs. Buffer positions are not changed.
+	 * 
+	 * @param lonLats  Interleaved longitudes and latitudes
+	 * @param screenXYs  Buffer to write the interleaved screen coordinates into
+	 * @param zoomPanState  The zoom/pan state
+	 */
+	public void getScreenFromLonLat(FloatBuffer lonLats,FloatBuffer screenXYs,ZoomPanState zoomPanState){
+		projectLonLats(lonLats,screenXYs,new ViewTransform(screenBounds,zoomPanState,snapToNativeResolution),true);
+	}
+
+	/** Convert arrays of longitudes and latitudes to unzoomed/unpanned map coordinates (Mercator).
+	 * These can be drawn after ZoomPan's transform has been applied.
+	 * 
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param mapXs  Array (at least as long as lons) to write the map x coordinates into
+	 * @param mapYs  Array (at least as long as lats) to write the map y coordinates into
+	 */
+	public void getMapCoordFromLonLat(float[] lons,float[] lats,float[] mapXs,float[] mapYs){
+		projectLonLats(lons,lats,mapXs,mapYs,new ViewTransform(screenBounds,null,snapToNativeResolution),false);
+	}
+
+	/** Convert arrays of longitudes and latitudes to unzoomed/unpanned map coordinates (Mercator).
+	 * 
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param mapXs  Array (at least as long as lons) to write the map x coordinates into
+	 * @param mapYs  Array (at least as long as lats) to write the map y coordinates into
+	 */
+	public void getMapCoordFromLonLat(double[] lons,double[] lats,double[] mapXs,double[] mapYs){
+		projectLonLats(lons,lats,mapXs,mapYs,new ViewTransform(screenBounds,null,snapToNativeResolution),false);
+	}
+
+	/** Convert interleaved longitudes and latitudes (lon,lat,lon,lat...) to interleaved 
+	 * unzoomed/unpanned map coordinates (x,y,x,y...). Points are read from the position to 
+	 * the limit of lonLats and written from the position of mapXYs. Buffer positions are not
+	 * changed.
+	 * 
+	 * @param lonLats  Interleaved longitudes and latitudes
+	 * @param mapXYs  Buffer to write the interleaved map coordinates into
+	 */
+	public void getMapCoordFromLonLat(FloatBuffer lonLats,FloatBuffer mapXYs){
+		projectLonLats(lonLats,mapXYs,new ViewTransform(screenBounds,null,snapToNativeResolution),false);
+	}
+
+	private void projectLonLats(final float[] lons,final float[] lats,final float[] xs,final float[] ys,final ViewTransform viewTransform,final boolean toScreen){
+		ParallelRanges.run(lons.length,parallelProjectionThreshold,new ParallelRanges.RangeTask(){
+			public void run(int from,int to){
+				viewTransform.lonLatToXY(lons,lats,xs,ys,from,to,toScreen);
+			}
+		});
+	}
+
+	private void projectLonLats(final double[] lons,final double[] lats,final double[] xs,final double[] ys,final ViewTransform viewTransform,final boolean toScreen){
+		ParallelRanges.run(lons.length,parallelProjectionThreshold,new ParallelRanges.RangeTask(){
+			public void run(int from,int to){
+				viewTransform.lonLatToXY(lons,lats,xs,ys,from,to,toScreen);
+			}
+		});
+	}
+
+	private void projectLonLats(final FloatBuffer lonLats,final FloatBuffer xys,final ViewTransform viewTransform,final boolean toScreen){
+		final int lonLatsStart=lonLats.position();
+		final int xysStart=xys.position();
+		ParallelRanges.run(lonLats.remaining()/2,parallelProjectionThreshold,new ParallelRanges.RangeTask(){
+			public void run(int from,int to){
+				viewTransform.lonLatToXY(lonLats,lonLatsStart,xys,xysStart,from,to,toScreen);
+			}
+		});
+	}
+
 	
 	/** Convert unzoomed/unpanned map coordinate (Mercator) to longitude
 	 * and latitude
@@ -328,9 +1066,9 @@ public class SlippyMap{
 	 * @return lon/lat pair
 	 */
 	PVector getMapLonLatFromCoord(PVector mapCoord){
-		double lon=Mercator.mercXToLon(map(mapCoord.x,screenBounds.x,screenBounds.x+screenBounds.width,Mercator.getMinMercX(),Mercator.getMaxMercX()));
+		double lon=Mercator.mercXToLon(map(mapCoord.x,screenBounds.x,screenBounds.x+screenBounds.width,getMinMercX(),getMaxMercX()));
 		//use width below because need assume tiles are square - we can always use width
-		double lat=Mercator.mercYToLat(map(mapCoord.y,screenBounds.y+screenBounds.width,screenBounds.y,Mercator.getMinMercY(),Mercator.getMaxMercY()));
+		double lat=Mercator.mercYToLat(map(mapCoord.y,screenBounds.y+screenBounds.width,screenBounds.y,getMinMercY(),getMaxMercY()));
 		return new PVector((float)lon,(float)lat);
 	}
 
@@ -352,9 +1090,9 @@ public class SlippyMap{
 	 */
 	public PVector getLonLatFromScreenCoord(PVector screenCoord){
 		PVector p1 = zoomPan.getDispToCoord(screenCoord);
-		float lon=(float)Mercator.mercXToLon(map(p1.x,screenBounds.x,screenBounds.x+screenBounds.width,Mercator.getMinMercX(),Mercator.getMaxMercX()));
+		float lon=(float)Mercator.mercXToLon(map(p1.x,screenBounds.x,screenBounds.x+screenBounds.width,getMinMercX(),getMaxMercX()));
 		//use width below because need assume tiles are square - we can always use width
-		float lat=(float)Mercator.mercYToLat(map(p1.y,screenBounds.y+screenBounds.width,screenBounds.y,Mercator.getMinMercY(),Mercator.getMaxMercY()));
+		float lat=(float)Mercator.mercYToLat(map(p1.y,screenBounds.y+screenBounds.width,screenBounds.y,getMinMercY(),getMaxMercY()));
 		return new PVector(lon,lat);
 	}
 	
@@ -375,9 +1113,9 @@ public class SlippyMap{
 	 */
 	public PVector getLonLatFromScreenCoord(PVector screenCoord, ZoomPanState zoomPanState){
 		PVector p1 = zoomPanState.getDispToCoord(screenCoord);
-		float lon=(float)Mercator.mercXToLon(map(p1.x,screenBounds.x,screenBounds.x+screenBounds.width,Mercator.getMinMercX(),Mercator.getMaxMercX()));
+		float lon=(float)Mercator.mercXToLon(map(p1.x,screenBounds.x,screenBounds.x+screenBounds.width,getMinMercX(),getMaxMercX()));
 		//use width below because need assume tiles are square - we can always use width
-		float lat=(float)Mercator.mercYToLat(map(p1.y,screenBounds.y+screenBounds.width,screenBounds.y,Mercator.getMinMercY(),Mercator.getMaxMercY()));
+		float lat=(float)Mercator.mercYToLat(map(p1.y,screenBounds.y+screenBounds.width,screenBounds.y,getMinMercY(),getMaxMercY()));
 		return new PVector(lon,lat);
 	}
 
@@ -387,6 +1125,52 @@ public class SlippyMap{
 	 */
 	public void setMapType(SlippyMapType slippyMapType){
 		this.slippyMapType=slippyMapType;
+		if (slippyMapType!=SlippyMapType.TILE_SOURCE)
+			tileSource=TileSourceRegistry.forMapType(slippyMapType,cloudMadeApiKey,cloudMadeStyleId);
+		invalidateFrameCache();
+	}
+
+	/** Uses tiles from a source instead of one of the built-in map types (sets the map type to
+	 * TILE_SOURCE). The source is registered if one with its name hasn't been.
+	 * 
+	 * @param tileSource  Source of the tiles
+	 */
+	public void setTileSource(TileSource tileSource){
+		if (TileSourceRegistry.get(tileSource.getName())!=tileSource)
+			TileSourceRegistry.register(tileSource);
+		this.tileSource=tileSource;
+		this.slippyMapType=SlippyMapType.TILE_SOURCE;
+		invalidateFrameCache();
+	}
+
+	/** Gets the source of the current map type's tiles
+	 * 
+	 * @return the source (null for Bing map types and NONE)
+	 */
+	public TileSource getTileSource(){
+		return tileSource;
+	}
+
+	/** Registers a source of tiles, so that it can be found by name with getTileSource(). Its
+	 * connection and request rate limits are applied to its hosts. Replaces any source with
+	 * the same name.
+	 * 
+	 * The built-in sources are osm-mapnik, osm-mapquest, osm-watercolour, osm-toner and
+	 * osm-terrain.
+	 * 
+	 * @param tileSource  Source of the tiles
+	 */
+	static public void registerTileSource(TileSource tileSource){
+		TileSourceRegistry.register(tileSource);
+	}
+
+	/** Gets a registered source of tiles
+	 * 
+	 * @param name  Name of the source
+	 * @return the source, or null if there isn't one with this name
+	 */
+	static public TileSource getTileSource(String name){
+		return TileSourceRegistry.get(name);
 	}
 
 	/** Get the current map type
@@ -408,6 +1192,7 @@ public class SlippyMap{
 				osm.tilePixelWidth=tilePixelWidth;
 			if (bing!=null)
 				bing.tilePixelWidth=tilePixelWidth;
+			invalidateFrameCache();
 		}
 	}
 
@@ -426,7 +1211,10 @@ public class SlippyMap{
 	 * @param apiKey Your API key
 	 */
 	public void setCloudMadeApiKey(String apiKey){
-		osm.setCloudMadeApiKey(apiKey);
+		this.cloudMadeApiKey=apiKey;
+		if (slippyMapType==SlippyMapType.OSM_CLOUDMADE)
+			tileSource=TileSourceRegistry.forMapType(slippyMapType,cloudMadeApiKey,cloudMadeStyleId);
+		invalidateFrameCache();
 	}
 	
 	/** If you use the CloudMade tileset, set the style ID here. See gallery
@@ -435,7 +1223,10 @@ public class SlippyMap{
 	 * @param cloudMadeStyleId
 	 */
 	public void setCloudMadeStyleId(int cloudMadeStyleId){
-		osm.setCloudMadeStyle(cloudMadeStyleId);
+		this.cloudMadeStyleId=cloudMadeStyleId;
+		if (slippyMapType==SlippyMapType.OSM_CLOUDMADE)
+			tileSource=TileSourceRegistry.forMapType(slippyMapType,cloudMadeApiKey,cloudMadeStyleId);
+		invalidateFrameCache();
 	}
 
 	/** Zooms to the a lon/lat bounding box
@@ -473,6 +1264,8 @@ public class SlippyMap{
 		zoomPan.setZoomScale(zoomPan.getZoomScale());
 		zoomPan.setPanOffset(zoomPan.getPanOffset().x,zoomPan.getPanOffset().y);
 
+		if (snapToNativeResolution)
+			snapToNativeResolution();
 	}
 
 	/** Centres the lon/lat at the specified zoom scale
@@ -497,6 +1290,63 @@ public class SlippyMap{
 	}
 
 	
+	/** Adds an overlay, which is drawn on top of the base map in tiles. Tiles are drawn in 
+	 * other threads and cached, so the overlay only needs to draw tiles that have not been 
+	 * seen before. Listeners are informed when new overlay tiles are available. Caches 100 tiles.
+	 * 
+	 * @param overlay  The overlay
+	 */
+	public void addOverlay(SlippyMapOverlay overlay){
+		addOverlay(overlay,100);
+	}
+
+	/** Adds an overlay, which is drawn on top of the base map in tiles.
+	 * 
+	 * @param overlay  The overlay
+	 * @param maxTilesInCache  The maximum number of this overlay's tiles held in memory. Each
+	 * takes about tilePixelWidth*tilePixelWidth*4 bytes.
+	 */
+	public void addOverlay(SlippyMapOverlay overlay,int maxTilesInCache){
+		if (overlayExecutor==null){
+			int numThreads=Math.max(1,Runtime.getRuntime().availableProcessors()-1);
+			ThreadPoolExecutor executor=new ThreadPoolExecutor(numThreads,numThreads,1,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread thread=new Thread(r,"SlippyMapOverlay");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true); //no threads while there is nothing to draw
+			overlayExecutor=executor;
+		}
+		overlayLayers.add(new OverlayLayer(applet,overlay,overlayExecutor,tileRetriever,maxTilesInCache));
+		invalidateFrameCache();
+	}
+
+	/** Removes an overlay
+	 * 
+	 * @param overlay  The overlay
+	 */
+	public void removeOverlay(SlippyMapOverlay overlay){
+		for (OverlayLayer overlayLayer:overlayLayers)
+			if (overlayLayer.overlay==overlay)
+				overlayLayers.remove(overlayLayer);
+		invalidateFrameCache();
+	}
+
+	/** Discards the overlay's cached tiles so that it is drawn again. Call this when what the
+	 * overlay draws has changed.
+	 * 
+	 * @param overlay  The overlay
+	 */
+	public void refreshOverlay(SlippyMapOverlay overlay){
+		for (OverlayLayer overlayLayer:overlayLayers)
+			if (overlayLayer.overlay==overlay)
+				overlayLayer.invalidate();
+		invalidateFrameCache();
+	}
+
 	/** Adds a listener. This will be informed when a new tile is available
 	 * 
 	 * @param slippyMapListener
@@ -513,6 +1363,68 @@ public class SlippyMap{
 		tileRetriever.removeSlippyMapListener(slippyMapListener);
 	}
 
+	/** Adds a listener that is told which tiles have arrived and which part of the screen
+	 * they cover. Tiles that arrive close together are grouped (see
+	 * setTileNotificationInterval())
+	 * 
+	 * @param tileArrivalListener
+	 */
+	public void addTileArrivalListener(TileArrivalListener tileArrivalListener){
+		tileRetriever.notifier.addTileArrivalListener(tileArrivalListener);
+	}
+
+	/** Removes a tile arrival listener
+	 * 
+	 * @param tileArrivalListener
+	 */
+	public void removeTileArrivalListener(TileArrivalListener tileArrivalListener){
+		tileRetriever.notifier.removeTileArrivalListener(tileArrivalListener);
+	}
+
+	/** Sets the shortest time between tile arrival notifications (to SlippyMapListeners and
+	 * TileArrivalListeners). Tiles that arrive in this time are notified together. Default
+	 * is one frame at 60fps (16ms)
+	 * 
+	 * @param millis  Interval in milliseconds (0 to notify each tile as soon as it arrives)
+	 */
+	public void setTileNotificationInterval(int millis){
+		tileRetriever.notifier.setInterval(millis);
+	}
+
+	/** Sets whether each tile that needs downloading is downloaded by its own virtual thread,
+	 * instead of by a worker thread. Many tiles can then be downloaded at once (up to the
+	 * limit for each host - see setMaxConnectionsPerHost()) without a platform thread for
+	 * each. Virtual threads need Java 21 or later; on earlier versions worker threads are
+	 * still used
+	 * 
+	 * @param useVirtualThreads
+	 * @return whether virtual threads are used
+	 */
+	public boolean setUseVirtualThreads(boolean useVirtualThreads){
+		tileRetriever.setUseVirtualThreads(useVirtualThreads);
+		return tileRetriever.isUseVirtualThreads();
+	}
+
+	/** Sets the maximum number of tiles downloaded from each tile server host at the same
+	 * time, by all SlippyMaps. Default is 6, except for OpenStreetMap hosts which are limited
+	 * to 2 as their usage policy asks
+	 * 
+	 * @param maxConnections  Number of connections (at least 1)
+	 */
+	static public void setMaxConnectionsPerHost(int maxConnections){
+		HostConnectionLimiter.setDefaultLimit(maxConnections);
+	}
+
+	/** Sets the maximum number of tiles downloaded from a domain at the same time, by all
+	 * SlippyMaps. The hosts in the domain share them
+	 * 
+	 * @param domain  Domain (e.g. openstreetmap.org, which includes a.tile.openstreetmap.org)
+	 * @param maxConnections  Number of connections (at least 1)
+	 */
+	static public void setMaxConnectionsPerHost(String domain,int maxConnections){
+		HostConnectionLimiter.setDomainLimit(domain,maxConnections);
+	}
+
 	/**Returns the approximate distance between two lpn/lats in metres
 	 * 
 	 * Adapted from http://bluemm.blogspot.com/2007/01/excel-formula-to-calculate-distance.html
@@ -0,0 +1,238 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** A snapshot of what SlippyMap's tile pipeline has done since it was created: cache hits
+ * and misses for the memory, disk and network tiers, fetch, decode and disk write times,
+ * the fetch queue and the time taken to draw frames. Get one with SlippyMap.getMetrics().
+ * Counts are totals, so take two snapshots and subtract to get rates.
+ *
+ * Memory hits and misses only count lookups of the tiles that are needed (not those of
+ * lower resolution tiles that are drawn while waiting for them).
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public final class SlippyMapMetrics {
+
+	/** Distribution of durations, in power-of-two microsecond buckets. Percentiles are the
+	 * upper bound of the bucket they fall in, so are accurate to within a factor of two.
+	 */
+	public static final class Latency{
+		private final long[] bucketCounts;
+		private final long count;
+		private final long totalNanos;
+
+		Latency(long[] bucketCounts,long totalNanos){
+			this.bucketCounts=bucketCounts;
+			this.totalNanos=totalNanos;
+			long count=0;
+			for (long bucketCount:bucketCounts)
+				count+=bucketCount;
+			this.count=count;
+		}
+
+		/** Gets the number of durations recorded
+		 *
+		 * @return count
+		 */
+		public long getCount(){
+			return count;
+		}
+
+		/** Gets the mean duration
+		 *
+		 * @return mean in milliseconds (0 if none have been recorded)
+		 */
+		public double getMeanMillis(){
+			return count==0?0:totalNanos/1e6/count;
+		}
+
+		/** Gets a percentile (e.g. 0.99 for the 99th percentile)
+		 *
+		 * @param fraction  Fraction of durations that are shorter (0-1)
+		 * @return percentile in milliseconds (0 if none have been recorded)
+		 */
+		public double getPercentileMillis(double fraction){
+			if (count==0)
+				return 0;
+			long rank=(long)Math.ceil(fraction*count);
+			long seen=0;
+			for (int i=0;i<bucketCounts.length;i++){
+				seen+=bucketCounts[i];
+				if (seen>=rank && seen>0)
+					return (1L<<i)/1000.0;
+			}
+			return (1L<<(bucketCounts.length-1))/1000.0;
+		}
+
+		/** Gets the bucket counts. Bucket i holds durations of less than 2^i microseconds
+		 * (and at least 2^(i-1))
+		 *
+		 * @return a copy of the counts
+		 */
+		public long[] getBucketCounts(){
+			return bucketCounts.clone();
+		}
+
+		public String toString(){
+			return String.format("n=%d mean=%.1fms p50=%.1fms p99=%.1fms",count,getMeanMillis(),getPercentileMillis(0.5),getPercentileMillis(0.99));
+		}
+	}
+
+	private final long memoryHits;
+	private final long memoryMisses;
+	private final long diskHits;
+	private final long diskMisses;
+	private final long networkHits;
+	private final long networkFailures;
+	private final long errors;
+	private final long bytesTransferred;
+	private final int queueDepth;
+	private final long inFlightRequests;
+	private final Latency fetchLatency;
+	private final Latency decodeLatency;
+	private final Latency diskWriteLatency;
+	private final Latency frameDrawTime;
+	private final long lastFrameDrawNanos;
+	private final int lastFrameTilesDrawn;
+	private final int lastFrameFallbackTilesDrawn;
+
+	SlippyMapMetrics(long memoryHits,long memoryMisses,long diskHits,long diskMisses,long networkHits,long networkFailures,
+			long errors,long bytesTransferred,int queueDepth,long inFlightRequests,Latency fetchLatency,Latency decodeLatency,
+			Latency diskWriteLatency,Latency frameDrawTime,long lastFrameDrawNanos,int lastFrameTilesDrawn,int lastFrameFallbackTilesDrawn){
+		this.memoryHits=memoryHits;
+		this.memoryMisses=memoryMisses;
+		this.diskHits=diskHits;
+		this.diskMisses=diskMisses;
+		this.networkHits=networkHits;
+		this.networkFailures=networkFailures;
+		this.errors=errors;
+		this.bytesTransferred=bytesTransferred;
+		this.queueDepth=queueDepth;
+		this.inFlightRequests=inFlightRequests;
+		this.fetchLatency=fetchLatency;
+		this.decodeLatency=decodeLatency;
+		this.diskWriteLatency=diskWriteLatency;
+		this.frameDrawTime=frameDrawTime;
+		this.lastFrameDrawNanos=lastFrameDrawNanos;
+		this.lastFrameTilesDrawn=lastFrameTilesDrawn;
+		this.lastFrameFallbackTilesDrawn=lastFrameFallbackTilesDrawn;
+	}
+
+	/** Number of needed tiles found in the in-memory cache */
+	public long getMemoryHits(){
+		return memoryHits;
+	}
+
+	/** Number of needed tiles not in the in-memory cache */
+	public long getMemoryMisses(){
+		return memoryMisses;
+	}
+
+	/** Fraction of needed tiles found in the in-memory cache (0 if none looked up) */
+	public double getMemoryHitRate(){
+		long lookups=memoryHits+memoryMisses;
+		return lookups==0?0:memoryHits/(double)lookups;
+	}
+
+	/** Number of tiles read from the disk cache */
+	public long getDiskHits(){
+		return diskHits;
+	}
+
+	/** Number of tiles looked for but not found in the disk cache */
+	public long getDiskMisses(){
+		return diskMisses;
+	}
+
+	/** Number of tiles fetched from the tile server */
+	public long getNetworkHits(){
+		return networkHits;
+	}
+
+	/** Number of tiles that could not be fetched from the tile server */
+	public long getNetworkFailures(){
+		return networkFailures;
+	}
+
+	/** Number of errors while reading, fetching or writing tiles */
+	public long getErrors(){
+		return errors;
+	}
+
+	/** Number of bytes downloaded */
+	public long getBytesTransferred(){
+		return bytesTransferred;
+	}
+
+	/** Number of tiles waiting to be fetched */
+	public int getQueueDepth(){
+		return queueDepth;
+	}
+
+	/** Number of tiles being fetched */
+	public long getInFlightRequests(){
+		return inFlightRequests;
+	}
+
+	/** Time taken to connect to the tile server and download a tile */
+	public Latency getFetchLatency(){
+		return fetchLatency;
+	}
+
+	/** Time taken to decode a downloaded tile */
+	public Latency getDecodeLatency(){
+		return decodeLatency;
+	}
+
+	/** Time taken to write a tile to the disk cache */
+	public Latency getDiskWriteLatency(){
+		return diskWriteLatency;
+	}
+
+	/** Time taken by SlippyMap.draw() */
+	public Latency getFrameDrawTime(){
+		return frameDrawTime;
+	}
+
+	/** Time taken by the last SlippyMap.draw() in milliseconds */
+	public double getLastFrameDrawMillis(){
+		return lastFrameDrawNanos/1e6;
+	}
+
+	/** Number of tiles drawn at the right resolution in the last frame */
+	public int getLastFrameTilesDrawn(){
+		return lastFrameTilesDrawn;
+	}
+
+	/** Number of lower resolution tiles drawn in the last frame instead of tiles that were not available */
+	public int getLastFrameFallbackTilesDrawn(){
+		return lastFrameFallbackTilesDrawn;
+	}
+
+	public String toString(){
+		return "memory hits="+memoryHits+" misses="+memoryMisses+
+				", disk hits="+diskHits+" misses="+diskMisses+
+				", network hits="+networkHits+" failures="+networkFailures+" bytes="+bytesTransferred+
+				", errors="+errors+", queued="+queueDepth+", in flight="+inFlightRequests+
+				"\n fetch: "+fetchLatency+"\n decode: "+decodeLatency+"\n disk write: "+diskWriteLatency+
+				"\n frame: "+frameDrawTime+" (last "+String.format("%.1f",getLastFrameDrawMillis())+"ms, "+
+				lastFrameTilesDrawn+" tiles, "+lastFrameFallbackTilesDrawn+" fallback)";
+	}
+}
@@ -0,0 +1,42 @@
+package org.gicentre.utils.slippymap;
+
+import processing.core.PGraphics;
+
+//****************************************************************************************
+/** Interface for overlays that are drawn on top of the base map in tiles. Register an
+ * overlay with SlippyMap.addOverlay(). Its tiles are drawn in other threads, cached and
+ * drawn with the base map, so an expensive overlay is only drawn for tiles that have not
+ * been seen before.
+ *
+ * drawTile() is called from a worker thread, so must not change anything the sketch's draw
+ * loop uses.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public interface SlippyMapOverlay {
+
+	/** Draws the overlay for one tile. The canvas is transparent and beginDraw() has already
+	 * been called.
+	 *
+	 * @param canvas  The canvas to draw on (tile.getSize() pixels square)
+	 * @param tile  The tile, which converts between lon/lat and canvas coordinates
+	 */
+	public void drawTile(PGraphics canvas, OverlayTile tile);
+}
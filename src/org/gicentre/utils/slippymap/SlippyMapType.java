@@ -12,5 +12,6 @@ public enum SlippyMapType{
 	OSM_CLOUDMADE,
 	STAMEN_WATERCOLOUR,
 	STAMEN_TONER,
-	STAMEN_TERRAIN
+	STAMEN_TERRAIN,
+	TILE_SOURCE //tiles from the source set with SlippyMap.setTileSource()
 }
\ No newline at end of file
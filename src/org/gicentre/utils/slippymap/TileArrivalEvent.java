@@ -0,0 +1,73 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+//****************************************************************************************
+/** Tiles that have arrived since the last notification (see TileArrivalListener), with the
+ * part of the screen they cover. A sketch can draw just this part of the map again (e.g.
+ * with clipping) instead of all of it.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public final class TileArrivalEvent {
+
+	private final List<String> tileKeys;
+	private final int numTiles;
+	private final Rectangle dirtyRect;
+
+	TileArrivalEvent(List<String> tileKeys,int numTiles,Rectangle dirtyRect){
+		this.tileKeys=tileKeys;
+		this.numTiles=numTiles;
+		this.dirtyRect=dirtyRect;
+	}
+
+	/** Gets the keys (cache file names, e.g. osm-mapnik-2046-1362-12.png) of the map tiles
+	 * that arrived
+	 *
+	 * @return unmodifiable list of keys
+	 */
+	public List<String> getTileKeys(){
+		return tileKeys;
+	}
+
+	/** Gets the number of tiles that arrived. As well as map tiles, this includes overlay
+	 * tiles and tiles that have been scaled, which have no keys
+	 *
+	 * @return number of tiles
+	 */
+	public int getNumTiles(){
+		return numTiles;
+	}
+
+	/** Gets the screen area covered by the tiles that arrived (in the last frame drawn),
+	 * clipped to the map. This is the whole map if the position of any of them is not known
+	 * and is empty if none of them are on the screen
+	 *
+	 * @return a copy of the area
+	 */
+	public Rectangle getDirtyRect(){
+		return new Rectangle(dirtyRect);
+	}
+
+	public String toString(){
+		return numTiles+" tiles, dirty "+dirtyRect.x+","+dirtyRect.y+" "+dirtyRect.width+"x"+dirtyRect.height+" "+tileKeys;
+	}
+}
@@ -0,0 +1,246 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+//****************************************************************************************
+/** Tells listeners that tiles have arrived, at most once per interval. The first arrival
+ * after a notification schedules the next one; arrivals until then are added to it. Each
+ * notification has the keys of the tiles and the screen area they cover, worked out with
+ * the transformation of the last frame drawn.
+ *
+ * Listener sets can be changed while notifications are being sent.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TileArrivalNotifier {
+
+	static final long UNKNOWN_TILE=-1; //tile key for arrivals whose position is not known
+
+	private Set<SlippyMapListener> slippyMapListeners=new CopyOnWriteArraySet<SlippyMapListener>();
+	private Set<TileArrivalListener> tileArrivalListeners=new CopyOnWriteArraySet<TileArrivalListener>();
+	private volatile int intervalMillis=1000/60;
+	private volatile ViewTransform viewTransform; //of the last frame drawn
+	private ScheduledThreadPoolExecutor executor; //sends notifications (guarded by this)
+	private boolean disposed=false; //(guarded by this)
+
+	//arrivals since the last notification (guarded by this)
+	private List<String> pendingNames=new ArrayList<String>();
+	private long[] pendingKeys=new long[16];
+	private int numPending=0;
+	private boolean scheduled=false;
+
+	private final Runnable flush=new Runnable(){
+		public void run(){
+			flush();
+		}
+	};
+
+	void addSlippyMapListener(SlippyMapListener slippyMapListener){
+		slippyMapListeners.add(slippyMapListener);
+	}
+
+	void removeSlippyMapListener(SlippyMapListener slippyMapListener){
+		slippyMapListeners.remove(slippyMapListener);
+	}
+
+	void addTileArrivalListener(TileArrivalListener tileArrivalListener){
+		tileArrivalListeners.add(tileArrivalListener);
+	}
+
+	void removeTileArrivalListener(TileArrivalListener tileArrivalListener){
+		tileArrivalListeners.remove(tileArrivalListener);
+	}
+
+	/** Sets the shortest time between notifications
+	 *
+	 * @param intervalMillis  Interval in milliseconds (0 to notify as soon as each tile arrives)
+	 */
+	void setInterval(int intervalMillis){
+		this.intervalMillis=Math.max(0,intervalMillis);
+	}
+
+	int getInterval(){
+		return intervalMillis;
+	}
+
+	/** Sets the transformation of the frame being drawn, for working out the screen area of
+	 * tiles
+	 *
+	 * @param viewTransform
+	 */
+	void setViewTransform(ViewTransform viewTransform){
+		this.viewTransform=viewTransform;
+	}
+
+	/** Records that a tile has arrived, and schedules a notification if there isn't one
+	 *
+	 * @param cacheFilename  Key of the tile (null if it is not a map tile)
+	 * @param tileKey  Position of the tile (see TileKey), or UNKNOWN_TILE
+	 */
+	void tileArrived(String cacheFilename,long tileKey){
+		boolean flushNow=false;
+		synchronized (this) {
+			if (disposed)
+				return;
+			if (cacheFilename!=null)
+				pendingNames.add(cacheFilename);
+			if (numPending==pendingKeys.length){
+				long[] keys=new long[numPending*2];
+				System.arraycopy(pendingKeys,0,keys,0,numPending);
+				pendingKeys=keys;
+			}
+			pendingKeys[numPending++]=tileKey;
+			if (!scheduled){
+				scheduled=true;
+				int interval=intervalMillis;
+				if (interval==0){
+					flushNow=true;
+				}
+				else{
+					if (executor==null){
+						executor=new ScheduledThreadPoolExecutor(1,new ThreadFactory(){
+							public Thread newThread(Runnable r){
+								Thread thread=new Thread(r,"SlippyMapTileNotifier");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+						//no thread while tiles aren't arriving
+						executor.setKeepAliveTime(1,TimeUnit.SECONDS);
+						executor.allowCoreThreadTimeOut(true);
+					}
+					executor.schedule(flush,interval,TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+		if (flushNow)
+			flush();
+	}
+
+	/** Stops notifications. Pending ones are dropped and the notifier cannot be used
+	 * afterwards
+	 *
+	 */
+	synchronized void dispose(){
+		disposed=true;
+		if (executor!=null)
+			executor.shutdownNow();
+		executor=null;
+		pendingNames.clear();
+		numPending=0;
+		slippyMapListeners.clear();
+		tileArrivalListeners.clear();
+	}
+
+	/** Sends a notification of the tiles that have arrived since the last one
+	 *
+	 */
+	void flush(){
+		List<String> names;
+		long[] keys;
+		int numTiles;
+		synchronized (this) {
+			scheduled=false;
+			if (numPending==0)
+				return;
+			names=pendingNames;
+			keys=pendingKeys;
+			numTiles=numPending;
+			pendingNames=new ArrayList<String>();
+			pendingKeys=new long[16];
+			numPending=0;
+		}
+
+		//JFR events, one per tile (only if being recorded)
+		TileEvents.ListenersNotified[] events=null;
+		if (new TileEvents.ListenersNotified().isEnabled()){
+			events=new TileEvents.ListenersNotified[names.size()];
+			for (int i=0;i<events.length;i++){
+				events[i]=new TileEvents.ListenersNotified();
+				events[i].begin();
+			}
+		}
+
+		for (SlippyMapListener slippyMapListener:slippyMapListeners)
+			slippyMapListener.newTileAvailable();
+		if (!tileArrivalListeners.isEmpty()){
+			TileArrivalEvent event=new TileArrivalEvent(Collections.unmodifiableList(names),numTiles,getDirtyRect(keys,numTiles));
+			for (TileArrivalListener tileArrivalListener:tileArrivalListeners)
+				tileArrivalListener.tilesArrived(event);
+		}
+
+		if (events!=null){
+			int numListeners=slippyMapListeners.size()+tileArrivalListeners.size();
+			for (int i=0;i<events.length;i++){
+				events[i].end();
+				if (events[i].shouldCommit()){
+					events[i].setTile(names.get(i));
+					events[i].listeners=numListeners;
+					events[i].commit();
+				}
+			}
+		}
+	}
+
+	/** Works out the screen area covered by tiles
+	 *
+	 * @param keys  Tile keys
+	 * @param numTiles  Number of keys
+	 * @return the area, clipped to the map
+	 */
+	private Rectangle getDirtyRect(long[] keys,int numTiles){
+		ViewTransform viewTransform=this.viewTransform;
+		if (viewTransform==null)
+			return new Rectangle();
+		Rectangle screenBounds=viewTransform.screenBounds;
+		Rectangle dirtyRect=null;
+		for (int i=0;i<numTiles;i++){
+			long key=keys[i];
+			if (key==UNKNOWN_TILE)
+				return new Rectangle(screenBounds);
+			int zoom=TileKey.zoom(key);
+			int tileX=TileKey.tileX(key);
+			int tileY=TileKey.tileY(key);
+			int x1=(int)Math.floor(viewTransform.tileXToScreenX(tileX,zoom));
+			int y1=(int)Math.floor(viewTransform.tileYToScreenY(tileY,zoom));
+			int x2=(int)Math.ceil(viewTransform.tileXToScreenX(tileX+1,zoom));
+			int y2=(int)Math.ceil(viewTransform.tileYToScreenY(tileY+1,zoom));
+			Rectangle tileRect=new Rectangle(x1,y1,x2-x1,y2-y1).intersection(screenBounds);
+			if (tileRect.isEmpty())
+				continue;
+			if (dirtyRect==null)
+				dirtyRect=tileRect;
+			else
+				dirtyRect.add(tileRect);
+		}
+		return dirtyRect==null?new Rectangle():dirtyRect;
+	}
+}
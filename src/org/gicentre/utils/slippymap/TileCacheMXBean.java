@@ -0,0 +1,48 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** Management interface of SlippyMap's in-memory tile cache. Each SlippyMap registers one
+ * with the platform MBean server as org.gicentre.utils.slippymap:type=TileCache,name=N.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public interface TileCacheMXBean {
+
+	/** Maximum number of tiles held in memory */
+	public int getCacheCapacity();
+
+	/** Sets the maximum number of tiles held in memory. If it is reduced, the least recently used tiles are removed */
+	public void setCacheCapacity(int cacheCapacity);
+
+	/** Number of tiles held in memory */
+	public int getSize();
+
+	/** Number of needed tiles found in memory */
+	public long getHits();
+
+	/** Number of needed tiles not found in memory */
+	public long getMisses();
+
+	/** Fraction of needed tiles found in memory */
+	public double getHitRate();
+
+	/** Removes all tiles from memory */
+	public void clear();
+}
@@ -0,0 +1,226 @@
+package org.gicentre.utils.slippymap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+//****************************************************************************************
+/** Java Flight Recorder events for each stage a tile goes through: requested by the draw
+ * loop, queued, taken from the queue by a worker, read from disk, fetched, decoded, put in
+ * the in-memory cache, listeners told and first drawn. They are in the SlippyMap category
+ * of a recording (e.g. java -XX:StartFlightRecording=filename=tiles.jfr ...) and each has
+ * the tile key (its cache file name) and map type (e.g. osm-mapnik), so the events for a
+ * tile that arrived late show where the time went.
+ *
+ * Events cost almost nothing when they are not being recorded: they are only filled in
+ * if shouldCommit() is true.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TileEvents {
+
+	/** Fields all the tile events have
+	 */
+	@Category({"SlippyMap","Tiles"})
+	@StackTrace(false)
+	static abstract class TileEvent extends Event{
+		@Label("Tile Key")
+		@Description("Cache file name of the tile")
+		String tileKey;
+
+		@Label("Map Type")
+		String mapType;
+
+		/** Sets the tile key and map type
+		 *
+		 * @param cacheFilename  Cache file name of the tile
+		 */
+		void setTile(String cacheFilename){
+			tileKey=cacheFilename;
+			mapType=getMapType(cacheFilename);
+		}
+	}
+
+	@Name("org.gicentre.slippymap.TileRequested")
+	@Label("Tile Requested")
+	@Description("The draw loop asked for a tile that is not in the in-memory cache")
+	static class Requested extends TileEvent{
+	}
+
+	@Name("org.gicentre.slippymap.TileEnqueued")
+	@Label("Tile Enqueued")
+	@Description("A tile was put at the front of the queue to be retrieved")
+	static class Enqueued extends TileEvent{
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+
+	@Name("org.gicentre.slippymap.TileDequeued")
+	@Label("Tile Dequeued")
+	@Description("A worker took a tile from the queue. The duration is the time it was queued")
+	static class Dequeued extends TileEvent{
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+
+	@Name("org.gicentre.slippymap.TileDiskRead")
+	@Label("Tile Disk Read")
+	@Description("A tile was looked for in the disk cache")
+	static class DiskRead extends TileEvent{
+		@Label("Found")
+		boolean found;
+	}
+
+	@Name("org.gicentre.slippymap.TileFetch")
+	@Label("Tile Fetch")
+	@Description("A tile was downloaded, from connecting until the last byte arrived")
+	static class Fetch extends TileEvent{
+		@Label("URL")
+		String url;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+
+		@Label("Succeeded")
+		boolean succeeded;
+	}
+
+	@Name("org.gicentre.slippymap.TileDecode")
+	@Label("Tile Decode")
+	@Description("A downloaded tile was decoded")
+	static class Decode extends TileEvent{
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("org.gicentre.slippymap.TileCacheInsert")
+	@Label("Tile Cache Insert")
+	@Description("A tile was put in the in-memory cache")
+	static class CacheInsert extends TileEvent{
+		@Label("Source")
+		@Description("disk or network")
+		String source;
+	}
+
+	@Name("org.gicentre.slippymap.TileListenersNotified")
+	@Label("Tile Listeners Notified")
+	@Description("Listeners were told that a tile is available")
+	static class ListenersNotified extends TileEvent{
+		@Label("Listeners")
+		int listeners;
+	}
+
+	@Name("org.gicentre.slippymap.TileFirstDraw")
+	@Label("Tile First Draw")
+	@Description("The draw loop got a retrieved tile for the first time")
+	static class FirstDraw extends TileEvent{
+		@Label("Since Requested")
+		@Timespan(Timespan.NANOSECONDS)
+		long sinceRequested;
+	}
+
+	/** Records that the draw loop has asked for a tile that is not in memory
+	 *
+	 * @param cacheFilename
+	 */
+	static void requested(String cacheFilename){
+		Requested event=new Requested();
+		if (event.shouldCommit()){
+			event.setTile(cacheFilename);
+			event.commit();
+		}
+	}
+
+	/** Records that a tile has been queued
+	 *
+	 * @param cacheFilename
+	 * @param queueDepth  Number of tiles in the queue
+	 */
+	static void enqueued(String cacheFilename,int queueDepth){
+		Enqueued event=new Enqueued();
+		if (event.shouldCommit()){
+			event.setTile(cacheFilename);
+			event.queueDepth=queueDepth;
+			event.commit();
+		}
+	}
+
+	/** Records that a tile has been put in the in-memory cache
+	 *
+	 * @param cacheFilename
+	 * @param source  Where it came from
+	 */
+	static void cacheInsert(String cacheFilename,String source){
+		CacheInsert event=new CacheInsert();
+		if (event.shouldCommit()){
+			event.setTile(cacheFilename);
+			event.source=source;
+			event.commit();
+		}
+	}
+
+	/** Records that a tile has been drawn for the first time
+	 *
+	 * @param cacheFilename
+	 * @param sinceRequested  Nanoseconds since it was requested
+	 */
+	static void firstDraw(String cacheFilename,long sinceRequested){
+		FirstDraw event=new FirstDraw();
+		if (event.shouldCommit()){
+			event.setTile(cacheFilename);
+			event.sinceRequested=sinceRequested;
+			event.commit();
+		}
+	}
+
+	/** Whether first draws are being recorded (so whether tiles need to be tracked until
+	 * they are drawn)
+	 *
+	 * @return whether they are
+	 */
+	static boolean isFirstDrawEnabled(){
+		return new FirstDraw().isEnabled();
+	}
+
+	/** Gets the map type from a tile cache file name (the first two parts, e.g. osm-mapnik
+	 * or bing-road)
+	 *
+	 * @param cacheFilename
+	 * @return the map type
+	 */
+	static String getMapType(String cacheFilename){
+		if (cacheFilename==null)
+			return null;
+		int end=cacheFilename.indexOf('-');
+		if (end>=0)
+			end=cacheFilename.indexOf('-',end+1);
+		return end<0?cacheFilename:cacheFilename.substring(0,end);
+	}
+}
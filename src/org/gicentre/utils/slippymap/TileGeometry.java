@@ -0,0 +1,123 @@
+package org.gicentre.utils.slippymap;
+
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Finds which map tiles (in the OpenStreetMap z/x/y scheme) cover longitudes and latitudes,
+ * and draws part of a lower resolution tile for a tile that is not available yet. Used by
+ * the layers that make their own tiles and by SlippyMap.getTiles().
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+final class TileGeometry {
+
+	/** Images of tiles that are available to draw now
+	 */
+	static interface TileImages{
+		/** Gets the image of a tile if it is available
+		 *
+		 * @param key  Tile key (see TileKey)
+		 * @return the image, or null if it is not
+		 */
+		PImage getImage(long key);
+	}
+
+	private TileGeometry(){
+	}
+
+	/** Position of a longitude across the whole tiled map, from 0 (left) to 1 (right)
+	 *
+	 * @param lon
+	 * @return x
+	 */
+	static double lonToUnitX(double lon){
+		return (lon+180)/360;
+	}
+
+	/** Position of a latitude down the whole tiled map, from 0 (top) to 1 (bottom).
+	 * Values outside this range are beyond the latitude limits of the tiles.
+	 *
+	 * @param lat
+	 * @return y
+	 */
+	static double latToUnitY(double lat){
+		double sinLat=Math.sin(Math.toRadians(lat));
+		return 0.5-Math.log((1+sinLat)/(1-sinLat))/(4*Math.PI);
+	}
+
+	/** Tile x containing a longitude, or the first or last tile if it is off the map
+	 *
+	 * @param lon
+	 * @param zoom  Zoom level
+	 * @return tile x
+	 */
+	static int lonToTileX(double lon,int zoom){
+		return clip((int)Math.floor(lonToUnitX(lon)*(1<<zoom)),1<<zoom);
+	}
+
+	/** Tile y containing a latitude, or the first or last tile if it is off the map
+	 *
+	 * @param lat
+	 * @param zoom  Zoom level
+	 * @return tile y
+	 */
+	static int latToTileY(double lat,int zoom){
+		return clip((int)Math.floor(latToUnitY(lat)*(1<<zoom)),1<<zoom);
+	}
+
+	private static int clip(int tile,int numTiles){
+		return tile<0?0:tile>=numTiles?numTiles-1:tile;
+	}
+
+	/** Draws the relevant part of the nearest lower resolution tile that is available, for a
+	 * tile that isn't
+	 *
+	 * @param g  The canvas to draw on
+	 * @param tileImages  The available tiles
+	 * @param zoom  Zoom level of the tile
+	 * @param tileX
+	 * @param tileY
+	 * @param maxLevelsUp  How many levels up to look
+	 * @param x1  Screen position of the tile
+	 * @param y1
+	 * @param x2
+	 * @param y2
+	 * @return whether one was drawn
+	 */
+	static boolean drawFromParent(PGraphics g,TileImages tileImages,int zoom,int tileX,int tileY,int maxLevelsUp,
+			float x1,float y1,float x2,float y2){
+		for (int levelsUp=1;levelsUp<=Math.min(zoom,maxLevelsUp);levelsUp++){
+			PImage image=tileImages.getImage(TileKey.key(zoom-levelsUp,tileX>>levelsUp,tileY>>levelsUp));
+			if (image!=null){
+				int size=image.width>>levelsUp;
+				int mask=(1<<levelsUp)-1;
+				int u=(tileX&mask)*size;
+				int v=(tileY&mask)*size;
+				g.image(image,x1,y1,x2-x1,y2-y1,u,v,u+size,v+size);
+				return true;
+			}
+		}
+		return false;
+	}
+}
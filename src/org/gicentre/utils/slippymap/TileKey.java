@@ -0,0 +1,80 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** Packs the zoom level, x and y of a map tile (in the OpenStreetMap z/x/y scheme) into a
+ * single long, so that tiles can be used as map keys without creating strings.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+final class TileKey {
+
+	private TileKey(){
+	}
+
+	/** Makes a tile key
+	 *
+	 * @param zoom  Zoom level (0-29)
+	 * @param tileX  Tile x
+	 * @param tileY  Tile y
+	 * @return key
+	 */
+	static long key(int zoom, int tileX, int tileY){
+		return ((long)zoom<<58)|((long)tileX<<29)|tileY;
+	}
+
+	/** Gets the zoom level from a tile key
+	 *
+	 * @param key
+	 * @return zoom level
+	 */
+	static int zoom(long key){
+		return (int)(key>>>58);
+	}
+
+	/** Gets the tile x from a tile key
+	 *
+	 * @param key
+	 * @return tile x
+	 */
+	static int tileX(long key){
+		return (int)((key>>>29)&0x1fffffff);
+	}
+
+	/** Gets the tile y from a tile key
+	 *
+	 * @param key
+	 * @return tile y
+	 */
+	static int tileY(long key){
+		return (int)(key&0x1fffffff);
+	}
+
+	/** Key of the tile that contains this one, one zoom level up
+	 *
+	 * @param key
+	 * @return key of the parent tile
+	 */
+	static long parent(long key){
+		return key(zoom(key)-1,tileX(key)>>1,tileY(key)>>1);
+	}
+}
@@ -0,0 +1,119 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//****************************************************************************************
+/** Counts what happens to tiles (cache hits and misses, fetches, errors), times fetching,
+ * decoding, writing to disk and drawing, and keeps the tile counts of the last frame.
+ * Recording is cheap (a few uncontended atomic additions) so this is always on. Read with
+ * snapshot() (see SlippyMap.getMetrics()).
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TileMetrics {
+
+	/** Histogram of durations with power-of-two microsecond buckets. Bucket i holds durations
+	 * of less than 2^i microseconds (and at least 2^(i-1))
+	 */
+	static class Histogram{
+		static final int NUM_BUCKETS=40;
+		private final AtomicLongArray buckets=new AtomicLongArray(NUM_BUCKETS);
+		private final LongAdder totalNanos=new LongAdder();
+
+		/** Records a duration
+		 *
+		 * @param nanos  Duration in nanoseconds
+		 */
+		void record(long nanos){
+			long micros=Math.max(0,nanos/1000);
+			int bucket=Math.min(NUM_BUCKETS-1,64-Long.numberOfLeadingZeros(micros));
+			buckets.incrementAndGet(bucket);
+			totalNanos.add(nanos);
+		}
+
+		SlippyMapMetrics.Latency snapshot(){
+			long[] counts=new long[NUM_BUCKETS];
+			for (int i=0;i<NUM_BUCKETS;i++)
+				counts[i]=buckets.get(i);
+			return new SlippyMapMetrics.Latency(counts,totalNanos.sum());
+		}
+	}
+
+	final LongAdder memoryHits=new LongAdder();
+	final LongAdder memoryMisses=new LongAdder();
+	final LongAdder diskHits=new LongAdder();
+	final LongAdder diskMisses=new LongAdder();
+	final LongAdder networkHits=new LongAdder(); //tiles fetched successfully
+	final LongAdder networkFailures=new LongAdder();
+	final LongAdder errors=new LongAdder(); //exceptions while reading, fetching or writing tiles
+	final LongAdder bytesTransferred=new LongAdder();
+	final AtomicLong inFlight=new AtomicLong(); //requests currently being fetched
+
+	final Histogram fetchTime=new Histogram(); //connecting and downloading
+	final Histogram decodeTime=new Histogram();
+	final Histogram diskWriteTime=new Histogram();
+	final Histogram frameDrawTime=new Histogram();
+
+	//tiles drawn in the frame being drawn and in the last whole frame (only changed by the draw thread)
+	private int tilesDrawn,fallbackTilesDrawn;
+	private volatile int lastFrameTilesDrawn,lastFrameFallbackTilesDrawn;
+	private volatile long lastFrameDrawNanos;
+
+	/** Records that a tile has been drawn in this frame
+	 *
+	 * @param fallback  Whether it is a lower resolution tile drawn instead of a missing one
+	 */
+	void tileDrawn(boolean fallback){
+		if (fallback)
+			fallbackTilesDrawn++;
+		else
+			tilesDrawn++;
+	}
+
+	/** Records that a frame has been drawn
+	 *
+	 * @param nanos  Time taken in nanoseconds
+	 */
+	void frameDrawn(long nanos){
+		frameDrawTime.record(nanos);
+		lastFrameDrawNanos=nanos;
+		lastFrameTilesDrawn=tilesDrawn;
+		lastFrameFallbackTilesDrawn=fallbackTilesDrawn;
+		tilesDrawn=0;
+		fallbackTilesDrawn=0;
+	}
+
+	/** Takes a copy of the metrics
+	 *
+	 * @param queueDepth  Number of tiles waiting to be fetched
+	 * @return the copy
+	 */
+	SlippyMapMetrics snapshot(int queueDepth){
+		return new SlippyMapMetrics(memoryHits.sum(),memoryMisses.sum(),diskHits.sum(),diskMisses.sum(),
+				networkHits.sum(),networkFailures.sum(),errors.sum(),bytesTransferred.sum(),queueDepth,inFlight.get(),
+				fetchTime.snapshot(),decodeTime.snapshot(),diskWriteTime.snapshot(),frameDrawTime.snapshot(),
+				lastFrameDrawNanos,lastFrameTilesDrawn,lastFrameFallbackTilesDrawn);
+	}
+}
@@ -0,0 +1,168 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.Arrays;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** The tiles to draw in a frame, each held once, as TileKeys and their images. Made once
+ * by each map provider and cleared for each frame, so planning a frame does not allocate
+ * once the arrays are big enough. Tiles are kept in the order they were added until
+ * sortByZoom() is called.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TilePlan {
+
+	static private final long EMPTY=-1; //key of no tile (its zoom level would be 63)
+	static private final int MAX_ZOOM=29; //most detailed zoom level a TileKey can hold
+
+	private long[] keys=new long[64]; //in the order they were added (or sorted)
+	private PImage[] images=new PImage[64];
+	private int size=0;
+	private long[] slots=newSlots(128); //the keys, in open addressing with linear probing (size is a power of 2)
+	private long[] sortedKeys=new long[0]; //made when first sorted
+	private PImage[] sortedImages=new PImage[0];
+	private final int[] zoomStarts=new int[MAX_ZOOM+2];
+
+	/** Removes all the tiles (and the references to their images)
+	 */
+	void clear(){
+		Arrays.fill(images,0,size,null);
+		Arrays.fill(slots,EMPTY);
+		size=0;
+	}
+
+	/** Adds a tile if it is not already there
+	 *
+	 * @param key  Tile key (see TileKey)
+	 * @param image  Its image (null if only which tiles there are is needed)
+	 * @return false if it was already there
+	 */
+	boolean add(long key,PImage image){
+		int slot=find(key);
+		if (slots[slot]==key)
+			return false;
+		slots[slot]=key;
+		if (size==keys.length){
+			keys=Arrays.copyOf(keys,size*2);
+			images=Arrays.copyOf(images,size*2);
+		}
+		keys[size]=key;
+		images[size]=image;
+		size++;
+		if (size*2>slots.length) //keep it no more than half full
+			resize(slots.length*2);
+		return true;
+	}
+
+	/** Whether a tile has been added
+	 *
+	 * @param key  Tile key (see TileKey)
+	 * @return
+	 */
+	boolean contains(long key){
+		return slots[find(key)]==key;
+	}
+
+	int size(){
+		return size;
+	}
+
+	long getKey(int index){
+		return keys[index];
+	}
+
+	PImage getImage(int index){
+		return images[index];
+	}
+
+	/** Sorts the tiles by zoom level, so that lower resolution ones are drawn first. The
+	 * sort is stable, so tiles at each zoom level stay in the order they were added.
+	 */
+	void sortByZoom(){
+		if (sortedKeys.length<keys.length){
+			sortedKeys=new long[keys.length];
+			sortedImages=new PImage[keys.length];
+		}
+		//counting sort: find where each zoom level starts, then put each tile after the last
+		Arrays.fill(zoomStarts,0);
+		for (int i=0;i<size;i++)
+			zoomStarts[TileKey.zoom(keys[i])+1]++;
+		for (int zoom=1;zoom<zoomStarts.length;zoom++)
+			zoomStarts[zoom]+=zoomStarts[zoom-1];
+		for (int i=0;i<size;i++){
+			int index=zoomStarts[TileKey.zoom(keys[i])]++;
+			sortedKeys[index]=keys[i];
+			sortedImages[index]=images[i];
+		}
+		long[] oldKeys=keys;
+		PImage[] oldImages=images;
+		keys=sortedKeys;
+		images=sortedImages;
+		sortedKeys=oldKeys;
+		sortedImages=oldImages;
+		Arrays.fill(sortedImages,0,size,null);
+	}
+
+	/** Gets the signature of the tiles, in their order (see FrameBudget.getSignature())
+	 *
+	 * @return
+	 */
+	long getSignature(){
+		long signature=1;
+		for (int i=0;i<size;i++)
+			signature=FrameBudget.getSignature(signature,keys[i]);
+		return signature;
+	}
+
+	/** Finds the slot holding a key, or the empty slot where it would go
+	 *
+	 * @param key
+	 * @return the slot
+	 */
+	private int find(long key){
+		int mask=slots.length-1;
+		//mixed, so that neighbouring tiles are spread across the slots
+		int slot=(int)((key*0x9e3779b97f4a7c15L)>>>32)&mask;
+		while (slots[slot]!=EMPTY && slots[slot]!=key)
+			slot=(slot+1)&mask;
+		return slot;
+	}
+
+	/** Rehashes into a bigger array
+	 *
+	 * @param capacity  Power of 2
+	 */
+	private void resize(int capacity){
+		slots=newSlots(capacity);
+		for (int i=0;i<size;i++)
+			slots[find(keys[i])]=keys[i];
+	}
+
+	private static long[] newSlots(int capacity){
+		long[] slots=new long[capacity];
+		Arrays.fill(slots,EMPTY);
+		return slots;
+	}
+}
@@ -1,5 +1,7 @@
 package org.gicentre.utils.slippymap;
 
+import java.awt.Canvas;
+import java.awt.Component;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.MediaTracker;
@@ -9,22 +11,38 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import javax.imageio.ImageIO;
 import javax.imageio.stream.FileImageInputStream;
-import javax.xml.ws.http.HTTPException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import processing.core.PApplet;
 import processing.core.PImage;
@@ -32,6 +50,15 @@ import processing.core.PImage;
 //****************************************************************************************
 /** Class which retrieves and caches maptiles in its own thread.
 *    
+* Tiles are retrieved by up to workerCount workers at a time, run by a pool of threads shared
+* by all retrievers that has no threads while there is nothing to retrieve, or, if
+* setUseVirtualThreads() has been
+* called and there are virtual threads (Java 21 and later), by a virtual thread for each
+* queued tile. Either way, HostConnectionLimiter limits the number of downloads from each
+* host across all retrievers. The retriever and its in-memory cache
+* are registered as MBeans (see TileRetrieverMXBean and TileCacheMXBean), so they can be
+* monitored and tuned from JConsole.
+*
 * Only intended to be used by SlippyMap - hence Class and all methods have only
 * package-wide visibility
 *  
@@ -54,25 +81,54 @@ import processing.core.PImage;
 * http://www.gnu.org/licenses/.
 */
 
-class TileRetriever extends Thread{
+class TileRetriever implements TileRetrieverMXBean{
+
+	static private final int MAX_SHARED_THREADS=16; //threads retrieving tiles for all retrievers
+	static private final int MAX_DISK_THREADS=4; //threads reading tiles from the disk cache for all retrievers
+	static final int THREAD_KEEP_ALIVE=10; //seconds an idle thread is kept for
+	static private long threadKeepAliveMillis=THREAD_KEEP_ALIVE*1000L; //can be shortened by tests (guarded by class)
+	static private AtomicInteger numInstances=new AtomicInteger(); //for naming MBeans
+	static private ThreadPoolExecutor sharedExecutor; //runs workers for all retrievers (guarded by class)
+	static private ThreadPoolExecutor diskExecutor; //reads tiles from the disk cache for all retrievers (guarded by class)
+	static private Component headlessComponent; //used to load images when there is no sketch (e.g. in benchmarks)
 
 	List<TileInfo> urls=Collections.synchronizedList(new LinkedList<TileInfo>()); //list of URLs to retrieve
 //	Map<String, PImage> cachedTiles; //in-memory cache for tiles
 	PApplet applet;
-	Set<SlippyMapListener> slippyMapListeners; //listeners to inform about whether there are tiles available
+	final TileArrivalNotifier notifier=new TileArrivalNotifier(); //tells listeners that tiles have arrived
 	PImage noInternetImage; //blank image for where tile has not been successfully retrieved
 	LRUCache<String, PImage> tileCache;
-	boolean useFileCache=true; //whether or not to use a file-based cache for tiles
+	volatile boolean useFileCache=true; //whether or not to use a file-based cache for tiles
+	private volatile int queueLimit=30; //maximum number of tiles waiting to be retrieved (the oldest are dropped)
+	private int workerCount=1; //maximum number of workers (guarded by urls)
+	private int numWorkers=0; //number of workers running (guarded by urls)
+	private boolean disposed=false; //(guarded by urls)
+	private Map<String, TileInfo> fetching=new HashMap<String, TileInfo>(); //tiles being retrieved by workers (guarded by urls)
+	private Map<String, List<CompletableFuture<PImage>>> futures=new HashMap<String, List<CompletableFuture<PImage>>>(); //futures waiting for tiles (guarded by urls)
+	private boolean useVirtualThreads=false; //whether queued tiles are retrieved by virtual threads instead of workers (guarded by urls)
+	private int numVirtualTasks=0; //virtual threads started that have not taken a tile yet (guarded by urls)
+	private List<ObjectName> mBeanNames=new ArrayList<ObjectName>(); //names of the registered MBeans
 	String passthroughURL=null; //URL to retrieve external URLs for the tiles. Needs to be used by unsigned applets. See SlippyMsp documentation
+	AtomicInteger tileArrivalCount=new AtomicInteger(); //incremented whenever a tile becomes available (used to tell whether a cached frame is out of date)
+	final TileMetrics metrics=new TileMetrics(); //hit/miss counts and timings
+	private Set<String> diskReads=ConcurrentHashMap.newKeySet(); //tiles waiting to be read from the disk cache
+	private volatile String fileCachePath; //directory of the disk cache (null for tilecache in the sketch's directory)
+	private volatile DiskCacheIndex diskCacheIndex; //tiles in the disk cache (made when it is first used)
+	private Map<String, Long> awaitingFirstDraw=new ConcurrentHashMap<String, Long>(); //retrieved tiles not drawn yet, with when they were requested (only while recording TileEvents.FirstDraw)
 	
-    MediaTracker tracker;
 	
 	private class TileInfo{
 		String url;
 		String cacheFilename;
-		public TileInfo(String url, String cacheFilename) {
+		long tileKey; //see TileKey
+		long requestedTime=System.nanoTime();
+		TileEvents.Dequeued dequeuedEvent; //started when queued (only while it is being recorded)
+		volatile boolean cancelled=false; //whether all the futures waiting for it have been cancelled
+		boolean diskChecked=false; //whether it is known not to be in the disk cache
+		public TileInfo(String url, String cacheFilename, long tileKey) {
 			this.url=url;
 			this.cacheFilename=cacheFilename;
+			this.tileKey=tileKey;
 		}
 		public boolean equals(Object o) {
 			return this.url.equals(((TileInfo)o).url) && this.cacheFilename.equals(((TileInfo)o).cacheFilename);
@@ -82,7 +138,8 @@ class TileRetriever extends Thread{
 	
 	/** Constructor
 	 * 
-	 * @param applet The sketch
+	 * @param applet The sketch (can be null when running headless, e.g. in benchmarks - the disk
+	 * cache is then in the working directory)
 	 * @param cachedTiles The tile cache to use
 	 * @param maxItemsInCache Maximum number of cache items
 	 */
@@ -91,104 +148,699 @@ class TileRetriever extends Thread{
 		File tempDir=new File(getFileCachePath());
 		if (!tempDir.exists())
 			tempDir.mkdir();
-		tracker = new MediaTracker(applet);
 		tileCache=new LRUCache<String, PImage>(maxItemsInCache);
-		this.start(); //start the thread
+		registerMBeans();
+	}
+
+	/** Registers this and the in-memory cache with the platform MBean server. Fails silently
+	 * (e.g. in an unsigned applet)
+	 * 
+	 */
+	private void registerMBeans(){
+		try{
+			MBeanServer mBeanServer=ManagementFactory.getPlatformMBeanServer();
+			int instance=numInstances.incrementAndGet();
+			ObjectName name=new ObjectName("org.gicentre.utils.slippymap:type=TileRetriever,name="+instance);
+			mBeanServer.registerMBean(new StandardMBean(this,TileRetrieverMXBean.class,true),name);
+			mBeanNames.add(name);
+			name=new ObjectName("org.gicentre.utils.slippymap:type=TileCache,name="+instance);
+			mBeanServer.registerMBean(new StandardMBean(new TileCacheMXBean(){
+				public int getCacheCapacity(){
+					synchronized (tileCache) {
+						return tileCache.getLimit();
+					}
+				}
+				public void setCacheCapacity(int cacheCapacity){
+					synchronized (tileCache) {
+						tileCache.setLimit(cacheCapacity);
+					}
+				}
+				public int getSize(){
+					synchronized (tileCache) {
+						return tileCache.size();
+					}
+				}
+				public long getHits(){
+					return metrics.memoryHits.sum();
+				}
+				public long getMisses(){
+					return metrics.memoryMisses.sum();
+				}
+				public double getHitRate(){
+					long hits=getHits();
+					long lookups=hits+getMisses();
+					return lookups==0?0:hits/(double)lookups;
+				}
+				public void clear(){
+					synchronized (tileCache) {
+						tileCache.clear();
+					}
+				}
+			},TileCacheMXBean.class,true),name);
+			mBeanNames.add(name);
+		}
+		catch (Exception e){
+			//silently handle - monitoring is optional
+		}
+	}
+
+	/** Unregisters the MBeans registered by the constructor
+	 * 
+	 */
+	void unregisterMBeans(){
+		try{
+			MBeanServer mBeanServer=ManagementFactory.getPlatformMBeanServer();
+			for (ObjectName name:mBeanNames)
+				mBeanServer.unregisterMBean(name);
+		}
+		catch (Exception e){
+			//silently handle
+		}
+		mBeanNames.clear();
 	}
 	
+	/** Stops retrieving tiles and frees what this holds: queued tiles are dropped, futures
+	 * waiting for tiles are cancelled, notifications stop, the in-memory cache is emptied and
+	 * the MBeans are unregistered. Workers finish the tile they are retrieving. The retriever
+	 * cannot be used afterwards
+	 * 
+	 */
+	void dispose(){
+		List<CompletableFuture<PImage>> waiting=new ArrayList<CompletableFuture<PImage>>();
+		synchronized (urls) {
+			if (disposed)
+				return;
+			disposed=true;
+			urls.clear();
+			for (List<CompletableFuture<PImage>> tileFutures:futures.values())
+				waiting.addAll(tileFutures);
+			futures.clear();
+			for (TileInfo tileInfo:fetching.values())
+				tileInfo.cancelled=true;
+		}
+		for (CompletableFuture<PImage> future:waiting)
+			future.cancel(false);
+		notifier.dispose();
+		unregisterMBeans();
+		synchronized (tileCache) {
+			tileCache.clear();
+		}
+		awaitingFirstDraw.clear();
+	}
+
+	boolean isDisposed(){
+		synchronized (urls) {
+			return disposed;
+		}
+	}
+
 	/** Sets whether or not to use the file-based cache
 	 * 
 	 * @param useFileCache
 	 */
-	void setUseFileCache(boolean useFileCache){
+	public void setUseFileCache(boolean useFileCache){
 		this.useFileCache=useFileCache;
 	}
-	
-	
-	/** Thread which retrieves tiles from the URL list
-	 * 
-	 */
-	public void run(){
-		boolean x=true;
-		while (x){ //run forever
-			while (!urls.isEmpty()){
-				TileInfo tileInfo=urls.remove(0);//take the first URL
-				PImage image=null;
-				
-				String tileFileName=tileInfo.cacheFilename;
-				String pathFileName=getFileCachePath()+File.separatorChar+tileFileName;
-				
-//				//if it's on disk, get it
-				if (useFileCache){
-					try{
-						if (new File(pathFileName).exists()) //try to load from disk
-							image=loadImage(new FileInputStream(pathFileName));
-					}
-					catch (Exception e) {
-						// silently handle
-					}
-					if (image!=null){
-						tileCache.put(tileFileName, image); //add to in-memory cache
-					}
+
+	public boolean isUseFileCache(){
+		return useFileCache;
+	}
+
+	public int getWorkerCount(){
+		synchronized (urls) {
+			return workerCount;
+		}
+	}
+
+	/** Sets the maximum number of tiles retrieved at the same time. Extra workers are started
+	 * straight away if there are tiles queued; surplus ones stop once they have finished the
+	 * tile they are retrieving
+	 * 
+	 * @param workerCount  Number of workers (at least 1)
+	 */
+	public void setWorkerCount(int workerCount){
+		synchronized (urls) {
+			this.workerCount=Math.max(1,workerCount);
+			startWorkers();
+		}
+	}
+
+	/** Starts workers on the shared pool until there are as many as wanted or one for each
+	 * queued tile (none when virtual threads are used). Must be called while holding urls
+	 * 
+	 */
+	private void startWorkers(){
+		int wantedWorkers=Math.min(getWantedWorkers(),urls.size());
+		if (numWorkers>=wantedWorkers)
+			return;
+		Executor executor=getSharedExecutor();
+		while (numWorkers<wantedWorkers){
+			numWorkers++;
+			executor.execute(new Runnable(){
+				public void run(){
+					retrieveTiles();
 				}
-				
-				
-				//Try and load from web
-				try{
-					if (image==null){
-						URL actualUrl=new URL(tileInfo.url);
-						InputStream inputStream=actualUrl.openStream();
-						image=loadImage(inputStream); //otherwise, try to load from URL
+			});
+		}
+	}
 
-					}
-					if (image.width<=0) //if invalid image, set to null
-						image=null;
-					if (image!=null && useFileCache){
-						String ext=tileFileName.substring(tileFileName.lastIndexOf("."));
-						File tempFile=new File(getFileCachePath()+File.separatorChar+"temp"+ext);
-						BufferedImage bimage = new BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB);
-						Graphics2D bGr = bimage.createGraphics();
-						bGr.drawImage(image.getImage(), 0, 0, null);
-						bGr.dispose();
-						ImageIO.write(bimage, "PNG",tempFile);
-						tempFile.renameTo(new File(pathFileName));
-					}
+	/** Sets how long idle threads in the shared pools are kept for (THREAD_KEEP_ALIVE
+	 * seconds by default), including those already started. Used by tests so that they do not
+	 * have to wait for the threads to stop
+	 * 
+	 * @param millis  Milliseconds (more than 0)
+	 */
+	static synchronized void setThreadKeepAlive(long millis){
+		threadKeepAliveMillis=millis;
+		if (sharedExecutor!=null)
+			sharedExecutor.setKeepAliveTime(millis,TimeUnit.MILLISECONDS);
+		if (diskExecutor!=null)
+			diskExecutor.setKeepAliveTime(millis,TimeUnit.MILLISECONDS);
+	}
+
+	/** Gets the pool of threads that runs workers for all retrievers. It has up to
+	 * MAX_SHARED_THREADS threads, which stop when they have been idle for THREAD_KEEP_ALIVE
+	 * seconds
+	 * 
+	 * @return the pool
+	 */
+	static synchronized Executor getSharedExecutor(){
+		if (sharedExecutor==null){
+			sharedExecutor=new ThreadPoolExecutor(MAX_SHARED_THREADS,MAX_SHARED_THREADS,threadKeepAliveMillis,TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(),new ThreadFactory(){
+				private int numThreads=0;
+				public synchronized Thread newThread(Runnable r){
+					Thread thread=new Thread(r,"SlippyMapTileRetriever-"+(++numThreads));
+					thread.setDaemon(true);
+					return thread;
 				}
-				catch (Exception e) {
-					System.out.println(e);
-					// silently handle
+			});
+			sharedExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sharedExecutor;
+	}
+
+	/** Gets the pool of threads that reads tiles from the disk cache for all retrievers, so
+	 * that reading them neither holds up the draw thread nor waits for downloads. It has up to
+	 * MAX_DISK_THREADS threads, which stop when they have been idle for THREAD_KEEP_ALIVE
+	 * seconds
+	 * 
+	 * @return the pool
+	 */
+	static synchronized Executor getDiskExecutor(){
+		if (diskExecutor==null){
+			diskExecutor=new ThreadPoolExecutor(MAX_DISK_THREADS,MAX_DISK_THREADS,threadKeepAliveMillis,TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(),new ThreadFactory(){
+				private int numThreads=0;
+				public synchronized Thread newThread(Runnable r){
+					Thread thread=new Thread(r,"SlippyMapDiskReader-"+(++numThreads));
+					thread.setDaemon(true);
+					return thread;
 				}
-				if (image==null){
-					//then internet is down
-					if (noInternetImage==null){
-						noInternetImage=new PImage(250, 250);
+			});
+			diskExecutor.allowCoreThreadTimeOut(true);
+		}
+		return diskExecutor;
+	}
+
+	public boolean isUseVirtualThreads(){
+		synchronized (urls) {
+			return useVirtualThreads;
+		}
+	}
+
+	/** Sets whether each queued tile is retrieved by its own virtual thread instead of by the
+	 * worker threads. Has no effect if there are no virtual threads (before Java 21)
+	 * 
+	 * @param useVirtualThreads
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads){
+		if (useVirtualThreads && HostConnectionLimiter.getVirtualThreadExecutor()==null)
+			return;
+		synchronized (urls) {
+			if (useVirtualThreads==this.useVirtualThreads)
+				return;
+			this.useVirtualThreads=useVirtualThreads;
+			if (useVirtualThreads)
+				startVirtualThreads();
+			else
+				startWorkers();
+		}
+	}
+
+	/** Starts virtual threads until there is one for each queued tile. Must be called while
+	 * holding urls
+	 * 
+	 */
+	private void startVirtualThreads(){
+		ExecutorService executor=HostConnectionLimiter.getVirtualThreadExecutor();
+		while (numVirtualTasks<urls.size()){
+			numVirtualTasks++;
+			executor.execute(new Runnable(){
+				public void run(){
+					TileInfo tileInfo;
+					synchronized (urls) {
+						numVirtualTasks--;
+						if (urls.isEmpty()) //the tile has been dropped or taken by a worker
+							return;
+						tileInfo=takeTile();
 					}
-					image=noInternetImage;
+					retrieveTakenTile(tileInfo);
+				}
+			});
+		}
+	}
+
+	public int getQueueLimit(){
+		return queueLimit;
+	}
+
+	public void setQueueLimit(int queueLimit){
+		this.queueLimit=Math.max(1,queueLimit);
+	}
+
+	public int getQueueDepth(){
+		return urls.size();
+	}
+
+	public long getInFlightRequests(){
+		return metrics.inFlight.get();
+	}
+
+	public long getNetworkHits(){
+		return metrics.networkHits.sum();
+	}
+
+	public long getNetworkFailures(){
+		return metrics.networkFailures.sum();
+	}
+
+	public long getDiskHits(){
+		return metrics.diskHits.sum();
+	}
+
+	public long getDiskMisses(){
+		return metrics.diskMisses.sum();
+	}
+
+	public long getErrors(){
+		return metrics.errors.sum();
+	}
+
+	public long getBytesTransferred(){
+		return metrics.bytesTransferred.sum();
+	}
+
+	public double getFetchLatencyMeanMillis(){
+		return metrics.fetchTime.snapshot().getMeanMillis();
+	}
+
+	public double getFetchLatencyP99Millis(){
+		return metrics.fetchTime.snapshot().getPercentileMillis(0.99);
+	}
+	
+	
+	/** Run by each worker. Retrieves tiles from the URL list until it is empty or there are
+	 * more workers than wanted
+	 * 
+	 */
+	private void retrieveTiles(){
+		while (true){
+			TileInfo tileInfo;
+			synchronized (urls) {
+				if (urls.isEmpty() || numWorkers>getWantedWorkers()){
+					numWorkers--;
+					return;
+				}
+				tileInfo=takeTile();
+			}
+			retrieveTakenTile(tileInfo);
+		}
+	}
+
+	/** Number of worker threads that should be running. Must be called while holding urls
+	 * 
+	 * @return number of workers
+	 */
+	private int getWantedWorkers(){
+		return useVirtualThreads || disposed?0:workerCount;
+	}
+
+	/** Takes the first tile from the URL list. Must be called while holding urls, when the
+	 * list is not empty
+	 * 
+	 * @return the tile
+	 */
+	private TileInfo takeTile(){
+		TileInfo tileInfo=urls.remove(0);//take the first URL
+		fetching.put(tileInfo.cacheFilename,tileInfo);
+		if (tileInfo.dequeuedEvent!=null){
+			TileEvents.Dequeued event=tileInfo.dequeuedEvent;
+			event.end();
+			if (event.shouldCommit()){
+				event.setTile(tileInfo.cacheFilename);
+				event.queueDepth=urls.size();
+				event.commit();
+			}
+		}
+		return tileInfo;
+	}
+
+	/** Retrieves a tile taken with takeTile()
+	 * 
+	 * @param tileInfo
+	 */
+	private void retrieveTakenTile(TileInfo tileInfo){
+		PImage image=null;
+		try{
+			image=retrieveTile(tileInfo);
+		}
+		finally{
+			List<CompletableFuture<PImage>> tileFutures;
+			synchronized (urls) {
+				fetching.remove(tileInfo.cacheFilename);
+				tileFutures=futures.remove(tileInfo.cacheFilename);
+			}
+			if (tileFutures!=null){
+				for (CompletableFuture<PImage> future:tileFutures){
+					if (image!=null)
+						future.complete(image);
+					else
+						future.completeExceptionally(new IOException("Could not retrieve "+tileInfo.url));
 				}
+			}
+		}
+	}
 
-				if (image!=noInternetImage){
+	/** Gets a tile from the disk cache or the web and puts it in the in-memory cache
+	 * 
+	 * @param tileInfo
+	 * @return the image, or null if it could not be retrieved (or was cancelled)
+	 */
+	private PImage retrieveTile(TileInfo tileInfo){
+		PImage image=null;
+		String source="disk"; //where the image came from (for recording)
+		
+		String tileFileName=tileInfo.cacheFilename;
+		String pathFileName=getFileCachePath()+File.separatorChar+tileFileName;
+		
+		//if it's on disk, get it
+		if (useFileCache && !tileInfo.diskChecked){
+			image=readFromFileCache(tileFileName);
+			if (image!=null){
+				//may have been written since it was queued (misses are counted when queued)
+				metrics.diskHits.increment();
+				synchronized (tileCache) {
 					tileCache.put(tileFileName, image); //add to in-memory cache
-					if (slippyMapListeners!=null) //notify all the listeners that a new tile is available
-						for (SlippyMapListener slippyMapListener:slippyMapListeners){
-							slippyMapListener.newTileAvailable();
-						}
 				}
-				//pause the thread if there are no more tiles to get
-				if (urls.isEmpty()){
-					try {
-						synchronized (this) {
-							this.wait();
-						}
-					} catch (InterruptedException e) {
-						//silently handle
-					}
+			}
+		}
+		
+		
+		//Try and load from web
+		if (image==null){
+			byte[] bytes=null;
+			source="network";
+			//wait until another download from this host is allowed
+			HostConnectionLimiter.HostPermits permits=null;
+			try{
+				permits=HostConnectionLimiter.acquire(new URL(tileInfo.url));
+			}
+			catch (Exception e){
+				//silently handle - the URL fails again below
+			}
+			//nothing wants it any more
+			if (tileInfo.cancelled){
+				HostConnectionLimiter.release(permits);
+				return null;
+			}
+			metrics.inFlight.incrementAndGet();
+			TileEvents.Fetch fetchEvent=new TileEvents.Fetch();
+			fetchEvent.begin();
+			long start=System.nanoTime();
+			try{
+				URL actualUrl=new URL(tileInfo.url);
+				InputStream inputStream=actualUrl.openStream();
+				bytes=loadBytes(inputStream);
+				inputStream.close();
+			}
+			catch (Exception e) {
+				metrics.errors.increment();
+			}
+			finally{
+				metrics.inFlight.decrementAndGet();
+				HostConnectionLimiter.release(permits);
+			}
+			metrics.fetchTime.record(System.nanoTime()-start);
+			fetchEvent.end();
+			if (fetchEvent.shouldCommit()){
+				fetchEvent.setTile(tileFileName);
+				fetchEvent.url=tileInfo.url;
+				fetchEvent.bytes=bytes==null?0:bytes.length;
+				fetchEvent.succeeded=bytes!=null;
+				fetchEvent.commit();
+			}
+			if (bytes!=null){
+				metrics.bytesTransferred.add(bytes.length);
+				TileEvents.Decode decodeEvent=new TileEvents.Decode();
+				decodeEvent.begin();
+				start=System.nanoTime();
+				image=loadImage(bytes); //otherwise, try to load from URL
+				metrics.decodeTime.record(System.nanoTime()-start);
+				decodeEvent.end();
+				if (decodeEvent.shouldCommit()){
+					decodeEvent.setTile(tileFileName);
+					decodeEvent.bytes=bytes.length;
+					decodeEvent.commit();
+				}
+			}
+			if (image!=null && image.width<=0) //if invalid image, set to null
+				image=null;
+			if (image!=null)
+				metrics.networkHits.increment();
+			else
+				metrics.networkFailures.increment();
+
+			if (image!=null && useFileCache){
+				start=System.nanoTime();
+				try{
+					//each tile is written to its own temporary file, so that workers (or maps
+					//sharing the directory) writing at the same time don't overwrite each other's
+					File tempFile=File.createTempFile("tile",".tmp",new File(getFileCachePath()));
+					BufferedImage bimage = new BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB);
+					Graphics2D bGr = bimage.createGraphics();
+					bGr.drawImage(image.getImage(), 0, 0, null);
+					bGr.dispose();
+					ImageIO.write(bimage, "PNG",tempFile);
+					if (tempFile.renameTo(new File(pathFileName)))
+						getDiskCacheIndex().add(tileFileName);
+					else
+						tempFile.delete(); //e.g. another map has just written it
+				}
+				catch (Exception e) {
+					metrics.errors.increment();
 				}
+				metrics.diskWriteTime.record(System.nanoTime()-start);
+			}
+		}
+		if (image==null){
+			//then internet is down
+			if (noInternetImage==null){
+				noInternetImage=new PImage(250, 250);
+			}
+			image=noInternetImage;
+		}
+
+		if (image!=noInternetImage){
+			synchronized (tileCache) {
+				tileCache.put(tileFileName, image); //add to in-memory cache
+			}
+			TileEvents.cacheInsert(tileFileName,source);
+			if (TileEvents.isFirstDrawEnabled()){
+				//don't let tiles that are never drawn build up
+				if (awaitingFirstDraw.size()>tileCache.getLimit())
+					awaitingFirstDraw.clear();
+				awaitingFirstDraw.put(tileFileName,tileInfo.requestedTime);
 			}
+			fireNewTileAvailable(tileFileName,tileInfo.tileKey);
+			return image;
 		}
+		return null;
 	}
 	
 	public String getFileCachePath(){
-		return applet.sketchPath+File.separatorChar+"tilecache"+File.separatorChar;
+		String path=fileCachePath;
+		if (path!=null)
+			return path;
+		String sketchPath=applet!=null?applet.sketchPath:System.getProperty("user.dir");
+		return sketchPath+File.separatorChar+"tilecache"+File.separatorChar;
+	}
+
+	/** Sets the directory of the disk cache, instead of tilecache in the sketch's directory
+	 * (e.g. for testing). Must be called before any tiles are read or retrieved
+	 * 
+	 * @param directory  The directory (made if it does not exist)
+	 */
+	void setFileCachePath(File directory){
+		directory.mkdirs();
+		fileCachePath=directory.getPath()+File.separatorChar;
+		diskCacheIndex=null;
+	}
+
+	/** Gets the index of the tiles in the disk cache, starting to build it if it is the first
+	 * time
+	 * 
+	 * @return the index
+	 */
+	DiskCacheIndex getDiskCacheIndex(){
+		DiskCacheIndex index=diskCacheIndex;
+		if (index==null){
+			index=DiskCacheIndex.forDirectory(getFileCachePath(),getDiskExecutor());
+			diskCacheIndex=index;
+		}
+		return index;
+	}
+
+	/** Reads a tile from the disk cache. Blocks, so is not to be called on the draw thread
+	 * 
+	 * @param cacheFilename
+	 * @return the image, or null if it is not in the disk cache (or cannot be read)
+	 */
+	private PImage readFromFileCache(String cacheFilename){
+		DiskCacheIndex index=getDiskCacheIndex();
+		if (!index.mightContain(cacheFilename))
+			return null;
+		PImage image=null;
+		TileEvents.DiskRead diskReadEvent=new TileEvents.DiskRead();
+		diskReadEvent.begin();
+		File file=new File(getFileCachePath()+File.separatorChar+cacheFilename);
+		try{
+			InputStream inputStream=new FileInputStream(file);
+			try{
+				image=loadImage(inputStream);
+			}
+			finally{
+				inputStream.close();
+			}
+		}
+		catch (FileNotFoundException e){
+			//silently handle - not in the disk cache (or deleted since the index was built)
+		}
+		catch (Exception e) {
+			metrics.errors.increment();
+		}
+		if (image==null)
+			index.remove(cacheFilename);
+		diskReadEvent.end();
+		if (diskReadEvent.shouldCommit()){
+			diskReadEvent.setTile(cacheFilename);
+			diskReadEvent.found=image!=null;
+			diskReadEvent.commit();
+		}
+		return image;
+	}
+
+	/** Reads a tile from the disk cache in the background and puts it in the in-memory cache,
+	 * notifying listeners when it is there. If it is not in the disk cache, it is queued for
+	 * retrieval from the web (if wanted)
+	 * 
+	 * @param tileUrlString
+	 * @param cacheFilename
+	 * @param tileKey  See TileKey
+	 * @param retrieveIfMissing  Whether to retrieve it from the web if it is not on disk
+	 */
+	private void readFromFileCacheAsync(final String tileUrlString,final String cacheFilename,final long tileKey,final boolean retrieveIfMissing){
+		if (!diskReads.add(cacheFilename))
+			return; //already waiting to be read
+		getDiskExecutor().execute(new Runnable(){
+			public void run(){
+				try{
+					if (isDisposed())
+						return;
+					PImage image;
+					synchronized (tileCache) {
+						image=tileCache.get(cacheFilename);
+					}
+					if (image!=null)
+						return; //arrived while this was waiting
+					image=readFromFileCache(cacheFilename);
+					if (image!=null){
+						if (retrieveIfMissing)
+							metrics.diskHits.increment();
+						synchronized (tileCache) {
+							tileCache.put(cacheFilename, image); //add to in-memory cache
+						}
+						TileEvents.cacheInsert(cacheFilename,"disk");
+						fireNewTileAvailable(cacheFilename,tileKey);
+					}
+					else if (retrieveIfMissing){
+						retrieve(tileUrlString,cacheFilename,tileKey,true);
+					}
+				}
+				finally{
+					diskReads.remove(cacheFilename);
+				}
+			}
+		});
+	}
+
+	/** Gets the cache file names of the tiles in the in-memory cache
+	 * 
+	 * @return the file names, least recently used first
+	 */
+	List<String> getCachedTileNames(){
+		synchronized (tileCache) {
+			return new ArrayList<String>(tileCache.keySet());
+		}
+	}
+
+	/** Loads tiles from the disk cache into the in-memory cache, using the pool of threads
+	 * that reads the disk cache. Tiles already in memory, and those that are not on disk, are skipped. Listeners
+	 * are notified of each tile that is loaded
+	 * 
+	 * @param cacheFilenames  Cache file names of the tiles
+	 * @return a latch that is counted down when all the tiles have been loaded
+	 */
+	CountDownLatch preloadFromFileCache(final List<String> cacheFilenames){
+		int numThreads=Math.min(MAX_DISK_THREADS,cacheFilenames.size());
+		final CountDownLatch latch=new CountDownLatch(numThreads);
+		final AtomicInteger next=new AtomicInteger();
+		Executor executor=getDiskExecutor();
+		for (int i=0;i<numThreads;i++){
+			executor.execute(new Runnable(){
+				public void run(){
+					try{
+						int index;
+						while ((index=next.getAndIncrement())<cacheFilenames.size() && !isDisposed())
+							preloadTile(cacheFilenames.get(index));
+					}
+					finally{
+						latch.countDown();
+					}
+				}
+			});
+		}
+		return latch;
+	}
+
+	/** Loads a tile from the disk cache into the in-memory cache, unless it is already there
+	 * 
+	 * @param cacheFilename
+	 */
+	private void preloadTile(String cacheFilename){
+		synchronized (tileCache) {
+			if (tileCache.containsKey(cacheFilename))
+				return;
+		}
+		PImage image=readFromFileCache(cacheFilename);
+		if (image==null)
+			return;
+		synchronized (tileCache) {
+			if (tileCache.containsKey(cacheFilename) || tileCache.size()>=tileCache.getLimit())
+				return; //don't push out tiles that are being drawn
+			tileCache.put(cacheFilename,image);
+		}
+		fireNewTileAvailable(cacheFilename,TileArrivalNotifier.UNKNOWN_TILE);
 	}
 
 	/** Adds a slippy map listener
@@ -196,9 +848,7 @@ class TileRetriever extends Thread{
 	 * @param slippyMapListener
 	 */
 	void addSlippyMapListener(SlippyMapListener slippyMapListener){
-		if (this.slippyMapListeners==null)
-			this.slippyMapListeners=new HashSet<SlippyMapListener>();
-		this.slippyMapListeners.add(slippyMapListener);
+		notifier.addSlippyMapListener(slippyMapListener);
 	}
 
 	/**Removes a slippy map listener
@@ -206,80 +856,216 @@ class TileRetriever extends Thread{
 	 * @param slippyMapListener
 	 */
 	void removeSlippyMapListener(SlippyMapListener slippyMapListener){
-		if (this.slippyMapListeners!=null)
-			this.slippyMapListeners.remove(slippyMapListener);
+		notifier.removeSlippyMapListener(slippyMapListener);
+	}
+
+	/** Notify the listeners that a new tile is available, whose position is not known
+	 * 
+	 */
+	void fireNewTileAvailable(){
+		fireNewTileAvailable(null,TileArrivalNotifier.UNKNOWN_TILE);
+	}
+
+	/** Notify the listeners that a new tile is available. Listeners are notified with the
+	 * other tiles that arrive in the same interval (see TileArrivalNotifier)
+	 * 
+	 * @param cacheFilename  The map tile (null if it is not one)
+	 * @param tileKey  The tile's position (see TileKey), or TileArrivalNotifier.UNKNOWN_TILE
+	 */
+	void fireNewTileAvailable(String cacheFilename,long tileKey){
+		tileArrivalCount.incrementAndGet();
+		notifier.tileArrived(cacheFilename,tileKey);
 	}
 
 	/** queue URL for retrieval
 	 * 
 	 * @param url
 	 */
-	private void retrieve(String url, String cacheFilename){
-		TileInfo tileInfo=new TileInfo(url, cacheFilename);
+	private void retrieve(String url, String cacheFilename, long tileKey){
+		retrieve(url,cacheFilename,tileKey,false);
+	}
+
+	/** queue URL for retrieval. If it is known not to be in the disk cache, a disk miss is
+	 * recorded when it is queued (not when it is already queued or being retrieved, so that
+	 * a tile that is still downloading is not counted again every frame)
+	 * 
+	 * @param url
+	 * @param diskChecked  Whether it is known not to be in the disk cache
+	 */
+	private void retrieve(String url, String cacheFilename, long tileKey, boolean diskChecked){
+		TileInfo tileInfo=new TileInfo(url, cacheFilename, tileKey);
+		tileInfo.diskChecked=diskChecked;
 		synchronized (urls) {
-			urls.remove(url);//remove if it is already there.
+			if (disposed)
+				return;
+			//a worker is already getting it
+			TileInfo fetchingTile=fetching.get(cacheFilename);
+			if (fetchingTile!=null){
+				fetchingTile.cancelled=false; //wanted again
+				return;
+			}
+			boolean queued=urls.remove(tileInfo);//remove if it is already there.
 			urls.add(0,tileInfo);//put at top
-			synchronized (this) {
-				this.notify();
+			if (!queued && diskChecked && useFileCache)
+				metrics.diskMisses.increment();
+			TileEvents.Dequeued dequeuedEvent=new TileEvents.Dequeued();
+			if (dequeuedEvent.isEnabled()){
+				dequeuedEvent.begin();
+				tileInfo.dequeuedEvent=dequeuedEvent;
 			}
-			//don't let this list become too big
-			if (urls.size()>30)
-				urls.remove(urls.size()-1);
+			TileEvents.enqueued(cacheFilename,urls.size());
+			//don't let this list become too big (but keep tiles that futures are waiting for)
+			for (int i=urls.size()-1;i>=0 && urls.size()>queueLimit;i--)
+				if (!futures.containsKey(urls.get(i).cacheFilename))
+					urls.remove(i);
+			if (useVirtualThreads)
+				startVirtualThreads();
+			else
+				startWorkers();
 		}
 	}
 	
-	/** Get a tile image from the memory cache or the disk cache
-	 * If it gets it from the disk, it stores in memory
+	/** Get a tile image from the memory cache. Never blocks: if it is not in memory, it is read
+	 * from the disk cache (or failing that retrieved from the web) in the background and
+	 * listeners are notified when it is available
 	 * 
 	 * @param tileUrlString
-	 * @param passthroughURL
-	 * @return
+	 * @param cacheFilename
+	 * @param tileKey  See TileKey
+	 * @param onlyGetFromCache  Whether only to read it from the disk cache, not the web
+	 * @return the image, or null if it is not in memory
 	 */
-	PImage getTileImage(String tileUrlString, String cacheFilename,boolean onlyGetFromCache){
-
-		PImage image=null;
-
-		//if it's in memory, get it
-		image=tileCache.get(cacheFilename);
-		if (image!=null)
-			return image;
+	PImage getTileImage(String tileUrlString, String cacheFilename, long tileKey, boolean onlyGetFromCache){
+		PImage image=lookUpTileImage(cacheFilename,onlyGetFromCache);
+		if (image==null)
+			requestTileImage(tileUrlString,cacheFilename,tileKey,onlyGetFromCache);
+		return image;
+	}
 
-//		//if it's on disk, get it
-		if (useFileCache){
-			String pathFileName=getFileCachePath()+File.separatorChar+cacheFilename;
-			try{
-				if (new File(pathFileName).exists()){ //try to load from disk
-					image=loadImage(new FileInputStream(pathFileName));
+	/** Get a tile image from the memory cache, recording the hit or miss. If it is not there,
+	 * call requestTileImage() (so that a tile's URL need only be made when it is not in memory)
+	 * 
+	 * @param cacheFilename
+	 * @param onlyGetFromCache  Whether it will only be read from the disk cache, not the web
+	 * (misses are then not recorded)
+	 * @return the image, or null if it is not in memory
+	 */
+	PImage lookUpTileImage(String cacheFilename, boolean onlyGetFromCache){
+		PImage image;
+		synchronized (tileCache) {
+			image=tileCache.get(cacheFilename);
+		}
+		if (!onlyGetFromCache){
+			if (image!=null){
+				metrics.memoryHits.increment();
+				if (!awaitingFirstDraw.isEmpty()){
+					Long requestedTime=awaitingFirstDraw.remove(cacheFilename);
+					if (requestedTime!=null)
+						TileEvents.firstDraw(cacheFilename,System.nanoTime()-requestedTime);
 				}
 			}
-			catch (Exception e) {
-				// silently handle
-				e.printStackTrace();
+			else{
+				metrics.memoryMisses.increment();
+				TileEvents.requested(cacheFilename);
 			}
-			if (image!=null){
-				tileCache.put(cacheFilename, image); //add to in-memory cache
+		}
+		return image;
+	}
+
+	/** Reads a tile that is not in the memory cache from the disk cache (or failing that
+	 * retrieves it from the web) in the background. Listeners are notified when it is
+	 * available
+	 * 
+	 * @param tileUrlString
+	 * @param cacheFilename
+	 * @param tileKey  See TileKey
+	 * @param onlyGetFromCache  Whether only to read it from the disk cache, not the web
+	 */
+	void requestTileImage(String tileUrlString, String cacheFilename, long tileKey, boolean onlyGetFromCache){
+		//if it's on disk, get it in the background
+		if (useFileCache && getDiskCacheIndex().mightContain(cacheFilename))
+			readFromFileCacheAsync(tileUrlString,cacheFilename,tileKey,!onlyGetFromCache);
+		else if (!onlyGetFromCache){
+			//Then try to get from web (the tile URL already goes through the passthrough URL if there is one)
+			retrieve(tileUrlString,cacheFilename,tileKey,true);
+		}
+	}
+
+	/** Get a tile image from the memory cache only, without reading or retrieving it if it is
+	 * not there (e.g. when looking for a coarser tile to draw in place of a missing one)
+	 * 
+	 * @param cacheFilename
+	 * @return the image, or null if it is not in memory
+	 */
+	PImage getCachedTileImage(String cacheFilename){
+		synchronized (tileCache) {
+			return tileCache.get(cacheFilename);
+		}
+	}
+	
+	/** Gets a tile from the memory cache, the disk cache or the web, without blocking. If
+	 * the future is cancelled before the tile has been retrieved (and no other future is
+	 * waiting for it), it is taken off the queue, or not downloaded if it is being read from
+	 * the disk cache or waiting for a connection
+	 * 
+	 * @param tileUrlString
+	 * @param cacheFilename
+	 * @param tileKey  See TileKey
+	 * @return a future that completes with the image, or exceptionally with an IOException if
+	 * the tile could not be retrieved
+	 */
+	CompletableFuture<PImage> getTileImageAsync(final String tileUrlString,final String cacheFilename,long tileKey){
+		PImage image;
+		synchronized (tileCache) {
+			image=tileCache.get(cacheFilename);
+		}
+		if (image!=null)
+			return CompletableFuture.completedFuture(image);
+		final CompletableFuture<PImage> future=new CompletableFuture<PImage>();
+		synchronized (urls) {
+			if (disposed)
+				return CompletableFuture.<PImage>failedFuture(new IllegalStateException("The map has been disposed"));
+			List<CompletableFuture<PImage>> tileFutures=futures.get(cacheFilename);
+			if (tileFutures==null){
+				tileFutures=new ArrayList<CompletableFuture<PImage>>();
+				futures.put(cacheFilename,tileFutures);
 			}
+			tileFutures.add(future);
 		}
-		
-		if (image==null && !onlyGetFromCache){
-			//Then try to get from web
-			if (passthroughURL!=null){
-				try {
-					tileUrlString=passthroughURL+"?url="+URLEncoder.encode(tileUrlString,"UTF-8");
-				}
-				catch (UnsupportedEncodingException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+		future.whenComplete(new BiConsumer<PImage, Throwable>(){
+			public void accept(PImage image,Throwable throwable){
+				if (future.isCancelled())
+					cancel(future,cacheFilename);
+			}
+		});
+		retrieve(tileUrlString,cacheFilename,tileKey);
+		return future;
+	}
+
+	/** Stops waiting for a tile for a cancelled future. If no other future is waiting for
+	 * it, it is taken off the queue or, if being retrieved, not downloaded
+	 * 
+	 * @param future
+	 * @param cacheFilename
+	 */
+	private void cancel(CompletableFuture<PImage> future,String cacheFilename){
+		synchronized (urls) {
+			List<CompletableFuture<PImage>> tileFutures=futures.get(cacheFilename);
+			if (tileFutures==null || !tileFutures.remove(future) || !tileFutures.isEmpty())
+				return;
+			futures.remove(cacheFilename);
+			TileInfo fetchingTile=fetching.get(cacheFilename);
+			if (fetchingTile!=null)
+				fetchingTile.cancelled=true;
+			for (int i=0;i<urls.size();i++){
+				if (urls.get(i).cacheFilename.equals(cacheFilename)){
+					urls.remove(i);
+					break;
 				}
 			}
-			retrieve(tileUrlString,cacheFilename);
 		}
-
-
-
-		return image;
 	}
-	
+
 	void setPassThroughURL(String passthroughURL){
 		this.passthroughURL=passthroughURL;
 	}
@@ -303,12 +1089,20 @@ class TileRetriever extends Thread{
 	   * @nowebref
 	   */
 	  public PImage loadImage(InputStream inputStream) {
+	    return loadImage(loadBytes(inputStream));
+	  }
+
+	  /** Decodes an image
+	   * 
+	   * @param bytes  The image file's contents (or null)
+	   * @return the image, or null if it could not be decoded
+	   */
+	  PImage loadImage(byte[] bytes) {
 	    // For jpeg, gif, and png, load them using createImage(),
 	    // because the javax.imageio code was found to be much slower, see
 	    // <A HREF="http://dev.processing.org/bugs/show_bug.cgi?id=392">Bug 392</A>.
 	    try {
 	     {
-	        byte bytes[] = loadBytes(inputStream);
 	        if (bytes == null) {
 	          return null;
 	        } else {
@@ -348,7 +1142,15 @@ class TileRetriever extends Thread{
 	   * a single image, and blocking until it has loaded.
 	   */
 	  protected PImage loadImageMT(Image awtImage) {
-		  MediaTracker tracker = new MediaTracker(applet);
+		  Component component=applet;
+		  if (component==null){
+			  synchronized (TileRetriever.class) {
+				  if (headlessComponent==null)
+					  headlessComponent=new Canvas();
+				  component=headlessComponent;
+			  }
+		  }
+		  MediaTracker tracker = new MediaTracker(component);
 		  tracker.addImage(awtImage, 0);
 		  try {
 			  tracker.waitForAll();
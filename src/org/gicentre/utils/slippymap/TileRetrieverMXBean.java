@@ -0,0 +1,83 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** Management interface of the thread pool that retrieves SlippyMap's tiles. Each SlippyMap
+ * registers one with the platform MBean server as
+ * org.gicentre.utils.slippymap:type=TileRetriever,name=N, so it can be watched and tuned
+ * from JConsole while the sketch is running.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public interface TileRetrieverMXBean {
+
+	/** Maximum number of tiles retrieved at the same time (by threads shared by all maps) */
+	public int getWorkerCount();
+
+	/** Sets the maximum number of tiles retrieved at the same time (at least 1) */
+	public void setWorkerCount(int workerCount);
+
+	/** Whether each queued tile is retrieved by its own virtual thread instead of by the worker threads */
+	public boolean isUseVirtualThreads();
+
+	/** Sets whether virtual threads are used (has no effect before Java 21) */
+	public void setUseVirtualThreads(boolean useVirtualThreads);
+
+	/** Maximum number of tiles waiting to be retrieved. When there are more, the oldest requests are dropped */
+	public int getQueueLimit();
+
+	/** Sets the maximum number of tiles waiting to be retrieved */
+	public void setQueueLimit(int queueLimit);
+
+	/** Whether tiles are cached on disk */
+	public boolean isUseFileCache();
+
+	/** Sets whether tiles are cached on disk */
+	public void setUseFileCache(boolean useFileCache);
+
+	/** Number of tiles waiting to be retrieved */
+	public int getQueueDepth();
+
+	/** Number of tiles being downloaded */
+	public long getInFlightRequests();
+
+	/** Number of tiles downloaded */
+	public long getNetworkHits();
+
+	/** Number of tiles that could not be downloaded */
+	public long getNetworkFailures();
+
+	/** Number of tiles read from the disk cache */
+	public long getDiskHits();
+
+	/** Number of tiles not found in the disk cache */
+	public long getDiskMisses();
+
+	/** Number of errors while reading, downloading or writing tiles */
+	public long getErrors();
+
+	/** Number of bytes downloaded */
+	public long getBytesTransferred();
+
+	/** Mean time to download a tile in milliseconds */
+	public double getFetchLatencyMeanMillis();
+
+	/** 99th percentile of the time to download a tile in milliseconds (to within a factor of two) */
+	public double getFetchLatencyP99Millis();
+}
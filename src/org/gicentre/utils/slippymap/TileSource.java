@@ -0,0 +1,93 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** A source of square map tiles in the usual (Google/OpenStreetMap) scheme: at zoom level z
+ * there are 2^z by 2^z tiles, numbered from the top left. Register sources with
+ * SlippyMap.registerTileSource() and use them with SlippyMap.setTileSource().
+ * UrlTemplateTileSource makes one from a URL template, which is all most tile servers need.
+ *
+ * Methods may be called from several threads at once, so implementations should not change
+ * once registered.
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public interface TileSource {
+
+	/** Gets the name of the source, e.g. osm-mapnik. This identifies it when registered and
+	 * should not contain characters that cannot be in file names
+	 *
+	 * @return the name
+	 */
+	public String getName();
+
+	/** Gets the URL of a tile
+	 *
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile column
+	 * @param tileY  Tile row
+	 * @return the URL
+	 */
+	public String getTileUrl(int zoom,int tileX,int tileY);
+
+	/** Gets the name of the file a tile is kept in in the disk cache. Must be different for
+	 * each tile and source
+	 *
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile column
+	 * @param tileY  Tile row
+	 * @return the file name
+	 */
+	public String getCacheFileName(int zoom,int tileX,int tileY);
+
+	/** Gets the most detailed zoom level there are tiles for. More detailed views are drawn
+	 * with tiles from this level
+	 *
+	 * @return the zoom level
+	 */
+	public int getMaxZoom();
+
+	/** Gets the width and height of tiles in pixels (e.g. 256, or 512 for high resolution
+	 * tiles)
+	 *
+	 * @return the tile size
+	 */
+	public int getTileSize();
+
+	/** Gets the maximum number of tiles to download at the same time from the source's hosts,
+	 * between them (by all SlippyMaps)
+	 *
+	 * @return the number of connections, or 0 to use the default for the host (see
+	 * SlippyMap.setMaxConnectionsPerHost())
+	 */
+	public int getMaxConnections();
+
+	/** Gets the maximum number of tiles to request each second from the source's hosts,
+	 * between them (by all SlippyMaps)
+	 *
+	 * @return the number of requests, or 0 for no limit
+	 */
+	public double getMaxRequestsPerSecond();
+
+	/** Gets the copyright statement drawn on the map
+	 *
+	 * @return the statement (or null for none)
+	 */
+	public String getAttribution();
+}
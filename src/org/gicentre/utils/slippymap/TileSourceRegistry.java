@@ -0,0 +1,157 @@
+package org.gicentre.utils.slippymap;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//****************************************************************************************
+/** Tile sources by name, including the built-in ones for the OpenStreetMap and Stamen map
+ * types. Registering a source applies its connection and request rate limits to its hosts.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TileSourceRegistry {
+
+	static private final String OSM_ATTRIBUTION="Data and map information provided by Open Street Map and contributors, CC-BY-SA";
+	static private final String STAMEN_ATTRIBUTION="Map tiles by Stamen Design, under CC BY 3.0. Data by OpenStreetMap, under CC BY SA";
+
+	static private Map<String, TileSource> tileSources=new ConcurrentHashMap<String, TileSource>();
+
+	static{
+		UrlTemplateTileSource tileSource=new UrlTemplateTileSource("osm-mapnik","http://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png",OSM_ATTRIBUTION,"a","b","c");
+		tileSource.setMaxZoom(19);
+		tileSource.setMaxConnections(2); //see http://wiki.openstreetmap.org/wiki/Tile_usage_policy
+		register(tileSource);
+		register(new UrlTemplateTileSource("osm-mapquest","http://otile{s}.mqcdn.com/tiles/1.0.0/osm/{z}/{x}/{y}.jpg",
+				"Data, imagery and map information provided by MapQuest, Open Street Map and contributors, CC-BY-SA","1","2","3"));
+		register(new UrlTemplateTileSource("osm-watercolour","http://tile.stamen.com/watercolor/{z}/{x}/{y}.png",STAMEN_ATTRIBUTION));
+		register(new UrlTemplateTileSource("osm-toner","http://tile.stamen.com/toner/{z}/{x}/{y}.png",STAMEN_ATTRIBUTION));
+		register(new UrlTemplateTileSource("osm-terrain","http://tile.stamen.com/terrain/{z}/{x}/{y}.png",STAMEN_ATTRIBUTION));
+	}
+
+	/** Registers a source, replacing any with the same name, and applies its limits to its
+	 * hosts between them (e.g. to tile.openstreetmap.org for a.tile.openstreetmap.org,
+	 * b.tile.openstreetmap.org and c.tile.openstreetmap.org)
+	 *
+	 * @param tileSource
+	 */
+	static void register(TileSource tileSource){
+		tileSources.put(tileSource.getName(),tileSource);
+		if (tileSource.getMaxConnections()<=0 && tileSource.getMaxRequestsPerSecond()<=0)
+			return;
+		Set<String> hosts=getHosts(tileSource);
+		String domain=getCommonDomain(hosts);
+		//each host has its own if they are not in one domain
+		Set<String> domains=domain!=null?Collections.singleton(domain):hosts;
+		for (String limitedDomain:domains){
+			if (tileSource.getMaxConnections()>0)
+				HostConnectionLimiter.setDomainLimit(limitedDomain,tileSource.getMaxConnections());
+			if (tileSource.getMaxRequestsPerSecond()>0)
+				HostConnectionLimiter.setDomainRate(limitedDomain,tileSource.getMaxRequestsPerSecond());
+		}
+	}
+
+	/** Gets the longest domain that all the hosts are in (e.g. tile.openstreetmap.org for
+	 * a.tile.openstreetmap.org and b.tile.openstreetmap.org)
+	 *
+	 * @param hosts
+	 * @return the domain (the host if there is one), or null if there are no hosts or they are
+	 * not in one domain with at least two parts
+	 */
+	static String getCommonDomain(Set<String> hosts){
+		String domain=null;
+		for (String host:hosts){
+			if (domain==null){
+				domain=host;
+				continue;
+			}
+			while (!host.equals(domain) && !host.endsWith("."+domain)){
+				int dot=domain.indexOf('.');
+				if (dot<0)
+					return null;
+				domain=domain.substring(dot+1);
+			}
+		}
+		if (domain==null || domain.indexOf('.')<0)
+			return null; //e.g. just "com"
+		return domain;
+	}
+
+	/** Gets a registered source
+	 *
+	 * @param name
+	 * @return the source, or null if there isn't one with this name
+	 */
+	static TileSource get(String name){
+		return tileSources.get(name);
+	}
+
+	/** Gets the source of an OpenStreetMap or Stamen map type
+	 *
+	 * @param slippyMapType
+	 * @param cloudMadeApiKey  API key for CloudMade tiles
+	 * @param cloudMadeStyleId  Style for CloudMade tiles
+	 * @return the source (null for other map types)
+	 */
+	static TileSource forMapType(SlippyMapType slippyMapType,String cloudMadeApiKey,int cloudMadeStyleId){
+		if (slippyMapType==SlippyMapType.OSM_MAPNIK)
+			return get("osm-mapnik");
+		else if (slippyMapType==SlippyMapType.OSM_MAPQUEST)
+			return get("osm-mapquest");
+		else if (slippyMapType==SlippyMapType.OSM_CLOUDMADE)
+			return new UrlTemplateTileSource("osm-cloudmade","http://{s}.tile.cloudmade.com/"+cloudMadeApiKey+"/"+cloudMadeStyleId+"/256/{z}/{x}/{y}.png",
+					"Data and map information provided by Open Street Map, Cloudmade and contributors, CC-BY-SA","a","b","c");
+		else if (slippyMapType==SlippyMapType.STAMEN_WATERCOLOUR)
+			return get("osm-watercolour");
+		else if (slippyMapType==SlippyMapType.STAMEN_TONER)
+			return get("osm-toner");
+		else if (slippyMapType==SlippyMapType.STAMEN_TERRAIN)
+			return get("osm-terrain");
+		return null;
+	}
+
+	/** Finds the hosts a source's tiles come from, from the URLs of the tiles at zoom level 2
+	 *
+	 * @param tileSource
+	 * @return the hosts
+	 */
+	static Set<String> getHosts(TileSource tileSource){
+		Set<String> hosts=new HashSet<String>();
+		for (int tileX=0;tileX<4;tileX++){
+			for (int tileY=0;tileY<4;tileY++){
+				try{
+					String host=new URL(tileSource.getTileUrl(2,tileX,tileY)).getHost();
+					if (host!=null && host.length()>0)
+						hosts.add(host.toLowerCase());
+				}
+				catch (Exception e){
+					//silently handle - not a URL with a host
+				}
+			}
+		}
+		return hosts;
+	}
+}
@@ -0,0 +1,146 @@
+package org.gicentre.utils.slippymap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//****************************************************************************************
+/** A tile URL (or cache file name) template, such as
+ * http://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png, compiled once into literal parts and
+ * placeholders so that making a URL only allocates the resulting string. Placeholders are
+ * {z} (zoom level), {x} and {y} (tile column and row), {q} or {quadkey} (Bing quadkey) and
+ * {s} or {subdomain} (one of the subdomains, chosen from the tile position so that a tile
+ * always has the same URL).
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class UrlTemplate {
+
+	static private final int LITERAL=0,ZOOM=1,TILE_X=2,TILE_Y=3,QUADKEY=4,SUBDOMAIN=5;
+
+	//builder reused by each thread, so that only the resulting string is allocated
+	static private final ThreadLocal<StringBuilder> builders=new ThreadLocal<StringBuilder>(){
+		protected StringBuilder initialValue(){
+			return new StringBuilder(256);
+		}
+	};
+
+	private final String template;
+	private final int[] partTypes;
+	private final String[] literals; //literal text of LITERAL parts
+	private final String[] subdomains;
+
+	/** Compiles a template
+	 *
+	 * @param template  The template
+	 * @param subdomains  Subdomains for {s} (can be null if it is not used)
+	 * @throws IllegalArgumentException if there is an unknown placeholder or {s} has no subdomains
+	 */
+	UrlTemplate(String template,String[] subdomains){
+		this.template=template;
+		this.subdomains=subdomains==null?new String[0]:subdomains.clone();
+		List<Integer> types=new ArrayList<Integer>();
+		List<String> texts=new ArrayList<String>();
+		int start=0;
+		while (start<template.length()){
+			int open=template.indexOf('{',start);
+			if (open<0){
+				types.add(LITERAL);
+				texts.add(template.substring(start));
+				break;
+			}
+			if (open>start){
+				types.add(LITERAL);
+				texts.add(template.substring(start,open));
+			}
+			int close=template.indexOf('}',open);
+			if (close<0)
+				throw new IllegalArgumentException("Unclosed placeholder in "+template);
+			String name=template.substring(open+1,close);
+			int type;
+			if (name.equals("z"))
+				type=ZOOM;
+			else if (name.equals("x"))
+				type=TILE_X;
+			else if (name.equals("y"))
+				type=TILE_Y;
+			else if (name.equals("q") || name.equals("quadkey"))
+				type=QUADKEY;
+			else if (name.equals("s") || name.equals("subdomain")){
+				type=SUBDOMAIN;
+				if (this.subdomains.length==0)
+					throw new IllegalArgumentException("No subdomains for {"+name+"} in "+template);
+			}
+			else
+				throw new IllegalArgumentException("Unknown placeholder {"+name+"} in "+template);
+			types.add(type);
+			texts.add(null);
+			start=close+1;
+		}
+		partTypes=new int[types.size()];
+		for (int i=0;i<partTypes.length;i++)
+			partTypes[i]=types.get(i);
+		literals=texts.toArray(new String[texts.size()]);
+	}
+
+	/** Makes the URL of a tile
+	 *
+	 * @param zoom  Zoom level
+	 * @param tileX  Tile column
+	 * @param tileY  Tile row
+	 * @return the URL
+	 */
+	String expand(int zoom,int tileX,int tileY){
+		StringBuilder builder=builders.get();
+		builder.setLength(0);
+		for (int i=0;i<partTypes.length;i++){
+			switch (partTypes[i]){
+			case LITERAL:
+				builder.append(literals[i]);
+				break;
+			case ZOOM:
+				builder.append(zoom);
+				break;
+			case TILE_X:
+				builder.append(tileX);
+				break;
+			case TILE_Y:
+				builder.append(tileY);
+				break;
+			case QUADKEY:
+				for (int level=zoom;level>0;level--){
+					int mask=1<<(level-1);
+					builder.append((char)('0'+((tileX&mask)!=0?1:0)+((tileY&mask)!=0?2:0)));
+				}
+				break;
+			case SUBDOMAIN:
+				builder.append(subdomains[((tileX+tileY)&0x7fffffff)%subdomains.length]);
+				break;
+			}
+		}
+		return builder.toString();
+	}
+
+	public String toString(){
+		return template;
+	}
+}
@@ -0,0 +1,128 @@
+package org.gicentre.utils.slippymap;
+
+//****************************************************************************************
+/** A tile source made from a URL template, such as
+ * http://{s}.tile.openstreetmap.org/{z}/{x}/{y}.png. The template can contain {z} (zoom
+ * level), {x} and {y} (tile column and row), {q} (Bing-style quadkey) and {s} (one of the
+ * subdomains given, chosen from the tile position so that each tile always has the same URL).
+ * The template is compiled when the source is created, so making a URL only allocates the
+ * resulting string.
+ *
+ * Set limits with the setters before registering the source (see
+ * SlippyMap.registerTileSource()).
+ *
+* @author Aidan Slingsby, giCentre, City University London.
+* @version 1.0, August 2011
+*/
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class UrlTemplateTileSource implements TileSource {
+
+	private final String name;
+	private final String attribution;
+	private final UrlTemplate urlTemplate;
+	private final UrlTemplate cacheFileTemplate;
+	private int maxZoom=18;
+	private int tileSize=BaseMapProvider.NATIVE_TILE_SIZE;
+	private int maxConnections=0;
+	private double maxRequestsPerSecond=0;
+
+	/** Constructor
+	 *
+	 * @param name  Name of the source, used in cache file names (e.g. osm-mapnik)
+	 * @param urlTemplate  URL template
+	 * @param attribution  Copyright statement drawn on the map (can be null)
+	 * @param subdomains  Subdomains for {s} (if there is one)
+	 * @throws IllegalArgumentException if the template has an unknown placeholder or has {s}
+	 * without subdomains
+	 */
+	public UrlTemplateTileSource(String name,String urlTemplate,String attribution,String... subdomains){
+		this.name=name;
+		this.attribution=attribution;
+		this.urlTemplate=new UrlTemplate(urlTemplate,subdomains);
+		this.cacheFileTemplate=new UrlTemplate(name+"-{x}-{y}-{z}.png",null);
+	}
+
+	/** Sets the most detailed zoom level there are tiles for (default 18)
+	 *
+	 * @param maxZoom
+	 */
+	public void setMaxZoom(int maxZoom){
+		this.maxZoom=maxZoom;
+	}
+
+	/** Sets the width and height of tiles in pixels (default 256)
+	 *
+	 * @param tileSize
+	 */
+	public void setTileSize(int tileSize){
+		this.tileSize=tileSize;
+	}
+
+	/** Sets the maximum number of downloads at the same time from each host (default 0,
+	 * which uses the default for the host)
+	 *
+	 * @param maxConnections
+	 */
+	public void setMaxConnections(int maxConnections){
+		this.maxConnections=maxConnections;
+	}
+
+	/** Sets the maximum number of requests each second to each host (default 0, for no limit)
+	 *
+	 * @param maxRequestsPerSecond
+	 */
+	public void setMaxRequestsPerSecond(double maxRequestsPerSecond){
+		this.maxRequestsPerSecond=maxRequestsPerSecond;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public String getTileUrl(int zoom,int tileX,int tileY){
+		return urlTemplate.expand(zoom,tileX,tileY);
+	}
+
+	public String getCacheFileName(int zoom,int tileX,int tileY){
+		return cacheFileTemplate.expand(zoom,tileX,tileY);
+	}
+
+	public int getMaxZoom(){
+		return maxZoom;
+	}
+
+	public int getTileSize(){
+		return tileSize;
+	}
+
+	public int getMaxConnections(){
+		return maxConnections;
+	}
+
+	public double getMaxRequestsPerSecond(){
+		return maxRequestsPerSecond;
+	}
+
+	public String getAttribution(){
+		return attribution;
+	}
+
+	public String toString(){
+		return name+" ("+urlTemplate+")";
+	}
+}
@@ -0,0 +1,348 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Rectangle;
+import java.nio.FloatBuffer;
+
+import org.gicentre.utils.move.ZoomPanState;
+
+import processing.core.PVector;
+
+//****************************************************************************************
+/** Immutable transformation from Mercator/tile coordinates to screen coordinates for a
+ * single frame.
+ *
+ * Tile edges are linear in Mercator space and the unzoomed map and ZoomPan are both
+ * linear transformations, so the whole chain collapses to a scale and an offset in each
+ * direction. This is worked out once per frame (in SlippyMap.draw()) so that placing a
+ * tile on the screen costs a few multiplications instead of calls to pow(), exp(), atan(),
+ * log(), tan() and ZoomPanState.getCoordToDisp().
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class ViewTransform {
+
+	static private final double TWO_PI=2*Math.PI;
+	static private final double RAD_TO_DEG=180/Math.PI;
+	static private final double[] INV_POW2=new double[32]; //1/2^zoom lookup
+	static{
+		for (int i=0;i<INV_POW2.length;i++)
+			INV_POW2[i]=1.0/(1L<<i);
+	}
+
+	final Rectangle screenBounds;
+	final double minMercY,maxMercY; //extent of the map (see Mercator)
+
+	//unzoomed map coordinate = merc*mapScale + mapOffset
+	final double mapScaleX,mapOffsetX;
+	final double mapScaleY,mapOffsetY;
+
+	//screen coordinate = map coordinate*zoomScale + panOffset
+	final double zoomScaleX,panOffsetX;
+	final double zoomScaleY,panOffsetY;
+
+	//screen coordinate = merc*scale + offset (the two above, combined)
+	final double scaleX,offsetX;
+	final double scaleY,offsetY;
+
+	/** Constructor
+	 *
+	 * @param screenBounds  The screen bounds of the map
+	 * @param zoomPanState  The zoom/pan state for this frame (or null if not zoomed or panned)
+	 * @param tileExtents  Whether the map's extents are those of the tiles (see Mercator), as
+	 * when snapping to native resolution
+	 */
+	ViewTransform(Rectangle screenBounds,ZoomPanState zoomPanState,boolean tileExtents){
+		this.screenBounds=screenBounds;
+
+		//Mercator->map, as in SlippyMap.getMapCoordFromLonLat()
+		//use width for y because need assume tiles are square - we can always use width
+		minMercY=tileExtents?Mercator.MIN_TILE_MERC:Mercator.MIN_MERC_Y;
+		maxMercY=tileExtents?Mercator.MAX_TILE_MERC:Mercator.MAX_MERC_Y;
+		double minMercX=tileExtents?Mercator.MIN_TILE_MERC:Mercator.MIN_MERC_X;
+		double maxMercX=tileExtents?Mercator.MAX_TILE_MERC:Mercator.MAX_MERC_X;
+		mapScaleX=screenBounds.width/(maxMercX-minMercX);
+		mapOffsetX=screenBounds.x-minMercX*mapScaleX;
+		mapScaleY=-screenBounds.width/(maxMercY-minMercY);
+		mapOffsetY=screenBounds.y+screenBounds.width-minMercY*mapScaleY;
+
+		//map->screen. ZoomPan only scales and translates, so two points are enough. These are
+		//far apart so that float rounding in ZoomPanState has little effect
+		if (zoomPanState==null){
+			zoomScaleX=1;
+			zoomScaleY=1;
+			panOffsetX=0;
+			panOffsetY=0;
+		}
+		else{
+			float x1=screenBounds.x;
+			float y1=screenBounds.y;
+			float x2=screenBounds.x+screenBounds.width;
+			float y2=screenBounds.y+screenBounds.width;
+			PVector p1=zoomPanState.getCoordToDisp(new PVector(x1,y1));
+			PVector p2=zoomPanState.getCoordToDisp(new PVector(x2,y2));
+			zoomScaleX=(p2.x-(double)p1.x)/(x2-x1);
+			zoomScaleY=(p2.y-(double)p1.y)/(y2-y1);
+			panOffsetX=p1.x-x1*zoomScaleX;
+			panOffsetY=p1.y-y1*zoomScaleY;
+		}
+
+		scaleX=mapScaleX*zoomScaleX;
+		offsetX=mapOffsetX*zoomScaleX+panOffsetX;
+		scaleY=mapScaleY*zoomScaleY;
+		offsetY=mapOffsetY*zoomScaleY+panOffsetY;
+	}
+
+	/** Constructor for a zoom/pan given as a scale and offset (as in ZoomPanState), for
+	 * drawing without ZoomPan (e.g. when testing)
+	 *
+	 * @param screenBounds  The screen bounds of the map
+	 * @param zoomScale  Zoom scale
+	 * @param panOffsetX  Pan offset in x
+	 * @param panOffsetY  Pan offset in y
+	 */
+	ViewTransform(Rectangle screenBounds,double zoomScale,double panOffsetX,double panOffsetY){
+		this(screenBounds,zoomScale,panOffsetX,panOffsetY,false);
+	}
+
+	/** Constructor for a zoom/pan given as a scale and offset (as in ZoomPanState), for
+	 * drawing without ZoomPan (e.g. when testing)
+	 *
+	 * @param screenBounds  The screen bounds of the map
+	 * @param zoomScale  Zoom scale
+	 * @param panOffsetX  Pan offset in x
+	 * @param panOffsetY  Pan offset in y
+	 * @param tileExtents  Whether the map's extents are those of the tiles (see Mercator)
+	 */
+	ViewTransform(Rectangle screenBounds,double zoomScale,double panOffsetX,double panOffsetY,boolean tileExtents){
+		this.screenBounds=screenBounds;
+		minMercY=tileExtents?Mercator.MIN_TILE_MERC:Mercator.MIN_MERC_Y;
+		maxMercY=tileExtents?Mercator.MAX_TILE_MERC:Mercator.MAX_MERC_Y;
+		double minMercX=tileExtents?Mercator.MIN_TILE_MERC:Mercator.MIN_MERC_X;
+		double maxMercX=tileExtents?Mercator.MAX_TILE_MERC:Mercator.MAX_MERC_X;
+		mapScaleX=screenBounds.width/(maxMercX-minMercX);
+		mapOffsetX=screenBounds.x-minMercX*mapScaleX;
+		mapScaleY=-screenBounds.width/(maxMercY-minMercY);
+		mapOffsetY=screenBounds.y+screenBounds.width-minMercY*mapScaleY;
+		zoomScaleX=zoomScale;
+		zoomScaleY=zoomScale;
+		this.panOffsetX=panOffsetX;
+		this.panOffsetY=panOffsetY;
+		scaleX=mapScaleX*zoomScaleX;
+		offsetX=mapOffsetX*zoomScaleX+panOffsetX;
+		scaleY=mapScaleY*zoomScaleY;
+		offsetY=mapOffsetY*zoomScaleY+panOffsetY;
+	}
+
+	/** Constructor for a copy of a transformation, moved on the screen
+	 *
+	 * @param viewTransform  The transformation to copy
+	 * @param dx  Distance to move in x
+	 * @param dy  Distance to move in y
+	 */
+	private ViewTransform(ViewTransform viewTransform,int dx,int dy){
+		Rectangle screenBounds=new Rectangle(viewTransform.screenBounds);
+		screenBounds.translate(dx,dy);
+		this.screenBounds=screenBounds;
+		minMercY=viewTransform.minMercY;
+		maxMercY=viewTransform.maxMercY;
+		mapScaleX=viewTransform.mapScaleX;
+		mapOffsetX=viewTransform.mapOffsetX;
+		mapScaleY=viewTransform.mapScaleY;
+		mapOffsetY=viewTransform.mapOffsetY;
+		zoomScaleX=viewTransform.zoomScaleX;
+		zoomScaleY=viewTransform.zoomScaleY;
+		panOffsetX=viewTransform.panOffsetX+dx;
+		panOffsetY=viewTransform.panOffsetY+dy;
+		scaleX=viewTransform.scaleX;
+		offsetX=viewTransform.offsetX+dx;
+		scaleY=viewTransform.scaleY;
+		offsetY=viewTransform.offsetY+dy;
+	}
+
+	/** Gets the same transformation, but moved on the screen. Used to draw into an offscreen
+	 * buffer whose top left is at the top left of the map.
+	 *
+	 * @param dx  Distance to move in x
+	 * @param dy  Distance to move in y
+	 * @return The moved transformation
+	 */
+	ViewTransform translated(int dx,int dy){
+		return new ViewTransform(this,dx,dy);
+	}
+
+	/** Screen x of the left edge of a tile
+	 *
+	 * @param tileX  Tile x
+	 * @param zoom  Zoom level
+	 * @return screen x
+	 */
+	double tileXToScreenX(int tileX,int zoom){
+		return (TWO_PI*tileX*INV_POW2[zoom]-Math.PI)*scaleX+offsetX;
+	}
+
+	/** Screen y of the top edge of a tile
+	 *
+	 * @param tileY  Tile y
+	 * @param zoom  Zoom level
+	 * @return screen y
+	 */
+	double tileYToScreenY(int tileY,int zoom){
+		double mercY=Math.PI-TWO_PI*tileY*INV_POW2[zoom];
+		//clip to the extent of the map
+		if (mercY>maxMercY)
+			mercY=maxMercY;
+		else if (mercY<minMercY)
+			mercY=minMercY;
+		return mercY*scaleY+offsetY;
+	}
+
+	/** Width of a tile on the screen at the specified zoom level
+	 *
+	 * @param zoom  Zoom level
+	 * @return width in pixels
+	 */
+	double tileScreenWidth(int zoom){
+		return TWO_PI*INV_POW2[zoom]*scaleX;
+	}
+
+	/** Converts longitude to screen x
+	 *
+	 * @param lon  Longitude
+	 * @return screen x
+	 */
+	double lonToScreenX(double lon){
+		return Mercator.lonToMercX(lon)*scaleX+offsetX;
+	}
+
+	/** Converts latitude to screen y
+	 *
+	 * @param lat  Latitude
+	 * @return screen y
+	 */
+	double latToScreenY(double lat){
+		return Mercator.latToMercY(lat)*scaleY+offsetY;
+	}
+
+	/** Converts longitude to unzoomed/unpanned map x
+	 *
+	 * @param lon  Longitude
+	 * @return map x
+	 */
+	double lonToMapX(double lon){
+		return Mercator.lonToMercX(lon)*mapScaleX+mapOffsetX;
+	}
+
+	/** Converts latitude to unzoomed/unpanned map y
+	 *
+	 * @param lat  Latitude
+	 * @return map y
+	 */
+	double latToMapY(double lat){
+		return Mercator.latToMercY(lat)*mapScaleY+mapOffsetY;
+	}
+
+	/** Converts screen x to longitude
+	 *
+	 * @param x  Screen x
+	 * @return longitude
+	 */
+	double screenXToLon(double x){
+		return ((x-offsetX)/scaleX)*RAD_TO_DEG;
+	}
+
+	/** Converts screen y to latitude
+	 *
+	 * @param y  Screen y
+	 * @return latitude
+	 */
+	double screenYToLat(double y){
+		return Math.toDegrees(Math.atan(Math.sinh((y-offsetY)/scaleY)));
+	}
+
+	/** Converts a range of lon/lats to screen coordinates (or unzoomed/unpanned map coordinates)
+	 *
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param xs  Array to write the x coordinates into
+	 * @param ys  Array to write the y coordinates into
+	 * @param from  First index to convert
+	 * @param to  Index after the last one to convert
+	 * @param toScreen  Whether to convert to screen (true) or map (false) coordinates
+	 */
+	void lonLatToXY(float[] lons,float[] lats,float[] xs,float[] ys,int from,int to,boolean toScreen){
+		double sx=toScreen?scaleX:mapScaleX;
+		double ox=toScreen?offsetX:mapOffsetX;
+		double sy=toScreen?scaleY:mapScaleY;
+		double oy=toScreen?offsetY:mapOffsetY;
+		for (int i=from;i<to;i++){
+			xs[i]=(float)(Mercator.lonToMercX(lons[i])*sx+ox);
+			ys[i]=(float)(Mercator.latToMercY(lats[i])*sy+oy);
+		}
+	}
+
+	/** Converts a range of lon/lats to screen coordinates (or unzoomed/unpanned map coordinates)
+	 *
+	 * @param lons  Longitudes
+	 * @param lats  Latitudes
+	 * @param xs  Array to write the x coordinates into
+	 * @param ys  Array to write the y coordinates into
+	 * @param from  First index to convert
+	 * @param to  Index after the last one to convert
+	 * @param toScreen  Whether to convert to screen (true) or map (false) coordinates
+	 */
+	void lonLatToXY(double[] lons,double[] lats,double[] xs,double[] ys,int from,int to,boolean toScreen){
+		double sx=toScreen?scaleX:mapScaleX;
+		double ox=toScreen?offsetX:mapOffsetX;
+		double sy=toScreen?scaleY:mapScaleY;
+		double oy=toScreen?offsetY:mapOffsetY;
+		for (int i=from;i<to;i++){
+			xs[i]=Mercator.lonToMercX(lons[i])*sx+ox;
+			ys[i]=Mercator.latToMercY(lats[i])*sy+oy;
+		}
+	}
+
+	/** Converts a range of interleaved lon/lats to interleaved screen coordinates (or 
+	 * unzoomed/unpanned map coordinates). Uses absolute gets and puts, so buffer positions
+	 * are not changed.
+	 *
+	 * @param lonLats  Interleaved lon/lats
+	 * @param lonLatsStart  Index in lonLats of the first point
+	 * @param xys  Buffer to write interleaved x/y coordinates into
+	 * @param xysStart  Index in xys of the first point
+	 * @param from  First point to convert
+	 * @param to  Point after the last one to convert
+	 * @param toScreen  Whether to convert to screen (true) or map (false) coordinates
+	 */
+	void lonLatToXY(FloatBuffer lonLats,int lonLatsStart,FloatBuffer xys,int xysStart,int from,int to,boolean toScreen){
+		double sx=toScreen?scaleX:mapScaleX;
+		double ox=toScreen?offsetX:mapOffsetX;
+		double sy=toScreen?scaleY:mapScaleY;
+		double oy=toScreen?offsetY:mapOffsetY;
+		for (int i=from;i<to;i++){
+			int in=lonLatsStart+2*i;
+			int out=xysStart+2*i;
+			xys.put(out,(float)(Mercator.lonToMercX(lonLats.get(in))*sx+ox));
+			xys.put(out+1,(float)(Mercator.latToMercY(lonLats.get(in+1))*sy+oy));
+		}
+	}
+}
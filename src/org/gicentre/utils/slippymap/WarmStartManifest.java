@@ -0,0 +1,140 @@
+package org.gicentre.utils.slippymap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+//****************************************************************************************
+/** The tiles that were in the in-memory cache and the viewport when a map was disposed, so
+ * that the next time the map is created these tiles can be loaded from the disk cache before
+ * the first frame. It is a small text file in the disk cache directory: a header line, a line
+ * with the viewport and the cache file names of the tiles, least recently used first.
+ *
+ * Only intended to be used by SlippyMap - hence Class and all methods have only
+ * package-wide visibility
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class WarmStartManifest {
+
+	static final String FILENAME="warmstart.txt"; //in the disk cache directory
+	static private final String HEADER="slippymap-warmstart 1";
+
+	private LonLatBounds viewPort; //can be null
+	private List<String> cacheFilenames;
+
+	/** Constructor
+	 *
+	 * @param viewPort  The last viewport (or null if the map was not drawn)
+	 * @param cacheFilenames  Cache file names of the tiles, least recently used first
+	 */
+	WarmStartManifest(LonLatBounds viewPort,List<String> cacheFilenames){
+		this.viewPort=viewPort;
+		this.cacheFilenames=cacheFilenames;
+	}
+
+	LonLatBounds getViewPort(){
+		return viewPort;
+	}
+
+	List<String> getCacheFilenames(){
+		return cacheFilenames;
+	}
+
+	/** Writes the manifest. It is written to a temporary file first, so that a map being
+	 * created at the same time never reads half a manifest
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	void write(File file) throws IOException{
+		File tempFile=new File(file.getPath()+".tmp");
+		PrintWriter writer=new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempFile),"UTF-8"));
+		try{
+			writer.println(HEADER);
+			if (viewPort!=null)
+				writer.println("viewport "+viewPort.getMinX()+" "+viewPort.getMinY()+" "+viewPort.getMaxX()+" "+viewPort.getMaxY());
+			else
+				writer.println("viewport");
+			for (String cacheFilename:cacheFilenames)
+				writer.println(cacheFilename);
+		}
+		finally{
+			writer.close();
+		}
+		if (writer.checkError())
+			throw new IOException("Could not write "+tempFile);
+		file.delete();
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename "+tempFile+" to "+file);
+	}
+
+	/** Reads a manifest
+	 *
+	 * @param file
+	 * @return the manifest, or null if there is none or it cannot be read
+	 */
+	static WarmStartManifest read(File file){
+		if (!file.exists())
+			return null;
+		BufferedReader reader=null;
+		try{
+			reader=new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF-8"));
+			if (!HEADER.equals(reader.readLine()))
+				return null;
+			String line=reader.readLine();
+			if (line==null || !line.startsWith("viewport"))
+				return null;
+			LonLatBounds viewPort=null;
+			String[] tokens=line.trim().split(" ");
+			if (tokens.length==5)
+				viewPort=new LonLatBounds(Double.parseDouble(tokens[1]),Double.parseDouble(tokens[2]),
+						Double.parseDouble(tokens[3]),Double.parseDouble(tokens[4]));
+			List<String> cacheFilenames=new ArrayList<String>();
+			while ((line=reader.readLine())!=null){
+				//only plain file names, so that nothing outside the cache directory is read
+				if (line.length()>0 && line.indexOf('/')<0 && line.indexOf('\\')<0 && !line.startsWith("."))
+					cacheFilenames.add(line);
+			}
+			return new WarmStartManifest(viewPort,cacheFilenames);
+		}
+		catch (Exception e){
+			//silently handle - the map starts cold
+			return null;
+		}
+		finally{
+			if (reader!=null){
+				try{
+					reader.close();
+				}
+				catch (IOException e){
+					//silently handle
+				}
+			}
+		}
+	}
+}
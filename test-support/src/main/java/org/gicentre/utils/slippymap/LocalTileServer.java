@@ -0,0 +1,386 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.Collection;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+//****************************************************************************************
+/** A tile server on localhost that stands in for OpenStreetMap and Bing, so that tile
+ * fetching can be tested without using their servers. It is used as SlippyMap's passthrough
+ * URL (see SlippyMap.useInUnsignedApplet()), so the tile URL arrives as the url parameter.
+ * URLs ending in .png get a PNG tile and those ending in .jpeg or .jpg get a JPEG tile. The
+ * tiles are made-up images. Anything else (e.g. the Bing metadata) gets a 404.
+ *
+ * Responses can be delayed (latency plus or minus a random jitter), fail at random (with a
+ * 500) and be sent at a limited bandwidth. Particular tiles can be made slow or missing (a
+ * 404). These can be changed while it is running.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class LocalTileServer {
+
+	static private final int NUM_TILE_IMAGES=16; //different tile images of each type
+	static private final int CHUNK_SIZE=4096; //bytes written at a time when bandwidth is limited
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private byte[][] pngTiles=new byte[NUM_TILE_IMAGES][];
+	private byte[][] jpegTiles=new byte[NUM_TILE_IMAGES][];
+
+	private volatile int latencyMillis=0;
+	private volatile int jitterMillis=0;
+	private volatile double errorRate=0;
+	private volatile long bytesPerSecond=0; //per request. 0 for no limit
+	private volatile Pattern slowTiles; //tile URLs that are delayed by slowTileMillis (null for none)
+	private volatile int slowTileMillis=0;
+	private volatile Pattern missingTiles; //tile URLs that get a 404 (null for none)
+
+	private AtomicInteger numRequests=new AtomicInteger();
+	private AtomicInteger numErrors=new AtomicInteger();
+	private LongAdder bytesSent=new LongAdder();
+	private ConcurrentHashMap<String, AtomicInteger> downloads=new ConcurrentHashMap<String, AtomicInteger>(); //times each tile URL has been sent
+	private Set<String> requestedTiles=ConcurrentHashMap.newKeySet(); //tile URLs requested (whether or not they were sent)
+	private ConcurrentLinkedQueue<String> sentTiles=new ConcurrentLinkedQueue<String>(); //tile URLs sent and not yet taken with takeSentTiles()
+
+	/** Constructor. Makes the tile images (call start() to start serving them)
+	 *
+	 */
+	public LocalTileServer(){
+		Random random=new Random(1);
+		for (int i=0;i<NUM_TILE_IMAGES;i++){
+			BufferedImage image=makeTileImage(random);
+			pngTiles[i]=encode(image,"png");
+			jpegTiles[i]=encode(image,"jpeg");
+		}
+	}
+
+	/** Starts the server on a free port
+	 *
+	 * @throws IOException if it cannot be started
+	 */
+	public void start() throws IOException{
+		server=HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+		server.createContext("/",new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException{
+				try{
+					respond(exchange);
+				}
+				finally{
+					exchange.close();
+				}
+			}
+		});
+		executor=Executors.newCachedThreadPool(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread thread=new Thread(r,"LocalTileServer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/** Stops the server
+	 *
+	 */
+	public void stop(){
+		if (server!=null){
+			server.stop(0);
+			executor.shutdownNow();
+			server=null;
+		}
+	}
+
+	/** Gets the URL to give to SlippyMap.useInUnsignedApplet()
+	 *
+	 * @return the URL
+	 */
+	public String getPassThroughURL(){
+		return "http://127.0.0.1:"+server.getAddress().getPort()+"/tile";
+	}
+
+	/** Sets the time taken to start responding
+	 *
+	 * @param latencyMillis  Latency in milliseconds
+	 */
+	public void setLatency(int latencyMillis){
+		this.latencyMillis=latencyMillis;
+	}
+
+	/** Sets the random variation in latency. Each response is delayed by the latency plus or
+	 * minus up to this
+	 *
+	 * @param jitterMillis  Jitter in milliseconds
+	 */
+	public void setJitter(int jitterMillis){
+		this.jitterMillis=jitterMillis;
+	}
+
+	/** Sets the fraction of tile requests that fail (with a 500)
+	 *
+	 * @param errorRate  Fraction of requests (0-1)
+	 */
+	public void setErrorRate(double errorRate){
+		this.errorRate=errorRate;
+	}
+
+	/** Sets the rate each tile is sent at
+	 *
+	 * @param bytesPerSecond  Bandwidth per request in bytes per second (0 for no limit)
+	 */
+	public void setBandwidth(long bytesPerSecond){
+		this.bytesPerSecond=bytesPerSecond;
+	}
+
+	/** Sets tiles that take longer to send, in addition to the latency
+	 *
+	 * @param tileUrlRegex  Regular expression matching the whole tile URL (null for none)
+	 * @param delayMillis  Extra delay in milliseconds
+	 */
+	public void setSlowTiles(String tileUrlRegex,int delayMillis){
+		slowTileMillis=delayMillis;
+		slowTiles=tileUrlRegex==null?null:Pattern.compile(tileUrlRegex);
+	}
+
+	/** Sets tiles that the server does not have (they get a 404)
+	 *
+	 * @param tileUrlRegex  Regular expression matching the whole tile URL (null for none)
+	 */
+	public void setMissingTiles(String tileUrlRegex){
+		missingTiles=tileUrlRegex==null?null:Pattern.compile(tileUrlRegex);
+	}
+
+	/** Whether a tile has been requested (whether or not it was sent)
+	 *
+	 * @param tileUrlPart  Part of the tile URL, e.g. "/10/3/4."
+	 * @return true if the URL of a requested tile contains it
+	 */
+	public boolean wasRequested(String tileUrlPart){
+		for (String tileUrl:requestedTiles)
+			if (tileUrl.contains(tileUrlPart))
+				return true;
+		return false;
+	}
+
+	/** Number of requests received (including failed and non-tile requests) */
+	public int getNumRequests(){
+		return numRequests.get();
+	}
+
+	/** Number of requests that were deliberately failed */
+	public int getNumErrors(){
+		return numErrors.get();
+	}
+
+	/** Number of tile bytes sent */
+	public long getBytesSent(){
+		return bytesSent.sum();
+	}
+
+	/** Number of times a tile URL has been sent */
+	public int getNumDownloads(String tileUrl){
+		AtomicInteger count=downloads.get(tileUrl);
+		return count==null?0:count.get();
+	}
+
+	/** Takes the URLs of the tiles sent since this was last called
+	 *
+	 * @param tileUrls  Collection to add the URLs to
+	 * @return the number added
+	 */
+	public int takeSentTiles(Collection<String> tileUrls){
+		int n=0;
+		String tileUrl;
+		while ((tileUrl=sentTiles.poll())!=null){
+			tileUrls.add(tileUrl);
+			n++;
+		}
+		return n;
+	}
+
+	/** Responds to a request
+	 *
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void respond(HttpExchange exchange) throws IOException{
+		numRequests.incrementAndGet();
+		String tileUrl=getTileUrl(exchange.getRequestURI());
+		String path=URI.create(tileUrl).getPath();
+		byte[][] tiles=null;
+		String contentType=null;
+		if (path!=null && path.endsWith(".png")){
+			tiles=pngTiles;
+			contentType="image/png";
+		}
+		else if (path!=null && (path.endsWith(".jpeg") || path.endsWith(".jpg"))){
+			tiles=jpegTiles;
+			contentType="image/jpeg";
+		}
+		if (tiles==null){
+			exchange.sendResponseHeaders(404,-1);
+			return;
+		}
+		requestedTiles.add(tileUrl);
+
+		ThreadLocalRandom random=ThreadLocalRandom.current();
+		int jitter=jitterMillis;
+		long delay=latencyMillis+(jitter>0?random.nextInt(-jitter,jitter+1):0);
+		Pattern slow=slowTiles;
+		if (slow!=null && slow.matcher(tileUrl).matches())
+			delay+=slowTileMillis;
+		if (delay>0){
+			try{
+				Thread.sleep(delay);
+			}
+			catch (InterruptedException e){
+				return;
+			}
+		}
+		Pattern missing=missingTiles;
+		if (missing!=null && missing.matcher(tileUrl).matches()){
+			exchange.sendResponseHeaders(404,-1);
+			return;
+		}
+		if (random.nextDouble()<errorRate){
+			numErrors.incrementAndGet();
+			exchange.sendResponseHeaders(500,-1);
+			return;
+		}
+
+		byte[] tile=tiles[Math.floorMod(tileUrl.hashCode(),NUM_TILE_IMAGES)];
+		exchange.getResponseHeaders().set("Content-Type",contentType);
+		exchange.sendResponseHeaders(200,tile.length);
+		OutputStream out=exchange.getResponseBody();
+		long limit=bytesPerSecond;
+		if (limit<=0){
+			out.write(tile);
+		}
+		else{
+			//send in chunks, waiting so as not to exceed the bandwidth
+			long start=System.nanoTime();
+			for (int sent=0;sent<tile.length;sent+=CHUNK_SIZE){
+				int length=Math.min(CHUNK_SIZE,tile.length-sent);
+				out.write(tile,sent,length);
+				out.flush();
+				long due=start+(sent+length)*1000000000L/limit;
+				long wait=due-System.nanoTime();
+				if (wait>0){
+					try{
+						Thread.sleep(wait/1000000,(int)(wait%1000000));
+					}
+					catch (InterruptedException e){
+						return;
+					}
+				}
+			}
+		}
+		out.close();
+		bytesSent.add(tile.length);
+		AtomicInteger count=downloads.get(tileUrl);
+		if (count==null){
+			AtomicInteger newCount=new AtomicInteger();
+			count=downloads.putIfAbsent(tileUrl,newCount);
+			if (count==null)
+				count=newCount;
+		}
+		count.incrementAndGet();
+		sentTiles.add(tileUrl);
+	}
+
+	/** Gets the tile URL from a passthrough request (or the request itself if it is not one)
+	 *
+	 * @param requestUri
+	 * @return the tile URL
+	 */
+	private static String getTileUrl(URI requestUri){
+		String query=requestUri.getRawQuery();
+		if (query!=null){
+			for (String parameter:query.split("&")){
+				if (parameter.startsWith("url=")){
+					try{
+						return URLDecoder.decode(parameter.substring(4),"UTF-8");
+					}
+					catch (IOException e){
+						//fall through
+					}
+				}
+			}
+		}
+		return requestUri.toString();
+	}
+
+	/** Makes a map-like tile image: background, roads and blocks
+	 *
+	 * @param random
+	 * @return the image
+	 */
+	private static BufferedImage makeTileImage(Random random){
+		BufferedImage image=new BufferedImage(256,256,BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2=image.createGraphics();
+		g2.setColor(new Color(242,239,233));
+		g2.fillRect(0,0,256,256);
+		for (int i=0;i<40;i++){
+			g2.setColor(new Color(200+random.nextInt(56),200+random.nextInt(56),180+random.nextInt(76)));
+			g2.fillRect(random.nextInt(256),random.nextInt(256),5+random.nextInt(30),5+random.nextInt(30));
+		}
+		g2.setColor(Color.WHITE);
+		for (int i=0;i<12;i++)
+			g2.drawLine(random.nextInt(256),random.nextInt(256),random.nextInt(256),random.nextInt(256));
+		g2.dispose();
+		return image;
+	}
+
+	private static byte[] encode(BufferedImage image,String format){
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		try{
+			ImageIO.write(image,format,out);
+		}
+		catch (IOException e){
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,168 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.Point;
+import java.util.Random;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks BingTileSystem's packed, array and batch conversions against the original
+ * conversions (from http://msdn.microsoft.com/en-us/library/bb259689.aspx), which are
+ * copied here because BingTileSystem's own Point methods now use the packed ones.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class BingTileSystemTest {
+
+	static private final int NUM_POINTS=2000;
+
+	/** The original lon/lat to pixel conversion
+	 */
+	private static Point legacyLonLatToPixelXY(double longitude,double latitude,int levelOfDetail){
+		latitude=BingTileSystem.clip(latitude,-85.05112878,85.05112878);
+		longitude=BingTileSystem.clip(longitude,-180,180);
+		double x=(longitude+180)/360;
+		double sinLatitude=Math.sin(latitude*Math.PI/180);
+		double y=0.5-Math.log((1+sinLatitude)/(1-sinLatitude))/(4*Math.PI);
+		int mapSize=256<<levelOfDetail;
+		int pixelX=(int)BingTileSystem.clip(x*mapSize+0.5,0,mapSize-1);
+		int pixelY=(int)BingTileSystem.clip(y*mapSize+0.5,0,mapSize-1);
+		return new Point(pixelX,pixelY);
+	}
+
+	/** The original tile to quadkey conversion
+	 */
+	private static String legacyTileXYToQuadKey(int tileX,int tileY,int levelOfDetail){
+		StringBuilder quadKey=new StringBuilder();
+		for (int i=levelOfDetail;i>0;i--){
+			char digit='0';
+			int mask=1<<(i-1);
+			if ((tileX&mask)!=0)
+				digit++;
+			if ((tileY&mask)!=0){
+				digit++;
+				digit++;
+			}
+			quadKey.append(digit);
+		}
+		return quadKey.toString();
+	}
+
+	@Test
+	public void conversionsMatchTheOriginalOnes(){
+		Random random=new Random(1);
+		int[] pixelXY=new int[2];
+		char[] quadKeyChars=new char[23];
+		for (int i=0;i<NUM_POINTS;i++){
+			//including beyond the latitude limits
+			double lon=random.nextDouble()*360-180;
+			double lat=random.nextDouble()*180-90;
+			int levelOfDetail=1+random.nextInt(22);
+
+			Point expectedPixel=legacyLonLatToPixelXY(lon,lat,levelOfDetail);
+			assertEquals(expectedPixel,BingTileSystem.lonLatToPixelXY(lon,lat,levelOfDetail));
+			long packedPixel=BingTileSystem.lonLatToPixelXYPacked(lon,lat,levelOfDetail);
+			assertEquals(expectedPixel,new Point(BingTileSystem.unpackX(packedPixel),BingTileSystem.unpackY(packedPixel)));
+			BingTileSystem.lonLatToPixelXY(lon,lat,levelOfDetail,pixelXY);
+			assertEquals(expectedPixel,new Point(pixelXY[0],pixelXY[1]));
+
+			Point expectedTile=new Point(expectedPixel.x/256,expectedPixel.y/256);
+			assertEquals(expectedTile,BingTileSystem.pixelXYToTileXY(expectedPixel.x,expectedPixel.y));
+			long packedTile=BingTileSystem.pixelXYToTileXYPacked(expectedPixel.x,expectedPixel.y);
+			assertEquals(expectedTile,new Point(BingTileSystem.unpackX(packedTile),BingTileSystem.unpackY(packedTile)));
+
+			String expectedQuadKey=legacyTileXYToQuadKey(expectedTile.x,expectedTile.y,levelOfDetail);
+			assertEquals(expectedQuadKey,BingTileSystem.tileXYToQuadKey(expectedTile.x,expectedTile.y,levelOfDetail));
+			int length=BingTileSystem.tileXYToQuadKey(expectedTile.x,expectedTile.y,levelOfDetail,quadKeyChars);
+			assertEquals(expectedQuadKey,new String(quadKeyChars,0,length));
+
+			//and back
+			assertEquals(expectedTile,BingTileSystem.quadKeyToTileXY(expectedQuadKey));
+			assertEquals(packedTile,BingTileSystem.quadKeyToTileXYPacked(expectedQuadKey));
+			assertEquals(new Point(expectedTile.x*256,expectedTile.y*256),BingTileSystem.tileXYToPixelXY(expectedTile.x,expectedTile.y));
+		}
+	}
+
+	@Test
+	public void batchConversionsMatchSingleOnes(){
+		Random random=new Random(2);
+		int levelOfDetail=15;
+		double[] lons=new double[NUM_POINTS];
+		double[] lats=new double[NUM_POINTS];
+		for (int i=0;i<NUM_POINTS;i++){
+			lons[i]=random.nextDouble()*360-180;
+			lats[i]=random.nextDouble()*170-85;
+		}
+		int[] pixelXs=new int[NUM_POINTS];
+		int[] pixelYs=new int[NUM_POINTS];
+		BingTileSystem.lonLatToPixelXY(lons,lats,levelOfDetail,pixelXs,pixelYs);
+		double[] pixelLons=new double[NUM_POINTS];
+		double[] pixelLats=new double[NUM_POINTS];
+		BingTileSystem.pixelXYToLonLat(pixelXs,pixelYs,levelOfDetail,pixelLons,pixelLats);
+		double[] lonLat=new double[2];
+		for (int i=0;i<NUM_POINTS;i++){
+			assertEquals(legacyLonLatToPixelXY(lons[i],lats[i],levelOfDetail),new Point(pixelXs[i],pixelYs[i]));
+			BingTileSystem.pixelXYToLonLat(pixelXs[i],pixelYs[i],levelOfDetail,lonLat);
+			assertEquals(lonLat[0],pixelLons[i],0);
+			assertEquals(lonLat[1],pixelLats[i],0);
+		}
+
+		int[] tileXs=new int[NUM_POINTS];
+		int[] tileYs=new int[NUM_POINTS];
+		BingTileSystem.pixelXYToTileXY(pixelXs,pixelYs,tileXs,tileYs);
+		int[] cornerXs=new int[NUM_POINTS];
+		int[] cornerYs=new int[NUM_POINTS];
+		BingTileSystem.tileXYToPixelXY(tileXs,tileYs,cornerXs,cornerYs);
+		for (int i=0;i<NUM_POINTS;i++){
+			assertEquals(BingTileSystem.pixelXYToTileXY(pixelXs[i],pixelYs[i]),new Point(tileXs[i],tileYs[i]));
+			assertEquals(BingTileSystem.tileXYToPixelXY(tileXs[i],tileYs[i]),new Point(cornerXs[i],cornerYs[i]));
+		}
+
+		//in place
+		BingTileSystem.pixelXYToTileXY(pixelXs,pixelYs,pixelXs,pixelYs);
+		assertArrayEquals(tileXs,pixelXs);
+		assertArrayEquals(tileYs,pixelYs);
+	}
+
+	@Test
+	public void quadKeysWithOtherDigitsAreRejected(){
+		assertEquals(new Point(3,5),BingTileSystem.quadKeyToTileXY("213")); //the example in the Bing documentation
+		for (String quadKey:new String[]{"214","2a3","21/","-13"}){
+			try{
+				BingTileSystem.quadKeyToTileXY(quadKey);
+				fail(quadKey);
+			}
+			catch (IllegalArgumentException e){
+				//expected
+			}
+			try{
+				BingTileSystem.quadKeyToTileXYPacked(quadKey);
+				fail(quadKey);
+			}
+			catch (IllegalArgumentException e){
+				//expected
+			}
+		}
+	}
+}
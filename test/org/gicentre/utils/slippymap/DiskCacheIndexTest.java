@@ -0,0 +1,93 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that the index of the disk cache knows which tiles are on disk as they are added
+ * and removed, and when it is built from the directory.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class DiskCacheIndexTest {
+
+	private TileSource tileSource=TileSourceRegistry.get("osm-mapnik");
+
+	@Test
+	public void everyTileMightBeOnDiskUntilBuilt(){
+		DiskCacheIndex index=new DiskCacheIndex(new File("missing"));
+		assertTrue(index.mightContain("a.png"));
+		index.build();
+		assertTrue(index.isReady());
+		assertFalse(index.mightContain("a.png"));
+	}
+
+	@Test
+	public void tilesAreAddedAndRemoved(){
+		DiskCacheIndex index=new DiskCacheIndex(new File("missing"));
+		index.build();
+		//enough to grow it several times
+		for (int tileX=0;tileX<100;tileX++)
+			for (int tileY=0;tileY<100;tileY++)
+				index.add(tileSource.getCacheFileName(14,tileX,tileY));
+		index.add(tileSource.getCacheFileName(14,0,0));
+		assertEquals(10000,index.size());
+		//remove every other one
+		for (int tileX=0;tileX<100;tileX++)
+			for (int tileY=0;tileY<100;tileY+=2)
+				index.remove(tileSource.getCacheFileName(14,tileX,tileY));
+		index.remove(tileSource.getCacheFileName(14,0,0));
+		assertEquals(5000,index.size());
+		for (int tileX=0;tileX<100;tileX++)
+			for (int tileY=0;tileY<100;tileY++)
+				assertEquals(tileY%2==1,index.mightContain(tileSource.getCacheFileName(14,tileX,tileY)));
+		assertFalse(index.mightContain(tileSource.getCacheFileName(15,0,1)));
+	}
+
+	@Test
+	public void indexIsBuiltFromTheDirectory() throws IOException{
+		File directory=Files.createTempDirectory("diskcacheindex").toFile();
+		String[] fileNames={tileSource.getCacheFileName(3,1,2),tileSource.getCacheFileName(3,2,2),"tile123.tmp"};
+		for (String fileName:fileNames)
+			new File(directory,fileName).createNewFile();
+		try{
+			DiskCacheIndex index=new DiskCacheIndex(directory);
+			index.add(tileSource.getCacheFileName(3,3,3)); //written while it is being built
+			index.build();
+			assertTrue(index.mightContain(fileNames[0]));
+			assertTrue(index.mightContain(fileNames[1]));
+			assertTrue(index.mightContain(tileSource.getCacheFileName(3,3,3)));
+			assertFalse(index.mightContain(fileNames[2]));
+			assertFalse(index.mightContain(tileSource.getCacheFileName(3,0,2)));
+		}
+		finally{
+			for (String fileName:fileNames)
+				new File(directory,fileName).delete();
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that tiles are read from the disk cache in the background, so that drawing only
+ * ever looks in memory, and that downloaded tiles are written to the disk cache. Tiles are
+ * downloaded from a LocalTileServer (used as the passthrough URL) and the disk cache is in a
+ * temporary directory.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class DiskCacheTest {
+
+	static private final long TIMEOUT=10; //seconds
+
+	private TempTileCache cache;
+	private LocalTileServer server;
+	private SlippyMap slippyMap;
+	private TileSource tileSource=TileSourceRegistry.get("osm-mapnik");
+
+	@Before
+	public void setUp() throws IOException{
+		System.setProperty("java.awt.headless","true");
+		cache=new TempTileCache();
+		server=new LocalTileServer();
+		server.start();
+		slippyMap=new SlippyMap(null,null,new Rectangle(0,0,1024,768),256,50);
+		cache.use(slippyMap);
+		slippyMap.tileRetriever.setPassThroughURL(server.getPassThroughURL()); //keeps the disk cache
+	}
+
+	@After
+	public void tearDown(){
+		slippyMap.dispose();
+		server.stop();
+		cache.delete();
+	}
+
+	private String getUrl(int zoom,int tileX,int tileY){
+		return slippyMap.tileRetriever.applyPassThroughURL(tileSource.getTileUrl(zoom,tileX,tileY));
+	}
+
+	@Test
+	public void tileOnDiskArrivesInTheBackground() throws Exception{
+		String cacheFilename=tileSource.getCacheFileName(5,10,11);
+		cache.writeTile(cacheFilename);
+		final CountDownLatch arrived=new CountDownLatch(1);
+		slippyMap.addSlippyMapListener(new SlippyMapListener(){
+			public void newTileAvailable(){
+				arrived.countDown();
+			}
+		});
+		TileRetriever tileRetriever=slippyMap.tileRetriever;
+		assertNull(tileRetriever.getTileImage(getUrl(5,10,11),cacheFilename,TileKey.key(5,10,11),false));
+		assertTrue(arrived.await(TIMEOUT,TimeUnit.SECONDS));
+		assertNotNull(tileRetriever.getTileImage(getUrl(5,10,11),cacheFilename,TileKey.key(5,10,11),false));
+		assertEquals(1,slippyMap.getMetrics().getDiskHits());
+		assertEquals(0,server.getNumRequests());
+	}
+
+	@Test
+	public void tileOnlyFromCacheIsNotDownloaded() throws Exception{
+		String cacheFilename=tileSource.getCacheFileName(5,10,12);
+		TileRetriever tileRetriever=slippyMap.tileRetriever;
+		assertNull(tileRetriever.getTileImage(getUrl(5,10,12),cacheFilename,TileKey.key(5,10,12),true));
+		assertNull(tileRetriever.getCachedTileImage(cacheFilename));
+		//a tile that is queued after it is read from disk
+		assertNotNull(tileRetriever.getTileImageAsync(getUrl(5,10,13),tileSource.getCacheFileName(5,10,13),TileKey.key(5,10,13)).get(TIMEOUT,TimeUnit.SECONDS));
+		assertEquals(1,server.getNumRequests());
+		assertNull(tileRetriever.getCachedTileImage(cacheFilename));
+	}
+
+	@Test
+	public void tileNotOnDiskIsDownloadedWithoutLookingForIt() throws Exception{
+		TileRetriever tileRetriever=slippyMap.tileRetriever;
+		DiskCacheIndex index=tileRetriever.getDiskCacheIndex();
+		for (int i=0;i<100 && !index.isReady();i++)
+			Thread.sleep(50);
+		assertTrue(index.isReady());
+		String cacheFilename=tileSource.getCacheFileName(5,10,14);
+		assertNull(tileRetriever.getTileImage(getUrl(5,10,14),cacheFilename,TileKey.key(5,10,14),false));
+		//known not to be on disk straight away, rather than after it has been looked for
+		assertEquals(1,slippyMap.getMetrics().getDiskMisses());
+		for (int i=0;i<100 && tileRetriever.getCachedTileImage(cacheFilename)==null;i++)
+			Thread.sleep(50);
+		assertEquals(1,server.getNumRequests());
+		//and is now known to be on disk
+		assertTrue(index.mightContain(cacheFilename));
+	}
+
+	@Test
+	public void tileBeingDownloadedIsOneDiskMiss() throws Exception{
+		server.setSlowTiles(".*/5/10/15\\.png",500);
+		TileRetriever tileRetriever=slippyMap.tileRetriever;
+		DiskCacheIndex index=tileRetriever.getDiskCacheIndex();
+		for (int i=0;i<100 && !index.isReady();i++)
+			Thread.sleep(50);
+		String cacheFilename=tileSource.getCacheFileName(5,10,15);
+		//wanted every frame while it downloads
+		for (int frame=0;frame<20;frame++){
+			assertNull(tileRetriever.getTileImage(getUrl(5,10,15),cacheFilename,TileKey.key(5,10,15),false));
+			Thread.sleep(10);
+		}
+		assertEquals(1,slippyMap.getMetrics().getDiskMisses());
+	}
+
+	@Test
+	public void downloadedTilesAreWrittenToDisk() throws Exception{
+		slippyMap.tileRetriever.setWorkerCount(4);
+		TileRetriever tileRetriever=slippyMap.tileRetriever;
+		for (int tileX=0;tileX<8;tileX++)
+			tileRetriever.getTileImageAsync(getUrl(5,tileX,1),tileSource.getCacheFileName(5,tileX,1),TileKey.key(5,tileX,1)).get(TIMEOUT,TimeUnit.SECONDS);
+		for (int tileX=0;tileX<8;tileX++)
+			assertTrue(cache.getFile(tileSource.getCacheFileName(5,tileX,1)).exists());
+		//no temporary files are left behind
+		assertEquals(8,cache.getDirectory().listFiles().length);
+	}
+}
@@ -0,0 +1,217 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+
+import org.gicentre.utils.slippymap.Bing.BingTileType;
+import org.junit.After;
+import org.junit.Test;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Checks that drawing a frame does not allocate more than a budget, so that allocation
+ * in the draw loop (and the GC pauses it causes) does not creep back.
+ *
+ * Each scenario draws frames of a 1024x768 map with the tiles it needs already in the
+ * in-memory cache (except the fallback scenario, where only tiles two zoom levels up are
+ * there) and measures the bytes allocated by the drawing thread per frame. Frames are drawn
+ * with SlippyMap.draw(ViewTransform,PGraphics), which draw(ZoomPanState,PGraphics) calls,
+ * because ZoomPanState needs a running sketch. Tiles are never fetched: the passthrough URL
+ * refuses connections.
+ *
+ * Budgets are about a third more than what was allocated when they were set. If a change makes a
+ * scenario exceed its budget, find the allocation rather than raising the budget.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class DrawAllocationTest {
+
+	static private final int WIDTH=1024;
+	static private final int HEIGHT=768;
+	static private final int TILE_SIZE=256;
+	static private final int ZOOM=12;
+	static private final int WARMUP_FRAMES=300;
+	static private final int MEASURED_FRAMES=200;
+	static private final double PAN_PER_FRAME=3; //pixels
+	static private final String NO_SERVER="http://127.0.0.1:1/";
+
+	//budgets in bytes per frame. Both providers plan frames with TileKeys in buffers kept from
+	//frame to frame, so most of what is left is the cache file names of the tiles looked up
+	//(and in the fallback scenarios, the URLs of the missing tiles, which are requested)
+	static private final long OSM_BUDGET=2200;
+	static private final long OSM_FALLBACK_BUDGET=34000;
+	static private final long BING_BUDGET=2300;
+	static private final long BING_FALLBACK_BUDGET=60000;
+
+	private final Rectangle screenBounds=new Rectangle(0,0,WIDTH,HEIGHT);
+	private final RecordingGraphics g=new RecordingGraphics(WIDTH,HEIGHT);
+	private SlippyMap slippyMap;
+	private double centreX,centreY; //view centre in unzoomed map coordinates
+
+	@After
+	public void tearDown(){
+		if (slippyMap!=null)
+			slippyMap.dispose();
+	}
+
+	@Test
+	public void osmStatic(){
+		assertWithinBudget("OSM static",drawFrames(SlippyMapType.OSM_MAPNIK,0,0,false),OSM_BUDGET);
+	}
+
+	@Test
+	public void osmPanning(){
+		assertWithinBudget("OSM panning",drawFrames(SlippyMapType.OSM_MAPNIK,PAN_PER_FRAME,0,false),OSM_BUDGET);
+	}
+
+	@Test
+	public void osmZooming(){
+		assertWithinBudget("OSM zooming",drawFrames(SlippyMapType.OSM_MAPNIK,0,1.0/MEASURED_FRAMES,false),OSM_BUDGET);
+	}
+
+	@Test
+	public void osmFallback(){
+		assertWithinBudget("OSM fallback",drawFrames(SlippyMapType.OSM_MAPNIK,0,0,true),OSM_FALLBACK_BUDGET);
+	}
+
+	@Test
+	public void bingStatic(){
+		assertWithinBudget("Bing static",drawFrames(SlippyMapType.BING_ROAD,0,0,false),BING_BUDGET);
+	}
+
+	@Test
+	public void bingPanning(){
+		assertWithinBudget("Bing panning",drawFrames(SlippyMapType.BING_ROAD,PAN_PER_FRAME,0,false),BING_BUDGET);
+	}
+
+	@Test
+	public void bingZooming(){
+		assertWithinBudget("Bing zooming",drawFrames(SlippyMapType.BING_ROAD,0,1.0/MEASURED_FRAMES,false),BING_BUDGET);
+	}
+
+	@Test
+	public void bingFallback(){
+		assertWithinBudget("Bing fallback",drawFrames(SlippyMapType.BING_ROAD,0,0,true),BING_FALLBACK_BUDGET);
+	}
+
+	private static void assertWithinBudget(String scenario,long bytesPerFrame,long budget){
+		assertTrue(scenario+" allocated "+bytesPerFrame+" bytes/frame, budget is "+budget,bytesPerFrame<=budget);
+	}
+
+	/** Draws frames and measures what they allocate. Each scenario is drawn from the start
+	 * for the warm-up frames (so that they are the same frames as those measured)
+	 *
+	 * @param slippyMapType  Map type
+	 * @param panPerFrame  Pixels to pan each frame
+	 * @param zoomPerFrame  Zoom levels to zoom in each frame
+	 * @param fallback  Whether to only have lower resolution tiles in the cache
+	 * @return bytes allocated per measured frame
+	 */
+	private long drawFrames(SlippyMapType slippyMapType,double panPerFrame,double zoomPerFrame,boolean fallback){
+		com.sun.management.ThreadMXBean threadMXBean=getThreadMXBean();
+		long threadId=Thread.currentThread().getId();
+
+		slippyMap=new SlippyMap(null,null,screenBounds,TILE_SIZE,1000);
+		slippyMap.useInUnsignedApplet(NO_SERVER);
+		slippyMap.setBingApiKey("test");
+		slippyMap.setMapType(slippyMapType);
+		boolean bing=slippyMapType.toString().startsWith("BING_");
+		fillCache(bing,panPerFrame,zoomPerFrame,fallback);
+
+		for (int frame=0;frame<WARMUP_FRAMES;frame++)
+			drawFrame(frame%MEASURED_FRAMES,panPerFrame,zoomPerFrame);
+		g.reset();
+		long before=threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int frame=0;frame<MEASURED_FRAMES;frame++)
+			drawFrame(frame,panPerFrame,zoomPerFrame);
+		long allocated=threadMXBean.getThreadAllocatedBytes(threadId)-before;
+		assertTrue("no tiles were drawn",g.imagesDrawn>=MEASURED_FRAMES);
+		return allocated/MEASURED_FRAMES;
+	}
+
+	/** Draws a frame of a scenario
+	 *
+	 * @param frame  Frame number
+	 * @param panPerFrame
+	 * @param zoomPerFrame
+	 */
+	private void drawFrame(int frame,double panPerFrame,double zoomPerFrame){
+		double zoomScale=zoomScale(ZOOM+frame*zoomPerFrame);
+		double x=centreX+frame*panPerFrame/zoomScale;
+		slippyMap.draw(new ViewTransform(screenBounds,zoomScale,
+				screenBounds.getCenterX()-x*zoomScale,screenBounds.getCenterY()-centreY*zoomScale,true),g);
+	}
+
+	/** Puts the tiles a scenario needs in the in-memory cache
+	 *
+	 * @param bing  Whether they are Bing tiles
+	 * @param panPerFrame
+	 * @param zoomPerFrame
+	 * @param fallback  Whether to only add tiles two zoom levels up
+	 */
+	private void fillCache(boolean bing,double panPerFrame,double zoomPerFrame,boolean fallback){
+		//the tiles' extents (as when snapping to native resolution), so that the map is square
+		//and the tiles below are the ones drawn
+		ViewTransform unzoomed=new ViewTransform(screenBounds,1,0,0,true);
+		centreX=unzoomed.lonToScreenX(-0.1);
+		centreY=unzoomed.latToScreenY(51.5);
+		OpenStreetMap osm=new OpenStreetMap(null,TILE_SIZE,slippyMap.tileRetriever);
+		Bing bingMap=new Bing(null,TILE_SIZE,slippyMap.tileRetriever,"test");
+		PImage tile=new PImage(TILE_SIZE,TILE_SIZE);
+		int[] zooms=fallback?new int[]{ZOOM-2}:zoomPerFrame>0?new int[]{ZOOM,ZOOM+1}:new int[]{ZOOM};
+		for (int zoom:zooms){
+			int numTiles=1<<zoom;
+			double tilesPerMapPixel=numTiles/(double)WIDTH;
+			double panMapPixels=MEASURED_FRAMES*panPerFrame/zoomScale(ZOOM);
+			double halfWidth=WIDTH/2.0/zoomScale(ZOOM);
+			double halfHeight=HEIGHT/2.0/zoomScale(ZOOM);
+			int firstTileX=(int)Math.floor((centreX-halfWidth)*tilesPerMapPixel);
+			int lastTileX=(int)Math.floor((centreX+halfWidth+panMapPixels)*tilesPerMapPixel);
+			int firstTileY=(int)Math.floor((centreY-halfHeight)*tilesPerMapPixel);
+			int lastTileY=(int)Math.floor((centreY+halfHeight)*tilesPerMapPixel);
+			synchronized (slippyMap.tileRetriever.tileCache) {
+				for (int tileX=firstTileX;tileX<=lastTileX;tileX++){
+					for (int tileY=firstTileY;tileY<=lastTileY;tileY++){
+						String cacheFilename=bing?bingMap.getTileCacheFileName(BingTileType.ROAD,BingTileSystem.tileXYToQuadKey(tileX,tileY,zoom))
+								:osm.getTileCacheFileName(TileSourceRegistry.get("osm-mapnik"),tileX,tileY,zoom);
+						slippyMap.tileRetriever.tileCache.put(cacheFilename,tile);
+					}
+				}
+			}
+		}
+	}
+
+	private static double zoomScale(double zoom){
+		return TILE_SIZE*Math.pow(2,zoom)/WIDTH;
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadMXBean(){
+		java.lang.management.ThreadMXBean threadMXBean=ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationMXBean=(com.sun.management.ThreadMXBean)threadMXBean;
+		assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+		allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+		return allocationMXBean;
+	}
+}
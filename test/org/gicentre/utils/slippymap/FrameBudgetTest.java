@@ -0,0 +1,131 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Checks that drawing with a frame budget draws the most important tiles first, stops when
+ * the time is up, and carries on from where it stopped.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class FrameBudgetTest {
+
+	static private final Rectangle SCREEN=new Rectangle(0,0,1024,768);
+	static private final long NO_TIME=1; //nanoseconds - only the one tile that is always drawn
+
+	private SlippyMap slippyMap;
+	private ViewTransform viewTransform=new ViewTransform(SCREEN,8,0,0);
+	private RecordingGraphics g=new RecordingGraphics(SCREEN.width,SCREEN.height);
+
+	@Before
+	public void setUp(){
+		slippyMap=new SlippyMap(null,null,SCREEN,256,500);
+		slippyMap.setUseFileCache(false);
+		slippyMap.useInUnsignedApplet("http://127.0.0.1:1/");
+		//every tile that could be needed, so the map is complete
+		TileSource tileSource=TileSourceRegistry.get("osm-mapnik");
+		PImage tile=new PImage(256,256);
+		synchronized (slippyMap.tileRetriever.tileCache) {
+			for (int zoom=4;zoom<=6;zoom++)
+				for (int tileX=0;tileX<1<<(zoom-2);tileX++)
+					for (int tileY=0;tileY<1<<(zoom-2);tileY++)
+						slippyMap.tileRetriever.tileCache.put(tileSource.getCacheFileName(zoom,tileX,tileY),tile);
+		}
+	}
+
+	@After
+	public void tearDown(){
+		slippyMap.dispose();
+	}
+
+	@Test
+	public void tilesAreOrderedFromTheCentre(){
+		long[] tiles=BaseMapProvider.getCentreOutOrder(0,4,10,12);
+		assertEquals(15,tiles.length);
+		assertEquals(2,(int)(tiles[0]>>>32));
+		assertEquals(11,(int)tiles[0]);
+		Set<Long> distinct=new HashSet<Long>();
+		int lastDistance=0;
+		for (long tile:tiles){
+			int dx=(int)(tile>>>32)-2;
+			int dy=(int)tile-11;
+			assertTrue(dx*dx+dy*dy>=lastDistance);
+			lastDistance=dx*dx+dy*dy;
+			distinct.add(tile);
+		}
+		assertEquals(15,distinct.size());
+	}
+
+	@Test
+	public void mapIsCompleteWithoutBudget(){
+		assertTrue(slippyMap.draw(viewTransform,g,0));
+		assertTrue(g.imagesDrawn>1);
+	}
+
+	@Test
+	public void drawingStopsWhenTimeIsUp(){
+		assertFalse(slippyMap.draw(viewTransform,g,NO_TIME));
+		assertEquals(1,g.imagesDrawn);
+		//the first tile is the one in the middle
+		assertTrue(g.lastX1<=SCREEN.getCenterX() && g.lastX2>=SCREEN.getCenterX());
+		assertTrue(g.lastY1<=SCREEN.getCenterY() && g.lastY2>=SCREEN.getCenterY());
+	}
+
+	@Test
+	public void drawingCarriesOnFromWhereItStopped(){
+		OpenStreetMap osm=new OpenStreetMap(null,256,slippyMap.tileRetriever);
+		TileSource tileSource=TileSourceRegistry.get("osm-mapnik");
+		LonLatBounds bounds=new LonLatBounds(viewTransform.screenXToLon(SCREEN.getMinX()),viewTransform.screenYToLat(SCREEN.getMaxY()),
+				viewTransform.screenXToLon(SCREEN.getMaxX()),viewTransform.screenYToLat(SCREEN.getMinY()));
+		int zoom=osm.getZoom(bounds,SCREEN);
+		assertTrue(osm.drawTiles(bounds,viewTransform,g,tileSource,zoom));
+		int numTiles=g.imagesDrawn;
+
+		FrameBudget frameBudget=new FrameBudget();
+		osm.frameBudget=frameBudget;
+		for (int frame=1;frame<=numTiles;frame++){
+			g.reset();
+			frameBudget.startFrame(System.nanoTime(),NO_TIME);
+			frameBudget.setResuming(frame>1);
+			boolean complete=osm.drawTiles(bounds,viewTransform,g,tileSource,zoom);
+			assertEquals(1,g.imagesDrawn);
+			assertEquals(frame==numTiles,complete);
+			assertEquals(frame<numTiles,frameBudget.isStopped());
+		}
+
+		//starting again draws from the first tile
+		g.reset();
+		frameBudget.startFrame(System.nanoTime(),NO_TIME);
+		assertFalse(osm.drawTiles(bounds,viewTransform,g,tileSource,zoom));
+		assertTrue(g.lastX1<=SCREEN.getCenterX() && g.lastX2>=SCREEN.getCenterX());
+	}
+}
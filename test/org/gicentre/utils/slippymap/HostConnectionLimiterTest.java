@@ -0,0 +1,82 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks the limits on connections to each host. Uses its own domain, because limits are
+ * shared by all SlippyMaps.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class HostConnectionLimiterTest {
+
+	@Test
+	public void hostsInADomainShareItsLimit() throws Exception{
+		HostConnectionLimiter.setDomainLimit("limiter.test",2);
+		assertEquals(2,HostConnectionLimiter.getLimit("a.tile.limiter.test"));
+		assertEquals(2,HostConnectionLimiter.getLimit("limiter.test"));
+		assertEquals(2,HostConnectionLimiter.getLimit("a.tile.openstreetmap.org"));
+
+		HostConnectionLimiter.HostPermits a1=HostConnectionLimiter.acquire(new URL("http://a.limiter.test/1.png"));
+		HostConnectionLimiter.HostPermits a2=HostConnectionLimiter.acquire(new URL("http://a.limiter.test/2.png"));
+		assertFalse(a1.tryAcquire()); //third connection to the same host
+		assertTrue(HostConnectionLimiter.getPermits("b.limiter.test")==a1); //or another in the domain
+		assertTrue(HostConnectionLimiter.getPermits("other.test")!=a1); //hosts in no limited domain have their own
+		HostConnectionLimiter.release(a1);
+		assertTrue(a1.tryAcquire());
+		a1.release();
+		HostConnectionLimiter.release(a2);
+	}
+
+	@Test
+	public void sourcesAreLimitedByTheDomainOfTheirHosts(){
+		Set<String> hosts=new HashSet<String>();
+		hosts.add("a.tile.openstreetmap.org");
+		hosts.add("b.tile.openstreetmap.org");
+		hosts.add("c.tile.openstreetmap.org");
+		assertEquals("tile.openstreetmap.org",TileSourceRegistry.getCommonDomain(hosts));
+		hosts.add("tile.openstreetmap.org");
+		assertEquals("tile.openstreetmap.org",TileSourceRegistry.getCommonDomain(hosts));
+		hosts.add("tiles.example.com");
+		assertNull(TileSourceRegistry.getCommonDomain(hosts)); //only "org" and "com" in common
+	}
+
+	@Test
+	public void changingALimitAppliesToHeldPermits() throws Exception{
+		HostConnectionLimiter.setDomainLimit("shrink.limiter.test",3);
+		HostConnectionLimiter.HostPermits permits=HostConnectionLimiter.acquire(new URL("http://shrink.limiter.test/1.png"));
+		HostConnectionLimiter.acquire(new URL("http://shrink.limiter.test/2.png"));
+		HostConnectionLimiter.setDomainLimit("shrink.limiter.test",1);
+		HostConnectionLimiter.release(permits);
+		assertFalse(permits.tryAcquire()); //one still held
+		HostConnectionLimiter.release(permits);
+		assertTrue(permits.tryAcquire());
+		permits.release();
+	}
+}
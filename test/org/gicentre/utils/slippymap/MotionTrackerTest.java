@@ -0,0 +1,107 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that the map is treated as moving while it is zoomed or panned quickly, and that
+ * tiles are not requested while it is.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class MotionTrackerTest {
+
+	static private final Rectangle SCREEN=new Rectangle(0,0,1024,768);
+	static private final long FRAME=16000000; //nanoseconds between frames (about 60 frames per second)
+
+	@Test
+	public void fastPanningIsMoving(){
+		MotionTracker motionTracker=new MotionTracker();
+		assertFalse(motionTracker.update(new ViewTransform(SCREEN,8,0,0),0));
+		//20 pixels a frame is over 1000 pixels a second
+		assertTrue(motionTracker.update(new ViewTransform(SCREEN,8,20,0),FRAME));
+		//1 pixel a frame is about 60 pixels a second
+		assertFalse(motionTracker.update(new ViewTransform(SCREEN,8,21,0),2*FRAME));
+		assertFalse(motionTracker.update(new ViewTransform(SCREEN,8,21,0),3*FRAME));
+	}
+
+	@Test
+	public void zoomingIsMoving(){
+		MotionTracker motionTracker=new MotionTracker();
+		motionTracker.update(new ViewTransform(SCREEN,8,0,0),0);
+		assertTrue(motionTracker.update(new ViewTransform(SCREEN,8.5,0,0),FRAME));
+		assertTrue(motionTracker.isMoving());
+	}
+
+	@Test
+	public void endOfGestureStopsMoving(){
+		MotionTracker motionTracker=new MotionTracker();
+		motionTracker.update(new ViewTransform(SCREEN,8,0,0),0);
+		assertTrue(motionTracker.update(new ViewTransform(SCREEN,8,50,0),FRAME));
+		motionTracker.gestureEnded();
+		//e.g. snapped to native resolution when the gesture ended
+		assertFalse(motionTracker.update(new ViewTransform(SCREEN,8,60,0),2*FRAME));
+	}
+
+	@Test
+	public void thresholdCanBeChanged(){
+		MotionTracker motionTracker=new MotionTracker();
+		motionTracker.setThreshold(2000);
+		motionTracker.update(new ViewTransform(SCREEN,8,0,0),0);
+		assertFalse(motionTracker.update(new ViewTransform(SCREEN,8,20,0),FRAME));
+	}
+
+	@Test
+	public void tilesAreNotRequestedWhileMoving(){
+		SlippyMap deferring=makeMap();
+		SlippyMap notDeferring=makeMap();
+		notDeferring.setDeferTilesWhileMoving(false);
+		RecordingGraphics g=new RecordingGraphics(SCREEN.width,SCREEN.height);
+		for (SlippyMap slippyMap:new SlippyMap[]{deferring,notDeferring}){
+			slippyMap.draw(new ViewTransform(SCREEN,8,0,0),g);
+			slippyMap.draw(new ViewTransform(SCREEN,16,0,0),g);
+		}
+		assertTrue(deferring.isMoving());
+		//only a coarse tile is requested instead of all the tiles at the new zoom level
+		long deferredRequests=deferring.getMetrics().getMemoryMisses();
+		long requests=notDeferring.getMetrics().getMemoryMisses();
+		assertTrue(deferredRequests+" requests while moving, "+requests+" otherwise",deferredRequests<requests);
+
+		//once still, the tiles are requested
+		deferring.draw(new ViewTransform(SCREEN,16,0,0),g);
+		notDeferring.draw(new ViewTransform(SCREEN,16,0,0),g);
+		assertFalse(deferring.isMoving());
+		assertEquals(notDeferring.getMetrics().getMemoryMisses()-requests,deferring.getMetrics().getMemoryMisses()-deferredRequests);
+		deferring.dispose();
+		notDeferring.dispose();
+	}
+
+	private static SlippyMap makeMap(){
+		SlippyMap slippyMap=new SlippyMap(null,null,SCREEN,256,200);
+		slippyMap.setUseFileCache(false);
+		slippyMap.useInUnsignedApplet("http://127.0.0.1:1/");
+		return slippyMap;
+	}
+}
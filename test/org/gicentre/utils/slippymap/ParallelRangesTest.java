@@ -0,0 +1,69 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that work split between cores is all done before ParallelRanges.run() returns,
+ * even if the calling thread is interrupted.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class ParallelRangesTest {
+
+	@Test
+	public void everyIndexIsProcessed(){
+		final int[] values=new int[100000];
+		ParallelRanges.run(values.length,1000,new ParallelRanges.RangeTask(){
+			public void run(int from,int to){
+				for (int i=from;i<to;i++)
+					values[i]++;
+			}
+		});
+		for (int value:values)
+			assertEquals(1,value);
+	}
+
+	@Test
+	public void workIsFinishedWhenInterrupted(){
+		final int[] values=new int[100000];
+		Thread.currentThread().interrupt();
+		try{
+			ParallelRanges.run(values.length,1000,new ParallelRanges.RangeTask(){
+				public void run(int from,int to){
+					for (int i=from;i<to;i++){
+						if (i%10000==0)
+							Thread.yield(); //give the waiting thread a chance to give up
+						values[i]++;
+					}
+				}
+			});
+			//the interrupt is kept for the caller
+			assertTrue(Thread.currentThread().isInterrupted());
+		}
+		finally{
+			Thread.interrupted();
+		}
+		for (int value:values)
+			assertEquals(1,value);
+	}
+}
@@ -0,0 +1,138 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that PointLayer's viewport query finds exactly the points in the viewport,
+ * including those on the edges of the tiles it is indexed by and at the edges of the map.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class PointLayerTest {
+
+	static private final float TILE_WIDTH=360f/PointLayer.CELLS; //degrees across a level 16 tile
+
+	/** Finds the points with the layer's query
+	 *
+	 * @param pointLayer
+	 * @param lonLatBounds
+	 * @return indices of the points
+	 */
+	private static Set<Integer> query(PointLayer pointLayer,Rectangle2D lonLatBounds){
+		final Set<Integer> indices=new TreeSet<Integer>();
+		pointLayer.query(lonLatBounds,new PointLayer.PointVisitor(){
+			public void visit(int index,float lon,float lat){
+				indices.add(index);
+			}
+		});
+		return indices;
+	}
+
+	/** Finds the points by checking each one
+	 *
+	 * @param lons
+	 * @param lats
+	 * @param lonLatBounds
+	 * @return indices of the points
+	 */
+	private static Set<Integer> bruteForce(float[] lons,float[] lats,Rectangle2D lonLatBounds){
+		Set<Integer> indices=new TreeSet<Integer>();
+		for (int i=0;i<lons.length;i++)
+			if (lons[i]>=lonLatBounds.getMinX() && lons[i]<=lonLatBounds.getMaxX() && lats[i]>=lonLatBounds.getMinY() && lats[i]<=lonLatBounds.getMaxY())
+				indices.add(i);
+		return indices;
+	}
+
+	@Test
+	public void pointsOnTileEdgesAreFound(){
+		//either side of and on the edge between two level 16 tiles, and on the edges of the query
+		float edgeLon=-180+1000*TILE_WIDTH;
+		float[] lons={edgeLon,Math.nextDown(edgeLon),Math.nextUp(edgeLon),edgeLon-TILE_WIDTH,edgeLon+TILE_WIDTH,edgeLon+2*TILE_WIDTH};
+		float[] lats={10,10,10,10,10,10};
+		PointLayer pointLayer=new PointLayer(lons,lats);
+		LonLatBounds lonLatBounds=new LonLatBounds(edgeLon-TILE_WIDTH,10,edgeLon+TILE_WIDTH,10);
+		assertEquals(bruteForce(lons,lats,lonLatBounds),query(pointLayer,lonLatBounds));
+		assertEquals(5,pointLayer.count(lonLatBounds));
+		lonLatBounds=new LonLatBounds(edgeLon,9,edgeLon,11);
+		assertEquals(bruteForce(lons,lats,lonLatBounds),query(pointLayer,lonLatBounds));
+		assertEquals(1,pointLayer.count(lonLatBounds));
+	}
+
+	@Test
+	public void pointsAtTheEdgesOfTheMapAreFound(){
+		//on the antimeridian, and beyond the latitudes of the tiles
+		float[] lons={-180,180,-180,180,179.999f,-179.999f,0,0};
+		float[] lats={0,0,85,-85,89,-89,90,-90};
+		PointLayer pointLayer=new PointLayer(lons,lats);
+		assertEquals(lons.length,pointLayer.count(new LonLatBounds(-180,-90,180,90)));
+		LonLatBounds east=new LonLatBounds(179,-90,180,90);
+		assertEquals(bruteForce(lons,lats,east),query(pointLayer,east));
+		LonLatBounds west=new LonLatBounds(-180,-90,-179,90);
+		assertEquals(bruteForce(lons,lats,west),query(pointLayer,west));
+		LonLatBounds north=new LonLatBounds(-1,86,1,90);
+		assertEquals(bruteForce(lons,lats,north),query(pointLayer,north));
+		assertEquals(1,query(pointLayer,north).size());
+	}
+
+	@Test
+	public void emptyViewportsHaveNoPoints(){
+		float[] lons={-0.1f,0.1f,10};
+		float[] lats={51.5f,51.5f,-10};
+		PointLayer pointLayer=new PointLayer(lons,lats);
+		assertEquals(0,pointLayer.count(new LonLatBounds(20,20,30,30)));
+		assertEquals(0,pointLayer.count(new LonLatBounds(0,51.5,0,51.5))); //between points in the same tile
+		assertEquals(0,new PointLayer(new float[0],new float[0]).count(new LonLatBounds(-180,-90,180,90)));
+	}
+
+	@Test
+	public void queriesMatchCheckingEveryPoint(){
+		Random random=new Random(1);
+		int numPoints=20000;
+		float[] lons=new float[numPoints];
+		float[] lats=new float[numPoints];
+		for (int i=0;i<numPoints;i++){
+			if (i%4==0){
+				//clustered, so that some level 16 tiles have several points
+				lons[i]=-0.1f+random.nextFloat()*0.01f;
+				lats[i]=51.5f+random.nextFloat()*0.01f;
+			}
+			else{
+				lons[i]=random.nextFloat()*360-180;
+				lats[i]=random.nextFloat()*170-85;
+			}
+		}
+		PointLayer pointLayer=new PointLayer(lons,lats);
+		for (int q=0;q<200;q++){
+			double width=q%2==0?random.nextDouble()*0.02:random.nextDouble()*90;
+			double height=q%2==0?random.nextDouble()*0.02:random.nextDouble()*45;
+			double minLon=q%2==0?-0.11+random.nextDouble()*0.02:random.nextDouble()*(360-width)-180;
+			double minLat=q%2==0?51.49+random.nextDouble()*0.02:random.nextDouble()*(170-height)-85;
+			LonLatBounds lonLatBounds=new LonLatBounds(minLon,minLat,minLon+width,minLat+height);
+			assertEquals(bruteForce(lons,lats,lonLatBounds),query(pointLayer,lonLatBounds));
+		}
+	}
+}
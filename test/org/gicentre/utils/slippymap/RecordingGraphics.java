@@ -0,0 +1,68 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.Font;
+
+import processing.core.PFont;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+//****************************************************************************************
+/** A canvas for tests that does not draw anything, but records the images drawn on it (how
+ * many, and where the last one was drawn). Recording does not allocate, so it does not
+ * affect allocation tests.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class RecordingGraphics extends PGraphics {
+
+	int imagesDrawn=0;
+	float lastX1,lastY1,lastX2,lastY2;
+	PImage lastImage;
+
+	RecordingGraphics(int width,int height){
+		setSize(width,height);
+		textFont(new PFont(new Font(Font.SANS_SERIF,Font.PLAIN,10),true)); //PGraphics has no default font without a sketch
+	}
+
+	/** Forgets the images drawn so far
+	 *
+	 */
+	void reset(){
+		imagesDrawn=0;
+		lastImage=null;
+	}
+
+	protected void imageImpl(PImage image,float x1,float y1,float x2,float y2,int u1,int v1,int u2,int v2){
+		imagesDrawn++;
+		lastImage=image;
+		lastX1=x1;
+		lastY1=y1;
+		lastX2=x2;
+		lastY2=y2;
+	}
+
+	protected void blendModeImpl(){
+		//nothing to set
+	}
+
+	protected void textLineImpl(char[] buffer,int start,int stop,float x,float y){
+		//don't draw text
+	}
+}
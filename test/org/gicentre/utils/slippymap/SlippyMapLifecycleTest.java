@@ -0,0 +1,127 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Checks that maps do not hold threads while idle and that dispose() frees what they hold.
+ * Tiles are never fetched: the passthrough URL refuses connections.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class SlippyMapLifecycleTest {
+
+	static private final String NO_SERVER="http://127.0.0.1:1/";
+	static private final long TIMEOUT=10; //seconds
+	static private final long IDLE_KEEP_ALIVE=100; //milliseconds
+
+	private SlippyMap makeMap(){
+		SlippyMap slippyMap=new SlippyMap(null,null,new Rectangle(0,0,1024,768),256,50);
+		slippyMap.setUseFileCache(false);
+		slippyMap.useInUnsignedApplet(NO_SERVER);
+		return slippyMap;
+	}
+
+	private static int countThreads(String namePrefix){
+		int numThreads=0;
+		for (Thread thread:Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith(namePrefix))
+				numThreads++;
+		return numThreads;
+	}
+
+	private static int countMBeans() throws Exception{
+		return ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("org.gicentre.utils.slippymap:*"),null).size();
+	}
+
+	@Test
+	public void idleMapsHaveNoThreads(){
+		int numThreads=countThreads("SlippyMapTileRetriever");
+		List<SlippyMap> slippyMaps=new ArrayList<SlippyMap>();
+		for (int i=0;i<20;i++)
+			slippyMaps.add(makeMap());
+		assertEquals(numThreads,countThreads("SlippyMapTileRetriever"));
+		for (SlippyMap slippyMap:slippyMaps)
+			slippyMap.dispose();
+	}
+
+	@Test
+	public void sharedThreadsStopWhenIdle() throws Exception{
+		LocalTileServer server=new LocalTileServer();
+		server.start();
+		SlippyMap slippyMap=makeMap();
+		slippyMap.useInUnsignedApplet(server.getPassThroughURL());
+		TileRetriever.setThreadKeepAlive(IDLE_KEEP_ALIVE);
+		try{
+			slippyMap.getTile(5,1,2).get(TIMEOUT,TimeUnit.SECONDS);
+			assertTrue(countThreads("SlippyMapTileRetriever-")>0);
+			long giveUpTime=System.currentTimeMillis()+TIMEOUT*1000;
+			while (countThreads("SlippyMapTileRetriever-")>0 && System.currentTimeMillis()<giveUpTime)
+				Thread.sleep(IDLE_KEEP_ALIVE);
+			assertEquals(0,countThreads("SlippyMapTileRetriever-"));
+		}
+		finally{
+			TileRetriever.setThreadKeepAlive(TileRetriever.THREAD_KEEP_ALIVE*1000L);
+			slippyMap.dispose();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void disposeUnregistersMBeans() throws Exception{
+		int numMBeans=countMBeans();
+		SlippyMap slippyMap=makeMap();
+		assertEquals(numMBeans+2,countMBeans());
+		slippyMap.close();
+		assertEquals(numMBeans,countMBeans());
+		slippyMap.dispose(); //a second time does nothing
+	}
+
+	@Test
+	public void disposedMapRetrievesNothing() throws Exception{
+		SlippyMap slippyMap=makeMap();
+		slippyMap.tileRetriever.setWorkerCount(1);
+		slippyMap.dispose();
+		CompletableFuture<PImage> future=slippyMap.getTile(3,1,1);
+		try{
+			future.get();
+			fail();
+		}
+		catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(0,slippyMap.getMetrics().getQueueDepth());
+	}
+}
@@ -0,0 +1,85 @@
+package org.gicentre.utils.slippymap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+//****************************************************************************************
+/** A disk cache in a temporary directory for tests, so that they neither use nor leave
+ * tiles in the working directory. Give it to a map with use(), and delete it when done.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+class TempTileCache {
+
+	private File directory;
+
+	/** Constructor. Makes the directory
+	 *
+	 * @throws IOException
+	 */
+	TempTileCache() throws IOException{
+		directory=Files.createTempDirectory("tilecache").toFile();
+	}
+
+	File getDirectory(){
+		return directory;
+	}
+
+	/** Makes a map use this as its disk cache
+	 *
+	 * @param slippyMap
+	 */
+	void use(SlippyMap slippyMap){
+		slippyMap.tileRetriever.setFileCachePath(directory);
+	}
+
+	/** Gets a file in the directory
+	 *
+	 * @param cacheFilename
+	 * @return the file
+	 */
+	File getFile(String cacheFilename){
+		return new File(directory,cacheFilename);
+	}
+
+	/** Writes a blank tile
+	 *
+	 * @param cacheFilename
+	 * @throws IOException
+	 */
+	void writeTile(String cacheFilename) throws IOException{
+		ImageIO.write(new BufferedImage(256,256,BufferedImage.TYPE_INT_RGB),"png",getFile(cacheFilename));
+	}
+
+	/** Deletes the directory and the files in it
+	 *
+	 */
+	void delete(){
+		File[] files=directory.listFiles();
+		if (files!=null)
+			for (File file:files)
+				file.delete();
+		directory.delete();
+	}
+}
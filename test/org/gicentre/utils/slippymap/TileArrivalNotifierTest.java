@@ -0,0 +1,106 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that tile arrivals are grouped into one notification per interval and that the
+ * screen area they cover is right.
+ *
+ * The map is 1024x768 at zoom level 2 (four 256 pixel tiles across, so tiles are drawn at
+ * 256 pixels) with no panning, so tile (x,y) covers x*256,y*256 to (x+1)*256,(y+1)*256 and
+ * the bottom row is below the screen.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class TileArrivalNotifierTest {
+
+	private final Rectangle screenBounds=new Rectangle(0,0,1024,768);
+
+	private TileArrivalNotifier makeNotifier(int intervalMillis){
+		TileArrivalNotifier notifier=new TileArrivalNotifier();
+		notifier.setInterval(intervalMillis);
+		//the tiles' extents, so that tiles are 256 pixels across on whole pixels
+		notifier.setViewTransform(new ViewTransform(screenBounds,1,0,0,true));
+		return notifier;
+	}
+
+	@Test
+	public void arrivalsInAnIntervalAreNotifiedTogether() throws InterruptedException{
+		TileArrivalNotifier notifier=makeNotifier(200);
+		final List<TileArrivalEvent> events=new ArrayList<TileArrivalEvent>();
+		final AtomicInteger legacyNotifications=new AtomicInteger();
+		final CountDownLatch notified=new CountDownLatch(1);
+		notifier.addTileArrivalListener(new TileArrivalListener(){
+			public void tilesArrived(TileArrivalEvent event){
+				events.add(event);
+				notified.countDown();
+			}
+		});
+		notifier.addSlippyMapListener(new SlippyMapListener(){
+			public void newTileAvailable(){
+				legacyNotifications.incrementAndGet();
+			}
+		});
+		notifier.tileArrived("osm-mapnik-0-0-2.png",TileKey.key(2,0,0));
+		notifier.tileArrived("osm-mapnik-1-1-2.png",TileKey.key(2,1,1));
+		notifier.tileArrived(null,TileKey.key(2,3,3)); //e.g. an overlay tile, below the screen
+		assertTrue(notified.await(5,TimeUnit.SECONDS));
+		Thread.sleep(300);
+
+		assertEquals(1,events.size());
+		assertEquals(1,legacyNotifications.get());
+		TileArrivalEvent event=events.get(0);
+		assertEquals(3,event.getNumTiles());
+		assertEquals(2,event.getTileKeys().size());
+		assertEquals("osm-mapnik-1-1-2.png",event.getTileKeys().get(1));
+		assertEquals(new Rectangle(0,0,512,512),event.getDirtyRect());
+	}
+
+	@Test
+	public void dirtyRectCoversOnlyTheTilesThatArrived(){
+		TileArrivalNotifier notifier=makeNotifier(0);
+		final List<TileArrivalEvent> events=new ArrayList<TileArrivalEvent>();
+		notifier.addTileArrivalListener(new TileArrivalListener(){
+			public void tilesArrived(TileArrivalEvent event){
+				events.add(event);
+			}
+		});
+		notifier.tileArrived("a",TileKey.key(2,1,0));
+		notifier.tileArrived("b",TileKey.key(2,3,2)); //bottom right
+		notifier.tileArrived("c",TileKey.key(4,0,15)); //below the screen
+		notifier.tileArrived("d",TileArrivalNotifier.UNKNOWN_TILE);
+
+		assertEquals(4,events.size());
+		assertEquals(new Rectangle(256,0,256,256),events.get(0).getDirtyRect());
+		assertEquals(new Rectangle(768,512,256,256),events.get(1).getDirtyRect());
+		assertTrue(events.get(2).getDirtyRect().isEmpty());
+		assertEquals(screenBounds,events.get(3).getDirtyRect());
+	}
+}
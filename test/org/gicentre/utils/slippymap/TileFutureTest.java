@@ -0,0 +1,116 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Checks SlippyMap.getTile() and getTiles(), with OSM tiles from a local server (used as
+ * the passthrough URL). The server returns a 256x256 PNG for every tile except those in
+ * column 99 (404), and takes 300ms to serve tiles in column 7. The disk cache is not used.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class TileFutureTest {
+
+	static private final long TIMEOUT=10; //seconds
+
+	private LocalTileServer server;
+	private SlippyMap slippyMap;
+
+	@Before
+	public void setUp() throws IOException{
+		System.setProperty("java.awt.headless","true");
+		server=new LocalTileServer();
+		server.setMissingTiles(".*/\\d+/99/\\d+\\.png");
+		server.setSlowTiles(".*/\\d+/7/\\d+\\.png",300);
+		server.start();
+		slippyMap=new SlippyMap(null,null,new Rectangle(0,0,1024,768),256,200);
+		slippyMap.setUseFileCache(false);
+		slippyMap.useInUnsignedApplet(server.getPassThroughURL());
+	}
+
+	@After
+	public void tearDown(){
+		slippyMap.dispose();
+		server.stop();
+	}
+
+	@Test
+	public void tileIsRetrievedAndCached() throws Exception{
+		PImage image=slippyMap.getTile(10,3,4).get(TIMEOUT,TimeUnit.SECONDS);
+		assertEquals(256,image.width);
+		assertTrue(server.wasRequested("/10/3/4."));
+		//now from the in-memory cache
+		CompletableFuture<PImage> future=slippyMap.getTile(10,3,4);
+		assertTrue(future.isDone());
+		assertTrue(future.get()==image);
+	}
+
+	@Test
+	public void tilesCoverTheArea() throws Exception{
+		//tiles 2-3 across and 1-2 down at zoom level 2
+		LonLatBounds lonLatBounds=new LonLatBounds(1,10,170,-10);
+		List<PImage> images=slippyMap.getTiles(lonLatBounds,2).get(TIMEOUT,TimeUnit.SECONDS);
+		assertEquals(4,images.size());
+		assertTrue(server.wasRequested("/2/2/1."));
+		assertTrue(server.wasRequested("/2/3/2."));
+		assertTrue(images.get(0)==slippyMap.getTile(2,2,1).get());
+		assertTrue(images.get(3)==slippyMap.getTile(2,3,2).get());
+	}
+
+	@Test
+	public void failedTileCompletesExceptionally() throws Exception{
+		try{
+			slippyMap.getTile(10,99,1).get(TIMEOUT,TimeUnit.SECONDS);
+			fail();
+		}
+		catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void cancelledTileIsNotDownloaded() throws Exception{
+		CompletableFuture<PImage> slow=slippyMap.getTile(10,7,0); //keeps the single worker busy
+		Thread.sleep(100);
+		CompletableFuture<PImage> cancelled=slippyMap.getTile(10,8,0);
+		CompletableFuture<PImage> wanted=slippyMap.getTile(10,8,1);
+		cancelled.cancel(false);
+		slow.get(TIMEOUT,TimeUnit.SECONDS);
+		wanted.get(TIMEOUT,TimeUnit.SECONDS);
+		assertTrue(server.wasRequested("/10/8/1."));
+		assertFalse(server.wasRequested("/10/8/0."));
+	}
+}
@@ -0,0 +1,104 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import processing.core.PImage;
+
+//****************************************************************************************
+/** Checks that TilePlan holds each tile once, sorts them by zoom level without changing the
+ * order of those at each level, and can be cleared and used again.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class TilePlanTest {
+
+	@Test
+	public void eachTileIsHeldOnce(){
+		TilePlan tilePlan=new TilePlan();
+		PImage image=new PImage(1,1);
+		assertTrue(tilePlan.add(TileKey.key(0,0,0),image)); //the key of this tile is 0
+		assertFalse(tilePlan.add(TileKey.key(0,0,0),new PImage(1,1)));
+		assertTrue(tilePlan.add(TileKey.key(29,(1<<29)-1,(1<<29)-1),null));
+		assertTrue(tilePlan.contains(TileKey.key(0,0,0)));
+		assertFalse(tilePlan.contains(TileKey.key(1,0,0)));
+		assertEquals(2,tilePlan.size());
+		assertSame(image,tilePlan.getImage(0));
+	}
+
+	@Test
+	public void tilesAreSortedByZoomInTheOrderTheyWereAdded(){
+		Random random=new Random(1);
+		TilePlan tilePlan=new TilePlan();
+		for (int frame=0;frame<3;frame++){
+			//enough for the arrays to grow
+			tilePlan.clear();
+			Map<Long,PImage> expected=new LinkedHashMap<Long,PImage>();
+			for (int i=0;i<1000;i++){
+				int zoom=random.nextInt(6)+10;
+				long key=TileKey.key(zoom,random.nextInt(1<<zoom),random.nextInt(1<<zoom));
+				PImage image=new PImage(1,1);
+				assertEquals(!expected.containsKey(key),tilePlan.add(key,image));
+				if (!expected.containsKey(key))
+					expected.put(key,image);
+			}
+			tilePlan.sortByZoom();
+			List<Long> expectedKeys=new ArrayList<Long>();
+			for (int zoom=10;zoom<=15;zoom++)
+				for (long key:expected.keySet())
+					if (TileKey.zoom(key)==zoom)
+						expectedKeys.add(key);
+			assertEquals(expectedKeys.size(),tilePlan.size());
+			long signature=1;
+			for (int i=0;i<tilePlan.size();i++){
+				assertEquals((long)expectedKeys.get(i),tilePlan.getKey(i));
+				assertSame(expected.get(expectedKeys.get(i)),tilePlan.getImage(i));
+				assertTrue(tilePlan.contains(expectedKeys.get(i)));
+				signature=FrameBudget.getSignature(signature,expectedKeys.get(i));
+			}
+			assertEquals(signature,tilePlan.getSignature());
+		}
+	}
+
+	@Test
+	public void clearingRemovesEveryTile(){
+		TilePlan tilePlan=new TilePlan();
+		for (int tileX=0;tileX<200;tileX++)
+			tilePlan.add(TileKey.key(8,tileX,5),new PImage(1,1));
+		tilePlan.sortByZoom();
+		tilePlan.clear();
+		assertEquals(0,tilePlan.size());
+		assertFalse(tilePlan.contains(TileKey.key(8,0,5)));
+		assertEquals(1,tilePlan.getSignature());
+		assertTrue(tilePlan.add(TileKey.key(8,0,5),null));
+		assertNull(tilePlan.getImage(0));
+	}
+}
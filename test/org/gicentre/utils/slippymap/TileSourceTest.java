@@ -0,0 +1,84 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that tile sources make the same URLs and cache file names as before they were
+ * made from templates.
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class TileSourceTest {
+
+	@Test
+	public void placeholdersAreReplaced(){
+		UrlTemplate template=new UrlTemplate("http://{s}.tiles.test/{z}/{x}/{y}.png?q={quadkey}",new String[]{"a","b","c"});
+		assertEquals("http://b.tiles.test/3/5/2.png?q=121",template.expand(3,5,2));
+	}
+
+	@Test
+	public void quadKeysMatchBing(){
+		UrlTemplate template=new UrlTemplate("{q}",null);
+		for (int zoom=1;zoom<=5;zoom++)
+			for (int tileX=0;tileX<1<<zoom;tileX++)
+				for (int tileY=0;tileY<1<<zoom;tileY++)
+					assertEquals(BingTileSystem.tileXYToQuadKey(tileX,tileY,zoom),template.expand(zoom,tileX,tileY));
+	}
+
+	@Test
+	public void subdomainsAreTheSameForEachTile(){
+		UrlTemplate template=new UrlTemplate("{s}",new String[]{"a","b","c"});
+		assertEquals("a",template.expand(4,0,0));
+		assertEquals("b",template.expand(4,1,0));
+		assertEquals("c",template.expand(4,1,1));
+		assertEquals(template.expand(10,517,340),template.expand(10,517,340));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownPlaceholdersAreRejected(){
+		new UrlTemplate("http://tiles.test/{zoom}/{x}/{y}.png",null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void subdomainsAreNeededForSubdomainPlaceholder(){
+		new UrlTemplateTileSource("test-nosubdomains","http://{s}.tiles.test/{z}/{x}/{y}.png",null);
+	}
+
+	@Test
+	public void builtInSourcesKeepCacheFileNames(){
+		TileSource mapnik=TileSourceRegistry.get("osm-mapnik");
+		assertEquals("osm-mapnik-5-2-3.png",mapnik.getCacheFileName(3,5,2));
+		assertEquals("http://b.tile.openstreetmap.org/3/5/2.png",mapnik.getTileUrl(3,5,2));
+		assertEquals("osm-toner-5-2-3.png",TileSourceRegistry.get("osm-toner").getCacheFileName(3,5,2));
+	}
+
+	@Test
+	public void registeredSourcesCanBeUsed(){
+		UrlTemplateTileSource tileSource=new UrlTemplateTileSource("test-source","http://{s}.source.test/{z}/{x}/{y}.png","Test","a","b");
+		tileSource.setMaxConnections(3);
+		SlippyMap.registerTileSource(tileSource);
+		assertSame(tileSource,SlippyMap.getTileSource("test-source"));
+		assertEquals(3,HostConnectionLimiter.getLimit("a.source.test"));
+		assertEquals(3,HostConnectionLimiter.getLimit("b.source.test"));
+	}
+}
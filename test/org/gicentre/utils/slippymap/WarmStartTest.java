@@ -0,0 +1,176 @@
+package org.gicentre.utils.slippymap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//****************************************************************************************
+/** Checks that the tiles in memory and the viewport are saved when a map is disposed, and
+ * that the next map loads the tiles from the disk cache before its first frame. The disk
+ * cache is in a temporary directory (used as the working directory).
+ *
+ * @author Aidan Slingsby, giCentre, City University London.
+ * @version 1.0, August 2011
+ */
+//*****************************************************************************************
+
+/* This file is part of giCentre utilities library. gicentre.utils is free software: you can
+* redistribute it and/or modify it under the terms of the GNU Lesser General Public License
+* as published by the Free Software Foundation, either version 3 of the License, or (at your
+* option) any later version.
+*
+* gicentre.utils is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+* without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+* See the GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License along with this
+* source code (see COPYING.LESSER included with this source code). If not, see
+* http://www.gnu.org/licenses/.
+*/
+
+public class WarmStartTest {
+
+	static private final Rectangle SCREEN=new Rectangle(0,0,1024,768);
+
+	private TempTileCache cache;
+	private TileSource tileSource=TileSourceRegistry.get("osm-mapnik");
+	private final String NOT_ON_DISK=tileSource.getCacheFileName(12,103,200);
+
+	@Before
+	public void setUp() throws IOException{
+		System.setProperty("java.awt.headless","true");
+		cache=new TempTileCache();
+	}
+
+	@After
+	public void tearDown(){
+		cache.delete();
+	}
+
+	/** Makes a map that uses the disk cache but downloads nothing
+	 * 
+	 * @param warmStart
+	 * @return the map
+	 */
+	private SlippyMap createMap(boolean warmStart){
+		SlippyMap slippyMap=new SlippyMap(null,null,SCREEN,256,50);
+		cache.use(slippyMap);
+		slippyMap.tileRetriever.setPassThroughURL("http://127.0.0.1:1/");
+		slippyMap.setWarmStart(warmStart);
+		return slippyMap;
+	}
+
+	/** Writes tiles far from the view (so they can only be in memory if they were preloaded)
+	 * and a manifest listing them and one that is not on disk
+	 * 
+	 * @return the cache file names of the tiles on disk
+	 */
+	private List<String> writeManifest() throws IOException{
+		List<String> cacheFilenames=Arrays.asList(
+				tileSource.getCacheFileName(12,100,200),tileSource.getCacheFileName(12,101,200),tileSource.getCacheFileName(12,102,200));
+		for (String cacheFilename:cacheFilenames)
+			cache.writeTile(cacheFilename);
+		new WarmStartManifest(new LonLatBounds(-10,40,20,60),Arrays.asList(cacheFilenames.get(0),NOT_ON_DISK,cacheFilenames.get(1),cacheFilenames.get(2)))
+				.write(cache.getFile(WarmStartManifest.FILENAME));
+		return cacheFilenames;
+	}
+
+	@Test
+	public void manifestIsReadBack() throws IOException{
+		File file=cache.getFile(WarmStartManifest.FILENAME);
+		new WarmStartManifest(new LonLatBounds(-10,40,20,60),Arrays.asList("a.png","../b.png","c.png")).write(file);
+		WarmStartManifest manifest=WarmStartManifest.read(file);
+		assertEquals(-10,manifest.getViewPort().getMinX(),0);
+		assertEquals(60,manifest.getViewPort().getMaxY(),0);
+		//names that aren't in the cache directory are ignored
+		assertEquals(Arrays.asList("a.png","c.png"),manifest.getCacheFilenames());
+
+		new WarmStartManifest(null,Arrays.<String>asList()).write(file);
+		manifest=WarmStartManifest.read(file);
+		assertNull(manifest.getViewPort());
+		assertTrue(manifest.getCacheFilenames().isEmpty());
+
+		assertNull(WarmStartManifest.read(cache.getFile("missing.txt")));
+	}
+
+	@Test
+	public void tilesAreLoadedBeforeTheFirstFrame() throws IOException{
+		List<String> cacheFilenames=writeManifest();
+		SlippyMap slippyMap=createMap(true);
+		try{
+			assertEquals(40,slippyMap.getWarmStartViewPort().getMinY(),0);
+			//nothing is loaded until the first frame
+			assertTrue(slippyMap.tileRetriever.getCachedTileNames().isEmpty());
+			slippyMap.draw(new ViewTransform(SCREEN,1,0,0),new RecordingGraphics(SCREEN.width,SCREEN.height));
+			List<String> cached=slippyMap.tileRetriever.getCachedTileNames();
+			assertTrue(cached.containsAll(cacheFilenames));
+			assertFalse(cached.contains(NOT_ON_DISK));
+		}
+		finally{
+			slippyMap.dispose();
+		}
+	}
+
+	@Test
+	public void tilesAreNotLoadedUnlessWanted() throws IOException{
+		List<String> cacheFilenames=writeManifest();
+		//off by default
+		SlippyMap slippyMap=new SlippyMap(null,null,SCREEN,256,50);
+		assertFalse(slippyMap.isWarmStart());
+		slippyMap.dispose();
+		slippyMap=createMap(false);
+		try{
+			assertNull(slippyMap.getWarmStartViewPort());
+			slippyMap.draw(new ViewTransform(SCREEN,1,0,0),new RecordingGraphics(SCREEN.width,SCREEN.height));
+			assertFalse(slippyMap.tileRetriever.getCachedTileNames().contains(cacheFilenames.get(0)));
+		}
+		finally{
+			slippyMap.dispose();
+		}
+		//the disk cache is turned off after the map is made
+		slippyMap=createMap(true);
+		slippyMap.setUseFileCache(false);
+		try{
+			assertNull(slippyMap.getWarmStartViewPort());
+			slippyMap.draw(new ViewTransform(SCREEN,1,0,0),new RecordingGraphics(SCREEN.width,SCREEN.height));
+			assertFalse(slippyMap.tileRetriever.getCachedTileNames().contains(cacheFilenames.get(0)));
+		}
+		finally{
+			slippyMap.dispose();
+		}
+	}
+
+	@Test
+	public void tilesInMemoryAreSavedWhenDisposed() throws Exception{
+		SlippyMap slippyMap=createMap(true);
+		assertNull(slippyMap.getWarmStartViewPort());
+		String cacheFilename=tileSource.getCacheFileName(12,100,200);
+		cache.writeTile(cacheFilename);
+		assertNotNull(slippyMap.tileRetriever.getTileImageAsync("http://127.0.0.1:1/",cacheFilename,TileKey.key(12,100,200)).get(10,TimeUnit.SECONDS));
+		slippyMap.draw(new ViewTransform(SCREEN,1,0,0),new RecordingGraphics(SCREEN.width,SCREEN.height));
+		slippyMap.dispose();
+
+		WarmStartManifest manifest=WarmStartManifest.read(cache.getFile(WarmStartManifest.FILENAME));
+		assertNotNull(manifest.getViewPort());
+		assertTrue(manifest.getCacheFilenames().contains(cacheFilename));
+
+		//not saved if warm start is off
+		cache.getFile(WarmStartManifest.FILENAME).delete();
+		slippyMap=createMap(false);
+		slippyMap.dispose();
+		assertFalse(cache.getFile(WarmStartManifest.FILENAME).exists());
+	}
+}